@@ -0,0 +1,127 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation of the container archive by the
+ * {@link IncrementalTarArchiver}, as done by the <b>generateArchive</b> goal
+ * when the assembly only has file sets: a full tar.gz compressed in the
+ * calling thread, a full tar.gz compressed in parallel and an archive whose
+ * entries did not change.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class AssemblyArchiveBenchmark {
+
+    private static final int BLOCK_SIZE = 131072;
+
+    private static final int DIRECTORY_MODE = 0755;
+
+    private static final int FILE_MODE = 0644;
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int bundles;
+
+    private Path directory;
+
+    private List<IncrementalTarArchiver.Entry> entries;
+
+    private ExecutorService executor;
+
+    private int threads;
+
+    private IncrementalTarArchiver.Result create(String pName,
+            boolean pParallel, boolean pFromScratch) throws IOException {
+        Path manifest = directory.resolve(pName + ".assembly-manifest");
+        Path archive = directory.resolve(pName + ".tar.gz");
+        if (pFromScratch) {
+            Files.deleteIfExists(manifest);
+            Files.deleteIfExists(archive);
+        }
+        IncrementalTarArchiver archiver = new IncrementalTarArchiver(manifest,
+                ArchiveFormat.TAR_GZ);
+        if (pParallel) {
+            archiver.setParallelCompression(executor, threads, BLOCK_SIZE);
+        }
+        return archiver.createArchive(entries, archive);
+    }
+
+    @Benchmark
+    public IncrementalTarArchiver.Result fullArchive() throws IOException {
+        return create("full", false, true);
+    }
+
+    @Benchmark
+    public IncrementalTarArchiver.Result fullArchiveParallel()
+            throws IOException {
+        return create("parallel", true, true);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("osgi-container-jmh");
+        List<Path> jars = SyntheticBundles
+                .create(directory.resolve("bundles"), bundles);
+        entries = new ArrayList<>(jars.size() + 1);
+        entries.add(IncrementalTarArchiver.Entry.directory("bundles",
+                directory.resolve("bundles"), DIRECTORY_MODE));
+        for (Path jar : jars) {
+            entries.add(IncrementalTarArchiver.Entry.file(
+                    "bundles/" + jar.getFileName(), jar, FILE_MODE));
+        }
+        threads = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(threads);
+        create("unchanged", false, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        SyntheticBundles.delete(directory);
+    }
+
+    @Benchmark
+    public IncrementalTarArchiver.Result unchangedArchive()
+            throws IOException {
+        return create("unchanged", false, false);
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the steps of the <b>generateConfigurationFile</b> goal: the
+ * metadata lookup done for every cached file, the calculation of the start
+ * levels from the dependency graph and the generation of the Felix and
+ * Equinox configuration files.
+ * <p>
+ * The lookups of the {@link BundleMetadataIndex} are measured instead of the
+ * ones of the <b>ArtifactTrackerManager</b>, which belongs to the mojo
+ * library and can only be created inside a running Maven session.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConfigurationGenerationBenchmark {
+
+    private static final int FIRST_LEVEL = 1;
+
+    private static final int TIERS = 4;
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int bundles;
+
+    private Map<String, Set<String>> dependencies;
+
+    private Path directory;
+
+    private byte[] equinoxTemplate;
+
+    private byte[] felixTemplate;
+
+    private List<Path> jars;
+
+    private Map<String, Integer> levels;
+
+    private BundleMetadataIndex metadataIndex;
+
+    private static byte[] readResource(String pName) throws IOException {
+        try (InputStream in = ConfigurationGenerationBenchmark.class
+                .getClassLoader().getResourceAsStream(pName)) {
+            if (in == null) {
+                throw new IOException("Resource not found: " + pName);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> dependencyGraph() throws IOException {
+        return newResolutionChecker().getDependencies();
+    }
+
+    @Benchmark
+    public byte[] equinoxConfiguration() throws IOException {
+        OrderedPropertiesFile properties = OrderedPropertiesFile.load(
+                new ByteArrayInputStream(equinoxTemplate),
+                StandardCharsets.UTF_8);
+        newContainerBundleList().applyToEquinox(properties);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        properties.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] felixConfiguration() throws IOException {
+        OrderedPropertiesFile properties = OrderedPropertiesFile.load(
+                new ByteArrayInputStream(felixTemplate),
+                StandardCharsets.UTF_8);
+        newContainerBundleList().applyToFelix(properties, FIRST_LEVEL);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        properties.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public int metadataLookups() throws IOException {
+        int found = 0;
+        for (Path jar : jars) {
+            if (metadataIndex.get(jar).isBundle()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public BundleMetadataIndex metadataIndexLoad() {
+        return BundleMetadataIndex.load(directory
+                .resolve(BundleMetadataIndex.DEFAULT_INDEX_FILE_NAME));
+    }
+
+    private ContainerBundleList newContainerBundleList() throws IOException {
+        ContainerBundleList bundleList = new ContainerBundleList(metadataIndex,
+                levels);
+        for (Path jar : jars) {
+            if (metadataIndex.get(jar).isBundle()) {
+                bundleList.add(jar, jar.getFileName().toString(), 0);
+            }
+        }
+        return bundleList;
+    }
+
+    private ResolutionChecker newResolutionChecker() throws IOException {
+        ResolutionChecker checker = new ResolutionChecker();
+        checker.addSystemPackages("org.osgi.framework;version=\"1.9\"");
+        for (Path jar : jars) {
+            checker.addBundle(jar.getFileName().toString(),
+                    metadataIndex.get(jar));
+        }
+        return checker;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("osgi-container-jmh");
+        jars = SyntheticBundles.create(directory.resolve("plugins"), bundles);
+        metadataIndex = BundleMetadataIndex.load(directory
+                .resolve(BundleMetadataIndex.DEFAULT_INDEX_FILE_NAME));
+        dependencies = newResolutionChecker().getDependencies();
+        metadataIndex.save();
+        levels = StartLevelCalculator.calculate(dependencies, FIRST_LEVEL,
+                TIERS);
+        felixTemplate = readResource("distrib/felix/config.properties");
+        equinoxTemplate = readResource("distrib/equinox/config.ini");
+    }
+
+    @Benchmark
+    public Map<String, Integer> startLevels() {
+        return StartLevelCalculator.calculate(dependencies, FIRST_LEVEL,
+                TIERS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticBundles.delete(directory);
+    }
+}
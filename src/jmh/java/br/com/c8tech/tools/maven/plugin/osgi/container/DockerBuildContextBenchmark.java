@@ -0,0 +1,100 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the preparation of the docker build context by the
+ * {@link DockerBuildContext}, from scratch and when it is already up to date,
+ * for a Dockerfile copying the whole bundles directory.
+ * <p>
+ * The tar stream sent to the docker daemon is created by the docker client
+ * library from the prepared directory, so its cost follows the size of the
+ * context measured here.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class DockerBuildContextBenchmark {
+
+    private static final String DOCKERFILE = "Dockerfile";
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int bundles;
+
+    private Path directory;
+
+    private DockerBuildContext.Result prepare(String pContextName,
+            boolean pFromScratch) throws IOException {
+        Path contextDirectory = directory.resolve(pContextName);
+        if (pFromScratch) {
+            SyntheticBundles.delete(contextDirectory);
+        }
+        return new DockerBuildContext(directory.resolve("target"),
+                contextDirectory, null).prepare(DOCKERFILE,
+                        Collections.emptyMap());
+    }
+
+    @Benchmark
+    public DockerBuildContext.Result freshContext() throws IOException {
+        return prepare("fresh-context", true);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("osgi-container-jmh");
+        Path target = directory.resolve("target");
+        SyntheticBundles.create(
+                target.resolve("docker-layers/application/bundles"), bundles);
+        Files.write(target.resolve(DOCKERFILE),
+                ("FROM openjdk:11-jre-slim\n"
+                        + "COPY docker-layers/application /opt/container\n")
+                                .getBytes(StandardCharsets.UTF_8));
+        prepare("up-to-date-context", true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticBundles.delete(directory);
+    }
+
+    @Benchmark
+    public DockerBuildContext.Result upToDateContext() throws IOException {
+        return prepare("up-to-date-context", false);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ProgressDetail;
+import com.spotify.docker.client.messages.ProgressMessage;
+
+/**
+ * Measures how many docker progress messages the
+ * {@link LoggingProgressHandler} handles per second, with a stream similar
+ * to the one sent while pushing an image: for each layer, a status message
+ * and many progress updates, followed by the build output lines.
+ * <p>
+ * The log discards the messages, so only the handler is measured.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProgressHandlerBenchmark {
+
+    private static final int MESSAGES = 10000;
+
+    private static final int UPDATES_PER_LAYER = 100;
+
+    private Log log;
+
+    private List<ProgressMessage> messages;
+
+    @Param({ "0", "2000" })
+    public long summaryIntervalMillis;
+
+    @Param({ "false", "true" })
+    public boolean verbose;
+
+    private static ProgressDetail detail(long pCurrent, long pTotal) {
+        return new ProgressDetail() {
+
+            @Override
+            public Long current() {
+                return pCurrent;
+            }
+
+            @Override
+            public Long start() {
+                return null;
+            }
+
+            @Override
+            public Long total() {
+                return pTotal;
+            }
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public String progress() throws DockerException {
+        LoggingProgressHandler handler = new LoggingProgressHandler(log,
+                verbose, summaryIntervalMillis);
+        for (ProgressMessage message : messages) {
+            handler.progress(message);
+        }
+        return handler.builtImageId();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        log = new DefaultLog(new ConsoleLogger(Logger.LEVEL_DISABLED,
+                "benchmark"));
+        messages = new ArrayList<>(MESSAGES);
+        int layer = 0;
+        while (messages.size() < MESSAGES) {
+            String id = String.format("%012x", layer++);
+            messages.add(ProgressMessage.builder().id(id)
+                    .status("Preparing").build());
+            for (int i = 1; i <= UPDATES_PER_LAYER; i++) {
+                messages.add(ProgressMessage.builder().id(id)
+                        .status("Pushing")
+                        .progress("[=>    ] " + i + "MB/100MB")
+                        .progressDetail(detail(i * 1048576L, 104857600L))
+                        .build());
+            }
+            messages.add(ProgressMessage.builder().id(id).status("Pushed")
+                    .build());
+            messages.add(ProgressMessage.builder()
+                    .stream("Step " + layer + "/20 : COPY bundles /opt\n")
+                    .build());
+        }
+        messages = messages.subList(0, MESSAGES);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Creates sets of synthetic bundles for the benchmarks.
+ * <p>
+ * The bundles form a binary tree: the bundle <b>n</b> exports the package
+ * <b>bench.pkg.n</b> and imports the one of its parent, so the dependency
+ * graph is about log2(count) levels deep. One in twenty leaves is a fragment
+ * of its parent. Each jar carries a few kilobytes of half compressible
+ * content, generated from a fixed seed so every run uses the same bytes.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+final class SyntheticBundles {
+
+    private static final int CONTENT_SIZE = 4096;
+
+    private SyntheticBundles() {
+    }
+
+    /**
+     * @param pDirectory
+     *                       the directory where the jars are created.
+     * @param pCount
+     *                       how many bundles to create.
+     * @return the created jars, in the bundle order.
+     * @throws IOException
+     *                         when a jar could not be written.
+     */
+    static List<Path> create(Path pDirectory, int pCount) throws IOException {
+        Files.createDirectories(pDirectory);
+        Random random = new Random(pCount);
+        List<Path> jars = new ArrayList<>(pCount);
+        for (int i = 0; i < pCount; i++) {
+            Manifest manifest = new Manifest();
+            Attributes main = manifest.getMainAttributes();
+            main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            main.putValue("Bundle-ManifestVersion", "2");
+            main.putValue("Bundle-SymbolicName", "bench.bundle." + i);
+            main.putValue("Bundle-Version", "1.0." + i);
+            boolean leaf = 2 * i + 1 >= pCount;
+            if (i > 0 && leaf && i % 20 == 0) {
+                main.putValue("Fragment-Host",
+                        "bench.bundle." + (i - 1) / 2);
+            } else {
+                main.putValue("Export-Package",
+                        "bench.pkg." + i + ";version=\"1.0." + i + "\"");
+                main.putValue("Import-Package",
+                        i == 0 ? "org.osgi.framework"
+                                : "org.osgi.framework,bench.pkg."
+                                        + (i - 1) / 2);
+            }
+
+            byte[] content = new byte[CONTENT_SIZE];
+            random.nextBytes(content);
+            for (int b = 0; b < content.length; b += 2) {
+                content[b] = (byte) ('a' + b % 16);
+            }
+
+            Path jar = pDirectory.resolve("bench.bundle." + i + ".jar");
+            try (OutputStream out = Files.newOutputStream(jar);
+                    JarOutputStream jarOut = new JarOutputStream(out,
+                            manifest)) {
+                jarOut.putNextEntry(
+                        new ZipEntry("bench/pkg/" + i + "/content.bin"));
+                jarOut.write(content);
+                jarOut.closeEntry();
+            }
+            jars.add(jar);
+        }
+        return jars;
+    }
+
+    /**
+     * Deletes a directory created for a benchmark.
+     *
+     * @param pDirectory
+     *                       the directory to delete.
+     * @throws IOException
+     *                         when a file could not be deleted.
+     */
+    static void delete(Path pDirectory) throws IOException {
+        if (pDirectory == null || !Files.exists(pDirectory)) {
+            return;
+        }
+        Files.walkFileTree(pDirectory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path pDir,
+                    IOException pExc) throws IOException {
+                Files.delete(pDir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path pFile,
+                    BasicFileAttributes pAttrs) throws IOException {
+                Files.delete(pFile);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
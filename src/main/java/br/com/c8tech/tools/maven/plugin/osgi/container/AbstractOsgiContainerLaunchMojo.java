@@ -0,0 +1,264 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.DockerImageLayers.Layer;
+
+/**
+ * Base class of the mojos that launch the assembled container at build time
+ * in order to generate files that are shipped in the distribution.
+ * <p>
+ * The distribution is staged in the work directory with the same layout of
+ * the assembly, using hard links to the cached files, and the container is
+ * started with the same command of the <b>run_container.sh</b> script created
+ * by the internal Dockerfiles.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public abstract class AbstractOsgiContainerLaunchMojo
+        extends AbstractOsgiContainerPackMojo {
+
+    protected static final String LAUNCHER_DIR_NAME = "launcher";
+
+    protected static final String LAUNCHER_LOG_NAME = "launcher.log";
+
+    /**
+     * The java executable used to launch the container.
+     * <p>
+     * The files generated by launching the container may depend on the Java
+     * runtime, so it should be the same one used by the container's image. The
+     * CDS archive requires the Java runtime shipped in the image, the
+     * <b>jre/bin/java</b> file of the container runtime directory.
+     */
+    @Parameter(property = "osgi.container.launcher.java",
+            defaultValue = "${java.home}/bin/java")
+    private String launcherJava;
+
+    /**
+     * Extra JVM arguments used to launch the container, like the ones passed
+     * to it in production.
+     */
+    @Parameter(property = "osgi.container.launcher.jvmArguments")
+    private List<String> launcherJvmArguments;
+
+    /**
+     * How many milliseconds the container must stay without loading classes
+     * to be considered started.
+     */
+    @Parameter(property = "osgi.container.launcher.quietPeriod",
+            defaultValue = "3000")
+    private long launcherQuietPeriod;
+
+    /**
+     * How many seconds to wait for the container to start, and then to stop.
+     */
+    @Parameter(property = "osgi.container.launcher.timeout",
+            defaultValue = "120")
+    private int launcherTimeout;
+
+    protected AbstractOsgiContainerLaunchMojo(MavenProject pProject) {
+        super(pProject);
+    }
+
+    protected static void deleteDirectory(Path pDirectory) throws IOException {
+        if (!Files.exists(pDirectory)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(pDirectory)) {
+            paths = stream.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Computes a fingerprint of a staged distribution, its files, the java
+     * runtime and the JVM arguments, so the goals can tell whether the files
+     * they generated are still valid. The framework storage is not
+     * considered.
+     *
+     * @param pDistribution
+     *                          the staged distribution.
+     * @return a hexadecimal SHA-256 digest.
+     * @throws IOException
+     *                         when a file could not be read.
+     */
+    protected final String computeFingerprint(Path pDistribution)
+            throws IOException {
+        Path storage = getFrameworkStorage(pDistribution);
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(pDistribution)) {
+            files = stream
+                    .filter(p -> Files.isRegularFile(p)
+                            && !p.startsWith(storage))
+                    .sorted().collect(Collectors.toList());
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Path file : files) {
+            builder.append(pDistribution.relativize(file)).append('\t')
+                    .append(Files.size(file)).append('\t')
+                    .append(Files.getLastModifiedTime(file).toMillis())
+                    .append('\n');
+        }
+        Path java = Paths.get(getLauncherJava()).toAbsolutePath();
+        Path modules = java.getParent().resolveSibling("lib")
+                .resolve("modules");
+        builder.append(java).append('\t')
+                .append(Files.exists(modules)
+                        ? Files.getLastModifiedTime(modules).toMillis()
+                        : 0)
+                .append('\n').append(getLauncherJvmArguments()).append('\n');
+        return FileContents.sha256(builder.toString());
+    }
+
+    /**
+     * Creates a launcher for the staged distribution. The system properties
+     * are the same passed by the <b>run_container.sh</b> script, pointing to
+     * the staged directories.
+     *
+     * @param pDistributionDirectory
+     *                                   the staged distribution.
+     * @return a launcher configured with the parameters of this mojo.
+     * @throws MojoExecutionException
+     *                                    when the local repository is not
+     *                                    valid.
+     * @throws MojoFailureException
+     *                                    when the local repository could not
+     *                                    be obtained.
+     */
+    protected final ContainerLauncher createLauncher(
+            Path pDistributionDirectory)
+            throws MojoExecutionException, MojoFailureException {
+        Path distribution = pDistributionDirectory.toAbsolutePath();
+        Path configDir = distribution.resolve(
+                getContainer().equals(Container.EQUINOX) ? "configuration"
+                        : "conf");
+        List<String> command = new ArrayList<>();
+        command.add(launcherJava);
+        if (launcherJvmArguments != null) {
+            command.addAll(launcherJvmArguments);
+        }
+        if (getConfiguratorInitialFile() != null) {
+            command.add("-Dconfigurator.initial=" + configDir
+                    .resolve(getConfiguratorInitialFile().getName()));
+        }
+        String localRepositoryFileName = resolveLocalRepositoryFileName();
+        if (localRepositoryFileName != null) {
+            command.add("-Dobr.repository.url=" + distribution
+                    .resolve("repository").resolve(localRepositoryFileName)
+                    .toUri());
+        }
+        command.add("-Dlogback.configurationFile="
+                + configDir.resolve("logback.xml"));
+        command.add("-jar");
+        command.add(getLauncherJar());
+        return new ContainerLauncher(distribution, command)
+                .setOutputFile(getContainerWorkDirectory()
+                        .resolve(LAUNCHER_LOG_NAME))
+                .setQuietPeriod(launcherQuietPeriod)
+                .setTimeout(TimeUnit.SECONDS.toMillis(launcherTimeout));
+    }
+
+    /**
+     * @param pDistributionDirectory
+     *                                   a staged distribution.
+     * @return the directory where the framework keeps its installed bundles
+     *         and resolution state.
+     */
+    protected final Path getFrameworkStorage(Path pDistributionDirectory) {
+        return pDistributionDirectory.resolve(getFrameworkStoragePath());
+    }
+
+    /**
+     * @return the jar started by the <b>run_container.sh</b> script, relative
+     *         to the distribution root.
+     */
+    protected final String getLauncherJar() {
+        return getContainer().equals(Container.EQUINOX) ? "equinox.jar"
+                : "./bin/felix.jar";
+    }
+
+    protected final List<String> getLauncherJvmArguments() {
+        return launcherJvmArguments;
+    }
+
+    protected final String getLauncherJava() {
+        return launcherJava;
+    }
+
+    /**
+     * Stages the distribution in the work directory, replacing a previously
+     * staged one. The files generated by launching the container are left out.
+     *
+     * @return the staged distribution directory.
+     * @throws MojoExecutionException
+     *                                    when the distribution could not be
+     *                                    staged.
+     */
+    protected final Path stageDistribution() throws MojoExecutionException {
+        Path distribution = getContainerWorkDirectory()
+                .resolve(LAUNCHER_DIR_NAME);
+        Path runtimeDir = getContainerRuntimeDirectory();
+        DockerImageLayers layers = collectImageLayers(
+                getContainerWorkDirectory().resolve("launcher-layers"));
+        try {
+            deleteDirectory(distribution);
+            for (Layer layer : Layer.values()) {
+                for (Map.Entry<String, Path> entry : layers.getFiles(layer)
+                        .entrySet()) {
+                    if (entry.getValue().startsWith(runtimeDir)) {
+                        continue;
+                    }
+                    Path target = distribution.resolve(entry.getKey());
+                    Files.createDirectories(target.getParent());
+                    try {
+                        Files.createLink(target, entry.getValue());
+                    } catch (UnsupportedOperationException
+                            | FileSystemException e) {
+                        Files.copy(entry.getValue(), target,
+                                StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+            }
+            Files.createDirectories(distribution.resolve("logs"));
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while staging the distribution at "
+                            + distribution,
+                    e);
+        }
+        return distribution;
+    }
+}
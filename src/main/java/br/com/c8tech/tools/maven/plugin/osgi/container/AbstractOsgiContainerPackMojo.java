@@ -21,20 +21,34 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.manager.ArtifactHandlerManager;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.eclipse.aether.SessionData;
+import org.eclipse.aether.artifact.DefaultArtifact;
 
 import br.com.c8tech.tools.maven.osgi.lib.mojo.AbstractCustomPackagingMojo;
 import br.com.c8tech.tools.maven.osgi.lib.mojo.CommonMojoConstants;
@@ -42,6 +56,7 @@ import br.com.c8tech.tools.maven.osgi.lib.mojo.beans.BundleRef;
 import br.com.c8tech.tools.maven.osgi.lib.mojo.beans.MavenArtifactSet;
 import br.com.c8tech.tools.maven.osgi.lib.mojo.beans.MavenArtifactSets;
 import br.com.c8tech.tools.maven.osgi.lib.mojo.filters.ValidTypeArtifactFilter;
+import br.com.c8tech.tools.maven.plugin.osgi.container.DockerImageLayers.Layer;
 import io.takari.incrementalbuild.Incremental;
 import io.takari.incrementalbuild.Incremental.Configuration;
 
@@ -53,6 +68,8 @@ import io.takari.incrementalbuild.Incremental.Configuration;
 public abstract class AbstractOsgiContainerPackMojo
         extends AbstractCustomPackagingMojo {
 
+    private static final String CONTAINER_POM_CACHE_DIR_NAME = "container-pom";
+
     private static final String[] DEFAULT_SUPPORTED_PACKAGING = {
             "osgi.container" };
 
@@ -74,6 +91,25 @@ public abstract class AbstractOsgiContainerPackMojo
 
     protected static final String PROPERTY_WORK_DIR = "osgi.container.workDirectory";
 
+    protected static final String RUNTIME_DIR_NAME = "runtime";
+
+    /**
+     * The format of the distribution archive. Valid values are <b>tar.gz</b>
+     * (default), <b>tar</b> and <b>tar.zst</b>.
+     * <p>
+     * Bundles are already compressed jars, so a plain tar or a Zstandard
+     * compressed one are much faster to pack and unpack than a gzipped one, at
+     * the cost of a slightly bigger archive. The docker image build uses the
+     * archive of the chosen format. Extracting a tar.zst archive with the
+     * Dockerfile's ADD instruction requires Docker 20.10 or newer.
+     */
+    @Parameter(property = "osgi.container.assembly.format",
+            defaultValue = "tar.gz")
+    private String assemblyFormat;
+
+    @Inject
+    private ArtifactHandlerManager artifactHandlerManager;
+
     /**
      * A path pointing to a custom configuration file that will be used by the
      * OSGi container.
@@ -169,6 +205,27 @@ public abstract class AbstractOsgiContainerPackMojo
     @Parameter(required = false)
     private String localRepositoryGAV;
 
+    /**
+     * The lock file recording the GAV, the SHA-256 digest and the cache path
+     * of each cached artifact.
+     * <p>
+     * When it exists and was generated from the same configuration and
+     * project dependencies, the container POM is not loaded and no dependency
+     * is collected: each locked artifact already in the cache is only
+     * verified, and the missing ones are copied from the local repository,
+     * or downloaded when not there, and checked against their digests. So
+     * once the local repository is populated the cache can be filled offline
+     * and always with the same files. The configuration file is then also
+     * generated from the locked artifacts instead of the container POM.
+     * <p>
+     * It is created or updated by the <b>cacheMavenArtifacts</b> goal when
+     * its <b>lockFileUpdate</b> parameter is set.
+     */
+    @Parameter(property = "osgi.container.lockFile",
+            defaultValue = "${project.basedir}/"
+                    + ArtifactLockFile.DEFAULT_FILE_NAME)
+    private File lockFile;
+
     /**
      * Points to a custom LogBack configuration file.
      * 
@@ -202,6 +259,35 @@ public abstract class AbstractOsgiContainerPackMojo
     @Parameter(required = false)
     private MavenArtifactSets mavenArtifactSets;
 
+    private BuildMetrics metrics = new BuildMetrics("", "");
+
+    /**
+     * Whether the wall time, the bytes read and written and the counters of
+     * each goal execution are recorded in the <b>build-metrics.json</b> file
+     * of the work directory.
+     * <p>
+     * The bytes read and written are those of the whole Maven process while
+     * the goal ran, taken from <b>/proc/self/io</b> on Linux only. They also
+     * count the work of any other module built at the same time, so they are
+     * only meaningful in a build that is not parallel.
+     */
+    @Parameter(property = "osgi.container.metrics.enabled",
+            defaultValue = "false")
+    private boolean metricsEnabled;
+
+    /**
+     * Whether the recorded metrics are also written in the Prometheus text
+     * format to the <b>build-metrics.prom</b> file of the work directory, to
+     * be collected by a node exporter textfile collector or pushed to a
+     * gateway by the CI server.
+     */
+    @Parameter(property = "osgi.container.metrics.prometheus",
+            defaultValue = "false")
+    private boolean metricsPrometheus;
+
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    private MojoExecution mojoExecution;
+
     /**
      * Whether the plugin should consider maven optional dependencies in order
      * to generate the repositories.
@@ -212,6 +298,17 @@ public abstract class AbstractOsgiContainerPackMojo
     @Inject
     private ProjectBuilder projectBuilder;
 
+    /**
+     * The symbolic names of the bundles owned by the project, which are put in
+     * their own layer of the layered and OCI images. A name ending with
+     * <b>*</b> matches any symbolic name starting with it.
+     * <p>
+     * When not informed, the bundles whose symbolic name starts with the
+     * project's groupId are considered owned by the project.
+     */
+    @Parameter(property = "osgi.container.image.projectBundles")
+    private List<String> projectBundles;
+
     /**
      * A list of scopes to be considered by the plugin when collecting maven
      * dependencies to be used in order to generate the OSGi repositories.
@@ -298,6 +395,25 @@ public abstract class AbstractOsgiContainerPackMojo
         return CommonMojoConstants.MSG_CHOICE_ARTIFACT;
     }
 
+    /**
+     * @param pDirectory
+     *                       a cache directory, like the <b>plugins</b> one.
+     * @return the jar files directly inside the directory, sorted by name, or
+     *         an empty list when it does not exist.
+     * @throws IOException
+     *                         when the directory could not be listed.
+     */
+    protected static List<Path> listJars(Path pDirectory) throws IOException {
+        if (!Files.isDirectory(pDirectory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> stream = Files.list(pDirectory)) {
+            return stream
+                    .filter(p -> p.getFileName().toString().endsWith(".jar"))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
     public static Properties loadProperties(URL pPropertiesFileURL,
             String pEncoding) throws MojoFailureException {
         Properties properties = new Properties();
@@ -321,6 +437,45 @@ public abstract class AbstractOsgiContainerPackMojo
         this.scopes.add(scope);
     }
 
+    /**
+     * Calculates the digest of everything that determines the cached
+     * artifacts: the container POM, the artifact sets, the filtering options
+     * and the project dependencies.
+     *
+     * @return the digest recorded in the lock file.
+     */
+    protected final String calculateLockInputs() {
+        StringBuilder inputs = new StringBuilder();
+        inputs.append("container=").append(getContainer()).append('\n');
+        inputs.append("containerPom=")
+                .append(getContainerPomDependenciesGAV()).append('\n');
+        inputs.append("scopes=").append(new TreeSet<>(getScopes()))
+                .append('\n');
+        inputs.append("excluded=")
+                .append(new TreeSet<>(getExcludedArtifacts())).append('\n');
+        inputs.append("optional=").append(isOptionalConsidered())
+                .append('\n');
+        inputs.append("transitive=").append(isTransitiveConsidered())
+                .append('\n');
+        for (Dependency dependency : getProject().getDependencies()) {
+            inputs.append("dependency=")
+                    .append(dependency.getManagementKey()).append(':')
+                    .append(dependency.getVersion()).append(':')
+                    .append(dependency.getScope()).append(':')
+                    .append(dependency.isOptional()).append('\n');
+        }
+        if (getMojoExecution() != null
+                && getMojoExecution().getConfiguration() != null) {
+            Xpp3Dom artifactSets = getMojoExecution().getConfiguration()
+                    .getChild("mavenArtifactSets");
+            if (artifactSets != null) {
+                inputs.append("artifactSets=").append(artifactSets)
+                        .append('\n');
+            }
+        }
+        return FileContents.sha256(inputs.toString());
+    }
+
     protected final Path calculateContainerConfigurationFileOutputPath() {
         if (Container.EQUINOX == getContainer()) {
             return getContainerWorkDirectory().resolve("config")
@@ -331,6 +486,61 @@ public abstract class AbstractOsgiContainerPackMojo
         }
     }
 
+    /**
+     * Collects the files of the distribution into the image layers, using the
+     * same layout of the internal assembly descriptors.
+     *
+     * @param pLayersDirectory
+     *                             the directory where the layers may be
+     *                             staged.
+     * @return the collected layers.
+     * @throws MojoExecutionException
+     *                                    when the cached files could not be
+     *                                    read.
+     */
+    protected final DockerImageLayers collectImageLayers(
+            Path pLayersDirectory) throws MojoExecutionException {
+        Path cacheDir = getContainerCacheDirectory();
+        Path workDir = getContainerWorkDirectory();
+        boolean equinox = getContainer().equals(Container.EQUINOX);
+        BundleMetadataIndex metadataIndex = BundleMetadataIndex.load(workDir
+                .resolve(BundleMetadataIndex.DEFAULT_INDEX_FILE_NAME));
+        DockerImageLayers layers = new DockerImageLayers(pLayersDirectory);
+        try {
+            layers.addDirectory(Layer.RUNTIME, equinox ? "." : "bin",
+                    cacheDir.resolve("bin").resolve("plugins"));
+            layers.addDirectory("bundles", cacheDir.resolve("plugins"),
+                    file -> isProjectBundle(metadataIndex, file)
+                            ? Layer.APPLICATION
+                            : Layer.DEPENDENCIES);
+            // a pre-warmed framework storage changes with any bundle
+            Path storage = getContainerRuntimeDirectory()
+                    .resolve(getFrameworkStoragePath());
+            layers.addDirectory(".", getContainerRuntimeDirectory(),
+                    file -> file.startsWith(storage) ? Layer.CONFIGURATION
+                            : Layer.RUNTIME);
+            layers.addDirectory(Layer.REPOSITORY, "repository",
+                    cacheDir.resolve("repository"));
+            layers.addDirectory(Layer.CONFIGURATION,
+                    equinox ? "configuration" : "conf",
+                    workDir.resolve("config"));
+            Path gitkeep = workDir.resolve("gitkeep.txt");
+            if (Files.isRegularFile(gitkeep)) {
+                for (String dir : equinox
+                        ? new String[] { "area/user", "area/instance",
+                                "repository", "logs" }
+                        : new String[] { "repository", "logs" }) {
+                    layers.addFile(Layer.RUNTIME, dir + "/.gitkeep", gitkeep);
+                }
+            }
+            metadataIndex.save();
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while collecting the image layers.", e);
+        }
+        return layers;
+    }
+
     @Override
     protected void createDefaultDirectories() throws MojoExecutionException {
         try {
@@ -363,6 +573,27 @@ public abstract class AbstractOsgiContainerPackMojo
     protected void doBeforeSkipMojo() throws MojoExecutionException {
     }
 
+    /**
+     * Executes the goal recording its metrics, which are written to the work
+     * directory even when it fails.
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!metricsEnabled || mojoExecution == null || isSkip()) {
+            super.execute();
+            return;
+        }
+        metrics = new BuildMetrics(mojoExecution.getGoal(),
+                mojoExecution.getExecutionId());
+        boolean success = false;
+        try {
+            super.execute();
+            success = true;
+        } finally {
+            writeMetrics(success);
+        }
+    }
+
     @Override
     protected void executeExtraInitializationSteps()
             throws MojoExecutionException, MojoFailureException {
@@ -520,6 +751,22 @@ public abstract class AbstractOsgiContainerPackMojo
         return this.baseContainerConfigurationFileUrl;
     }
 
+    /**
+     * @return the format of the distribution archive.
+     * @throws MojoExecutionException
+     *                                    when the configured format is not
+     *                                    supported.
+     */
+    public ArchiveFormat getAssemblyFormat() throws MojoExecutionException {
+        try {
+            return ArchiveFormat.fromExtension(
+                    assemblyFormat == null ? ArchiveFormat.TAR_GZ.getExtension()
+                            : assemblyFormat);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
     public ArtifactFilter getBundleValidArtifactFilter() {
 
         if (validTypeArtifactFilter == null) {
@@ -567,6 +814,37 @@ public abstract class AbstractOsgiContainerPackMojo
         return this.containerPomDependenciesGAV;
     }
 
+    /**
+     * Returns the store of the resolved container POM artifacts shared by all
+     * the goals and modules of the current Maven session, creating it on the
+     * first call.
+     *
+     * @return the session store of the container POM artifacts.
+     */
+    private ContainerPomArtifactsCache.SessionStore getContainerPomSessionStore() {
+        SessionData data = getMavenSession().getRepositorySession().getData();
+        String key = ContainerPomArtifactsCache.SessionStore.class.getName();
+        while (true) {
+            Object store = data.get(key);
+            if (store instanceof ContainerPomArtifactsCache.SessionStore) {
+                return (ContainerPomArtifactsCache.SessionStore) store;
+            }
+            ContainerPomArtifactsCache.SessionStore created = new ContainerPomArtifactsCache.SessionStore();
+            if (data.set(key, store, created)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * @return the directory of the files generated at build time to be
+     *         placed at the root of the distribution, like the Java runtime,
+     *         the CDS archive and the pre-warmed framework storage.
+     */
+    protected final Path getContainerRuntimeDirectory() {
+        return getContainerWorkDirectory().resolve(RUNTIME_DIR_NAME);
+    }
+
     protected final Path getContainerWorkDirectory() {
         if (getContainer().equals(Container.EQUINOX)) {
             return getWorkDirectory().resolve("equinox");
@@ -588,10 +866,27 @@ public abstract class AbstractOsgiContainerPackMojo
         return excludedArtifacts;
     }
 
+    /**
+     * @return the directory, relative to the distribution root, where the
+     *         framework keeps its installed bundles and resolution state.
+     */
+    protected final String getFrameworkStoragePath() {
+        return getContainer().equals(Container.EQUINOX)
+                ? "configuration/org.eclipse.osgi"
+                : "felix-cache";
+    }
+
     public String getLocalRepositoryGAV() {
         return localRepositoryGAV;
     }
 
+    /**
+     * @return the lock file of the container cache.
+     */
+    protected final File getLockFile() {
+        return lockFile;
+    }
+
     public File getLogbackConfigurationFile() {
         return this.logbackConfigurationFile;
     }
@@ -603,6 +898,22 @@ public abstract class AbstractOsgiContainerPackMojo
         return mavenArtifactSets;
     }
 
+    /**
+     * @return the metrics of the running goal execution, where the goals
+     *         record their own counters.
+     */
+    protected final BuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the running goal execution, or null when the mojo was not
+     *         created by Maven.
+     */
+    protected final MojoExecution getMojoExecution() {
+        return mojoExecution;
+    }
+
     public ProjectBuilder getProjectBuilder() {
         return projectBuilder;
     }
@@ -614,6 +925,37 @@ public abstract class AbstractOsgiContainerPackMojo
         return scopes;
     }
 
+    private boolean isProjectBundle(BundleMetadataIndex pMetadataIndex,
+            Path pFile) {
+        String symbolicName;
+        try {
+            BundleMetadata metadata = pMetadataIndex.get(pFile);
+            if (!metadata.isBundle()) {
+                return false;
+            }
+            symbolicName = metadata.getSymbolicName();
+        } catch (IOException e) {
+            getLog().warn("Could not read the manifest of " + pFile
+                    + ". It will be considered a third-party bundle.");
+            return false;
+        }
+        List<String> patterns = projectBundles == null
+                || projectBundles.isEmpty()
+                        ? Collections.singletonList(
+                                getProject().getGroupId() + "*")
+                        : projectBundles;
+        for (String pattern : patterns) {
+            String trimmed = pattern.trim();
+            if (trimmed.endsWith("*")
+                    ? symbolicName.startsWith(
+                            trimmed.substring(0, trimmed.length() - 1))
+                    : symbolicName.equals(trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected final boolean isOptionalConsidered() {
         return optionalConsidered;
     }
@@ -657,6 +999,181 @@ public abstract class AbstractOsgiContainerPackMojo
         return transitiveConsidered;
     }
 
+    /**
+     * Resolves the artifact informed by {@link #localRepositoryGAV}.
+     *
+     * @return the file name of the local OSGi repository or null when none
+     *         was informed.
+     * @throws MojoExecutionException
+     *                                    when the GAV is not valid or the
+     *                                    artifact was not resolved.
+     * @throws MojoFailureException
+     *                                    when the artifact could not be
+     *                                    obtained.
+     */
+    protected final String resolveLocalRepositoryFileName()
+            throws MojoExecutionException, MojoFailureException {
+        if (getLocalRepositoryGAV() == null
+                || getLocalRepositoryGAV().isEmpty()) {
+            return null;
+        }
+
+        BundleRef br = new BundleRef(getLocalRepositoryGAV());
+        br.setType("osgi.repository");
+        if (!br.isValid()) {
+            throw new MojoExecutionException(
+                    "LocalRepositoryGAV is not valid: " + getLocalRepositoryGAV());
+        }
+
+        try {
+            Artifact art = getDependenciesHelper().resolveArtifact(br,
+                    getRepositorySystem(), getRemoteRepositories(),
+                    getLocalRepository());
+            if (art == null) {
+                throw new MojoExecutionException(
+                        "LocalRepositoryGAV was not resolved: "
+                                + getLocalRepositoryGAV());
+            }
+            return art.getFile().getName();
+        } catch (IOException e) {
+            throw new MojoFailureException(
+                    "Failure getting repository artifact.", e);
+        }
+    }
+
+    /**
+     * Creates the artifacts of the container POM from the lock file, so they
+     * are known without loading the POM. The locked project dependencies are
+     * left out, as they are already artifacts of the project.
+     *
+     * @param pLock
+     *                  the lock file content.
+     * @return the locked artifacts, pointing to their cached files.
+     * @throws MojoExecutionException
+     *                                    when an entry has invalid
+     *                                    coordinates.
+     */
+    protected final Set<Artifact> lockedContainerArtifacts(
+            ArtifactLockFile pLock) throws MojoExecutionException {
+        Set<String> projectArtifacts = new HashSet<>();
+        for (Artifact artifact : getProject().getArtifacts()) {
+            projectArtifacts.add(artifact.getDependencyConflictId());
+        }
+        // the locked artifacts already passed the scope filter when cached.
+        String scope = getScopes().contains(Artifact.SCOPE_COMPILE)
+                ? Artifact.SCOPE_COMPILE
+                : getScopes().iterator().next();
+        Path cacheDir = getContainerCacheDirectory();
+        Set<Artifact> artifacts = new LinkedHashSet<>();
+        for (ArtifactLockFile.Entry entry : pLock.getEntries()) {
+            String extension = entry.getCoordinates().split(":")[2];
+            Artifact artifact;
+            try {
+                artifact = entry.toArtifact(scope,
+                        artifactHandlerManager.getArtifactHandler(extension),
+                        cacheDir.resolve(entry.getPath()).toFile());
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException("Invalid entry "
+                        + entry.getPath() + " of the lock file " + lockFile,
+                        e);
+            }
+            if (!projectArtifacts.contains(artifact.getDependencyConflictId())) {
+                artifacts.add(artifact);
+            }
+        }
+        return artifacts;
+    }
+
+    /**
+     * @return the content of the lock file, or null when it does not exist.
+     * @throws MojoExecutionException
+     *                                    when the lock file is not valid.
+     */
+    protected final ArtifactLockFile readLockFile()
+            throws MojoExecutionException {
+        if (lockFile == null || !lockFile.isFile()) {
+            return null;
+        }
+        try {
+            return ArtifactLockFile.read(lockFile.toPath());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new MojoExecutionException(
+                    "Failure while reading the lock file " + lockFile, e);
+        }
+    }
+
+    /**
+     * Returns the artifacts of the container POM, resolved by Maven while
+     * loading the POM only when they were not resolved yet by another goal or
+     * module of the build, or by a previous build when the POM is not a
+     * snapshot.
+     *
+     * @return the artifacts of the container POM.
+     * @throws MojoExecutionException
+     *                                    when the artifacts could not be
+     *                                    resolved.
+     * @throws MojoFailureException
+     *                                    when the container POM could not be
+     *                                    loaded.
+     */
+    protected final Set<Artifact> resolveContainerPomArtifacts()
+            throws MojoExecutionException, MojoFailureException {
+        return resolveContainerPomArtifacts(null, () -> {
+            try {
+                return loadProject(
+                        new DefaultArtifact(getContainerPomDependenciesGAV()),
+                        true).getArtifacts();
+            } catch (ProjectBuildingException e) {
+                throw new MojoFailureException(
+                        "Failure while obtaining container's POM", e);
+            }
+        });
+    }
+
+    /**
+     * Returns the artifacts of the container POM, resolved by the informed
+     * resolver only when they were not resolved yet by another goal or module
+     * of the build, or by a previous build when the POM is not a snapshot.
+     *
+     * @param pResolution
+     *                        identifies how the resolver resolves the
+     *                        artifacts, so the results of different
+     *                        resolutions are never mixed. Null for the one of
+     *                        {@link #resolveContainerPomArtifacts()}.
+     * @param pResolver
+     *                        resolves the artifacts of the container POM.
+     * @return the artifacts of the container POM.
+     * @throws MojoExecutionException
+     *                                    when thrown by the resolver.
+     * @throws MojoFailureException
+     *                                    when thrown by the resolver.
+     */
+    protected final Set<Artifact> resolveContainerPomArtifacts(
+            String pResolution, ContainerPomArtifactsCache.Resolver pResolver)
+            throws MojoExecutionException, MojoFailureException {
+        String gav = getContainerPomDependenciesGAV();
+        String key = FileContents.sha256(gav + '\n'
+                + new TreeSet<>(getScopes()) + '\n' + isTransitiveConsidered()
+                + '\n' + isOptionalConsidered() + '\n'
+                + new TreeSet<>(getExcludedArtifacts())
+                + (pResolution == null ? "" : '\n' + pResolution));
+        ContainerPomArtifactsCache cache = new ContainerPomArtifactsCache(
+                getContainerPomSessionStore(),
+                getWorkDirectory().resolve(CONTAINER_POM_CACHE_DIR_NAME),
+                artifactHandlerManager::getArtifactHandler);
+        Set<Artifact> artifacts = cache.get(key,
+                !new DefaultArtifact(gav).isSnapshot(), pResolver);
+        if (cache.getLastSource() != null) {
+            getMetrics().add("containerPomCacheHits", 1);
+            getLog().info("Reusing the " + artifacts.size()
+                    + " artifacts of the container POM " + gav
+                    + " resolved before (" + cache.getLastSource() + ").");
+        } else {
+            getMetrics().add("containerPomCacheMisses", 1);
+        }
+        return artifacts;
+    }
+
     protected void setBaseContainerConfigurationFileUrl(
             String pBaseContainerConfigurationFileUrl) {
         this.baseContainerConfigurationFileUrl = pBaseContainerConfigurationFileUrl;
@@ -693,4 +1210,23 @@ public abstract class AbstractOsgiContainerPackMojo
         this.skipConfigurationGen = pSkipConfigurationGen;
     }
 
+    private void writeMetrics(boolean pSuccess) {
+        Map<String, Object> finished = metrics.finish(pSuccess);
+        try {
+            metrics.writeTo(
+                    getProject().getGroupId() + ":"
+                            + getProject().getArtifactId(),
+                    getWorkDirectory().resolve(BuildMetrics.JSON_FILE_NAME),
+                    metricsPrometheus
+                            ? getWorkDirectory()
+                                    .resolve(BuildMetrics.PROMETHEUS_FILE_NAME)
+                            : null);
+        } catch (IOException e) {
+            getLog().warn("Failure writing the build metrics: "
+                    + e.getMessage());
+        }
+        if (isVerbose()) {
+            getLog().info("Build metrics: " + finished);
+        }
+    }
 }
@@ -17,8 +17,11 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -34,6 +37,7 @@ import org.apache.maven.project.MavenProject;
 import org.apache.maven.settings.crypto.SettingsDecrypter;
 import org.codehaus.plexus.archiver.Archiver;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.eclipse.aether.SessionData;
 
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.common.base.Preconditions;
@@ -50,7 +54,8 @@ import com.spotify.docker.client.exceptions.DockerCertificateException;
 public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMojo {
 
     protected enum Metadata {
-        IMAGE_ID("image ID", "image-id"), IMAGE_NAME("image name",
+        IMAGE_DIGEST("image digest", "image-digest"), IMAGE_ID("image ID",
+                "image-id"), IMAGE_NAME("image name",
                 "image-name"), REPOSITORY("repository",
                         "repository"), TAG("tag", "tag");
 
@@ -78,6 +83,15 @@ public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMo
     @Parameter
     private MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
 
+    /**
+     * How long, in seconds, the registry credentials are kept and shared by
+     * the Docker goals of the build before being asked again to the Maven
+     * settings, the docker configuration file or Google. Zero disables the
+     * cache.
+     */
+    @Parameter(defaultValue = "300", property = "dockerfile.auth.cacheTtlSeconds")
+    private long authCacheTtlSeconds;
+
     /**
      * Directory containing the generated Docker info JAR.
      */
@@ -153,12 +167,51 @@ public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMo
             property = "dockerfile.readTimeoutMillis", required = true)
     protected long readTimeoutMillis;
 
+    /**
+     * How often, in milliseconds, the overall progress of the layers pushed
+     * or pulled by the Docker daemon is logged in verbose mode. Zero logs
+     * every progress message sent by the daemon instead, which can be tens
+     * of thousands of lines for a big image.
+     */
+    @Parameter(defaultValue = "2000",
+            property = "dockerfile.progress.intervalMillis")
+    protected long progressIntervalMillis;
+
+    /**
+     * The deadline of each attempt of a Docker operation, in milliseconds.
+     * An attempt taking longer is interrupted and retried, if retries are
+     * left. Zero means no deadline.
+     */
+    @Parameter(defaultValue = "0",
+            property = "dockerfile.retry.attemptTimeoutMillis")
+    protected long retryAttemptTimeoutMillis;
+
+    /**
+     * The longest wait before the first retry of a Docker operation, in
+     * milliseconds. The wait doubles after each failure and half of it is
+     * random, so concurrent builds do not retry at the same time.
+     */
+    @Parameter(defaultValue = "1000",
+            property = "dockerfile.retry.initialDelayMillis")
+    protected long retryInitialDelayMillis;
+
+    /**
+     * The longest wait before any retry of a Docker operation, in
+     * milliseconds.
+     */
+    @Parameter(defaultValue = "30000",
+            property = "dockerfile.retry.maxDelayMillis")
+    protected long retryMaxDelayMillis;
+
     /**
      * Certain Docker operations can fail due to mysterious Docker daemon
-     * conditions. Sometimes it might be worth it to just retry operations until
-     * they succeed. This parameter controls how many times operations should be
-     * retried before they fail. By default, an extra attempt (so up to two
-     * attempts) is made before failing.
+     * conditions or a throttling registry. Sometimes it might be worth it to
+     * just retry operations until they succeed. This parameter controls how
+     * many times operations should be retried before they fail. By default,
+     * an extra attempt (so up to two attempts) is made before failing.
+     * <p>
+     * Only transient failures are retried, like responses with status 429 or
+     * 5xx and connections that timed out or were reset.
      */
     @Parameter(defaultValue = "1", property = "dockerfile.retryCount")
     protected int retryCount;
@@ -254,8 +307,47 @@ public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMo
         return jarFile;
     }
 
+    /**
+     * @return the values of the parameters determining the registry
+     *         credentials.
+     */
+    private List<Object> authConfiguration() {
+        return Arrays.asList(authCacheTtlSeconds, useMavenSettingsForAuth,
+                dockerConfigFile, googleContainerRegistryEnabled, username,
+                password);
+    }
+
+    /**
+     * Returns the supplier of registry credentials, shared by the Docker
+     * goals of the Maven session that have the same authentication
+     * configuration, so the credentials are only looked up again after
+     * <b>authCacheTtlSeconds</b>.
+     */
     @Nonnull
-    private RegistryAuthSupplier createRegistryAuthSupplier() {
+    protected RegistryAuthSupplier createRegistryAuthSupplier()
+            throws MojoExecutionException {
+        if (authCacheTtlSeconds <= 0) {
+            return createRegistryAuthSupplierChain();
+        }
+        SessionData data = getMavenSession().getRepositorySession().getData();
+        String key = RegistryAuthSupplier.class.getName() + ":"
+                + FileContents.sha256(authConfiguration().toString());
+        while (true) {
+            Object supplier = data.get(key);
+            if (supplier instanceof CachingRegistryAuthSupplier) {
+                return (CachingRegistryAuthSupplier) supplier;
+            }
+            CachingRegistryAuthSupplier created = new CachingRegistryAuthSupplier(
+                    createRegistryAuthSupplierChain(),
+                    TimeUnit.SECONDS.toMillis(authCacheTtlSeconds));
+            if (data.set(key, supplier, created)) {
+                return created;
+            }
+        }
+    }
+
+    @Nonnull
+    private RegistryAuthSupplier createRegistryAuthSupplierChain() {
         final List<RegistryAuthSupplier> suppliers = new ArrayList<>();
 
         if (useMavenSettingsForAuth) {
@@ -293,6 +385,16 @@ public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMo
         return new MultiRegistryAuthSupplier(suppliers);
     }
 
+    /**
+     * Creates the handler logging the progress messages of the Docker daemon,
+     * according to the verbosity and progress interval of the goal.
+     */
+    @Nonnull
+    protected LoggingProgressHandler createProgressHandler(@Nonnull Log log) {
+        return LoggingProgressHandler.forLog(log, isVerbose(),
+                progressIntervalMillis);
+    }
+
     @Nonnull
     protected File ensureDockerInfoDirectory() throws MojoExecutionException {
         if (!dockerInfoDirectory.exists() && !dockerInfoDirectory.mkdirs()) {
@@ -309,6 +411,17 @@ public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMo
         return new File(ensureDockerInfoDirectory(), metadata.getFileName());
     }
 
+    /**
+     * Tells whether an attempt that missed its deadline can be retried. An
+     * operation that changes the state of a registry or of the daemon, like
+     * a push, may still have been applied, so it must return false.
+     *
+     * @return true by default.
+     */
+    protected boolean isRetriedAfterTimeout() {
+        return true;
+    }
+
     protected abstract void execute(DockerClient dockerClient)
             throws MojoExecutionException, MojoFailureException;
 
@@ -386,6 +499,11 @@ public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMo
                 .build();
     }
 
+    /**
+     * Opens a Docker client for an attempt of this goal execution. Each
+     * attempt has its own client, closed when it ends, so an attempt that
+     * missed its deadline can be stopped by closing its connections.
+     */
     @Nonnull
     private DockerClient openDockerClient() throws MojoExecutionException {
         final RegistryAuthSupplier authSupplier = createRegistryAuthSupplier();
@@ -426,30 +544,54 @@ public abstract class AbstractOsgiDockerMojo extends AbstractOsgiContainerPackMo
         Preconditions.checkArgument(attempts > 0,
                 "attempts must not be negative");
 
-        MojoExecutionException exception = null;
-
-        for (int attempt = 0; attempt < attempts; attempt++) {
-            try {
-                execute(openDockerClient());
-                return; // Not "break;" since we don't want to "throw
-                        // exception;"
-            } catch (MojoExecutionException e) {
-                // Don't catch MojoFailureException, since that exception means
-                // "permanent failure"
-                exception = e;
-
-                final int attemptsLeft = attempts - attempt - 1;
-                if (attemptsLeft > 0) {
-                    final String warningMessage = MessageFormat.format(
-                            "An attempt failed, will retry {0} more times",
-                            attemptsLeft);
-                    getLog().warn(warningMessage, e);
+        final AtomicReference<DockerClient> attemptClient =
+                new AtomicReference<>();
+        final RetryPolicy retryPolicy = new RetryPolicy(attempts - 1,
+                retryInitialDelayMillis, retryMaxDelayMillis)
+                        .setAttemptTimeoutMillis(retryAttemptTimeoutMillis)
+                        .setTimeoutHandler(() -> {
+                            DockerClient client = attemptClient.get();
+                            if (client != null) {
+                                client.close();
+                            }
+                        });
+        if (!isRetriedAfterTimeout()) {
+            retryPolicy.setRetryable(
+                    e -> !(e instanceof RetryPolicy.AttemptTimeoutException)
+                            && RetryPolicy.isRetryable(e));
+        }
+        try {
+            retryPolicy.execute(() -> {
+                try (DockerClient dockerClient = openDockerClient()) {
+                    attemptClient.set(dockerClient);
+                    execute(dockerClient);
+                } finally {
+                    attemptClient.set(null);
                 }
+            },
+                    (retry, delay, e) -> getLog().warn(MessageFormat.format(
+                            "An attempt failed, will retry in {0} ms ({1} of {2})",
+                            delay, retry, attempts - 1), e));
+        } catch (MojoExecutionException | MojoFailureException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while retrying", e);
+        } catch (Exception e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        } finally {
+            if (retryPolicy.getRetries() > 0) {
+                getLog().info(MessageFormat.format(
+                        "Retried {0} times, {1} ms spent in failed attempts and {2} ms waiting",
+                        retryPolicy.getRetries(),
+                        retryPolicy.getFailedAttemptsMillis(),
+                        retryPolicy.getWaitedMillis()));
             }
+            getMetrics().add("retries", retryPolicy.getRetries());
+            getMetrics().add("retryFailedAttemptsMillis",
+                    retryPolicy.getFailedAttemptsMillis());
+            getMetrics().add("retryWaitMillis", retryPolicy.getWaitedMillis());
         }
-
-        if (exception != null)
-            throw exception;
     }
 
     protected void writeImageInfo(String repository, String tag)
@@ -0,0 +1,70 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+/**
+ * The formats supported for the container's distribution archive.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public enum ArchiveFormat {
+
+    /**
+     * An uncompressed tar archive.
+     */
+    TAR("tar"),
+
+    /**
+     * A gzip compressed tar archive.
+     */
+    TAR_GZ("tar.gz"),
+
+    /**
+     * A Zstandard compressed tar archive.
+     */
+    TAR_ZST("tar.zst");
+
+    private final String extension;
+
+    ArchiveFormat(String pExtension) {
+        this.extension = pExtension;
+    }
+
+    /**
+     * Returns the format identified by the informed file extension.
+     *
+     * @param pExtension
+     *                       the extension, like <b>tar.gz</b>.
+     * @return the archive format.
+     * @throws IllegalArgumentException
+     *                                      when the format is not supported.
+     */
+    public static ArchiveFormat fromExtension(String pExtension) {
+        for (ArchiveFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(pExtension.trim())) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported archive format '"
+                + pExtension + "'. Valid values are: tar, tar.gz and tar.zst.");
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    @Override
+    public String toString() {
+        return extension;
+    }
+}
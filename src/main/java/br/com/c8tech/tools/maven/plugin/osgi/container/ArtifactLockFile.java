@@ -0,0 +1,233 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+
+/**
+ * The lock file of the container cache, recording for each cached artifact
+ * its path inside the cache directory, its SHA-256 digest and the Maven
+ * coordinates it was obtained from.
+ * <p>
+ * It also records a digest of the inputs that determined that set of
+ * artifacts, so a lock file made obsolete by a change of the plugin
+ * configuration or of the project dependencies can be detected.
+ * <p>
+ * The file is a plain text file meant to be versioned together with the POM:
+ *
+ * <pre>
+ * # comment
+ * inputs=&lt;sha256&gt;
+ * &lt;sha256&gt; &lt;cache path&gt; &lt;groupId:artifactId:extension[:classifier]:version&gt;
+ * </pre>
+ *
+ * The entries are sorted by path, so updating it produces small diffs.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class ArtifactLockFile {
+
+    /**
+     * An artifact recorded in the lock file.
+     */
+    public static final class Entry {
+
+        private final String coordinates;
+        private final String path;
+        private final String sha256;
+
+        /**
+         * @param pPath
+         *                        the path of the artifact relative to the
+         *                        cache directory, using '/' as separator.
+         * @param pSha256
+         *                        the hexadecimal SHA-256 digest of the file.
+         * @param pCoordinates
+         *                        the Maven coordinates, as
+         *                        <b>groupId:artifactId:extension[:classifier]:version</b>.
+         */
+        public Entry(String pPath, String pSha256, String pCoordinates) {
+            checkToken("path", pPath);
+            checkToken("digest", pSha256);
+            checkToken("coordinates", pCoordinates);
+            this.path = pPath;
+            this.sha256 = pSha256;
+            this.coordinates = pCoordinates;
+        }
+
+        private static void checkToken(String pName, String pValue) {
+            if (pValue == null || pValue.isEmpty()
+                    || pValue.matches(".*\\s.*")) {
+                throw new IllegalArgumentException(
+                        "Invalid lock file entry " + pName + ": '" + pValue
+                                + "'");
+            }
+        }
+
+        public String getCoordinates() {
+            return coordinates;
+        }
+
+        /**
+         * Creates the resolved Maven artifact of this entry.
+         *
+         * @param pScope
+         *                     the scope of the artifact.
+         * @param pHandler
+         *                     the handler of its extension.
+         * @param pFile
+         *                     the file of the artifact.
+         * @return the artifact.
+         */
+        public Artifact toArtifact(String pScope, ArtifactHandler pHandler,
+                File pFile) {
+            String[] parts = coordinates.split(":");
+            if (parts.length != 4 && parts.length != 5) {
+                throw new IllegalArgumentException(
+                        "Invalid lock file coordinates: " + coordinates);
+            }
+            Artifact artifact = new DefaultArtifact(parts[0], parts[1],
+                    VersionRange.createFromVersion(parts[parts.length - 1]),
+                    pScope, parts[2], parts.length == 5 ? parts[3] : null,
+                    pHandler);
+            artifact.setFile(pFile);
+            artifact.setResolved(true);
+            return artifact;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+    }
+
+    public static final String DEFAULT_FILE_NAME = "osgi-container.lock";
+
+    private static final String INPUTS_PREFIX = "inputs=";
+
+    private final List<Entry> entries;
+
+    private final String inputs;
+
+    /**
+     * @param pInputs
+     *                     the digest of the inputs that determined the
+     *                     artifacts.
+     * @param pEntries
+     *                     the locked artifacts.
+     */
+    public ArtifactLockFile(String pInputs, Collection<Entry> pEntries) {
+        this.inputs = pInputs;
+        List<Entry> sorted = new ArrayList<>(pEntries);
+        sorted.sort(Comparator.comparing(Entry::getPath));
+        this.entries = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Reads a lock file.
+     *
+     * @param pFile
+     *                  the lock file.
+     * @return the lock file content.
+     * @throws IOException
+     *                         when the file could not be read or is not a
+     *                         valid lock file.
+     */
+    public static ArtifactLockFile read(Path pFile) throws IOException {
+        String inputs = null;
+        List<Entry> entries = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(pFile,
+                StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.startsWith(INPUTS_PREFIX)) {
+                inputs = trimmed.substring(INPUTS_PREFIX.length()).trim();
+                continue;
+            }
+            String[] tokens = trimmed.split("\\s+");
+            if (tokens.length != 3) {
+                throw new IOException("Invalid entry at line " + lineNumber
+                        + " of the lock file " + pFile + ": " + line);
+            }
+            entries.add(new Entry(tokens[1], tokens[0], tokens[2]));
+        }
+        if (inputs == null || inputs.isEmpty()) {
+            throw new IOException(
+                    "The lock file " + pFile + " has no inputs digest.");
+        }
+        return new ArtifactLockFile(inputs, entries);
+    }
+
+    /**
+     * @return the locked artifacts, sorted by path.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the digest of the inputs that determined the artifacts.
+     */
+    public String getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Writes the lock file, unless it already has the same content.
+     *
+     * @param pFile
+     *                  the lock file.
+     * @return whether the file was written.
+     * @throws IOException
+     *                         when the file could not be written.
+     */
+    public boolean write(Path pFile) throws IOException {
+        List<String> lines = new ArrayList<>(entries.size() + 3);
+        lines.add("# Artifacts of the OSGi container cache. Generated by the "
+                + "cacheMavenArtifacts goal,");
+        lines.add("# run it with -Dosgi.container.lockFile.update=true "
+                + "to update this file.");
+        lines.add(INPUTS_PREFIX + inputs);
+        for (Entry entry : entries) {
+            lines.add(entry.getSha256() + " " + entry.getPath() + " "
+                    + entry.getCoordinates());
+        }
+        if (Files.isRegularFile(pFile) && lines.equals(
+                Files.readAllLines(pFile, StandardCharsets.UTF_8))) {
+            return false;
+        }
+        Files.write(pFile, lines, StandardCharsets.UTF_8);
+        return true;
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Records the metrics of a plugin goal execution: its wall time, the bytes
+ * read and written by the build process while it ran and the counters
+ * reported by the goal itself, like the number of artifacts, the cache hits
+ * or the bytes compressed.
+ * <p>
+ * The counters are named in camel case with their unit as suffix. For each
+ * pair of counters named <b>xBytes</b> and <b>xMillis</b> the throughput
+ * <b>xMegabytesPerSecond</b> is derived when the execution finishes.
+ * <p>
+ * The bytes read and written are taken from <b>/proc/self/io</b>, so they
+ * are only available on Linux and include any other work done by the build
+ * process at the same time, like another module built in parallel.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class BuildMetrics {
+
+    public static final String JSON_FILE_NAME = "build-metrics.json";
+
+    public static final String PROMETHEUS_FILE_NAME = "build-metrics.prom";
+
+    private static final String BYTES_SUFFIX = "Bytes";
+
+    private static final String GOALS = "goals";
+
+    private static final String METRIC_PREFIX = "osgi_container_goal_";
+
+    private static final String MILLIS_SUFFIX = "Millis";
+
+    private static final Path PROCESS_IO = Paths.get("/proc/self/io");
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final String execution;
+
+    private final Map<String, Object> finished = new TreeMap<>();
+
+    private final String goal;
+
+    private final long[] ioAtStart;
+
+    private final long startNanos;
+
+    private final long startTime;
+
+    /**
+     * Starts recording a goal execution.
+     *
+     * @param pGoal
+     *                       the goal name.
+     * @param pExecution
+     *                       the execution id.
+     */
+    public BuildMetrics(String pGoal, String pExecution) {
+        this.goal = pGoal;
+        this.execution = pExecution;
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.ioAtStart = readProcessIo();
+    }
+
+    private static String escapeLabel(String pValue) {
+        return pValue.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+    private static String metricName(String pCounter) {
+        StringBuilder name = new StringBuilder(METRIC_PREFIX);
+        for (char c : pCounter.toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                name.append('_').append(Character.toLowerCase(c));
+            } else
+                if (Character.isLetterOrDigit(c)) {
+                    name.append(c);
+                } else {
+                    name.append('_');
+                }
+        }
+        return name.toString();
+    }
+
+    /**
+     * @return the characters read and written by this process, or null when
+     *         not available.
+     */
+    private static long[] readProcessIo() {
+        if (!Files.isReadable(PROCESS_IO)) {
+            return null;
+        }
+        try {
+            long[] io = new long[2];
+            for (String line : Files.readAllLines(PROCESS_IO,
+                    StandardCharsets.US_ASCII)) {
+                if (line.startsWith("rchar:")) {
+                    io[0] = Long.parseLong(line.substring(6).trim());
+                } else
+                    if (line.startsWith("wchar:")) {
+                        io[1] = Long.parseLong(line.substring(6).trim());
+                    }
+            }
+            return io;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void write(Path pFile, String pContent) throws IOException {
+        Files.createDirectories(pFile.toAbsolutePath().getParent());
+        Path temporary = pFile.resolveSibling(pFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary,
+                StandardCharsets.UTF_8)) {
+            writer.write(pContent);
+        }
+        Files.move(temporary, pFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds a value to a counter, creating it when needed. It can be called
+     * from any thread.
+     *
+     * @param pName
+     *                   the counter name, like <b>cacheHits</b> or
+     *                   <b>compressionBytes</b>.
+     * @param pValue
+     *                   the value to add.
+     */
+    public void add(String pName, long pValue) {
+        counters.computeIfAbsent(pName, k -> new LongAdder()).add(pValue);
+    }
+
+    /**
+     * Adds the milliseconds elapsed since the informed {@link System#nanoTime()}
+     * to a counter named with the <b>Millis</b> suffix.
+     *
+     * @param pName
+     *                        the counter name, without the suffix.
+     * @param pStartNanos
+     *                        the start of the measured interval.
+     */
+    public void addElapsed(String pName, long pStartNanos) {
+        add(pName + MILLIS_SUFFIX, TimeUnit.NANOSECONDS
+                .toMillis(System.nanoTime() - pStartNanos));
+    }
+
+    /**
+     * Stops recording.
+     *
+     * @param pSuccess
+     *                     whether the goal succeeded.
+     * @return the recorded metrics, sorted by name.
+     */
+    public Map<String, Object> finish(boolean pSuccess) {
+        finished.clear();
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, value) -> values.put(name, value.sum()));
+        long[] io = readProcessIo();
+        if (ioAtStart != null && io != null) {
+            values.put("processRead" + BYTES_SUFFIX, io[0] - ioAtStart[0]);
+            values.put("processWritten" + BYTES_SUFFIX, io[1] - ioAtStart[1]);
+        }
+        values.put("wallTime" + MILLIS_SUFFIX, TimeUnit.NANOSECONDS
+                .toMillis(System.nanoTime() - startNanos));
+        finished.putAll(values);
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            String name = entry.getKey();
+            if (!name.endsWith(BYTES_SUFFIX)) {
+                continue;
+            }
+            String prefix = name.substring(0,
+                    name.length() - BYTES_SUFFIX.length());
+            Long millis = values.get(prefix + MILLIS_SUFFIX);
+            if (millis != null && millis > 0) {
+                finished.put(prefix + "MegabytesPerSecond",
+                        Math.round(entry.getValue() / 1048.576d / millis
+                                * 100) / 100d);
+            }
+        }
+        finished.put("success", pSuccess);
+        finished.put("startTime", Instant.ofEpochMilli(startTime).toString());
+        return finished;
+    }
+
+    /**
+     * @param pName
+     *                  a counter name.
+     * @return the current value of the counter, zero when it does not exist.
+     */
+    public long get(String pName) {
+        LongAdder value = counters.get(pName);
+        return value == null ? 0 : value.sum();
+    }
+
+    /**
+     * Adds the finished metrics to the JSON report of the project, replacing
+     * the ones of a previous run of the same goal execution, and optionally
+     * writes the whole report in the Prometheus text format too.
+     *
+     * @param pProject
+     *                            the project id.
+     * @param pJsonFile
+     *                            the JSON report.
+     * @param pPrometheusFile
+     *                            the Prometheus report, or null.
+     * @throws IOException
+     *                         when a report could not be written.
+     */
+    public void writeTo(String pProject, Path pJsonFile,
+            Path pPrometheusFile) throws IOException {
+        Gson gson = new GsonBuilder().setPrettyPrinting()
+                .disableHtmlEscaping().create();
+        JsonObject report = null;
+        if (Files.isRegularFile(pJsonFile)) {
+            try (Reader reader = Files.newBufferedReader(pJsonFile,
+                    StandardCharsets.UTF_8)) {
+                JsonElement element = new JsonParser().parse(reader);
+                report = element.isJsonObject() ? element.getAsJsonObject()
+                        : null;
+            } catch (JsonParseException e) {
+                report = null;
+            }
+        }
+        if (report == null || !report.has(GOALS)
+                || !report.get(GOALS).isJsonObject()) {
+            report = new JsonObject();
+            report.add(GOALS, new JsonObject());
+        }
+        report.addProperty("project", pProject);
+        JsonObject record = gson.toJsonTree(finished).getAsJsonObject();
+        record.addProperty("goal", goal);
+        record.addProperty("execution", execution);
+        report.getAsJsonObject(GOALS).add(goal + "@" + execution, record);
+        write(pJsonFile, gson.toJson(report));
+
+        if (pPrometheusFile != null) {
+            write(pPrometheusFile, toPrometheus(pProject,
+                    report.getAsJsonObject(GOALS)));
+        }
+    }
+
+    private String toPrometheus(String pProject, JsonObject pGoals) {
+        Map<String, StringBuilder> families = new TreeMap<>();
+        for (Map.Entry<String, JsonElement> goalEntry : pGoals.entrySet()) {
+            if (!goalEntry.getValue().isJsonObject()) {
+                continue;
+            }
+            JsonObject record = goalEntry.getValue().getAsJsonObject();
+            String labels = String.format(
+                    "{project=\"%s\",goal=\"%s\",execution=\"%s\"}",
+                    escapeLabel(pProject),
+                    escapeLabel(record.has("goal")
+                            ? record.get("goal").getAsString()
+                            : ""),
+                    escapeLabel(record.has("execution")
+                            ? record.get("execution").getAsString()
+                            : ""));
+            for (Map.Entry<String, JsonElement> entry : record.entrySet()) {
+                JsonElement value = entry.getValue();
+                String number;
+                if (value.isJsonPrimitive()
+                        && value.getAsJsonPrimitive().isNumber()) {
+                    number = value.getAsString();
+                } else
+                    if (value.isJsonPrimitive()
+                            && value.getAsJsonPrimitive().isBoolean()) {
+                        number = value.getAsBoolean() ? "1" : "0";
+                    } else {
+                        continue;
+                    }
+                String name = metricName(entry.getKey());
+                families.computeIfAbsent(name, k -> new StringBuilder())
+                        .append(name).append(labels).append(' ')
+                        .append(number).append('\n');
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        families.forEach((name, samples) -> text.append("# TYPE ")
+                .append(name).append(" gauge\n").append(samples));
+        return text.toString();
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * The subset of a bundle's manifest headers needed by the plugin in order to
+ * generate and verify the container's configuration.
+ * <p>
+ * The package and capability headers are kept in their raw form and are only
+ * parsed by the steps that need them.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class BundleMetadata {
+
+    /**
+     * The metadata of a file that is not an OSGi bundle.
+     */
+    public static final BundleMetadata NOT_A_BUNDLE = new BundleMetadata(null,
+            null, null, null, null, null, null, null);
+
+    private static final String DEFAULT_VERSION = "0.0.0";
+
+    private final String exportPackage;
+    private final String fragmentHost;
+    private final String importPackage;
+    private final String provideCapability;
+    private final String requireBundle;
+    private final String requireCapability;
+    private final String symbolicName;
+    private final String version;
+
+    public BundleMetadata(String pSymbolicName, String pVersion,
+            String pFragmentHost, String pImportPackage, String pExportPackage,
+            String pRequireBundle, String pRequireCapability,
+            String pProvideCapability) {
+        this.symbolicName = pSymbolicName;
+        this.version = pVersion;
+        this.fragmentHost = pFragmentHost;
+        this.importPackage = pImportPackage;
+        this.exportPackage = pExportPackage;
+        this.requireBundle = pRequireBundle;
+        this.requireCapability = pRequireCapability;
+        this.provideCapability = pProvideCapability;
+    }
+
+    /**
+     * Extracts the metadata from a jar manifest.
+     *
+     * @param pManifest
+     *                      the manifest, it may be null.
+     * @return the bundle metadata or {@link #NOT_A_BUNDLE}.
+     */
+    public static BundleMetadata fromManifest(Manifest pManifest) {
+        if (pManifest == null) {
+            return NOT_A_BUNDLE;
+        }
+        Attributes attributes = pManifest.getMainAttributes();
+        String bsn = attributes.getValue("Bundle-SymbolicName");
+        if (bsn == null || bsn.trim().isEmpty()) {
+            return NOT_A_BUNDLE;
+        }
+        String version = attributes.getValue("Bundle-Version");
+        return new BundleMetadata(stripParameters(bsn),
+                version == null || version.trim().isEmpty() ? DEFAULT_VERSION
+                        : version.trim(),
+                attributes.getValue("Fragment-Host"),
+                attributes.getValue("Import-Package"),
+                attributes.getValue("Export-Package"),
+                attributes.getValue("Require-Bundle"),
+                attributes.getValue("Require-Capability"),
+                attributes.getValue("Provide-Capability"));
+    }
+
+    private static String stripParameters(String pHeader) {
+        int index = pHeader.indexOf(';');
+        return (index < 0 ? pHeader : pHeader.substring(0, index)).trim();
+    }
+
+    public String getExportPackage() {
+        return exportPackage;
+    }
+
+    public String getFragmentHost() {
+        return fragmentHost;
+    }
+
+    /**
+     * @return the symbolic name of the fragment's host, or null when this
+     *         bundle is not a fragment.
+     */
+    public String getFragmentHostName() {
+        return fragmentHost == null ? null : stripParameters(fragmentHost);
+    }
+
+    public String getImportPackage() {
+        return importPackage;
+    }
+
+    public String getProvideCapability() {
+        return provideCapability;
+    }
+
+    public String getRequireBundle() {
+        return requireBundle;
+    }
+
+    public String getRequireCapability() {
+        return requireCapability;
+    }
+
+    public String getSymbolicName() {
+        return symbolicName;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isBundle() {
+        return symbolicName != null;
+    }
+
+    public boolean isFragment() {
+        return fragmentHost != null;
+    }
+
+    @Override
+    public String toString() {
+        return isBundle() ? symbolicName + ";" + version : "NOT_A_BUNDLE";
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipException;
+
+/**
+ * A persistent index of the {@link BundleMetadata} of the cached bundles.
+ * <p>
+ * Entries are keyed by the file path and validated against the file size and
+ * modification time, so an unchanged jar is never opened again. When only the
+ * attributes of a file changed (it was copied again, for example), its SHA-256
+ * digest is compared with the indexed ones before its manifest is read. The
+ * entries are also kept by digest, so a file copied to another path is found
+ * without scanning the whole index.
+ * <p>
+ * Besides the manifest headers, the index keeps the start level last assigned
+ * to each bundle in the generated configuration file.
+ * <p>
+ * The index is stored in a compact binary file, usually kept in the plugin's
+ * work directory.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class BundleMetadataIndex {
+
+    private static final class Entry {
+
+        private final String digest;
+        private final long lastModified;
+        private final BundleMetadata metadata;
+        private final long size;
+        private int startLevel;
+
+        Entry(long pSize, long pLastModified, String pDigest,
+                BundleMetadata pMetadata, int pStartLevel) {
+            this.size = pSize;
+            this.lastModified = pLastModified;
+            this.digest = pDigest;
+            this.metadata = pMetadata;
+            this.startLevel = pStartLevel;
+        }
+    }
+
+    public static final String DEFAULT_INDEX_FILE_NAME = "bundle-metadata.idx";
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0x4F424D49; // OBMI
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private final Map<String, Entry> entriesByDigest = new HashMap<>();
+
+    private final Path indexFile;
+
+    private boolean modified;
+
+    private int reads;
+
+    private final Set<String> touched = new HashSet<>();
+
+    private BundleMetadataIndex(Path pIndexFile) {
+        this.indexFile = pIndexFile;
+    }
+
+    /**
+     * Loads an index from the informed file. A missing, corrupted or
+     * incompatible file results in an empty index.
+     *
+     * @param pIndexFile
+     *                       the index file.
+     * @return the loaded index.
+     */
+    public static BundleMetadataIndex load(Path pIndexFile) {
+        BundleMetadataIndex index = new BundleMetadataIndex(pIndexFile);
+        if (!Files.isRegularFile(pIndexFile)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(pIndexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return index;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = readString(in);
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String digest = readString(in);
+                BundleMetadata metadata = new BundleMetadata(readString(in),
+                        readString(in), readString(in), readString(in),
+                        readString(in), readString(in), readString(in),
+                        readString(in));
+                Entry entry = new Entry(size, lastModified, digest,
+                        metadata.isBundle() ? metadata
+                                : BundleMetadata.NOT_A_BUNDLE,
+                        in.readInt());
+                index.entries.put(path, entry);
+                index.entriesByDigest.put(digest, entry);
+            }
+        } catch (IOException e) {
+            index.entries.clear();
+            index.entriesByDigest.clear();
+        }
+        return index;
+    }
+
+    private static BundleMetadata readManifest(Path pFile) throws IOException {
+        try (JarFile jarFile = new JarFile(pFile.toFile())) {
+            return BundleMetadata.fromManifest(jarFile.getManifest());
+        } catch (ZipException e) {
+            return BundleMetadata.NOT_A_BUNDLE;
+        }
+    }
+
+    private static String readString(DataInputStream pIn) throws IOException {
+        int length = pIn.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        pIn.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream pOut, String pValue)
+            throws IOException {
+        if (pValue == null) {
+            pOut.writeInt(-1);
+            return;
+        }
+        byte[] bytes = pValue.getBytes(StandardCharsets.UTF_8);
+        pOut.writeInt(bytes.length);
+        pOut.write(bytes);
+    }
+
+    /**
+     * Returns the metadata of the informed jar file, only reading its manifest
+     * when the file is not known by the index or its content changed.
+     *
+     * @param pFile
+     *                  a jar file.
+     * @return the metadata, or {@link BundleMetadata#NOT_A_BUNDLE} when the
+     *         file is not a bundle.
+     * @throws IOException
+     *                         when the file could not be read.
+     */
+    public BundleMetadata get(Path pFile) throws IOException {
+        String key = pFile.toAbsolutePath().normalize().toString();
+        touched.add(key);
+        BasicFileAttributes attributes = Files.readAttributes(pFile,
+                BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == size
+                && entry.lastModified == lastModified) {
+            return entry.metadata;
+        }
+
+        String digest = FileContents.sha256(pFile);
+        boolean unchanged = entry != null && digest.equals(entry.digest);
+        // a copy found elsewhere only shares its manifest, the start level
+        // belongs to the path it was recorded for.
+        Entry known = unchanged ? entry : entriesByDigest.get(digest);
+        BundleMetadata metadata;
+        if (known != null) {
+            metadata = known.metadata;
+        } else {
+            metadata = readManifest(pFile);
+            reads++;
+        }
+        Entry updated = new Entry(size, lastModified, digest, metadata,
+                unchanged ? entry.startLevel : 0);
+        entries.put(key, updated);
+        entriesByDigest.put(digest, updated);
+        modified = true;
+        return metadata;
+    }
+
+    /**
+     * Returns the SHA-256 digest recorded for the informed file. It must have
+     * been obtained through {@link #get(Path)} before.
+     *
+     * @param pFile
+     *                  a jar file.
+     * @return the digest or null when the file is not indexed.
+     */
+    public String getDigest(Path pFile) {
+        Entry entry = entries
+                .get(pFile.toAbsolutePath().normalize().toString());
+        return entry == null ? null : entry.digest;
+    }
+
+    /**
+     * Returns the start level recorded for the informed file.
+     *
+     * @param pFile
+     *                  a jar file.
+     * @return the start level or zero when none was recorded.
+     */
+    public int getStartLevel(Path pFile) {
+        Entry entry = entries
+                .get(pFile.toAbsolutePath().normalize().toString());
+        return entry == null ? 0 : entry.startLevel;
+    }
+
+    /**
+     * Records the start level assigned to the informed file. It must have
+     * been obtained through {@link #get(Path)} before.
+     *
+     * @param pFile
+     *                        a jar file.
+     * @param pStartLevel
+     *                        the start level.
+     */
+    public void setStartLevel(Path pFile, int pStartLevel) {
+        Entry entry = entries
+                .get(pFile.toAbsolutePath().normalize().toString());
+        if (entry != null && entry.startLevel != pStartLevel) {
+            entry.startLevel = pStartLevel;
+            modified = true;
+        }
+    }
+
+    /**
+     * @return how many manifests were actually read from jar files since the
+     *         index was loaded.
+     */
+    public int getManifestReads() {
+        return reads;
+    }
+
+    /**
+     * Saves the index when it was changed. Entries of files that no longer
+     * exist are dropped.
+     *
+     * @throws IOException
+     *                         when the index file could not be written.
+     */
+    public void save() throws IOException {
+        Map<String, Entry> retained = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (touched.contains(entry.getKey())
+                    || Files.exists(indexFile.getFileSystem()
+                            .getPath(entry.getKey()))) {
+                retained.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!modified && retained.size() == entries.size()) {
+            return;
+        }
+        entries.keySet().retainAll(retained.keySet());
+        entriesByDigest.clear();
+        for (Entry entry : entries.values()) {
+            entriesByDigest.put(entry.digest, entry);
+        }
+
+        Files.createDirectories(indexFile.getParent());
+        Path temporary = indexFile
+                .resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                BundleMetadata metadata = value.metadata;
+                writeString(out, entry.getKey());
+                out.writeLong(value.size);
+                out.writeLong(value.lastModified);
+                writeString(out, value.digest);
+                writeString(out, metadata.getSymbolicName());
+                writeString(out, metadata.getVersion());
+                writeString(out, metadata.getFragmentHost());
+                writeString(out, metadata.getImportPackage());
+                writeString(out, metadata.getExportPackage());
+                writeString(out, metadata.getRequireBundle());
+                writeString(out, metadata.getRequireCapability());
+                writeString(out, metadata.getProvideCapability());
+                out.writeInt(value.startLevel);
+            }
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        modified = false;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import com.spotify.docker.client.ImageRef;
+import com.spotify.docker.client.auth.RegistryAuthSupplier;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.RegistryAuth;
+import com.spotify.docker.client.messages.RegistryConfigs;
+
+/**
+ * Keeps the credentials supplied by another {@link RegistryAuthSupplier} for
+ * a while, so reading the docker configuration, decrypting the Maven
+ * settings or obtaining Google credentials is done once for all the Docker
+ * goals of a build instead of once per goal and module.
+ * <p>
+ * The credentials of each registry are asked again after the time to live,
+ * so short-lived tokens are refreshed. A missing credential is kept too.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class CachingRegistryAuthSupplier implements RegistryAuthSupplier {
+
+    private static final class Entry<T> {
+
+        private final long expiration;
+        private final T value;
+
+        Entry(T pValue, long pExpiration) {
+            this.value = pValue;
+            this.expiration = pExpiration;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Loader<T> {
+
+        T load() throws DockerException;
+    }
+
+    private static final String BUILD_KEY = "\u0000build";
+
+    private static final String SWARM_KEY = "\u0000swarm";
+
+    private final Map<String, Entry<Object>> cache = new HashMap<>();
+
+    private final LongSupplier clock;
+
+    private final RegistryAuthSupplier delegate;
+
+    private int loads;
+
+    private final long timeToLiveMillis;
+
+    /**
+     * @param pDelegate
+     *                            the supplier of the credentials.
+     * @param pTimeToLiveMillis
+     *                            how long the supplied credentials are kept.
+     */
+    public CachingRegistryAuthSupplier(RegistryAuthSupplier pDelegate,
+            long pTimeToLiveMillis) {
+        this(pDelegate, pTimeToLiveMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param pDelegate
+     *                            the supplier of the credentials.
+     * @param pTimeToLiveMillis
+     *                            how long the supplied credentials are kept.
+     * @param pClock
+     *                            supplies the current time in milliseconds.
+     */
+    public CachingRegistryAuthSupplier(RegistryAuthSupplier pDelegate,
+            long pTimeToLiveMillis, LongSupplier pClock) {
+        this.delegate = pDelegate;
+        this.timeToLiveMillis = pTimeToLiveMillis;
+        this.clock = pClock;
+    }
+
+    @Override
+    public RegistryAuth authFor(String pImageName) throws DockerException {
+        return get("registry:" + new ImageRef(pImageName).getRegistryName(),
+                () -> delegate.authFor(pImageName));
+    }
+
+    @Override
+    public RegistryConfigs authForBuild() throws DockerException {
+        return get(BUILD_KEY, delegate::authForBuild);
+    }
+
+    @Override
+    public RegistryAuth authForSwarm() throws DockerException {
+        return get(SWARM_KEY, delegate::authForSwarm);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T get(String pKey, Loader<T> pLoader)
+            throws DockerException {
+        long now = clock.getAsLong();
+        Entry<Object> entry = cache.get(pKey);
+        if (entry == null || now >= entry.expiration) {
+            loads++;
+            entry = new Entry<>(pLoader.load(), now + timeToLiveMillis);
+            cache.put(pKey, entry);
+        }
+        return (T) entry.value;
+    }
+
+    /**
+     * @return how many times the credentials were asked to the delegate.
+     */
+    public synchronized int getLoads() {
+        return loads;
+    }
+}
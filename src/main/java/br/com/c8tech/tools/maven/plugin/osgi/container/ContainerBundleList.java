@@ -0,0 +1,167 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bundles placed in the <b>bundles</b> directory of a container
+ * distribution, written as the <b>osgi.bundles</b> property of an Equinox
+ * configuration file or as the auto install and start properties of a Felix
+ * one.
+ * <p>
+ * The start levels calculated from the dependency graph take precedence over
+ * the ones declared for the artifacts. The start level given to each bundle
+ * is recorded in the {@link BundleMetadataIndex}.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class ContainerBundleList {
+
+    private static final String EQUINOX_DEFAULT_BUNDLES_DIR = "bundles/";
+
+    private static final String EQUINOX_LINE_BREAK = ",";
+
+    private static final class Entry {
+
+        private final Path file;
+
+        private final String fileName;
+
+        private final int startLevel;
+
+        private Entry(Path pFile, String pFileName, int pStartLevel) {
+            file = pFile;
+            fileName = pFileName;
+            startLevel = pStartLevel;
+        }
+    }
+
+    private final Map<String, Integer> calculatedStartLevels;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private final BundleMetadataIndex metadataIndex;
+
+    /**
+     * @param pMetadataIndex
+     *                                  the index where the metadata of the
+     *                                  bundles is read from and their start
+     *                                  levels are recorded.
+     * @param pCalculatedStartLevels
+     *                                  the start levels calculated from the
+     *                                  dependency graph, keyed by file name.
+     *                                  It is empty when they are not
+     *                                  calculated.
+     */
+    public ContainerBundleList(BundleMetadataIndex pMetadataIndex,
+            Map<String, Integer> pCalculatedStartLevels) {
+        metadataIndex = pMetadataIndex;
+        calculatedStartLevels = pCalculatedStartLevels;
+    }
+
+    /**
+     * Adds a bundle to the list. Its metadata must have been obtained through
+     * {@link BundleMetadataIndex#get(Path)} before.
+     *
+     * @param pFile
+     *                        the cached bundle file.
+     * @param pFileName
+     *                        the name of the file inside the bundles
+     *                        directory.
+     * @param pStartLevel
+     *                        the start level declared for the artifact, zero
+     *                        when the bundle must only be installed.
+     */
+    public void add(Path pFile, String pFileName, int pStartLevel) {
+        entries.add(new Entry(pFile, pFileName, pStartLevel));
+    }
+
+    /**
+     * Appends the bundles to the <b>osgi.bundles</b> property of an Equinox
+     * configuration file, after the ones already declared in it.
+     *
+     * @param pProperties
+     *                        the configuration file.
+     * @throws IOException
+     *                         when the metadata of a bundle can't be read.
+     */
+    public void applyToEquinox(OrderedPropertiesFile pProperties)
+            throws IOException {
+        String existent = pProperties.getProperty("osgi.bundles");
+        StringBuilder bundles = new StringBuilder(
+                existent == null ? "" : existent);
+        for (Entry entry : entries) {
+            if (bundles.length() > 0) {
+                bundles.append(EQUINOX_LINE_BREAK);
+            }
+            bundles.append(EQUINOX_DEFAULT_BUNDLES_DIR).append(entry.fileName);
+            Integer calculated = calculatedStartLevels.get(entry.fileName);
+            if (calculated != null) {
+                bundles.append('@').append(calculated);
+                if (!metadataIndex.get(entry.file).isFragment()) {
+                    bundles.append(":start");
+                }
+                metadataIndex.setStartLevel(entry.file, calculated);
+            } else {
+                if (entry.startLevel != 0) {
+                    bundles.append("@start:").append(entry.startLevel);
+                }
+                metadataIndex.setStartLevel(entry.file, entry.startLevel);
+            }
+        }
+        pProperties.setProperty("osgi.bundles", bundles.toString());
+    }
+
+    /**
+     * Writes the bundles as the <b>felix.auto.install.N</b> and
+     * <b>felix.auto.start.N</b> properties of a Felix configuration file.
+     *
+     * @param pProperties
+     *                               the configuration file.
+     * @param pInstallStartLevel
+     *                               the start level of the bundles that must
+     *                               only be installed.
+     * @throws IOException
+     *                         when the metadata of a bundle can't be read.
+     */
+    public void applyToFelix(OrderedPropertiesFile pProperties,
+            int pInstallStartLevel) throws IOException {
+        FelixAutoPropertiesBuilder autoProperties = new FelixAutoPropertiesBuilder();
+        for (Entry entry : entries) {
+            Integer calculated = calculatedStartLevels.get(entry.fileName);
+            int level;
+            if (calculated != null) {
+                level = calculated;
+                if (metadataIndex.get(entry.file).isFragment()) {
+                    autoProperties.addInstallable(level, entry.fileName);
+                } else {
+                    autoProperties.addStartable(level, entry.fileName);
+                }
+            } else
+                if (entry.startLevel == 0) {
+                    level = pInstallStartLevel;
+                    autoProperties.addInstallable(level, entry.fileName);
+                } else {
+                    level = entry.startLevel;
+                    autoProperties.addStartable(level, entry.fileName);
+                }
+            metadataIndex.setStartLevel(entry.file, level);
+        }
+        autoProperties.applyTo(pProperties);
+    }
+}
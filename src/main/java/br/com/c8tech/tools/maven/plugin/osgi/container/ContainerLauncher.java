@@ -0,0 +1,259 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Launches an assembled container in a child JVM at build time.
+ * <p>
+ * The framework prints nothing when it is ready, so the child JVM logs the
+ * classes it loads and the container is considered started when no class was
+ * loaded during a quiet period. Its startup time is the JVM uptime of the last
+ * class loaded before that period. The child is then stopped with a regular
+ * termination signal, so the shutdown hooks of the frameworks stop them
+ * cleanly, and it is killed only if it does not exit in time.
+ * <p>
+ * The class loading log requires a Java 9 or newer child JVM.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class ContainerLauncher {
+
+    /**
+     * The outcome of a {@link ContainerLauncher#run(List)} execution.
+     */
+    public static final class Run {
+
+        private int exitCode;
+        private int loadedClasses;
+        private boolean started;
+        private long startupMillis;
+
+        /**
+         * @return the exit code of the child JVM.
+         */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * @return how many classes were loaded until the container started.
+         */
+        public int getLoadedClasses() {
+            return loadedClasses;
+        }
+
+        /**
+         * @return the JVM uptime when the container finished starting.
+         */
+        public long getStartupMillis() {
+            return startupMillis;
+        }
+
+        /**
+         * @return whether the container started, instead of exiting by itself
+         *         or exceeding the timeout.
+         */
+        public boolean isStarted() {
+            return started;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("started in %d ms, %d classes loaded",
+                    startupMillis, loadedClasses);
+        }
+    }
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private static final Pattern UPTIME = Pattern
+            .compile("^\\[(\\d+)[.,](\\d+)s\\]");
+
+    private final List<String> command;
+
+    private Path outputFile;
+
+    private long quietPeriodMillis = 3000;
+
+    private long timeoutMillis = TimeUnit.MINUTES.toMillis(2);
+
+    private final Path workingDirectory;
+
+    /**
+     * @param pWorkingDirectory
+     *                              the directory of the assembled container.
+     * @param pCommand
+     *                              the command that starts the container, the
+     *                              java executable first.
+     */
+    public ContainerLauncher(Path pWorkingDirectory, List<String> pCommand) {
+        this.workingDirectory = pWorkingDirectory;
+        this.command = new ArrayList<>(pCommand);
+    }
+
+    /**
+     * Parses the uptime decoration of a line of the unified JVM log.
+     *
+     * @param pLine
+     *                  a line like <b>[0.123s] java.lang.Object source:
+     *                  ...</b>.
+     * @return the uptime in milliseconds, or -1 when the line has no uptime.
+     */
+    public static long parseUptime(String pLine) {
+        Matcher matcher = UPTIME.matcher(pLine);
+        if (!matcher.find()) {
+            return -1;
+        }
+        String fraction = (matcher.group(2) + "000").substring(0, 3);
+        return Long.parseLong(matcher.group(1)) * 1000
+                + Long.parseLong(fraction);
+    }
+
+    private static void readClassLog(Path pClassLog, Run pRun)
+            throws IOException {
+        int count = 0;
+        long uptime = 0;
+        if (Files.isRegularFile(pClassLog)) {
+            try (BufferedReader reader = Files.newBufferedReader(pClassLog,
+                    StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    long lineUptime = parseUptime(line);
+                    if (lineUptime >= 0) {
+                        count++;
+                        uptime = lineUptime;
+                    }
+                }
+            }
+        }
+        pRun.loadedClasses = count;
+        pRun.startupMillis = uptime;
+    }
+
+    /**
+     * Starts the container, waits until it is started and stops it.
+     *
+     * @param pJvmArguments
+     *                          extra arguments for this execution, placed right
+     *                          after the java executable.
+     * @return the outcome of the execution.
+     * @throws IOException
+     *                         when the child JVM could not be started.
+     * @throws InterruptedException
+     *                                  when interrupted while waiting.
+     */
+    public Run run(List<String> pJvmArguments)
+            throws IOException, InterruptedException {
+        Path classLog = Files.createTempFile("container-classes", ".log");
+        List<String> processCommand = new ArrayList<>();
+        processCommand.add(command.get(0));
+        processCommand.addAll(pJvmArguments);
+        processCommand.add("-Xlog:class+load=info:file="
+                + classLog.toAbsolutePath() + ":uptime");
+        processCommand.addAll(command.subList(1, command.size()));
+
+        Path output = outputFile != null ? outputFile
+                : Files.createTempFile("container-output", ".log");
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        ProcessBuilder builder = new ProcessBuilder(processCommand)
+                .directory(workingDirectory.toFile()).redirectErrorStream(true)
+                .redirectOutput(
+                        ProcessBuilder.Redirect.appendTo(output.toFile()));
+
+        Run run = new Run();
+        Process process = builder.start();
+        try {
+            long start = System.currentTimeMillis();
+            long lastChange = start;
+            long lastSize = -1;
+            while (process.isAlive()) {
+                long now = System.currentTimeMillis();
+                long size = Files.exists(classLog) ? Files.size(classLog) : 0;
+                if (size != lastSize) {
+                    lastSize = size;
+                    lastChange = now;
+                } else
+                    if (size > 0 && now - lastChange >= quietPeriodMillis) {
+                        readClassLog(classLog, run);
+                        run.started = true;
+                        break;
+                    }
+                if (now - start >= timeoutMillis) {
+                    break;
+                }
+                process.waitFor(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (!run.started) {
+                readClassLog(classLog, run);
+            }
+            process.destroy();
+            if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            run.exitCode = process.exitValue();
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(classLog);
+            if (outputFile == null) {
+                Files.deleteIfExists(output);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * @param pOutputFile
+     *                        the file where the output of the child JVM is
+     *                        appended. When not informed it is discarded.
+     * @return this launcher.
+     */
+    public ContainerLauncher setOutputFile(Path pOutputFile) {
+        this.outputFile = pOutputFile;
+        return this;
+    }
+
+    /**
+     * @param pQuietPeriodMillis
+     *                               how long the child JVM must stay without
+     *                               loading classes to be considered started.
+     * @return this launcher.
+     */
+    public ContainerLauncher setQuietPeriod(long pQuietPeriodMillis) {
+        this.quietPeriodMillis = pQuietPeriodMillis;
+        return this;
+    }
+
+    /**
+     * @param pTimeoutMillis
+     *                           how long to wait for the container to start,
+     *                           and then to stop.
+     * @return this launcher.
+     */
+    public ContainerLauncher setTimeout(long pTimeoutMillis) {
+        this.timeoutMillis = pTimeoutMillis;
+        return this;
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Keeps the artifacts resolved from the container POM, so the model of the
+ * <b>fpom-deps-felix</b> or <b>fpom-deps-equinox</b> POM is built and its
+ * dependencies resolved only once per build, instead of once per goal and
+ * module.
+ * <p>
+ * The artifacts are kept in a store shared by the whole Maven session and,
+ * when persistent, also in a file of the work directory, so following builds
+ * skip the resolution too while all the artifact files still exist. They are
+ * identified by a key that must be calculated from everything that changes
+ * the resolution result.
+ * <p>
+ * Copies of the kept artifacts are returned, so a goal changing them does not
+ * affect the others.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class ContainerPomArtifactsCache {
+
+    /**
+     * Resolves the artifacts when they are not cached yet.
+     */
+    @FunctionalInterface
+    public interface Resolver {
+
+        Set<Artifact> resolve()
+                throws MojoExecutionException, MojoFailureException;
+    }
+
+    /**
+     * The artifacts kept during a Maven session.
+     */
+    public static final class SessionStore {
+
+        private final Map<String, Set<Artifact>> artifacts = new ConcurrentHashMap<>();
+
+        private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    }
+
+    private static final String EMPTY = "-";
+
+    private static final String FILE_EXTENSION = ".artifacts";
+
+    private static final String SEPARATOR = "\t";
+
+    private final Path directory;
+
+    private final Function<String, ArtifactHandler> handlers;
+
+    private String lastSource;
+
+    private final SessionStore sessionStore;
+
+    /**
+     * @param pSessionStore
+     *                          the store shared by the Maven session.
+     * @param pDirectory
+     *                          the directory of the persistent files.
+     * @param pHandlers
+     *                          provides the artifact handler of each type,
+     *                          used to recreate the persisted artifacts.
+     */
+    public ContainerPomArtifactsCache(SessionStore pSessionStore,
+            Path pDirectory, Function<String, ArtifactHandler> pHandlers) {
+        this.sessionStore = pSessionStore;
+        this.directory = pDirectory;
+        this.handlers = pHandlers;
+    }
+
+    private static Set<Artifact> copy(Set<Artifact> pArtifacts) {
+        return ArtifactUtils.copyArtifacts(pArtifacts,
+                new LinkedHashSet<>());
+    }
+
+    private static String orEmpty(String pValue) {
+        return pValue == null || pValue.isEmpty() ? EMPTY : pValue;
+    }
+
+    private static String orNull(String pValue) {
+        return EMPTY.equals(pValue) ? null : pValue;
+    }
+
+    /**
+     * Returns the artifacts of the informed key, resolving them only when
+     * they are neither in the session store nor, when persistent, in the
+     * work directory.
+     *
+     * @param pKey
+     *                        the key of the resolution, made of characters
+     *                        valid in a file name.
+     * @param pPersistent
+     *                        whether the artifacts can be kept between
+     *                        builds, which is not the case of snapshots.
+     * @param pResolver
+     *                        resolves the artifacts when needed.
+     * @return a copy of the artifacts.
+     * @throws MojoExecutionException
+     *                                    when thrown by the resolver.
+     * @throws MojoFailureException
+     *                                    when thrown by the resolver.
+     */
+    public Set<Artifact> get(String pKey, boolean pPersistent,
+            Resolver pResolver)
+            throws MojoExecutionException, MojoFailureException {
+        Object lock = sessionStore.locks.computeIfAbsent(pKey,
+                k -> new Object());
+        synchronized (lock) {
+            Set<Artifact> artifacts = sessionStore.artifacts.get(pKey);
+            if (artifacts != null) {
+                lastSource = "session";
+                return copy(artifacts);
+            }
+            Path file = directory.resolve(pKey + FILE_EXTENSION);
+            artifacts = pPersistent ? read(file) : null;
+            if (artifacts != null) {
+                lastSource = "disk";
+            } else {
+                artifacts = Collections
+                        .unmodifiableSet(copy(pResolver.resolve()));
+                lastSource = null;
+                if (pPersistent) {
+                    write(file, artifacts);
+                }
+            }
+            sessionStore.artifacts.put(pKey, artifacts);
+            return copy(artifacts);
+        }
+    }
+
+    /**
+     * @return where the artifacts returned by the last call of
+     *         {@link #get(String, boolean, Resolver)} came from, <b>session</b>
+     *         or <b>disk</b>, or null when they were resolved.
+     */
+    public String getLastSource() {
+        return lastSource;
+    }
+
+    /**
+     * @return the persisted artifacts, or null when the file does not exist,
+     *         is invalid or any artifact file no longer exists.
+     */
+    private Set<Artifact> read(Path pFile) {
+        if (!Files.isRegularFile(pFile)) {
+            return null;
+        }
+        try {
+            Set<Artifact> artifacts = new LinkedHashSet<>();
+            for (String line : Files.readAllLines(pFile,
+                    StandardCharsets.UTF_8)) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length != 9) {
+                    return null;
+                }
+                File artifactFile = new File(fields[7]);
+                if (!artifactFile.isFile()) {
+                    return null;
+                }
+                Artifact artifact = new DefaultArtifact(fields[0], fields[1],
+                        VersionRange.createFromVersion(fields[2]),
+                        orNull(fields[5]), fields[3], orNull(fields[4]),
+                        handlers.apply(fields[3]),
+                        Boolean.parseBoolean(fields[6]));
+                artifact.setFile(artifactFile);
+                artifact.setResolved(true);
+                artifact.setDependencyTrail(EMPTY.equals(fields[8])
+                        ? new ArrayList<>()
+                        : new ArrayList<>(Arrays.asList(fields[8].split(","))));
+                artifacts.add(artifact);
+            }
+            return Collections.unmodifiableSet(artifacts);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void write(Path pFile, Set<Artifact> pArtifacts)
+            throws MojoExecutionException {
+        List<String> lines = new ArrayList<>(pArtifacts.size());
+        for (Artifact artifact : pArtifacts) {
+            if (artifact.getFile() == null) {
+                // can not be checked when read back, so it is not persisted.
+                return;
+            }
+            List<String> trail = artifact.getDependencyTrail();
+            lines.add(String.join(SEPARATOR, artifact.getGroupId(),
+                    artifact.getArtifactId(), artifact.getVersion(),
+                    artifact.getType(), orEmpty(artifact.getClassifier()),
+                    orEmpty(artifact.getScope()),
+                    String.valueOf(artifact.isOptional()),
+                    artifact.getFile().getAbsolutePath(),
+                    trail == null || trail.isEmpty() ? EMPTY
+                            : String.join(",", trail)));
+        }
+        try {
+            Files.createDirectories(pFile.getParent());
+            Path temporary = pFile.resolveSibling(pFile.getFileName() + ".tmp");
+            Files.write(temporary, lines, StandardCharsets.UTF_8);
+            Files.move(temporary, pFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while writing the container POM artifacts cache "
+                            + pFile,
+                    e);
+        }
+    }
+}
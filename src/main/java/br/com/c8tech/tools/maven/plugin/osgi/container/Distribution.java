@@ -0,0 +1,181 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.descriptor.Parameter;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * A container distribution built by the <b>aggregateDistributions</b> goal
+ * from the configuration of an <b>osgi.container</b> module of the reactor.
+ * <p>
+ * Several distributions may be built from the same module, for example a
+ * Felix and an Equinox variant of the same product, each one overriding the
+ * container and, optionally, the container POM.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class Distribution {
+
+    private Container container;
+
+    private String containerPomDependenciesGAV;
+
+    private String id;
+
+    private String module;
+
+    /**
+     * Creates the configuration of a goal executed for a distribution.
+     * <p>
+     * The elements of the module configuration that are parameters of the
+     * goal are kept, the overridden ones are replaced and the missing ones
+     * take the default values of the goal, as Maven itself does when the goal
+     * is bound to the lifecycle.
+     *
+     * @param pModuleConfiguration
+     *                                 the configuration of the plugin in the
+     *                                 module, it may be null.
+     * @param pOverrides
+     *                                 the parameter values that replace the
+     *                                 module ones.
+     * @param pMojoDescriptor
+     *                                 the descriptor of the goal.
+     * @return the configuration of the goal execution.
+     */
+    public static Xpp3Dom configure(Xpp3Dom pModuleConfiguration,
+            Map<String, String> pOverrides, MojoDescriptor pMojoDescriptor) {
+        Set<String> parameters = new HashSet<>();
+        if (pMojoDescriptor.getParameters() != null) {
+            for (Parameter parameter : pMojoDescriptor.getParameters()) {
+                parameters.add(parameter.getName());
+                if (parameter.getAlias() != null) {
+                    parameters.add(parameter.getAlias());
+                }
+            }
+        }
+        Xpp3Dom configuration = new Xpp3Dom("configuration");
+        if (pModuleConfiguration != null) {
+            for (Xpp3Dom child : pModuleConfiguration.getChildren()) {
+                if (parameters.contains(child.getName())
+                        && !pOverrides.containsKey(child.getName())) {
+                    configuration.addChild(new Xpp3Dom(child));
+                }
+            }
+        }
+        for (Map.Entry<String, String> override : pOverrides.entrySet()) {
+            if (parameters.contains(override.getKey())) {
+                Xpp3Dom child = new Xpp3Dom(override.getKey());
+                child.setValue(override.getValue());
+                configuration.addChild(child);
+            }
+        }
+        return Xpp3Dom.mergeXpp3Dom(configuration,
+                defaultConfiguration(pMojoDescriptor));
+    }
+
+    /**
+     * Creates the default configuration of a goal from the expression and
+     * the default value of each of its parameters.
+     */
+    private static Xpp3Dom defaultConfiguration(
+            MojoDescriptor pMojoDescriptor) {
+        Xpp3Dom configuration = new Xpp3Dom("configuration");
+        if (pMojoDescriptor.getParameters() == null) {
+            return configuration;
+        }
+        for (Parameter parameter : pMojoDescriptor.getParameters()) {
+            if (parameter.getExpression() == null
+                    && parameter.getDefaultValue() == null) {
+                continue;
+            }
+            Xpp3Dom child = new Xpp3Dom(parameter.getName());
+            child.setValue(parameter.getExpression());
+            if (parameter.getDefaultValue() != null) {
+                child.setAttribute("default-value",
+                        parameter.getDefaultValue());
+            }
+            configuration.addChild(child);
+        }
+        return configuration;
+    }
+
+    public Container getContainer() {
+        return container;
+    }
+
+    public String getContainerPomDependenciesGAV() {
+        return containerPomDependenciesGAV;
+    }
+
+    /**
+     * @return the identifier of the distribution, used as the classifier of
+     *         its archive.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the artifactId of the module whose configuration is used, it
+     *         may be null when the reactor has a single
+     *         <b>osgi.container</b> module.
+     */
+    public String getModule() {
+        return module;
+    }
+
+    /**
+     * @return the parameter values of the module configuration replaced by
+     *         this distribution.
+     */
+    public Map<String, String> getOverrides() {
+        Map<String, String> overrides = new LinkedHashMap<>();
+        if (container != null) {
+            overrides.put("container", container.name());
+        }
+        if (containerPomDependenciesGAV != null) {
+            overrides.put("containerPomDependenciesGAV",
+                    containerPomDependenciesGAV);
+        }
+        return overrides;
+    }
+
+    public void setContainer(Container pContainer) {
+        this.container = pContainer;
+    }
+
+    public void setContainerPomDependenciesGAV(
+            String pContainerPomDependenciesGAV) {
+        this.containerPomDependenciesGAV = pContainerPomDependenciesGAV;
+    }
+
+    public void setId(String pId) {
+        this.id = pId;
+    }
+
+    public void setModule(String pModule) {
+        this.module = pModule;
+    }
+
+    @Override
+    public String toString() {
+        return id + (module == null ? "" : " (" + module + ")");
+    }
+}
@@ -0,0 +1,485 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Prepares a minimal Docker build context containing only the Dockerfile and
+ * the files referenced by its <b>ADD</b> and <b>COPY</b> instructions. The
+ * referenced directories are created even when empty, like a layer without
+ * any file, since Docker fails to copy a missing source.
+ * <p>
+ * The Docker client archives and uploads the whole context directory on every
+ * build, so using the project's build directory would send the classes, the
+ * caches and the test outputs to the daemon too. The files of the context are
+ * hard links to the original ones whenever possible, so preparing it costs
+ * almost nothing, and the patterns of a <b>.dockerignore</b> file are applied
+ * while it is prepared, so ignored files are never archived.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class DockerBuildContext {
+
+    /**
+     * Counters about a {@link DockerBuildContext#prepare(String, Map)}
+     * execution.
+     */
+    public static final class Result {
+
+        private long bytes;
+        private int files;
+        private int ignored;
+        private int removed;
+        private int updated;
+
+        /**
+         * @return the size of the files of the context.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return how many files compose the context.
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return how many referenced files were left out by the
+         *         <b>.dockerignore</b> patterns.
+         */
+        public int getIgnored() {
+            return ignored;
+        }
+
+        /**
+         * @return how many files of a previous context were removed.
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return how many files were added or replaced in the context.
+         */
+        public int getUpdated() {
+            return updated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d files, %d KB (%d updated, %d removed, %d ignored)",
+                    files, bytes / 1024, updated, removed, ignored);
+        }
+    }
+
+    private static final class IgnoreRule {
+
+        private final boolean exception;
+        private final PathMatcher matcher;
+
+        IgnoreRule(PathMatcher pMatcher, boolean pException) {
+            this.matcher = pMatcher;
+            this.exception = pException;
+        }
+    }
+
+    public static final String DOCKER_IGNORE = ".dockerignore";
+
+    private static final Pattern ARG_INSTRUCTION = Pattern
+            .compile("(?i)^ARG\\s+([A-Za-z_][A-Za-z0-9_]*)(?:=(\\S*))?.*$");
+
+    private static final Pattern FILE_INSTRUCTION = Pattern
+            .compile("(?i)^(ADD|COPY)\\s+(.*)$");
+
+    private static final Pattern VARIABLE = Pattern
+            .compile("\\$(?:\\{([A-Za-z_][A-Za-z0-9_]*)\\}|([A-Za-z_][A-Za-z0-9_]*))");
+
+    private final Path contextDirectory;
+
+    private final Path dockerIgnoreFile;
+
+    private final List<IgnoreRule> ignoreRules = new ArrayList<>();
+
+    private final Path sourceDirectory;
+
+    /**
+     * @param pSourceDirectory
+     *                             the directory containing the Dockerfile and
+     *                             the files it references.
+     * @param pContextDirectory
+     *                             the directory where the context will be
+     *                             prepared.
+     * @param pDockerIgnoreFile
+     *                             a <b>.dockerignore</b> file, or null to use
+     *                             the one of the source directory, if any.
+     */
+    public DockerBuildContext(Path pSourceDirectory, Path pContextDirectory,
+            Path pDockerIgnoreFile) {
+        this.sourceDirectory = pSourceDirectory;
+        this.contextDirectory = pContextDirectory;
+        this.dockerIgnoreFile = pDockerIgnoreFile != null
+                && Files.isRegularFile(pDockerIgnoreFile) ? pDockerIgnoreFile
+                        : pSourceDirectory.resolve(DOCKER_IGNORE);
+    }
+
+    private static String clean(String pPath) {
+        String path = pPath.replace('\\', '/');
+        while (path.startsWith("./")) {
+            path = path.substring(2);
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    private static boolean isSameFile(Path pSource, Path pTarget)
+            throws IOException {
+        if (!Files.isRegularFile(pTarget)) {
+            return false;
+        }
+        if (Files.isSameFile(pSource, pTarget)) {
+            return true;
+        }
+        BasicFileAttributes source = Files.readAttributes(pSource,
+                BasicFileAttributes.class);
+        BasicFileAttributes target = Files.readAttributes(pTarget,
+                BasicFileAttributes.class);
+        return source.size() == target.size() && source.lastModifiedTime()
+                .toMillis() == target.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Reads the logical lines of a Dockerfile, joining the continuation lines
+     * and dropping the comments.
+     */
+    private static List<String> readInstructions(Path pDockerfile)
+            throws IOException {
+        List<String> instructions = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : Files.readAllLines(pDockerfile,
+                StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.endsWith("\\")) {
+                current.append(trimmed, 0, trimmed.length() - 1).append(' ');
+                continue;
+            }
+            current.append(trimmed);
+            if (current.toString().trim().length() > 0) {
+                instructions.add(current.toString().trim());
+            }
+            current.setLength(0);
+        }
+        if (current.toString().trim().length() > 0) {
+            instructions.add(current.toString().trim());
+        }
+        return instructions;
+    }
+
+    private static String substitute(String pValue,
+            Map<String, String> pVariables) {
+        Matcher matcher = VARIABLE.matcher(pValue);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String name = matcher.group(1) != null ? matcher.group(1)
+                    : matcher.group(2);
+            matcher.appendReplacement(result, Matcher.quoteReplacement(
+                    pVariables.getOrDefault(name, "")));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static List<String> splitArguments(String pArguments) {
+        String arguments = pArguments.trim();
+        if (arguments.startsWith("[")) {
+            try {
+                String[] values = new Gson().fromJson(arguments,
+                        String[].class);
+                List<String> list = new ArrayList<>();
+                for (String value : values) {
+                    list.add(value);
+                }
+                return list;
+            } catch (JsonParseException e) {
+                // not a json array, handled as the shell form
+            }
+        }
+        List<String> list = new ArrayList<>();
+        for (String value : arguments.split("\\s+")) {
+            if (!value.isEmpty()) {
+                list.add(value);
+            }
+        }
+        return list;
+    }
+
+    private void collect(String pSource, SortedMap<String, Path> pFiles,
+            SortedSet<String> pDirectories, Result pResult)
+            throws IOException {
+        String source = clean(pSource);
+        if (source.isEmpty() || ".".equals(source)) {
+            throw new IOException(
+                    "The Dockerfile copies the whole context, a minimal context can not be used.");
+        }
+        List<Path> matches = new ArrayList<>();
+        if (source.contains("*") || source.contains("?")
+                || source.contains("[")) {
+            PathMatcher matcher = FileSystems.getDefault()
+                    .getPathMatcher("glob:" + source);
+            try (Stream<Path> stream = Files.walk(sourceDirectory)) {
+                stream.filter(path -> matcher.matches(
+                        sourceDirectory.relativize(path)))
+                        .forEach(matches::add);
+            }
+        } else {
+            Path path = sourceDirectory.resolve(source);
+            if (!Files.exists(path)) {
+                throw new IOException("The file " + source
+                        + " referenced by the Dockerfile does not exist in "
+                        + sourceDirectory);
+            }
+            matches.add(path);
+        }
+        for (Path match : matches) {
+            List<Path> paths;
+            try (Stream<Path> stream = Files.walk(match)) {
+                paths = stream.collect(Collectors.toList());
+            }
+            for (Path path : paths) {
+                String relative = clean(
+                        sourceDirectory.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    // kept even when empty, as COPY fails on a missing source
+                    if (!relative.isEmpty() && !isIgnored(relative)) {
+                        pDirectories.add(relative);
+                    }
+                } else
+                    if (isIgnored(relative)) {
+                        pResult.ignored++;
+                    } else
+                        if (Files.isRegularFile(path)) {
+                            pFiles.put(relative, path);
+                        }
+            }
+        }
+    }
+
+    /**
+     * Tells whether a path of the context is excluded by the
+     * <b>.dockerignore</b> patterns. As in Docker, a pattern matching a
+     * directory excludes all its content, the patterns starting with
+     * <b>!</b> are exceptions and the last matching pattern wins.
+     *
+     * @param pPath
+     *                  a path relative to the context.
+     * @return whether the path must be left out.
+     */
+    public boolean isIgnored(String pPath) {
+        String path = clean(pPath);
+        boolean ignored = false;
+        for (IgnoreRule rule : ignoreRules) {
+            if (matches(rule.matcher, path)) {
+                ignored = !rule.exception;
+            }
+        }
+        return ignored;
+    }
+
+    private void loadIgnoreRules() throws IOException {
+        ignoreRules.clear();
+        if (!Files.isRegularFile(dockerIgnoreFile)) {
+            return;
+        }
+        for (String line : Files.readAllLines(dockerIgnoreFile,
+                StandardCharsets.UTF_8)) {
+            String pattern = line.trim();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            boolean exception = pattern.startsWith("!");
+            if (exception) {
+                pattern = pattern.substring(1).trim();
+            }
+            pattern = clean(pattern);
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            ignoreRules.add(new IgnoreRule(FileSystems.getDefault()
+                    .getPathMatcher("glob:" + pattern), exception));
+        }
+    }
+
+    private boolean matches(PathMatcher pMatcher, String pPath) {
+        Path path = contextDirectory.getFileSystem().getPath(pPath);
+        for (int i = path.getNameCount(); i > 0; i--) {
+            if (pMatcher.matches(path.subpath(0, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prepares the context directory.
+     *
+     * @param pDockerfileName
+     *                            the name of the Dockerfile inside the source
+     *                            directory.
+     * @param pBuildArgs
+     *                            the build arguments, used to resolve the
+     *                            variables of the ADD and COPY instructions.
+     * @return the counters of the execution.
+     * @throws IOException
+     *                         when a referenced file does not exist or the
+     *                         context could not be written.
+     */
+    public Result prepare(String pDockerfileName,
+            Map<String, String> pBuildArgs) throws IOException {
+        Result result = new Result();
+        loadIgnoreRules();
+        Path dockerfile = sourceDirectory.resolve(pDockerfileName);
+        SortedMap<String, Path> files = new TreeMap<>();
+        SortedSet<String> directories = new TreeSet<>();
+        files.put(pDockerfileName, dockerfile);
+        if (Files.isRegularFile(dockerIgnoreFile)) {
+            files.put(DOCKER_IGNORE, dockerIgnoreFile);
+        }
+
+        Map<String, String> variables = new HashMap<>();
+        for (String instruction : readInstructions(dockerfile)) {
+            Matcher arg = ARG_INSTRUCTION.matcher(instruction);
+            if (arg.matches()) {
+                String name = arg.group(1);
+                if (pBuildArgs != null && pBuildArgs.containsKey(name)) {
+                    variables.put(name, pBuildArgs.get(name));
+                } else
+                    if (arg.group(2) != null) {
+                        variables.put(name, arg.group(2));
+                    }
+                continue;
+            }
+            Matcher file = FILE_INSTRUCTION.matcher(instruction);
+            if (!file.matches()) {
+                continue;
+            }
+            List<String> arguments = splitArguments(file.group(2));
+            if (arguments.stream().anyMatch(
+                    a -> a.toLowerCase(Locale.ROOT).startsWith("--from"))) {
+                // copied from another stage or image
+                continue;
+            }
+            arguments.removeIf(a -> a.startsWith("--"));
+            for (int i = 0; i < arguments.size() - 1; i++) {
+                String source = substitute(arguments.get(i), variables);
+                if (!source.matches("(?i)^(https?|git)://.*")) {
+                    collect(source, files, directories, result);
+                }
+            }
+        }
+
+        Files.createDirectories(contextDirectory);
+        result.removed = removeStaleFiles(files, directories);
+        for (String directory : directories) {
+            Files.createDirectories(contextDirectory.resolve(directory));
+        }
+        for (Map.Entry<String, Path> entry : files.entrySet()) {
+            Path target = contextDirectory.resolve(entry.getKey());
+            result.bytes += Files.size(entry.getValue());
+            if (!isSameFile(entry.getValue(), target)) {
+                stageFile(entry.getValue(), target);
+                result.updated++;
+            }
+        }
+        result.files = files.size();
+        return result;
+    }
+
+    private int removeStaleFiles(SortedMap<String, Path> pExpected,
+            SortedSet<String> pDirectories) throws IOException {
+        List<Path> existing;
+        try (Stream<Path> stream = Files.walk(contextDirectory)) {
+            existing = stream.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        int removed = 0;
+        for (Path path : existing) {
+            if (path.equals(contextDirectory)) {
+                continue;
+            }
+            if (Files.isDirectory(path)) {
+                if (pDirectories.contains(
+                        clean(contextDirectory.relativize(path).toString()))) {
+                    continue;
+                }
+                try (Stream<Path> children = Files.list(path)) {
+                    if (!children.findAny().isPresent()) {
+                        Files.delete(path);
+                    }
+                }
+            } else
+                if (!pExpected.containsKey(
+                        clean(contextDirectory.relativize(path).toString()))) {
+                    Files.delete(path);
+                    removed++;
+                }
+        }
+        return removed;
+    }
+
+    private void stageFile(Path pSource, Path pTarget) throws IOException {
+        Files.createDirectories(pTarget.getParent());
+        Files.deleteIfExists(pTarget);
+        try {
+            Files.createLink(pTarget, pSource);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(pSource, pTarget, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+}
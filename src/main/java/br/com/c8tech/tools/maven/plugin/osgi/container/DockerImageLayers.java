@@ -0,0 +1,380 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits the files of a container distribution in directories, one per image
+ * layer, ordered by how often their contents change.
+ * <p>
+ * Each layer is copied by its own instruction of the layered Dockerfile, or
+ * written as its own blob of an OCI image, so a change in a project bundle or
+ * in a configuration file only rebuilds, pushes and pulls the small layers on
+ * top, while the runtime and third-party bundle layers keep their digests and
+ * are reused by the registries and the nodes.
+ * <p>
+ * The staged files are hard links to their sources whenever possible. Files
+ * already staged with the same size and modification time are left untouched
+ * and the ones no longer part of the distribution are removed.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class DockerImageLayers {
+
+    /**
+     * The layers of the image, from the most stable to the most volatile one.
+     */
+    public enum Layer {
+
+        /**
+         * The container's framework and launcher.
+         */
+        RUNTIME("runtime"),
+
+        /**
+         * The third-party bundles.
+         */
+        DEPENDENCIES("dependencies"),
+
+        /**
+         * The local OSGi repository.
+         */
+        REPOSITORY("repository"),
+
+        /**
+         * The bundles owned by the project.
+         */
+        APPLICATION("application"),
+
+        /**
+         * The container's configuration files.
+         */
+        CONFIGURATION("configuration");
+
+        private final String directoryName;
+
+        Layer(String pDirectoryName) {
+            this.directoryName = pDirectoryName;
+        }
+
+        public String getDirectoryName() {
+            return directoryName;
+        }
+    }
+
+    /**
+     * Counters about a {@link DockerImageLayers#stage()} execution.
+     */
+    public static final class Statistics {
+
+        private final Map<Layer, Long> bytes = new EnumMap<>(Layer.class);
+        private final Map<Layer, Integer> files = new EnumMap<>(Layer.class);
+        private int removed;
+        private final Map<Layer, Integer> updated = new EnumMap<>(
+                Layer.class);
+
+        /**
+         * @param pLayer
+         *                   a layer.
+         * @return the size of the files of the informed layer.
+         */
+        public long getBytes(Layer pLayer) {
+            return bytes.getOrDefault(pLayer, 0L);
+        }
+
+        /**
+         * @param pLayer
+         *                   a layer.
+         * @return how many files compose the informed layer.
+         */
+        public int getFiles(Layer pLayer) {
+            return files.getOrDefault(pLayer, 0);
+        }
+
+        /**
+         * @return how many previously staged files were removed.
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @param pLayer
+         *                   a layer.
+         * @return how many files of the informed layer were staged again
+         *         because they are new or changed.
+         */
+        public int getUpdated(Layer pLayer) {
+            return updated.getOrDefault(pLayer, 0);
+        }
+
+        /**
+         * @param pLayer
+         *                   a layer.
+         * @return whether the informed layer has any new, changed or removed
+         *         file.
+         */
+        public boolean isChanged(Layer pLayer) {
+            return getUpdated(pLayer) > 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Layer layer : Layer.values()) {
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(String.format("%s: %d files, %d KB%s",
+                        layer.getDirectoryName(), getFiles(layer),
+                        getBytes(layer) / 1024,
+                        isChanged(layer)
+                                ? " (" + getUpdated(layer) + " updated)"
+                                : ""));
+            }
+            if (removed > 0) {
+                builder.append(", ").append(removed).append(" removed");
+            }
+            return builder.toString();
+        }
+    }
+
+    private final Map<Layer, SortedMap<String, Path>> entries = new EnumMap<>(
+            Layer.class);
+
+    private final Path layersDirectory;
+
+    /**
+     * @param pLayersDirectory
+     *                             the directory where a sub directory per
+     *                             layer will be staged.
+     */
+    public DockerImageLayers(Path pLayersDirectory) {
+        this.layersDirectory = pLayersDirectory;
+        for (Layer layer : Layer.values()) {
+            entries.put(layer, new TreeMap<>());
+        }
+    }
+
+    private static boolean isSameFile(Path pSource, Path pTarget)
+            throws IOException {
+        if (!Files.isRegularFile(pTarget)) {
+            return false;
+        }
+        if (Files.isSameFile(pSource, pTarget)) {
+            return true;
+        }
+        BasicFileAttributes source = Files.readAttributes(pSource,
+                BasicFileAttributes.class);
+        BasicFileAttributes target = Files.readAttributes(pTarget,
+                BasicFileAttributes.class);
+        return source.size() == target.size() && source.lastModifiedTime()
+                .toMillis() == target.lastModifiedTime().toMillis();
+    }
+
+    private static String normalize(String pPath) {
+        String path = pPath.replace('\\', '/');
+        while (path.startsWith("./")) {
+            path = path.substring(2);
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
+    /**
+     * Adds all regular files found under a source directory, placing them
+     * inside the informed distribution directory. Missing source directories
+     * are ignored.
+     *
+     * @param pLayer
+     *                             the layer of the files.
+     * @param pTargetDirectory
+     *                             the directory inside the distribution, like
+     *                             <b>bundles</b> or <b>.</b> for its root.
+     * @param pSourceDirectory
+     *                             the directory containing the files.
+     * @throws IOException
+     *                         when the source directory could not be read.
+     */
+    public void addDirectory(Layer pLayer, String pTargetDirectory,
+            Path pSourceDirectory) throws IOException {
+        addDirectory(pTargetDirectory, pSourceDirectory, file -> pLayer);
+    }
+
+    /**
+     * Adds all regular files found under a source directory, placing them
+     * inside the informed distribution directory. The layer of each file is
+     * decided by the informed classifier. Missing source directories are
+     * ignored.
+     *
+     * @param pTargetDirectory
+     *                             the directory inside the distribution, like
+     *                             <b>bundles</b> or <b>.</b> for its root.
+     * @param pSourceDirectory
+     *                             the directory containing the files.
+     * @param pClassifier
+     *                             returns the layer of a source file.
+     * @throws IOException
+     *                         when the source directory could not be read.
+     */
+    public void addDirectory(String pTargetDirectory, Path pSourceDirectory,
+            Function<Path, Layer> pClassifier) throws IOException {
+        if (!Files.isDirectory(pSourceDirectory)) {
+            return;
+        }
+        String prefix = normalize(pTargetDirectory);
+        if (".".equals(prefix)) {
+            prefix = "";
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(pSourceDirectory)) {
+            files = stream.filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String relative = pSourceDirectory.relativize(file).toString();
+            addFile(pClassifier.apply(file),
+                    prefix.isEmpty() ? relative : prefix + "/" + relative,
+                    file);
+        }
+    }
+
+    /**
+     * Adds a single file.
+     *
+     * @param pLayer
+     *                   the layer of the file.
+     * @param pPath
+     *                   the path of the file inside the distribution.
+     * @param pSource
+     *                   the file to be staged.
+     */
+    public void addFile(Layer pLayer, String pPath, Path pSource) {
+        String path = normalize(pPath);
+        for (SortedMap<String, Path> layerEntries : entries.values()) {
+            layerEntries.remove(path);
+        }
+        entries.get(pLayer).put(path, pSource);
+    }
+
+    /**
+     * @param pLayer
+     *                   a layer.
+     * @return the directory where the files of the informed layer are staged.
+     */
+    public Path getLayerDirectory(Layer pLayer) {
+        return layersDirectory.resolve(pLayer.getDirectoryName());
+    }
+
+    /**
+     * @param pLayer
+     *                   a layer.
+     * @return the files added to the informed layer, keyed by their sorted
+     *         paths inside the distribution.
+     */
+    public SortedMap<String, Path> getFiles(Layer pLayer) {
+        return Collections.unmodifiableSortedMap(entries.get(pLayer));
+    }
+
+    private int removeStaleFiles(Path pLayerDirectory, Set<String> pExpected)
+            throws IOException {
+        List<Path> existing;
+        try (Stream<Path> stream = Files.walk(pLayerDirectory)) {
+            existing = stream.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        int removed = 0;
+        for (Path path : existing) {
+            if (path.equals(pLayerDirectory)) {
+                continue;
+            }
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> children = Files.list(path)) {
+                    if (!children.findAny().isPresent()) {
+                        Files.delete(path);
+                    }
+                }
+            } else
+                if (!pExpected.contains(pLayerDirectory.relativize(path)
+                        .toString().replace('\\', '/'))) {
+                    Files.delete(path);
+                    removed++;
+                }
+        }
+        return removed;
+    }
+
+    /**
+     * Stages the added files in their layer directories.
+     *
+     * @return the counters of the execution.
+     * @throws IOException
+     *                         when a file could not be staged.
+     */
+    public Statistics stage() throws IOException {
+        Statistics statistics = new Statistics();
+        for (Layer layer : Layer.values()) {
+            Path layerDirectory = getLayerDirectory(layer);
+            Files.createDirectories(layerDirectory);
+            Map<String, Path> layerEntries = entries.get(layer);
+            int removed = removeStaleFiles(layerDirectory,
+                    layerEntries.keySet());
+            statistics.removed += removed;
+            int updated = removed;
+            long bytes = 0;
+            for (Map.Entry<String, Path> entry : layerEntries.entrySet()) {
+                Path source = entry.getValue();
+                Path target = layerDirectory.resolve(entry.getKey());
+                bytes += Files.size(source);
+                if (isSameFile(source, target)) {
+                    continue;
+                }
+                stageFile(source, target);
+                updated++;
+            }
+            statistics.files.put(layer, layerEntries.size());
+            statistics.bytes.put(layer, bytes);
+            statistics.updated.put(layer, updated);
+        }
+        return statistics;
+    }
+
+    private void stageFile(Path pSource, Path pTarget) throws IOException {
+        Files.createDirectories(pTarget.getParent());
+        Files.deleteIfExists(pTarget);
+        try {
+            Files.createLink(pTarget, pSource);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(pSource, pTarget, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Groups the bundles by start level in a single pass and produces the
+ * <b>felix.auto.install.N</b> and <b>felix.auto.start.N</b> properties of a
+ * Felix configuration file.
+ * <p>
+ * Each property value is built once, in a buffer per start level, instead of
+ * being read, concatenated and written back for every bundle.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+final class FelixAutoPropertiesBuilder {
+
+    static final String AUTO_INSTALL_PREFIX = "felix.auto.install.";
+
+    static final String AUTO_START_PREFIX = "felix.auto.start.";
+
+    private static final String BUNDLE_LOCATION_PREFIX = "file:./bundles/";
+
+    private static final String FELIX_LINE_BREAK = " ";
+
+    private final Map<String, StringBuilder> locationsByKey = new TreeMap<>();
+
+    private void add(String pKey, String pFileName) {
+        StringBuilder locations = locationsByKey.computeIfAbsent(pKey,
+                key -> new StringBuilder(256));
+        if (locations.length() > 0) {
+            locations.append(FELIX_LINE_BREAK);
+        }
+        locations.append(BUNDLE_LOCATION_PREFIX).append(pFileName);
+    }
+
+    /**
+     * Adds a bundle that must only be installed.
+     *
+     * @param pStartLevel
+     *                        the start level used as the property suffix.
+     * @param pFileName
+     *                        the bundle file name inside the bundles
+     *                        directory.
+     */
+    void addInstallable(int pStartLevel, String pFileName) {
+        add(AUTO_INSTALL_PREFIX + pStartLevel, pFileName);
+    }
+
+    /**
+     * Adds a bundle that must be installed and started.
+     *
+     * @param pStartLevel
+     *                        the bundle start level.
+     * @param pFileName
+     *                        the bundle file name inside the bundles
+     *                        directory.
+     */
+    void addStartable(int pStartLevel, String pFileName) {
+        add(AUTO_START_PREFIX + pStartLevel, pFileName);
+    }
+
+    /**
+     * Writes the grouped properties keeping the layout of the configuration
+     * file. Bundles already declared in it are kept before the added ones.
+     *
+     * @param pConfigurationFile
+     *                               the configuration file.
+     */
+    void applyTo(OrderedPropertiesFile pConfigurationFile) {
+        build(pConfigurationFile::getProperty)
+                .forEach(pConfigurationFile::setProperty);
+    }
+
+    private Map<String, String> build(
+            Function<String, String> pExistentValues) {
+        Map<String, String> values = new TreeMap<>();
+        for (Map.Entry<String, StringBuilder> entry : locationsByKey
+                .entrySet()) {
+            String existent = pExistentValues.apply(entry.getKey());
+            if (existent == null || existent.isEmpty()) {
+                values.put(entry.getKey(), entry.getValue().toString());
+            } else {
+                values.put(entry.getKey(),
+                        new StringBuilder(existent.length()
+                                + entry.getValue().length() + 1)
+                                        .append(existent)
+                                        .append(FELIX_LINE_BREAK)
+                                        .append(entry.getValue())
+                                        .toString());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Digests and measures the contents of the files handled by the plugin.
+ * <p>
+ * The SHA-256 digests are always represented in lower case hexadecimal, the
+ * same representation used in the cache indexes, the lock file and the OCI
+ * image layout.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class FileContents {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private FileContents() {
+    }
+
+    /**
+     * Counts the regular files of a directory tree and their total size.
+     *
+     * @param pDirectory
+     *                       the root of the tree.
+     * @return the number of files and the number of bytes.
+     * @throws IOException
+     *                         when the tree could not be walked.
+     */
+    public static long[] measure(Path pDirectory) throws IOException {
+        long[] counters = new long[2];
+        try (Stream<Path> stream = Files.walk(pDirectory)) {
+            for (Path file : stream.filter(Files::isRegularFile)
+                    .collect(Collectors.toList())) {
+                counters[0]++;
+                counters[1] += Files.size(file);
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * @return a new SHA-256 message digest.
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support it
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file.
+     *
+     * @param pFile
+     *                  the file to digest.
+     * @return the lower case hexadecimal representation of the digest.
+     * @throws IOException
+     *                         when the file could not be read.
+     */
+    public static String sha256(Path pFile) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = Files.newInputStream(pFile)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 digest of a text encoded in UTF-8.
+     *
+     * @param pContent
+     *                     the text to digest.
+     * @return the lower case hexadecimal representation of the digest.
+     */
+    public static String sha256(String pContent) {
+        return toHex(newSha256()
+                .digest(pContent.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param pBytes
+     *                   the bytes of a digest.
+     * @return their lower case hexadecimal representation.
+     */
+    public static String toHex(byte[] pBytes) {
+        char[] chars = new char[pBytes.length * 2];
+        for (int i = 0; i < pBytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(pBytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[pBytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
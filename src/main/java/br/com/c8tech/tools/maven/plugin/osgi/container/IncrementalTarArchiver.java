@@ -0,0 +1,583 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Creates tar, tar.gz and tar.zst archives that can be updated incrementally.
+ * <p>
+ * Every tar entry is compressed as an independent gzip member or zstd frame.
+ * A concatenation of gzip members or zstd frames is a valid compressed stream,
+ * so the archive is read by any tar tool, but an entry can also be copied
+ * byte by byte from the archive produced by a previous execution.
+ * <p>
+ * A manifest with the path, size, modification time, SHA-256 digest and
+ * position of each entry is kept next to the build's work files. When nothing
+ * changed since the last execution the archive is not touched at all,
+ * otherwise only the changed entries are compressed again.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class IncrementalTarArchiver {
+
+    private static final class CountingOutputStream
+            extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream pOut) {
+            super(pOut);
+        }
+
+        @Override
+        public void write(byte[] pBytes, int pOffset, int pLength)
+                throws IOException {
+            out.write(pBytes, pOffset, pLength);
+            count += pLength;
+        }
+
+        @Override
+        public void write(int pByte) throws IOException {
+            out.write(pByte);
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * An entry to be added to the archive.
+     */
+    public static final class Entry {
+
+        private final int mode;
+        private final String name;
+        private final Path source;
+
+        private Entry(String pName, Path pSource, int pMode) {
+            this.name = pName;
+            this.source = pSource;
+            this.mode = pMode;
+        }
+
+        /**
+         * @param pName
+         *                    the path of the directory inside the archive.
+         * @param pSource
+         *                    the directory providing the modification time, it
+         *                    may be null.
+         * @param pMode
+         *                    the unix permissions.
+         * @return a directory entry.
+         */
+        public static Entry directory(String pName, Path pSource, int pMode) {
+            return new Entry(pName.endsWith("/") ? pName : pName + "/",
+                    pSource, pMode);
+        }
+
+        /**
+         * @param pName
+         *                    the path of the file inside the archive.
+         * @param pSource
+         *                    the file to be added.
+         * @param pMode
+         *                    the unix permissions.
+         * @return a file entry.
+         */
+        public static Entry file(String pName, Path pSource, int pMode) {
+            return new Entry(pName, pSource, pMode);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * The outcome of an archive creation.
+     */
+    public static final class Result {
+
+        private int compressed;
+        private int reused;
+        private long reusedBytes;
+        private long uncompressedBytes;
+        private boolean skipped;
+
+        /**
+         * @return how many entries were compressed.
+         */
+        public int getCompressed() {
+            return compressed;
+        }
+
+        /**
+         * @return how many entries were copied from the previous archive.
+         */
+        public int getReused() {
+            return reused;
+        }
+
+        /**
+         * @return the compressed bytes copied from the previous archive.
+         */
+        public long getReusedBytes() {
+            return reusedBytes;
+        }
+
+        /**
+         * @return how many bytes were compressed.
+         */
+        public long getUncompressedBytes() {
+            return uncompressedBytes;
+        }
+
+        /**
+         * @return whether the archive was left untouched because nothing
+         *         changed.
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+    }
+
+    private static final class Record {
+
+        private String digest;
+        private long lastModified;
+        private long length;
+        private final int mode;
+        private final String name;
+        private long offset;
+        private long size;
+        private final String source;
+
+        Record(String pName, String pSource, int pMode) {
+            this.name = pName;
+            this.source = pSource;
+            this.mode = pMode;
+        }
+    }
+
+    private static final String MANIFEST_HEADER = "#incremental-tar 2";
+
+    private static final String SEPARATOR = "\t";
+
+    private long archiveLastModified;
+
+    private String archiveFormat;
+
+    private long archiveSize;
+
+    private int compressionBlockSize = ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+
+    private ExecutorService compressionExecutor;
+
+    private int compressionParallelism;
+
+    private final ArchiveFormat format;
+
+    private final Path manifestFile;
+
+    private final Map<String, Record> previous = new HashMap<>();
+
+    private final List<String> previousOrder = new ArrayList<>();
+
+    private int zstdLevel = 3;
+
+    private int zstdWorkers;
+
+    public IncrementalTarArchiver(Path pManifestFile) {
+        this(pManifestFile, ArchiveFormat.TAR_GZ);
+    }
+
+    public IncrementalTarArchiver(Path pManifestFile, ArchiveFormat pFormat) {
+        this.manifestFile = pManifestFile;
+        this.format = pFormat;
+    }
+
+    private static void copyFully(InputStream pIn, OutputStream pOut)
+            throws IOException {
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = pIn.read(buffer)) != -1) {
+            pOut.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Returns the unix permissions of a file or directory, as the plexus
+     * archiver does for the entries without an explicit mode.
+     *
+     * @param pSource
+     *                     the file or directory.
+     * @param pDefault
+     *                     the mode used when the file system has no POSIX
+     *                     permissions.
+     * @return the unix permissions.
+     * @throws IOException
+     *                         when the permissions could not be read.
+     */
+    public static int modeOf(Path pSource, int pDefault) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(pSource,
+                PosixFileAttributeView.class);
+        if (posix == null) {
+            return pDefault;
+        }
+        int mode = 0;
+        // the constants are declared from OWNER_READ (0400) to
+        // OTHERS_EXECUTE (0001).
+        for (PosixFilePermission permission : posix.readAttributes()
+                .permissions()) {
+            mode |= 0400 >> permission.ordinal();
+        }
+        return mode;
+    }
+
+    /**
+     * Creates or updates the archive.
+     *
+     * @param pEntries
+     *                     the entries, in the order they must appear in the
+     *                     archive.
+     * @param pArchive
+     *                     the archive file.
+     * @return the creation statistics.
+     * @throws IOException
+     *                         when a file could not be read or the archive
+     *                         could not be written.
+     */
+    public Result createArchive(List<Entry> pEntries, Path pArchive)
+            throws IOException {
+        loadManifest();
+        Result result = new Result();
+        boolean previousArchiveValid = isPreviousArchiveValid(pArchive);
+
+        List<Record> records = new ArrayList<>(pEntries.size());
+        List<Boolean> reusable = new ArrayList<>(pEntries.size());
+        boolean unchanged = previousArchiveValid
+                && pEntries.size() == previousOrder.size();
+        for (int i = 0; i < pEntries.size(); i++) {
+            Entry entry = pEntries.get(i);
+            Record old = previousArchiveValid ? previous.get(entry.name)
+                    : null;
+            Record record = newRecord(entry);
+            boolean reuse = isReusable(entry, record, old);
+            if (reuse) {
+                record.offset = old.offset;
+                record.length = old.length;
+            }
+            records.add(record);
+            reusable.add(reuse);
+            unchanged = unchanged && reuse
+                    && entry.name.equals(previousOrder.get(i));
+        }
+
+        if (unchanged) {
+            result.skipped = true;
+            result.reused = records.size();
+            // refresh the attributes of files touched without changes
+            saveManifest(records, pArchive);
+            return result;
+        }
+
+        Files.createDirectories(pArchive.toAbsolutePath().getParent());
+        Path temporary = pArchive
+                .resolveSibling(pArchive.getFileName() + ".tmp");
+        try (FileChannel target = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                FileChannel source = previousArchiveValid
+                        ? FileChannel.open(pArchive, StandardOpenOption.READ)
+                        : null) {
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                long offset = target.position();
+                if (reusable.get(i)) {
+                    transfer(source, record.offset, record.length, target);
+                    result.reused++;
+                    result.reusedBytes += record.length;
+                } else {
+                    result.uncompressedBytes += writeMember(pEntries.get(i),
+                            record, target);
+                    result.compressed++;
+                }
+                record.offset = offset;
+                record.length = target.position() - offset;
+            }
+            // end of archive: two empty blocks
+            try (OutputStream trailer = newMemberStream(target)) {
+                TarHeaders.writeEnd(trailer);
+            }
+        }
+        Files.move(temporary, pArchive, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        saveManifest(records, pArchive);
+        return result;
+    }
+
+    private boolean isPreviousArchiveValid(Path pArchive) throws IOException {
+        if (previousOrder.isEmpty() || !Files.isRegularFile(pArchive)) {
+            return false;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(pArchive,
+                BasicFileAttributes.class);
+        return format.getExtension().equals(archiveFormat)
+                && attributes.size() == archiveSize && attributes
+                .lastModifiedTime().toMillis() == archiveLastModified;
+    }
+
+    private boolean isReusable(Entry pEntry, Record pRecord, Record pOld)
+            throws IOException {
+        if (pOld == null || pOld.mode != pRecord.mode
+                || !pOld.source.equals(pRecord.source)) {
+            return false;
+        }
+        if (pEntry.isDirectory()) {
+            return pOld.lastModified == pRecord.lastModified;
+        }
+        if (pOld.size != pRecord.size) {
+            return false;
+        }
+        if (pOld.lastModified == pRecord.lastModified) {
+            pRecord.digest = pOld.digest;
+            return true;
+        }
+        // the file was touched, compare its content
+        pRecord.digest = FileContents.sha256(pEntry.source);
+        return pRecord.digest.equals(pOld.digest);
+    }
+
+    private void loadManifest() throws IOException {
+        previous.clear();
+        previousOrder.clear();
+        if (!Files.isRegularFile(manifestFile)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(manifestFile,
+                StandardCharsets.UTF_8);
+        if (lines.size() < 2 || !MANIFEST_HEADER.equals(lines.get(0))) {
+            return;
+        }
+        try {
+            String[] archive = lines.get(1).split(SEPARATOR);
+            archiveSize = Long.parseLong(archive[0]);
+            archiveLastModified = Long.parseLong(archive[1]);
+            archiveFormat = archive[2];
+            for (String line : lines.subList(2, lines.size())) {
+                String[] fields = line.split(SEPARATOR, -1);
+                Record record = new Record(fields[0], fields[1],
+                        Integer.parseInt(fields[2], 8));
+                record.size = Long.parseLong(fields[3]);
+                record.lastModified = Long.parseLong(fields[4]);
+                record.digest = fields[5];
+                record.offset = Long.parseLong(fields[6]);
+                record.length = Long.parseLong(fields[7]);
+                previous.put(record.name, record);
+                previousOrder.add(record.name);
+            }
+        } catch (RuntimeException e) {
+            // a damaged manifest only forces a complete archive
+            previous.clear();
+            previousOrder.clear();
+        }
+    }
+
+    private Record newRecord(Entry pEntry) throws IOException {
+        Record record = new Record(pEntry.name,
+                pEntry.source == null ? "" : pEntry.source.toString(),
+                pEntry.mode);
+        record.digest = "";
+        if (pEntry.source != null && Files.exists(pEntry.source)) {
+            BasicFileAttributes attributes = Files.readAttributes(
+                    pEntry.source, BasicFileAttributes.class);
+            record.lastModified = attributes.lastModifiedTime().toMillis();
+            record.size = pEntry.isDirectory() ? 0 : attributes.size();
+        }
+        return record;
+    }
+
+    private void saveManifest(List<Record> pRecords, Path pArchive)
+            throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(pArchive,
+                BasicFileAttributes.class);
+        Files.createDirectories(manifestFile.toAbsolutePath().getParent());
+        Path temporary = manifestFile
+                .resolveSibling(manifestFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary,
+                StandardCharsets.UTF_8)) {
+            writer.write(MANIFEST_HEADER);
+            writer.newLine();
+            writer.write(attributes.size() + SEPARATOR
+                    + attributes.lastModifiedTime().toMillis() + SEPARATOR
+                    + format.getExtension());
+            writer.newLine();
+            for (Record record : pRecords) {
+                writer.write(String.join(SEPARATOR, record.name,
+                        record.source, Integer.toOctalString(record.mode),
+                        Long.toString(record.size),
+                        Long.toString(record.lastModified), record.digest,
+                        Long.toString(record.offset),
+                        Long.toString(record.length)));
+                writer.newLine();
+            }
+        }
+        Files.move(temporary, manifestFile,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void transfer(FileChannel pSource, long pOffset, long pLength,
+            FileChannel pTarget) throws IOException {
+        long transferred = 0;
+        while (transferred < pLength) {
+            long count = pSource.transferTo(pOffset + transferred,
+                    pLength - transferred, pTarget);
+            if (count <= 0) {
+                throw new IOException(
+                        "The previous archive is shorter than expected.");
+            }
+            transferred += count;
+        }
+    }
+
+    private OutputStream unclosable(OutputStream pOutputStream) {
+        return new FilterOutputStream(pOutputStream) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+
+            @Override
+            public void write(byte[] pBytes, int pOffset, int pLength)
+                    throws IOException {
+                out.write(pBytes, pOffset, pLength);
+            }
+        };
+    }
+
+    private OutputStream newMemberStream(FileChannel pTarget)
+            throws IOException {
+        OutputStream target = unclosable(Channels.newOutputStream(pTarget));
+        switch (format) {
+        case TAR:
+            return new BufferedOutputStream(target, 65536);
+        case TAR_ZST:
+            return new BufferedOutputStream(
+                    new ZstdOutputStream(target, zstdLevel)
+                            .setWorkers(zstdWorkers),
+                    65536);
+        default:
+            if (compressionExecutor == null) {
+                return new GZIPOutputStream(target, 65536);
+            }
+            return new ParallelGzipOutputStream(target, compressionExecutor,
+                    compressionParallelism, compressionBlockSize,
+                    Deflater.DEFAULT_COMPRESSION);
+        }
+    }
+
+    /**
+     * Makes the entries be compressed by a {@link ParallelGzipOutputStream}.
+     *
+     * @param pExecutor
+     *                         the executor compressing the blocks.
+     * @param pParallelism
+     *                         how many blocks may be compressed at the same
+     *                         time.
+     * @param pBlockSize
+     *                         the compression block size.
+     */
+    public void setParallelCompression(ExecutorService pExecutor,
+            int pParallelism, int pBlockSize) {
+        this.compressionExecutor = pExecutor;
+        this.compressionParallelism = pParallelism;
+        this.compressionBlockSize = pBlockSize;
+    }
+
+    /**
+     * Sets the Zstandard parameters used by the tar.zst format.
+     *
+     * @param pLevel
+     *                     the compression level.
+     * @param pWorkers
+     *                     how many worker threads are used by each frame, zero
+     *                     compresses in the calling thread.
+     */
+    public void setZstdCompression(int pLevel, int pWorkers) {
+        this.zstdLevel = pLevel;
+        this.zstdWorkers = pWorkers;
+    }
+
+    private long writeMember(Entry pEntry, Record pRecord,
+            FileChannel pTarget) throws IOException {
+        try (OutputStream member = newMemberStream(pTarget)) {
+            if (pEntry.isDirectory()) {
+                TarHeaders.writeHeader(member, pEntry.name,
+                        TarHeaders.DIRECTORY, pEntry.mode, 0,
+                        pRecord.lastModified);
+                return 0;
+            }
+            TarHeaders.writeHeader(member, pEntry.name, TarHeaders.FILE,
+                    pEntry.mode, pRecord.size, pRecord.lastModified);
+            MessageDigest digest = FileContents.newSha256();
+            long written;
+            try (InputStream in = new DigestInputStream(
+                    Files.newInputStream(pEntry.source), digest)) {
+                CountingOutputStream counting = new CountingOutputStream(member);
+                copyFully(in, counting);
+                written = counting.count;
+            }
+            if (written != pRecord.size) {
+                throw new IOException("The file " + pEntry.source
+                        + " changed while it was being archived.");
+            }
+            TarHeaders.writePadding(member, written);
+            pRecord.digest = FileContents.toHex(digest.digest());
+            return written;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The fingerprint of the staged distribution recorded when the files
+ * generated by launching the container were last written.
+ * <p>
+ * Launching the container takes seconds, so the goals only do it again when
+ * their output is missing or the distribution, the java runtime or the JVM
+ * arguments changed since the recorded fingerprint.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class LaunchFingerprint {
+
+    private final Path file;
+
+    /**
+     * @param pFile
+     *                  the file where the fingerprint is recorded.
+     */
+    public LaunchFingerprint(Path pFile) {
+        this.file = pFile;
+    }
+
+    /**
+     * Tells whether the generated output is still valid for the distribution.
+     *
+     * @param pOutput
+     *                         the file or directory generated by launching the
+     *                         container.
+     * @param pFingerprint
+     *                         the current fingerprint of the distribution.
+     * @return true when the output exists and the recorded fingerprint is the
+     *         informed one.
+     * @throws IOException
+     *                         when the recorded fingerprint could not be read.
+     */
+    public boolean isUpToDate(Path pOutput, String pFingerprint)
+            throws IOException {
+        return Files.exists(pOutput) && Files.isRegularFile(file)
+                && pFingerprint.equals(new String(Files.readAllBytes(file),
+                        StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Records the fingerprint of the distribution the output was generated
+     * for. It must be called only after the output was completely written.
+     *
+     * @param pFingerprint
+     *                         the fingerprint of the distribution.
+     * @throws IOException
+     *                         when the fingerprint could not be written.
+     */
+    public void record(String pFingerprint) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, pFingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The filters used by the <b>Require-Capability</b> headers, as described in
+ * the section 3.2.7 of the OSGi core specification.
+ * <p>
+ * The attribute values are compared according to their types: {@link Long},
+ * {@link Double}, {@link OsgiVersion}, {@link String} or a {@link Collection}
+ * of them, which matches when any of its elements matches.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+abstract class LdapFilter {
+
+    private static final class And extends LdapFilter {
+
+        private final List<LdapFilter> operands;
+
+        And(List<LdapFilter> pOperands) {
+            this.operands = pOperands;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> pAttributes) {
+            return operands.stream().allMatch(f -> f.matches(pAttributes));
+        }
+    }
+
+    private static final class Comparison extends LdapFilter {
+
+        private final String attribute;
+        private final String operator;
+        private final String value;
+
+        Comparison(String pAttribute, String pOperator, String pValue) {
+            this.attribute = pAttribute;
+            this.operator = pOperator;
+            this.value = pValue;
+        }
+
+        private boolean compare(Object pActual) {
+            if (pActual instanceof Collection) {
+                return ((Collection<?>) pActual).stream()
+                        .anyMatch(this::compare);
+            }
+            if ("=*".equals(operator)) {
+                return true;
+            }
+            if ("=".equals(operator) && value.indexOf('*') >= 0) {
+                return matchesSubstring(String.valueOf(pActual));
+            }
+            int result;
+            try {
+                if (pActual instanceof OsgiVersion) {
+                    result = ((OsgiVersion) pActual)
+                            .compareTo(OsgiVersion.parse(value));
+                } else
+                    if (pActual instanceof Long) {
+                        result = Long.compare((Long) pActual,
+                                Long.parseLong(value.trim()));
+                    } else
+                        if (pActual instanceof Double) {
+                            result = Double.compare((Double) pActual,
+                                    Double.parseDouble(value.trim()));
+                        } else
+                            if ("~=".equals(operator)) {
+                                return normalize(String.valueOf(pActual))
+                                        .equals(normalize(value));
+                            } else {
+                                result = String.valueOf(pActual)
+                                        .compareTo(value);
+                            }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            switch (operator) {
+            case ">=":
+                return result >= 0;
+            case "<=":
+                return result <= 0;
+            default:
+                return result == 0;
+            }
+        }
+
+        @Override
+        boolean matches(Map<String, Object> pAttributes) {
+            for (Map.Entry<String, Object> entry : pAttributes.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(attribute)) {
+                    return compare(entry.getValue());
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesSubstring(String pActual) {
+            String[] pieces = value.split("\\*", -1);
+            int position = 0;
+            for (int i = 0; i < pieces.length; i++) {
+                String piece = pieces[i];
+                if (i == 0) {
+                    if (!pActual.startsWith(piece)) {
+                        return false;
+                    }
+                    position = piece.length();
+                } else
+                    if (i == pieces.length - 1) {
+                        return pActual.length() - piece.length() >= position
+                                && pActual.endsWith(piece);
+                    } else {
+                        int found = pActual.indexOf(piece, position);
+                        if (found < 0) {
+                            return false;
+                        }
+                        position = found + piece.length();
+                    }
+            }
+            return position == pActual.length();
+        }
+
+        private String normalize(String pValue) {
+            return pValue.replaceAll("\\s", "").toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final class Not extends LdapFilter {
+
+        private final LdapFilter operand;
+
+        Not(LdapFilter pOperand) {
+            this.operand = pOperand;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> pAttributes) {
+            return !operand.matches(pAttributes);
+        }
+    }
+
+    private static final class Or extends LdapFilter {
+
+        private final List<LdapFilter> operands;
+
+        Or(List<LdapFilter> pOperands) {
+            this.operands = pOperands;
+        }
+
+        @Override
+        boolean matches(Map<String, Object> pAttributes) {
+            return operands.stream().anyMatch(f -> f.matches(pAttributes));
+        }
+    }
+
+    private static final class Parser {
+
+        private int position;
+        private final String text;
+
+        Parser(String pText) {
+            this.text = pText;
+        }
+
+        private void expect(char pChar) {
+            skipSpaces();
+            if (position >= text.length() || text.charAt(position) != pChar) {
+                throw new IllegalArgumentException("Expected '" + pChar
+                        + "' at position " + position + " of " + text);
+            }
+            position++;
+        }
+
+        private LdapFilter parseComparison() {
+            int start = position;
+            while (position < text.length()
+                    && "=<>~()".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String attribute = text.substring(start, position).trim();
+            String operator;
+            if (text.startsWith("=", position)) {
+                operator = "=";
+            } else
+                if (text.startsWith(">=", position)
+                        || text.startsWith("<=", position)
+                        || text.startsWith("~=", position)) {
+                    operator = text.substring(position, position + 2);
+                } else {
+                    throw new IllegalArgumentException(
+                            "Invalid operator at position " + position + " of "
+                                    + text);
+                }
+            position += operator.length();
+            StringBuilder value = new StringBuilder();
+            while (position < text.length() && text.charAt(position) != ')') {
+                char c = text.charAt(position++);
+                if (c == '\\' && position < text.length()) {
+                    c = text.charAt(position++);
+                }
+                value.append(c);
+            }
+            if ("=".equals(operator) && "*".equals(value.toString())) {
+                operator = "=*";
+            }
+            return new Comparison(attribute, operator, value.toString());
+        }
+
+        LdapFilter parseFilter() {
+            expect('(');
+            skipSpaces();
+            LdapFilter filter;
+            char c = position < text.length() ? text.charAt(position) : ')';
+            if (c == '&' || c == '|') {
+                position++;
+                List<LdapFilter> operands = new ArrayList<>();
+                skipSpaces();
+                while (position < text.length()
+                        && text.charAt(position) == '(') {
+                    operands.add(parseFilter());
+                    skipSpaces();
+                }
+                filter = c == '&' ? new And(operands) : new Or(operands);
+            } else
+                if (c == '!') {
+                    position++;
+                    filter = new Not(parseFilter());
+                } else {
+                    filter = parseComparison();
+                }
+            expect(')');
+            return filter;
+        }
+
+        private void skipSpaces() {
+            while (position < text.length()
+                    && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * @param pFilter
+     *                    a filter like <b>(&amp;(a=b)(c&gt;=1))</b>.
+     * @return the parsed filter.
+     * @throws IllegalArgumentException
+     *                                      when the filter is not valid.
+     */
+    static LdapFilter parse(String pFilter) {
+        String filter = pFilter.trim();
+        if (!filter.startsWith("(")) {
+            filter = "(" + filter + ")";
+        }
+        Parser parser = new Parser(filter);
+        LdapFilter result = parser.parseFilter();
+        parser.skipSpaces();
+        if (parser.position != filter.length()) {
+            throw new IllegalArgumentException(
+                    "Unexpected text after the filter " + pFilter);
+        }
+        return result;
+    }
+
+    /**
+     * @param pAttributes
+     *                        the attributes of a capability.
+     * @return whether the attributes satisfy this filter.
+     */
+    abstract boolean matches(Map<String, Object> pAttributes);
+}
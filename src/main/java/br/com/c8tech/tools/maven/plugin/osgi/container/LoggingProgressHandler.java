@@ -15,44 +15,103 @@ import com.google.common.base.Objects;
 import com.google.common.base.Splitter;
 import com.spotify.docker.client.ProgressHandler;
 import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ProgressDetail;
 import com.spotify.docker.client.messages.ProgressMessage;
 
 import java.text.MessageFormat;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.LongSupplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.maven.plugin.logging.Log;
 
-class LoggingProgressHandler implements ProgressHandler {
+/**
+ * Logs the progress messages sent by the Docker daemon.
+ *
+ * <p>The bytes transferred for each layer are tracked, so in verbose mode a summary with the
+ * overall percent, rate and estimated remaining time is logged at most once per summary interval,
+ * instead of a line for every progress message. A summary interval of zero restores the line per
+ * message.
+ */
+public class LoggingProgressHandler implements ProgressHandler {
 
+  static final long DEFAULT_SUMMARY_INTERVAL_MILLIS = 2000;
+  private static final double MEGABYTE = 1024 * 1024;
   private static final Splitter LINE_SPLITTER = Splitter.on('\n');
+  private final LongSupplier clock;
   private final Log log;
   private final boolean verbose;
+  private final long summaryIntervalMillis;
   private String builtImageId;
+  private long firstMessageTime;
+  private long firstTransferTime;
+  private long lastSummaryTime;
   private Map<String, String> imageStatuses = new HashMap<>();
+  private Map<String, long[]> layerBytes = new HashMap<>();
+  private String pushedDigest;
 
   LoggingProgressHandler(Log log, boolean verbose) {
+    this(log, verbose, DEFAULT_SUMMARY_INTERVAL_MILLIS);
+  }
+
+  LoggingProgressHandler(Log log, boolean verbose, long summaryIntervalMillis) {
+    this(log, verbose, summaryIntervalMillis, System::currentTimeMillis);
+  }
+
+  /**
+   * @param clock supplies the current time in milliseconds.
+   */
+  public LoggingProgressHandler(Log log, boolean verbose, long summaryIntervalMillis,
+      LongSupplier clock) {
     this.log = log;
     this.verbose = verbose;
+    this.summaryIntervalMillis = summaryIntervalMillis;
+    this.clock = clock;
   }
 
   public static LoggingProgressHandler forLog(Log log, boolean verbose) {
     return new LoggingProgressHandler(log, verbose);
   }
 
+  public static LoggingProgressHandler forLog(Log log, boolean verbose,
+      long summaryIntervalMillis) {
+    return new LoggingProgressHandler(log, verbose, summaryIntervalMillis);
+  }
+
   @Nullable
   public String builtImageId() {
     return builtImageId;
   }
 
+  /**
+   * @return when the daemon sent its first message, that is, right after it
+   *     received the whole build context, or zero when nothing was received.
+   */
+  public long firstMessageTime() {
+    return firstMessageTime;
+  }
+
+  /**
+   * @return the manifest digest reported by the daemon after a push, or null.
+   */
+  @Nullable
+  public String pushedDigest() {
+    return pushedDigest;
+  }
+
   @Override
   public void progress(ProgressMessage message) throws DockerException {
+    if (firstMessageTime == 0) {
+      firstMessageTime = clock.getAsLong();
+    }
     if (message.error() != null) {
       handleError(message.error());
     } else if (message.progressDetail() != null) {
+      trackBytes(message.id(), message.status(), message.progressDetail());
       handleProgress(message.id(), message.status(), message.progress());
     } else if ((message.status() != null) || (message.stream() != null)) {
       handleGeneric(message.stream(), message.status());
@@ -62,6 +121,10 @@ class LoggingProgressHandler implements ProgressHandler {
     if (imageId != null) {
       builtImageId = imageId;
     }
+    String digest = message.digest();
+    if (digest != null) {
+      pushedDigest = digest;
+    }
   }
 
   void handleGeneric(@Nullable String stream, @Nonnull String status) {
@@ -77,7 +140,7 @@ class LoggingProgressHandler implements ProgressHandler {
   }
 
   void handleProgress(@Nonnull String id, @Nonnull String status, @Nullable String progress) {
-    if (verbose) {
+    if (verbose && summaryIntervalMillis <= 0) {
       if (progress == null) {
         log.info(MessageFormat.format("Image {0}: {1}", id, status));
       } else {
@@ -88,7 +151,88 @@ class LoggingProgressHandler implements ProgressHandler {
         imageStatuses.put(id, status);
         log.info(MessageFormat.format("Image {0}: {1}", id, status));
       }
+      if (verbose && firstTransferTime > 0
+          && clock.getAsLong() - lastSummaryTime >= summaryIntervalMillis) {
+        logSummary();
+      }
+    }
+  }
+
+  /**
+   * Logs the overall progress of the layers transferred so far.
+   */
+  public void logSummary() {
+    if (layerBytes.isEmpty()) {
+      return;
+    }
+    long now = clock.getAsLong();
+    lastSummaryTime = now;
+    long transferred = transferredBytes();
+    long total = totalBytes();
+    double seconds = Math.max(1, now - firstTransferTime) / 1000d;
+    double rate = transferred / seconds;
+    String eta = rate <= 0 || total <= transferred ? "0"
+        : String.valueOf(Math.round((total - transferred) / rate));
+    log.info(String.format(Locale.ROOT,
+        "Progress: %d%% of %.1f MB in %d layers, %.1f MB/s, ETA %s s",
+        total == 0 ? 100 : transferred * 100 / total, total / MEGABYTE, layerBytes.size(),
+        rate / MEGABYTE, eta));
+  }
+
+  /**
+   * @return how many layers were transferred.
+   */
+  public int layers() {
+    return layerBytes.size();
+  }
+
+  /**
+   * @return the size of the layers being transferred, as far as reported by the daemon.
+   */
+  public long totalBytes() {
+    long total = 0;
+    for (long[] bytes : layerBytes.values()) {
+      total += bytes[1];
+    }
+    return total;
+  }
+
+  private void trackBytes(@Nullable String id, @Nullable String status,
+      @Nonnull ProgressDetail detail) {
+    if (id == null || status == null) {
+      return;
+    }
+    long[] bytes = layerBytes.get(id);
+    if (status.startsWith("Pushing") || status.startsWith("Downloading")) {
+      if (bytes == null) {
+        bytes = new long[2];
+        layerBytes.put(id, bytes);
+      }
+      if (firstTransferTime == 0) {
+        firstTransferTime = clock.getAsLong();
+        lastSummaryTime = firstTransferTime;
+      }
+      if (detail.current() != null) {
+        bytes[0] = detail.current();
+      }
+      if (detail.total() != null && detail.total() > 0) {
+        bytes[1] = detail.total();
+      }
+    } else if (bytes != null && (status.equals("Pushed")
+        || status.equals("Download complete"))) {
+      bytes[0] = bytes[1];
+    }
+  }
+
+  /**
+   * @return the bytes of the layers transferred so far.
+   */
+  public long transferredBytes() {
+    long transferred = 0;
+    for (long[] bytes : layerBytes.values()) {
+      transferred += Math.min(bytes[0], bytes[1] > 0 ? bytes[1] : bytes[0]);
     }
+    return transferred;
   }
 
   void handleError(@Nonnull String error) throws DockerException {
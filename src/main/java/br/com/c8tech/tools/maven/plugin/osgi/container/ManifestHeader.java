@@ -0,0 +1,173 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the OSGi manifest headers made of clauses, like
+ * <b>Import-Package</b> or <b>Provide-Capability</b>, as described in the
+ * section 3.2.4 of the OSGi core specification.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+final class ManifestHeader {
+
+    /**
+     * A clause of a header, with its paths, attributes and directives.
+     */
+    static final class Clause {
+
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private final Map<String, String> directives = new LinkedHashMap<>();
+        private final List<String> paths = new ArrayList<>();
+        private final Map<String, String> types = new LinkedHashMap<>();
+
+        String getAttribute(String pName) {
+            return attributes.get(pName);
+        }
+
+        Map<String, String> getAttributes() {
+            return Collections.unmodifiableMap(attributes);
+        }
+
+        String getDirective(String pName) {
+            return directives.get(pName);
+        }
+
+        List<String> getPaths() {
+            return Collections.unmodifiableList(paths);
+        }
+
+        /**
+         * @param pName
+         *                  an attribute name.
+         * @return the declared type of the attribute, like <b>Version</b> or
+         *         <b>List&lt;String&gt;</b>, or <b>String</b> when it was not
+         *         declared.
+         */
+        String getType(String pName) {
+            return types.getOrDefault(pName, "String");
+        }
+
+        boolean isOptional() {
+            return "optional".equals(directives.get("resolution"));
+        }
+    }
+
+    private ManifestHeader() {
+    }
+
+    /**
+     * @param pHeader
+     *                    a header value, it may be null.
+     * @return its clauses, in the declared order.
+     */
+    static List<Clause> parse(String pHeader) {
+        List<Clause> clauses = new ArrayList<>();
+        if (pHeader == null) {
+            return clauses;
+        }
+        for (String clauseText : split(pHeader, ',')) {
+            Clause clause = new Clause();
+            for (String part : split(clauseText, ';')) {
+                int directive = indexOutsideQuotes(part, ":=");
+                int attribute = indexOutsideQuotes(part, "=");
+                if (directive >= 0 && directive <= attribute) {
+                    clause.directives.put(part.substring(0, directive).trim(),
+                            unquote(part.substring(directive + 2)));
+                } else
+                    if (attribute >= 0) {
+                        String name = part.substring(0, attribute).trim();
+                        int colon = name.indexOf(':');
+                        if (colon >= 0) {
+                            clause.types.put(name.substring(0, colon).trim(),
+                                    name.substring(colon + 1).trim());
+                            name = name.substring(0, colon).trim();
+                        }
+                        clause.attributes.put(name,
+                                unquote(part.substring(attribute + 1)));
+                    } else {
+                        clause.paths.add(part.trim());
+                    }
+            }
+            if (!clause.paths.isEmpty()) {
+                clauses.add(clause);
+            }
+        }
+        return clauses;
+    }
+
+    private static int indexOutsideQuotes(String pText, String pToken) {
+        boolean quoted = false;
+        for (int i = 0; i < pText.length(); i++) {
+            char c = pText.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else
+                if (!quoted && pText.startsWith(pToken, i)) {
+                    return i;
+                }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits a text at the informed separator, ignoring the separators inside
+     * quoted strings. Empty parts are dropped.
+     */
+    static List<String> split(String pText, char pSeparator) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < pText.length(); i++) {
+            char c = pText.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else
+                if (c == '\\' && quoted && i + 1 < pText.length()) {
+                    current.append(c);
+                    c = pText.charAt(++i);
+                } else
+                    if (c == pSeparator && !quoted) {
+                        addPart(parts, current);
+                        continue;
+                    }
+            current.append(c);
+        }
+        addPart(parts, current);
+        return parts;
+    }
+
+    private static void addPart(List<String> pParts, StringBuilder pCurrent) {
+        String part = pCurrent.toString().trim();
+        if (!part.isEmpty()) {
+            pParts.add(part);
+        }
+        pCurrent.setLength(0);
+    }
+
+    private static String unquote(String pValue) {
+        String value = pValue.trim();
+        if (value.length() >= 2 && value.startsWith("\"")
+                && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1).replace("\\\"",
+                    "\"");
+        }
+        return value;
+    }
+}
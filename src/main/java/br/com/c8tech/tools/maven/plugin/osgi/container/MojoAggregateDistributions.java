@@ -0,0 +1,433 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+
+import javax.inject.Inject;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.BuildPluginManager;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * This mojo builds the container distributions of the whole reactor at once.
+ * <p>
+ * For each distribution the goals of the <b>osgi.container</b> lifecycle are
+ * executed with the configuration of its module, but all of them cache their
+ * bundles in a single content-addressed store, the container POM of each
+ * distinct GAV is resolved only once for the whole build and the
+ * distributions are built in parallel. The bundles produced by the other
+ * modules of the reactor can also be added to every distribution.
+ * <p>
+ * When no distribution is configured, one is built for each
+ * <b>osgi.container</b> module of the reactor, replacing its archive.
+ * Otherwise each configured distribution is built in its own directories and
+ * its archive is attached to the module, classified by the distribution id,
+ * so several variants of the same module, like a Felix and an Equinox one,
+ * can be produced together.
+ * <p>
+ * It is an aggregator goal that must run after the reactor modules were
+ * packaged, e.g.
+ * <code>mvn package -Dosgi.container.skip=true osgi-container:aggregateDistributions</code>,
+ * where the per module pipelines are skipped since the distributions are
+ * built by this goal.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@Mojo(name = "aggregateDistributions", defaultPhase = LifecyclePhase.PACKAGE,
+        threadSafe = true, aggregator = true, requiresProject = true,
+        requiresDependencyResolution = ResolutionScope.COMPILE)
+public class MojoAggregateDistributions extends AbstractMojo {
+
+    private static final String CONTAINER_PACKAGING = "osgi.container";
+
+    private static final String DISTRIBUTIONS_DIR_NAME = "distributions";
+
+    private final BuildPluginManager buildPluginManager;
+
+    /**
+     * The distributions to build. When none is configured, one is built for
+     * each <b>osgi.container</b> module of the reactor.
+     */
+    @Parameter
+    private List<Distribution> distributions = new ArrayList<>();
+
+    /**
+     * The goals executed for each distribution, in order.
+     */
+    @Parameter(property = "osgi.container.aggregate.goals",
+            defaultValue = "cacheMavenArtifacts,generateConfigurationFile,verifyResolution,assembly")
+    private List<String> goals;
+
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    private PluginDescriptor pluginDescriptor;
+
+    private final MavenProjectHelper projectHelper;
+
+    /**
+     * Whether the bundles built by the other modules of the reactor are added
+     * to each distribution, as if they were dependencies of its module. By
+     * default only the dependencies declared by the module are packed.
+     */
+    @Parameter(property = "osgi.container.aggregate.reactorBundles",
+            defaultValue = "false")
+    private boolean reactorBundlesIncluded;
+
+    @Parameter(defaultValue = "${reactorProjects}", required = true,
+            readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    /**
+     * The root directory of the content-addressed store where the bundles of
+     * all distributions are cached once.
+     */
+    @Parameter(property = "osgi.container.aggregate.sharedCache.directory",
+            defaultValue = "${project.build.directory}/osgi-container-cache")
+    private File sharedCacheDirectory;
+
+    @Parameter(defaultValue = "false",
+            property = "osgi.container.aggregate.skip")
+    private boolean skip;
+
+    /**
+     * How many distributions are built at the same time. Zero means one
+     * thread per available processor.
+     */
+    @Parameter(property = "osgi.container.aggregate.threads",
+            defaultValue = "0")
+    private int threads;
+
+    @Inject
+    public MojoAggregateDistributions(BuildPluginManager pBuildPluginManager,
+            MavenProjectHelper pProjectHelper) {
+        this.buildPluginManager = pBuildPluginManager;
+        this.projectHelper = pProjectHelper;
+    }
+
+    private static boolean isBundle(File pFile) {
+        if (pFile == null || !pFile.isFile()
+                || !pFile.getName().endsWith(".jar")) {
+            return false;
+        }
+        try (JarFile jar = new JarFile(pFile)) {
+            return BundleMetadata.fromManifest(
+                    jar.getManifest()) != BundleMetadata.NOT_A_BUNDLE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable,
+                    "osgi-container-distribution-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Adds the bundles of the other reactor modules to the artifacts of the
+     * distribution project, so they are cached along with its dependencies.
+     */
+    private void addReactorBundles(MavenProject pProject) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Artifact artifact : pProject.getArtifacts()) {
+            keys.add(artifact.getDependencyConflictId());
+        }
+        Set<Artifact> artifacts = new LinkedHashSet<>(pProject.getArtifacts());
+        for (MavenProject module : reactorProjects) {
+            Artifact artifact = module.getArtifact();
+            if (CONTAINER_PACKAGING.equals(module.getPackaging())
+                    || artifact == null || !isBundle(artifact.getFile())
+                    || !keys.add(artifact.getDependencyConflictId())) {
+                continue;
+            }
+            Artifact bundle = ArtifactUtils.copyArtifact(artifact);
+            bundle.setScope(Artifact.SCOPE_COMPILE);
+            artifacts.add(bundle);
+
+            Dependency dependency = new Dependency();
+            dependency.setGroupId(artifact.getGroupId());
+            dependency.setArtifactId(artifact.getArtifactId());
+            dependency.setVersion(artifact.getVersion());
+            dependency.setType(artifact.getType());
+            dependency.setScope(Artifact.SCOPE_COMPILE);
+            pProject.getDependencies().add(dependency);
+            getLog().debug("Adding the reactor bundle " + artifact
+                    + " to the distribution " + pProject.getArtifactId());
+        }
+        pProject.setArtifacts(artifacts);
+    }
+
+    /**
+     * Builds a distribution, executing its goals in a copy of its module, so
+     * the distributions of the same module do not interfere.
+     *
+     * @return the distribution archive.
+     */
+    private File build(Distribution pDistribution, MavenProject pModule,
+            boolean pAttached)
+            throws MojoExecutionException, MojoFailureException {
+        MavenProject project = pModule.clone();
+        Map<String, String> overrides = new LinkedHashMap<>(
+                pDistribution.getOverrides());
+        overrides.put("skip", "false");
+        overrides.put("sharedCacheEnabled", "true");
+        overrides.put("sharedCacheDirectory",
+                sharedCacheDirectory.getAbsolutePath());
+        if (pAttached) {
+            File directory = new File(
+                    new File(pModule.getBuild().getDirectory(),
+                            DISTRIBUTIONS_DIR_NAME),
+                    pDistribution.getId());
+            overrides.put("workDirectory",
+                    new File(directory, "work").getAbsolutePath());
+            overrides.put("cacheDirectory",
+                    new File(directory, "cache").getAbsolutePath());
+            project.getBuild().setFinalName(pModule.getBuild().getFinalName()
+                    + "-" + pDistribution.getId());
+        }
+        if (reactorBundlesIncluded) {
+            addReactorBundles(project);
+        }
+
+        MavenSession distributionSession = session.clone();
+        distributionSession.setCurrentProject(project);
+        Plugin plugin = pModule
+                .getPlugin(pluginDescriptor.getPluginLookupKey());
+        for (String goal : goals) {
+            MojoDescriptor mojoDescriptor = pluginDescriptor
+                    .getMojo(goal.trim());
+            if (mojoDescriptor == null) {
+                throw new MojoExecutionException("The goal " + goal
+                        + " does not exist in " + pluginDescriptor.getId());
+            }
+            MojoExecution execution = new MojoExecution(mojoDescriptor,
+                    "aggregate-" + pDistribution.getId());
+            execution.setConfiguration(Distribution.configure(
+                    moduleConfiguration(plugin, mojoDescriptor.getGoal()),
+                    overrides, mojoDescriptor));
+            getLog().info("Executing " + mojoDescriptor.getGoal()
+                    + " for the distribution " + pDistribution);
+            try {
+                buildPluginManager.executeMojo(distributionSession,
+                        execution);
+            } catch (MojoFailureException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new MojoExecutionException("Failure executing "
+                        + mojoDescriptor.getGoal() + " for the distribution "
+                        + pDistribution + ": " + e.getMessage(), e);
+            }
+        }
+        return project.getArtifact() == null ? null
+                : project.getArtifact().getFile();
+    }
+
+    /**
+     * Builds the distributions, in parallel when there is more than one.
+     */
+    private void buildAll(Map<Distribution, MavenProject> pDistributions,
+            boolean pAttached)
+            throws MojoExecutionException, MojoFailureException {
+        int workers = threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
+        workers = Math.max(1, Math.min(workers, pDistributions.size()));
+        getLog().info("Building " + pDistributions.size()
+                + " container distributions with " + workers
+                + " threads, sharing the bundle store at "
+                + sharedCacheDirectory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers,
+                newThreadFactory());
+        try {
+            Map<Distribution, Future<File>> futures = new LinkedHashMap<>();
+            for (Map.Entry<Distribution, MavenProject> entry : pDistributions
+                    .entrySet()) {
+                futures.put(entry.getKey(), executor.submit(
+                        () -> build(entry.getKey(), entry.getValue(),
+                                pAttached)));
+            }
+            for (Map.Entry<Distribution, Future<File>> entry : futures
+                    .entrySet()) {
+                File archive = waitFor(entry.getKey(), entry.getValue());
+                MavenProject module = pDistributions.get(entry.getKey());
+                if (archive == null || !archive.isFile()) {
+                    continue;
+                }
+                getLog().info("Built the distribution " + entry.getKey()
+                        + " at " + archive);
+                if (pAttached) {
+                    projectHelper.attachArtifact(module, CONTAINER_PACKAGING,
+                            entry.getKey().getId(), archive);
+                } else {
+                    module.getArtifact().setFile(archive);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Pairs each distribution with the module whose configuration it uses.
+     */
+    private Map<Distribution, MavenProject> collectDistributions(
+            List<MavenProject> pModules) throws MojoExecutionException {
+        Map<Distribution, MavenProject> result = new LinkedHashMap<>();
+        if (distributions == null || distributions.isEmpty()) {
+            for (MavenProject module : pModules) {
+                Distribution distribution = new Distribution();
+                distribution.setId(module.getArtifactId());
+                distribution.setModule(module.getArtifactId());
+                result.put(distribution, module);
+            }
+            return result;
+        }
+        Set<String> ids = new LinkedHashSet<>();
+        for (Distribution distribution : distributions) {
+            if (distribution.getId() == null
+                    || !ids.add(distribution.getId())) {
+                throw new MojoExecutionException(
+                        "Each distribution must have a distinct id: "
+                                + distribution);
+            }
+            MavenProject module = null;
+            for (MavenProject candidate : pModules) {
+                if (distribution.getModule() == null && pModules.size() == 1
+                        || candidate.getArtifactId()
+                                .equals(distribution.getModule())) {
+                    module = candidate;
+                }
+            }
+            if (module == null) {
+                throw new MojoExecutionException("The distribution "
+                        + distribution
+                        + " must name one of the osgi.container modules of the reactor: "
+                        + Arrays.toString(pModules.stream()
+                                .map(MavenProject::getArtifactId).toArray()));
+            }
+            result.put(distribution, module);
+        }
+        return result;
+    }
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping the aggregated distributions.");
+            return;
+        }
+        List<MavenProject> modules = new ArrayList<>();
+        for (MavenProject project : reactorProjects) {
+            if (CONTAINER_PACKAGING.equals(project.getPackaging())) {
+                modules.add(project);
+            }
+        }
+        if (modules.isEmpty()) {
+            getLog().info(
+                    "No osgi.container module was found in the reactor.");
+            return;
+        }
+        boolean attached = distributions != null && !distributions.isEmpty();
+        long start = System.nanoTime();
+        buildAll(collectDistributions(modules), attached);
+        getLog().info("Built the container distributions in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + " ms.");
+    }
+
+    /**
+     * @return the configuration of the plugin in the module, merged with the
+     *         one of the default execution of the goal.
+     */
+    private Xpp3Dom moduleConfiguration(Plugin pPlugin, String pGoal) {
+        if (pPlugin == null) {
+            return null;
+        }
+        Xpp3Dom configuration = (Xpp3Dom) pPlugin.getConfiguration();
+        PluginExecution execution = pPlugin.getExecutionsAsMap()
+                .get("default-" + pGoal);
+        if (execution != null && execution.getConfiguration() != null) {
+            Xpp3Dom merged = new Xpp3Dom(
+                    (Xpp3Dom) execution.getConfiguration());
+            configuration = configuration == null ? merged
+                    : Xpp3Dom.mergeXpp3Dom(merged,
+                            new Xpp3Dom(configuration));
+        }
+        return configuration;
+    }
+
+    private File waitFor(Distribution pDistribution, Future<File> pFuture)
+            throws MojoExecutionException, MojoFailureException {
+        try {
+            return pFuture.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoFailureException) {
+                throw (MojoFailureException) e.getCause();
+            }
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException(
+                    "Failure while building the distribution "
+                            + pDistribution,
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(
+                    "Interrupted while building the distribution "
+                            + pDistribution,
+                    e);
+        }
+    }
+}
@@ -15,6 +15,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -25,7 +27,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
-import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
@@ -38,20 +39,42 @@ import com.google.gson.Gson;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
 
-import br.com.c8tech.tools.maven.osgi.lib.mojo.beans.BundleRef;
-
 @Mojo(name = "buildDockerImage", defaultPhase = LifecyclePhase.PACKAGE,
         requiresProject = true, threadSafe = true)
 public class MojoBuildDocker extends AbstractOsgiDockerMojo {
 
     public static final String DOCKER_FILE = "Dockerfile";
 
+    public static final String LAYERS_DIR_NAME = "docker-layers";
+
     /**
      * Custom build arguments.
      */
     @Parameter(property = "dockerfile.buildArgs")
     private Map<String, String> buildArgs;
 
+    /**
+     * The directory where the build context sent to the Docker daemon is
+     * prepared.
+     * <p>
+     * It only receives the Dockerfile and the files referenced by its
+     * <b>ADD</b> and <b>COPY</b> instructions, hard linked from the build
+     * directory, so the classes, caches and reports found there are neither
+     * archived nor uploaded on each build.
+     */
+    @Parameter(property = "dockerfile.contextDirectory",
+            defaultValue = "${project.build.directory}/docker-context")
+    private File contextDirectory;
+
+    /**
+     * A <b>.dockerignore</b> file whose patterns exclude files from the build
+     * context. When it does not exist a <b>.dockerignore</b> file placed in
+     * the build directory is used, if any.
+     */
+    @Parameter(property = "dockerfile.ignoreFile",
+            defaultValue = "${project.basedir}/.dockerignore")
+    private File dockerIgnoreFile;
+
     /**
      * The name of the base image to use for the created docker image
      * <p>
@@ -61,6 +84,25 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
             defaultValue = "openjdk:11-jre-alpine")
     private String fromImage;
 
+    /**
+     * Whether the distribution must be copied into the image as separated
+     * layers instead of a single archive.
+     * <p>
+     * The files are split, from the most stable to the most volatile, in the
+     * container runtime, the third-party bundles, the local OSGi repository,
+     * the project bundles and the configuration files. A change in a project
+     * bundle or in the configuration then only produces new top layers, so a
+     * redeploy pushes and pulls a few megabytes instead of the whole
+     * distribution.
+     * <p>
+     * This is only applied when the internal Dockerfile is used. The base
+     * image is taken from {@link #fromImage}.
+     *
+     * @see AbstractOsgiContainerPackMojo#collectImageLayers(Path)
+     */
+    @Parameter(property = "dockerfile.layered", defaultValue = "false")
+    private boolean layered;
+
     /**
      * Do not use cache when building the image.
      */
@@ -98,10 +140,12 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
 
     @Nullable
     static String buildImage(@Nonnull DockerClient dockerClient, // NOSONAR
-            @Nonnull Log log, boolean verbose, @Nonnull File contextDirectory,
+            @Nonnull Log log, @Nonnull LoggingProgressHandler progressHandler,
+            @Nonnull File contextDirectory,
             @Nullable String repository, @Nonnull String tag,
             boolean pullNewerImage, boolean noCache,
-            @Nullable Map<String, String> buildArgs)
+            @Nullable Map<String, String> buildArgs,
+            @Nonnull BuildMetrics metrics)
             throws MojoExecutionException, MojoFailureException {
 
         log.info(MessageFormat.format("Building Docker context {0}",
@@ -116,8 +160,6 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
                             + contextDirectory.getPath());
         }
 
-        final LoggingProgressHandler progressHandler = new LoggingProgressHandler(
-                log, verbose);
         final ArrayList<DockerClient.BuildParam> buildParameters = new ArrayList<>();
         if (pullNewerImage) {
             buildParameters.add(DockerClient.BuildParam.pullNewerImage());
@@ -141,6 +183,7 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
                 .toArray(new DockerClient.BuildParam[buildParameters.size()]);
 
         log.info(""); // Spacing around build progress
+        final long start = System.currentTimeMillis();
         try {
             if (repository != null) {
                 final String name = formatImageName(repository, tag);
@@ -159,6 +202,20 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
             throw new MojoExecutionException("Could not build image", e);
         }
         log.info(""); // Spacing around build progress
+        final long end = System.currentTimeMillis();
+        metrics.add("dockerBuildMillis", end - start);
+        metrics.add("progressLayers", progressHandler.layers());
+        metrics.add("progressBytes", progressHandler.transferredBytes());
+        if (progressHandler.firstMessageTime() > 0) {
+            metrics.add("contextUploadMillis",
+                    progressHandler.firstMessageTime() - start);
+            metrics.add("imageBuildMillis",
+                    end - progressHandler.firstMessageTime());
+            log.info(MessageFormat.format(
+                    "Build context sent in {0} ms, image built in {1} ms",
+                    progressHandler.firstMessageTime() - start,
+                    end - progressHandler.firstMessageTime()));
+        }
 
         return progressHandler.builtImageId();
     }
@@ -168,9 +225,9 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
             throws MojoExecutionException, MojoFailureException {
         final Log log = getLog();
 
-        final String imageId = buildImage(dockerClient, log, isVerbose(),
-                getBuildDir(), repository, tag, pullNewerImage, noCache,
-                buildArgs);
+        final String imageId = buildImage(dockerClient, log,
+                createProgressHandler(log), prepareContext(), repository, tag,
+                pullNewerImage, noCache, buildArgs, getMetrics());
 
         if (imageId == null) {
             log.warn("Docker build was successful, but no image was built");
@@ -196,25 +253,95 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
         }
     }
 
+    private File prepareContext()
+            throws MojoExecutionException, MojoFailureException {
+        Path sourceDir = getBuildDir().toPath();
+        String dockerfileName = sourceDir.resolve(DOCKER_FILE).toFile()
+                .exists() ? DOCKER_FILE : "dockerfile";
+        if (!sourceDir.resolve(dockerfileName).toFile().exists()) {
+            throw new MojoFailureException(
+                    "Missing Dockerfile in directory: " + sourceDir);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            DockerBuildContext.Result result = new DockerBuildContext(
+                    sourceDir, contextDirectory.toPath(),
+                    dockerIgnoreFile == null ? null
+                            : dockerIgnoreFile.toPath())
+                                    .prepare(dockerfileName, buildArgs);
+            getMetrics().add("contextBytes", result.getBytes());
+            getMetrics().add("contextFiles", result.getFiles());
+            getLog().info(MessageFormat.format(
+                    "Docker build context prepared at {0} in {1} ms: {2}",
+                    contextDirectory, System.currentTimeMillis() - start,
+                    result));
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while preparing the docker build context.", e);
+        }
+        return contextDirectory;
+    }
+
+    private String stageLayers() throws MojoExecutionException {
+        Path layersDir = getBuildDir().toPath().resolve(LAYERS_DIR_NAME);
+        DockerImageLayers layers = collectImageLayers(layersDir);
+        try {
+            DockerImageLayers.Statistics statistics = layers.stage();
+            getLog().info("Docker image layers staged at " + layersDir + ": "
+                    + statistics);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while staging the docker image layers.", e);
+        }
+        return getBuildDir().toPath().relativize(layersDir).toString()
+                .replace('\\', '/');
+    }
+
+    /**
+     * Verifies that the Java runtime shipped in the image was built for the C
+     * library of the base image, otherwise the container can not start.
+     */
+    private void checkJavaRuntimeLibc(String pBaseImage)
+            throws MojoFailureException {
+        Path runtime = getContainerRuntimeDirectory()
+                .resolve(MojoGenerateJavaRuntime.JAVA_RUNTIME_DIR_NAME);
+        boolean musl;
+        try {
+            musl = MojoGenerateJavaRuntime.isMuslRuntime(runtime);
+        } catch (IOException e) {
+            throw new MojoFailureException(
+                    "Failure while reading the Java runtime at " + runtime, e);
+        }
+        boolean alpine = pBaseImage.contains("alpine");
+        if (musl != alpine) {
+            throw new MojoFailureException("The Java runtime at " + runtime
+                    + " was generated by a " + (musl ? "musl" : "glibc")
+                    + " JDK and does not run on the base image " + pBaseImage
+                    + ". Inform a " + (alpine ? "musl" : "glibc")
+                    + " JDK through the osgi.container.jlink.jdkHome property.");
+        }
+    }
+
     @Override
     protected void executeExtraInitializationSteps()
             throws MojoExecutionException, MojoFailureException {
 
+        boolean internalDockerfile = dockerConfigFile == null
+                || "".equals(dockerConfigFile.getName());
+        String variant = layered ? "layered/" : "";
         try {
             if (getContainer().equals(Container.EQUINOX)
-                    && (dockerConfigFile == null
-                            || "".equals(dockerConfigFile.getName()))) {
+                    && internalDockerfile) {
                 // copy the resources for equinox to cache directory
-                copyInternalFileToProjectDir("/distrib/equinox/", DOCKER_FILE,
-                        getBuildDir().toPath());
+                copyInternalFileToProjectDir("/distrib/equinox/" + variant,
+                        DOCKER_FILE, getBuildDir().toPath());
             }
 
             // copy the resources for felix to cache directory
             if (getContainer().equals(Container.FELIX)
-                    && (dockerConfigFile == null
-                            || "".equals(dockerConfigFile.getName()))) {
-                copyInternalFileToProjectDir("/distrib/felix/", DOCKER_FILE,
-                        getBuildDir().toPath());
+                    && internalDockerfile) {
+                copyInternalFileToProjectDir("/distrib/felix/" + variant,
+                        DOCKER_FILE, getBuildDir().toPath());
             }
         } catch (IOException e) {
             throw new MojoFailureException("Failure copying Dockerfile.", e);
@@ -225,41 +352,43 @@ public class MojoBuildDocker extends AbstractOsgiDockerMojo {
         args.put("IMAGE_VERSION", getProject().getVersion());
         args.put("IMAGE_RELEASE_DATE", Instant.now().toString());
 
-        String buildArchivePath = getProject().getBuild().getFinalName()
-                + ".tar.gz";
+        if (layered) {
+            args.put("LAYERS_DIR", stageLayers());
+            args.put("FROM_IMAGE", fromImage);
+        } else {
+            String buildArchivePath = getProject().getBuild().getFinalName()
+                    + "." + getAssemblyFormat().getExtension();
 
-        args.put("ZIP_FILE", buildArchivePath);
+            args.put("ZIP_FILE", buildArchivePath);
+        }
+        boolean javaRuntime = Files.isDirectory(getContainerRuntimeDirectory()
+                .resolve(MojoGenerateJavaRuntime.JAVA_RUNTIME_DIR_NAME));
+        if (javaRuntime) {
+            if (internalDockerfile) {
+                // all the internal Dockerfiles are based on Alpine images
+                checkJavaRuntimeLibc(layered ? fromImage : "alpine");
+            }
+            args.put("JAVA_RUNTIME",
+                    MojoGenerateJavaRuntime.JAVA_RUNTIME_DIR_NAME);
+        }
+        if (Files.isRegularFile(getContainerRuntimeDirectory()
+                .resolve(MojoGenerateCdsArchive.CDS_ARCHIVE_NAME))) {
+            // the archive is only valid for the runtime that created it
+            if (javaRuntime) {
+                args.put("CDS_ARCHIVE",
+                        MojoGenerateCdsArchive.CDS_ARCHIVE_NAME);
+            } else {
+                getLog().warn(
+                        "The CDS archive is not used, the image does not ship the Java runtime that created it.");
+            }
+        }
         if (getConfiguratorInitialFile() != null)
             args.put("CONFIGURATOR_INIT_FILE_NAME",
                     getConfiguratorInitialFile().getName());
 
-        if (getLocalRepositoryGAV() != null
-                && !getLocalRepositoryGAV().isEmpty()) {
-
-            BundleRef br = new BundleRef(getLocalRepositoryGAV());
-            br.setType("osgi.repository");
-            if (!br.isValid()) {
-                throw new MojoExecutionException(
-                        "LocalRepositoryGAV is not valid: "
-                                + getLocalRepositoryGAV());
-            }
-
-            try {
-                Artifact art = getDependenciesHelper().resolveArtifact(br,
-                        getRepositorySystem(), getRemoteRepositories(),
-                        getLocalRepository());
-                if (art == null) {
-                    throw new MojoExecutionException(
-                            "LocalRepositoryGAV was not resolved: "
-                                    + getLocalRepositoryGAV());
-                }
-
-                args.put("LOCAL_REPOSITORY_ID", art.getFile().getName());
-            } catch (IOException e) {
-                throw new MojoFailureException(
-                        "Failure getting repository artifact.", e);
-            }
-
+        String localRepositoryFileName = resolveLocalRepositoryFileName();
+        if (localRepositoryFileName != null) {
+            args.put("LOCAL_REPOSITORY_ID", localRepositoryFileName);
         }
 
         if (buildArgs == null) {
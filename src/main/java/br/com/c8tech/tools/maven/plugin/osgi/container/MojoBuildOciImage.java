@@ -0,0 +1,224 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.DockerImageLayers.Layer;
+
+/**
+ * Builds the container's image without a Docker daemon.
+ * <p>
+ * The layers are written straight from the cache and work directories to an
+ * OCI image layout directory and, optionally, to a tar file that can be read
+ * by <b>docker load</b>, <b>podman load</b> or <b>skopeo</b>. No build context
+ * is sent anywhere and no network access is needed.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@Mojo(name = "buildOciImage", defaultPhase = LifecyclePhase.PACKAGE,
+        requiresProject = true, threadSafe = true)
+public class MojoBuildOciImage extends AbstractOsgiContainerPackMojo {
+
+    private static final String LAYER_CACHE_FILE_NAME = "oci-layers.cache";
+
+    private static final int PORT = 8080;
+
+    /**
+     * A tar file where the image will also be written, ready to be loaded by
+     * <b>docker load</b> or copied by the OCI tools. When not informed only
+     * the layout directory is written.
+     */
+    @Parameter(property = "osgi.container.oci.archive")
+    private File ociArchive;
+
+    /**
+     * The architecture of the image, also used to select the base image from
+     * a multi-platform layout.
+     */
+    @Parameter(property = "osgi.container.oci.architecture",
+            defaultValue = "amd64")
+    private String ociArchitecture;
+
+    /**
+     * An OCI image layout directory containing the base image, like the one
+     * created by <b>skopeo copy docker://openjdk:11-jre-slim oci:dir</b>. Its
+     * layers are reused as they are and its configuration is extended.
+     * <p>
+     * When not informed the image is built from scratch, so it only contains
+     * the distribution and a Java runtime must be provided in another way.
+     */
+    @Parameter(property = "osgi.container.oci.baseImage")
+    private File ociBaseImage;
+
+    /**
+     * The OCI image layout directory where the image will be written.
+     */
+    @Parameter(property = "osgi.container.oci.directory",
+            defaultValue = "${project.build.directory}/oci-image")
+    private File ociDirectory;
+
+    /**
+     * The name and tag of the image.
+     */
+    @Parameter(property = "osgi.container.oci.image",
+            defaultValue = "${project.artifactId}:${project.version}")
+    private String ociImageName;
+
+    /**
+     * The creation time of the image, used for all its files too, in ISO-8601
+     * format or as seconds since the epoch. It is taken from the same property
+     * used by the reproducible builds of the maven plugins. When not informed
+     * the epoch is used, so the same files always produce the same image.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
+    @Inject
+    public MojoBuildOciImage(MavenProject pProject) {
+        super(pProject);
+    }
+
+    private static String tagOf(String pImageName) {
+        int colon = pImageName.lastIndexOf(':');
+        if (colon < 0 || colon < pImageName.lastIndexOf('/')) {
+            return "latest";
+        }
+        return pImageName.substring(colon + 1);
+    }
+
+    private List<String> createEntrypoint(String pProjectPath,
+            String pConfigPath) throws MojoExecutionException,
+            MojoFailureException {
+        List<String> entrypoint = new ArrayList<>();
+        // the runtime generated by the generateJavaRuntime goal is preferred
+        entrypoint.add(Files.isDirectory(getContainerRuntimeDirectory()
+                .resolve(MojoGenerateJavaRuntime.JAVA_RUNTIME_DIR_NAME))
+                        ? pProjectPath + "/"
+                                + MojoGenerateJavaRuntime.JAVA_RUNTIME_DIR_NAME
+                                + "/bin/java"
+                        : "java");
+        if (getConfiguratorInitialFile() != null) {
+            entrypoint.add("-Dconfigurator.initial=" + pConfigPath + "/"
+                    + getConfiguratorInitialFile().getName());
+        }
+        String localRepositoryFileName = resolveLocalRepositoryFileName();
+        if (localRepositoryFileName != null) {
+            entrypoint.add("-Dobr.repository.url=file:" + pProjectPath
+                    + "/repository/" + localRepositoryFileName);
+        }
+        entrypoint.add("-Dlogback.configurationFile=" + pConfigPath
+                + "/logback.xml");
+        entrypoint.add("-jar");
+        entrypoint.add(getContainer().equals(Container.EQUINOX)
+                ? "equinox.jar"
+                : "bin/felix.jar");
+        return entrypoint;
+    }
+
+    @Override
+    protected void executeMojo()
+            throws MojoExecutionException, MojoFailureException {
+        String projectPath = "/opt/share/" + getProject().getArtifactId();
+        String configPath = projectPath + (getContainer()
+                .equals(Container.EQUINOX) ? "/configuration" : "/conf");
+        Instant created = getCreated();
+
+        OciImageBuilder builder = new OciImageBuilder(ociDirectory.toPath())
+                .setLayerCacheFile(getContainerWorkDirectory()
+                        .resolve(LAYER_CACHE_FILE_NAME))
+                .setArchitecture(ociArchitecture).setCreated(created)
+                .setWorkingDir(projectPath)
+                .setEnv("PROJECT_PATH", projectPath)
+                .setEnv("CONFIG_PATH", configPath)
+                .setEnv("LOG_PATH", projectPath + "/logs")
+                .setEnv("PORT", String.valueOf(PORT))
+                .setEntrypoint(createEntrypoint(projectPath, configPath))
+                .addExposedPort(String.valueOf(PORT))
+                .addVolume(projectPath + "/logs")
+                .setLabel("version", getProject().getVersion())
+                .setLabel("releaseDate", created.toString());
+        if (ociBaseImage != null) {
+            builder.setBaseImage(ociBaseImage.toPath());
+        } else {
+            getLog().warn(
+                    "No base image was informed, the image will not contain a Java runtime.");
+        }
+
+        DockerImageLayers layers = collectImageLayers(
+                getContainerWorkDirectory().resolve("oci-layers"));
+        for (Layer layer : Layer.values()) {
+            if (!layers.getFiles(layer).isEmpty()) {
+                builder.addLayer(layer.getDirectoryName(), projectPath,
+                        layers.getFiles(layer));
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            OciImageBuilder.Result result = builder
+                    .build(tagOf(ociImageName));
+            getMetrics().add("imageWriteMillis",
+                    System.currentTimeMillis() - start);
+            getMetrics().add("imageWriteBytes", result.getCompressedBytes());
+            getMetrics().add("layersWritten", result.getWritten());
+            getMetrics().add("layersReused", result.getReused());
+            getLog().info("OCI image " + ociImageName + " written to "
+                    + ociDirectory + " in "
+                    + (System.currentTimeMillis() - start) + " ms: " + result);
+            if (ociArchive != null) {
+                builder.writeArchive(ociArchive.toPath(), ociImageName);
+                getLog().info("OCI image archive written to " + ociArchive);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while writing the OCI image to " + ociDirectory,
+                    e);
+        }
+    }
+
+    private Instant getCreated() throws MojoExecutionException {
+        if (outputTimestamp == null || outputTimestamp.trim().isEmpty()
+                || outputTimestamp.startsWith("${")) {
+            return Instant.EPOCH;
+        }
+        String value = outputTimestamp.trim();
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return Instant.ofEpochSecond(Long.parseLong(value));
+            }
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new MojoExecutionException(
+                    "Invalid outputTimestamp '" + outputTimestamp
+                            + "'. Use ISO-8601 or seconds since the epoch.",
+                    e);
+        }
+    }
+}
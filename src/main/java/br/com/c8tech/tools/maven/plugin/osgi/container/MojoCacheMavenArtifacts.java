@@ -11,17 +11,39 @@
  */
 package br.com.c8tech.tools.maven.plugin.osgi.container;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import javax.inject.Inject;
 
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.InstantiationStrategy;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuildingException;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
 
 import br.com.c8tech.tools.maven.osgi.lib.mojo.incremental.ArtifactTrackerManager;
 import br.com.c8tech.tools.maven.osgi.lib.mojo.incremental.ArtifactTrackerManagerBuilder;
@@ -50,13 +72,209 @@ import io.takari.incrementalbuild.BuildContext;
         requiresProject = true, aggregator = false)
 public class MojoCacheMavenArtifacts extends AbstractOsgiContainerPackMojo {
 
+    private static final String PARALLEL_RESOLUTION = "parallel";
+
+    private static final String SHARED_CACHE_INDEX_FILE_NAME = "shared-cache.index";
+
+    private final RepositorySystem aetherRepositorySystem;
+
+    /**
+     * The maximum number of concurrent downloads sent to a single remote
+     * repository when the parallel resolution mode is enabled.
+     *
+     * @see #resolutionThreads
+     */
+    @Parameter(property = "osgi.container.cache.connectionsPerRepository",
+            defaultValue = "4")
+    private int connectionsPerRepository;
+
     private final BuildContext copyBuildContext;
 
+    /**
+     * Whether the artifacts must be resolved from the container POM and the
+     * lock file created or updated with the result.
+     *
+     * @see #getLockFile()
+     */
+    @Parameter(property = "osgi.container.lockFile.update",
+            defaultValue = "false")
+    private boolean lockFileUpdate;
+
+    /**
+     * The number of workers used to resolve and download the artifacts of the
+     * container's POM and to copy the artifacts of the lock file.
+     * <p>
+     * With the default value <b>1</b> the artifacts are resolved by Maven
+     * while loading the container POM, one at a time, as the other goals do.
+     * With more than one the dependency graph is collected once and the
+     * missing artifacts are downloaded by the workers, so a cold cache is
+     * filled in the time of the slowest artifact instead of the sum of all of
+     * them. The artifacts are always cached in the order of the dependency
+     * graph.
+     *
+     * @see #connectionsPerRepository
+     */
+    @Parameter(property = "osgi.container.cache.threads", defaultValue = "1")
+    private int resolutionThreads;
+
+    /**
+     * The root directory of the global content-addressed bundle store.
+     *
+     * @see #sharedCacheEnabled
+     */
+    @Parameter(property = "osgi.container.sharedCache.directory",
+            defaultValue = "${user.home}/.m2/osgi-container-cache")
+    private File sharedCacheDirectory;
+
+    /**
+     * Whether the cached bundles must be deduplicated through a global store
+     * shared by all projects and containers.
+     * <p>
+     * Each bundle is stored once, keyed by its SHA-256 digest, and the files
+     * of the project's cache directory are replaced by hard links to it. When
+     * hard links are not supported by the file system, the private copies are
+     * kept. The linked files are read-only and must never be rewritten in
+     * place, only replaced.
+     *
+     * @see #sharedCacheDirectory
+     */
+    @Parameter(property = "osgi.container.sharedCache", defaultValue = "false")
+    private boolean sharedCacheEnabled;
+
     @Inject
     public MojoCacheMavenArtifacts(MavenProject project,
-            BuildContext pCopyBuildContext) {
+            BuildContext pCopyBuildContext,
+            RepositorySystem pAetherRepositorySystem) {
         super(project);
         copyBuildContext = pCopyBuildContext;
+        aetherRepositorySystem = pAetherRepositorySystem;
+    }
+
+    /**
+     * @return the coordinates of the artifact in the format used by the lock
+     *         file.
+     */
+    private static String coordinates(Artifact pArtifact) {
+        String extension = pArtifact.getArtifactHandler() != null
+                ? pArtifact.getArtifactHandler().getExtension()
+                : pArtifact.getType();
+        StringBuilder coordinates = new StringBuilder(pArtifact.getGroupId())
+                .append(':').append(pArtifact.getArtifactId()).append(':')
+                .append(extension);
+        if (pArtifact.getClassifier() != null
+                && !pArtifact.getClassifier().isEmpty()) {
+            coordinates.append(':').append(pArtifact.getClassifier());
+        }
+        return coordinates.append(':').append(pArtifact.getVersion())
+                .toString();
+    }
+
+    /**
+     * Fills the cache with the artifacts recorded in the lock file, verifying
+     * the digests of the ones already cached.
+     */
+    private void cacheFromLockFile(ArtifactLockFile pLock)
+            throws MojoExecutionException, MojoFailureException {
+        long start = System.currentTimeMillis();
+        Path cacheDir = getContainerCacheDirectory().toAbsolutePath()
+                .normalize();
+        BundleMetadataIndex metadataIndex = BundleMetadataIndex
+                .load(getContainerWorkDirectory().resolve(
+                        BundleMetadataIndex.DEFAULT_INDEX_FILE_NAME));
+        int verified = 0;
+        int copied = 0;
+        int removed;
+        try {
+            ParallelArtifactResolver resolver = newArtifactResolver();
+            List<Callable<Void>> copies = new ArrayList<>();
+            for (ArtifactLockFile.Entry entry : pLock.getEntries()) {
+                Path target = cacheDir.resolve(entry.getPath()).normalize();
+                if (!target.startsWith(cacheDir)) {
+                    throw new MojoExecutionException("The lock file entry "
+                            + entry.getPath()
+                            + " points outside the cache directory.");
+                }
+                if (Files.isRegularFile(target)) {
+                    metadataIndex.get(target);
+                    if (entry.getSha256()
+                            .equals(metadataIndex.getDigest(target))) {
+                        verified++;
+                        continue;
+                    }
+                }
+                copies.add(() -> {
+                    copyLockedArtifact(resolver, entry, target);
+                    return null;
+                });
+            }
+            // the missing artifacts are resolved and copied by the same
+            // bounded pool used to resolve the container POM.
+            resolver.execute(copies);
+            copied = copies.size();
+            removed = removeUnlockedFiles(pLock, cacheDir);
+            metadataIndex.save();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoFailureException) {
+                throw (MojoFailureException) e.getCause();
+            }
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException(
+                    "Failure while caching the artifacts of the lock file "
+                            + getLockFile(),
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(
+                    "Interrupted while caching the artifacts of the lock file "
+                            + getLockFile(),
+                    e);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while caching the artifacts of the lock file "
+                            + getLockFile(),
+                    e);
+        }
+        getMetrics().add("lockFileVerified", verified);
+        getMetrics().add("lockFileCopied", copied);
+        getMetrics().add("lockFileRemoved", removed);
+        getLog().info(String.format(
+                "Cache filled from the lock file %s in %d ms: %d artifacts verified, %d copied, %d removed.",
+                getLockFile(), System.currentTimeMillis() - start, verified,
+                copied, removed));
+    }
+
+    /**
+     * Resolves an artifact recorded in the lock file, within the connection
+     * limits of the resolver, and copies it to the cache, after verifying its
+     * digest.
+     */
+    private void copyLockedArtifact(ParallelArtifactResolver pResolver,
+            ArtifactLockFile.Entry pEntry, Path pTarget)
+            throws IOException, InterruptedException, MojoExecutionException,
+            MojoFailureException {
+        File source;
+        try {
+            source = pResolver.resolveArtifact(
+                    new DefaultArtifact(pEntry.getCoordinates()),
+                    getProject().getRemoteProjectRepositories()).getFile();
+        } catch (ArtifactResolutionException e) {
+            throw new MojoExecutionException("The artifact "
+                    + pEntry.getCoordinates() + " of the lock file "
+                    + getLockFile() + " could not be resolved.", e);
+        }
+        String digest = FileContents.sha256(source.toPath());
+        if (!pEntry.getSha256().equals(digest)) {
+            throw new MojoFailureException("The digest of the artifact "
+                    + pEntry.getCoordinates() + " (" + digest
+                    + ") does not match the one recorded in the lock file "
+                    + getLockFile() + " (" + pEntry.getSha256() + ").");
+        }
+        Files.createDirectories(pTarget.getParent());
+        Files.copy(source.toPath(), pTarget,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.COPY_ATTRIBUTES);
     }
 
     @Override
@@ -70,6 +288,21 @@ public class MojoCacheMavenArtifacts extends AbstractOsgiContainerPackMojo {
 
         getLog().info("Setting up caching of maven artifacts for project "
                 + getProject().getArtifactId());
+        String lockInputs = calculateLockInputs();
+        ArtifactLockFile lock = lockFileUpdate ? null : readLockFile();
+        if (lock != null) {
+            if (lockInputs.equals(lock.getInputs())) {
+                copyBuildContext.markSkipExecution();
+                cacheFromLockFile(lock);
+                if (sharedCacheEnabled) {
+                    linkToSharedCache();
+                }
+                return;
+            }
+            getLog().warn("The lock file " + getLockFile()
+                    + " is out of date, the container artifacts will be resolved again. Run with -Dosgi.container.lockFile.update=true to update it.");
+        }
+
         ArtifactTrackerManager artifactTrackerManager = ArtifactTrackerManagerBuilder
                 .newBuilder(getMavenSession(), getContainerCacheDirectory())
                 .withGroupingByTypeDirectory(true).withVerbose(isVerbose())
@@ -88,26 +321,200 @@ public class MojoCacheMavenArtifacts extends AbstractOsgiContainerPackMojo {
                 .endMavenFiltering().endMavenSetup().build();
 
 
-        MavenProject pom;
-        try {
-            // verify which container was selected and fulfill the MavenArtifactSets
-            // with the default values for it.
-            pom = loadProject(
-                    new DefaultArtifact(getContainerPomDependenciesGAV()),
-                    true);
-        } catch (ProjectBuildingException e) {
-            throw new MojoFailureException(
-                    "Failure while obtaining container's POM", e);
-        }
+        long start = System.nanoTime();
+        // a single worker keeps the resolution done by Maven while loading
+        // the POM, shared with the other goals.
+        Set<Artifact> containerArtifacts = resolutionThreads <= 1
+                ? resolveContainerPomArtifacts()
+                : resolveContainerPomArtifacts(PARALLEL_RESOLUTION,
+                        this::resolveContainerPom);
+        getMetrics().addElapsed("resolution", start);
+        getMetrics().add("containerArtifacts", containerArtifacts.size());
 
-        if (artifactTrackerManager.resolveMavenArtifacts(pom.getArtifacts(),
-                getScopes()) > 0) {
+        int artifacts = artifactTrackerManager
+                .resolveMavenArtifacts(containerArtifacts, getScopes());
+        getMetrics().add("artifacts", artifacts);
+        if (artifacts > 0) {
+            start = System.nanoTime();
+            if (sharedCacheEnabled) {
+                // the build context rewrites the changed files in place,
+                // which must not reach the blobs of the shared store.
+                unlinkFromSharedCache();
+            }
+            // the files were already resolved by the workers, only the local
+            // copy is left, which registers its outputs in the build context
+            // and so must not be run concurrently.
             artifactTrackerManager.copyMavenArtifactsToCache(copyBuildContext);
+            getMetrics().addElapsed("copy", start);
         } else {
             getLog().info(
                     "No artifact needs to be cached from a maven repository for project "
                             + getProject().getArtifactId());
         }
+
+        if (lockFileUpdate) {
+            writeLockFile(lockInputs, containerArtifacts);
+        }
+
+        if (sharedCacheEnabled) {
+            linkToSharedCache();
+        }
+    }
+
+    private void linkToSharedCache() throws MojoExecutionException {
+        SharedBundleStore store = newSharedBundleStore();
+        try {
+            SharedBundleStore.Statistics statistics = store
+                    .link(getContainerCacheDirectory());
+            getLog().info("Shared bundle store at " + sharedCacheDirectory
+                    + ": " + statistics);
+            getMetrics().add("sharedCacheHits", statistics.getHits());
+            getMetrics().add("sharedCacheMisses", statistics.getStored());
+            getMetrics().add("sharedCacheSavedBytes",
+                    statistics.getBytesShared());
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while linking the cached artifacts to the shared store at "
+                            + sharedCacheDirectory,
+                    e);
+        }
+    }
+
+    private SharedBundleStore newSharedBundleStore() {
+        return new SharedBundleStore(sharedCacheDirectory.toPath(),
+                getContainerWorkDirectory()
+                        .resolve(SHARED_CACHE_INDEX_FILE_NAME));
+    }
+
+    private void unlinkFromSharedCache() throws MojoExecutionException {
+        SharedBundleStore store = newSharedBundleStore();
+        try {
+            int unlinked = store.unlink(getContainerCacheDirectory());
+            if (isVerbose()) {
+                getLog().info("Replaced " + unlinked
+                        + " links to the shared bundle store by private copies.");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while unlinking the cached artifacts from the shared store at "
+                            + sharedCacheDirectory,
+                    e);
+        }
+    }
+
+    private ParallelArtifactResolver newArtifactResolver()
+            throws MojoExecutionException {
+        if (resolutionThreads < 1 || connectionsPerRepository < 1) {
+            throw new MojoExecutionException(
+                    "The resolutionThreads and connectionsPerRepository parameters must be greater than zero.");
+        }
+        return new ParallelArtifactResolver(aetherRepositorySystem,
+                getMavenSession().getRepositorySession(), resolutionThreads,
+                connectionsPerRepository, getLog());
+    }
+
+    /**
+     * Deletes the cached files no longer listed in the lock file, left by a
+     * previous configuration.
+     */
+    private int removeUnlockedFiles(ArtifactLockFile pLock, Path pCacheDir)
+            throws IOException {
+        Set<String> locked = new HashSet<>();
+        for (ArtifactLockFile.Entry entry : pLock.getEntries()) {
+            locked.add(entry.getPath());
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(pCacheDir)) {
+            files = stream.filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+        int removed = 0;
+        for (Path file : files) {
+            String path = pCacheDir.relativize(file).toString().replace('\\',
+                    '/');
+            if (!locked.contains(path)) {
+                if (isVerbose()) {
+                    getLog().info("Removing the cached file " + path
+                            + " not listed in the lock file.");
+                }
+                Files.delete(file);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Resolves the artifacts of the container POM, which fill the default
+     * artifact sets, using the bounded pool of workers.
+     */
+    private Set<Artifact> resolveContainerPom()
+            throws MojoExecutionException, MojoFailureException {
+        try {
+            MavenProject pom = loadProject(
+                    new DefaultArtifact(getContainerPomDependenciesGAV()),
+                    false);
+            ParallelArtifactResolver resolver = newArtifactResolver();
+            Set<Artifact> artifacts = resolver.resolveDependencies(pom,
+                    getProject().getRemoteProjectRepositories());
+            getMetrics().add("localRepositoryHits",
+                    resolver.getLocalHitCount());
+            getMetrics().add("downloads", resolver.getDownloadedCount());
+            return artifacts;
+        } catch (ProjectBuildingException e) {
+            throw new MojoFailureException(
+                    "Failure while obtaining container's POM", e);
+        }
     }
 
+    /**
+     * Records the cached files in the lock file, taking the coordinates of
+     * each one from the resolved artifact with the same digest.
+     */
+    private void writeLockFile(String pInputs,
+            Set<Artifact> pContainerArtifacts)
+            throws MojoExecutionException {
+        Path cacheDir = getContainerCacheDirectory();
+        Set<Artifact> candidates = new LinkedHashSet<>(pContainerArtifacts);
+        candidates.addAll(getProject().getArtifacts());
+        try {
+            Map<String, String> coordinatesByDigest = new HashMap<>();
+            for (Artifact artifact : candidates) {
+                if (artifact.getFile() != null && artifact.getFile().isFile()) {
+                    coordinatesByDigest.putIfAbsent(
+                            FileContents.sha256(artifact.getFile().toPath()),
+                            coordinates(artifact));
+                }
+            }
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(cacheDir)) {
+                files = stream.filter(Files::isRegularFile)
+                        .collect(Collectors.toList());
+            }
+            List<ArtifactLockFile.Entry> entries = new ArrayList<>();
+            for (Path file : files) {
+                String digest = FileContents.sha256(file);
+                String coordinates = coordinatesByDigest.get(digest);
+                String path = cacheDir.relativize(file).toString()
+                        .replace('\\', '/');
+                if (coordinates == null) {
+                    getLog().warn("The cached file " + path
+                            + " was not obtained from a maven artifact and is not recorded in the lock file.");
+                    continue;
+                }
+                entries.add(new ArtifactLockFile.Entry(path, digest,
+                        coordinates));
+            }
+            if (new ArtifactLockFile(pInputs, entries)
+                    .write(getLockFile().toPath())) {
+                getLog().info("Lock file " + getLockFile() + " written with "
+                        + entries.size() + " artifacts.");
+            } else {
+                getLog().info("Lock file " + getLockFile() + " is up to date.");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while writing the lock file " + getLockFile(), e);
+        }
+    }
 }
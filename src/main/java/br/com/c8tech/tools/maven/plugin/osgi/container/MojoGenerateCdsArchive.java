@@ -0,0 +1,308 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Generates a Class Data Sharing archive for the assembled container.
+ * <p>
+ * The container is launched once from the work directory while the JVM
+ * records the classes it loads. That list is then dumped into an archive that
+ * is placed at the root of the distribution and used by the
+ * <b>run_container.sh</b> script created by the internal Dockerfiles, so the
+ * JVM maps those classes already parsed and verified instead of loading them
+ * from the jars on every start.
+ * <p>
+ * Only the classes loaded by the JVM's built-in class loaders, that is, the
+ * Java runtime and the framework's launcher, can be archived. The classes of
+ * the bundles are defined by the framework's own class loaders and keep being
+ * loaded from the jars.
+ * <p>
+ * The archive is only valid for the Java runtime that created it and for the
+ * same framework jar, with the same size and modification time. When they do
+ * not match the JVM silently ignores the archive. So the container must be
+ * launched with the Java runtime shipped in the image, generated by the
+ * <b>generateJavaRuntime</b> goal, and this goal fails otherwise. It requires
+ * a Java 11 or newer runtime.
+ * <p>
+ * As a consequence the archive can only be generated on a build host able to
+ * run that Java runtime. A musl runtime, shipped in the default Alpine based
+ * images, does not run on a glibc host, and neither does a runtime of another
+ * architecture. In that case the goal is skipped with a warning and the
+ * container starts without the archive; building on a host with the C
+ * library and architecture of the image, a container of its base image for
+ * example, produces it.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@Mojo(name = "generateCdsArchive", defaultPhase = LifecyclePhase.PREPARE_PACKAGE,
+        requiresProject = true, threadSafe = true)
+public class MojoGenerateCdsArchive extends AbstractOsgiContainerLaunchMojo {
+
+    public static final String CDS_ARCHIVE_NAME = "container.jsa";
+
+    private static final String CDS_DIR_NAME = "cds";
+
+    private static final String CLASS_LIST_NAME = "classes.lst";
+
+    private static final String FINGERPRINT_NAME = "fingerprint";
+
+    private static final String REPORT_NAME = "startup-report.txt";
+
+    /**
+     * How many times the container is started with and without the archive to
+     * produce the startup time report. Zero skips the report.
+     */
+    @Parameter(property = "osgi.container.cds.benchmarkRuns",
+            defaultValue = "1")
+    private int cdsBenchmarkRuns;
+
+    @Inject
+    public MojoGenerateCdsArchive(MavenProject pProject) {
+        super(pProject);
+    }
+
+    private static long average(List<ContainerLauncher.Run> pRuns) {
+        return (long) pRuns.stream()
+                .mapToLong(ContainerLauncher.Run::getStartupMillis).average()
+                .orElse(0);
+    }
+
+    private void dumpArchive(Path pDistribution, Path pClassList,
+            Path pArchive) throws IOException, InterruptedException,
+            MojoExecutionException {
+        List<String> command = new ArrayList<>();
+        command.add(getLauncherJava());
+        if (getLauncherJvmArguments() != null) {
+            command.addAll(getLauncherJvmArguments());
+        }
+        command.addAll(Arrays.asList("-Xshare:dump",
+                "-XX:SharedClassListFile=" + pClassList.toAbsolutePath(),
+                "-XX:SharedArchiveFile=" + pArchive.toAbsolutePath(), "-jar",
+                getLauncherJar()));
+        Process process = new ProcessBuilder(command)
+                .directory(pDistribution.toFile()).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect
+                        .appendTo(getContainerWorkDirectory()
+                                .resolve(LAUNCHER_LOG_NAME).toFile()))
+                .start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || !Files.isRegularFile(pArchive)) {
+            throw new MojoExecutionException(
+                    "The CDS archive could not be dumped, exit code "
+                            + exitCode + ". See "
+                            + getContainerWorkDirectory()
+                                    .resolve(LAUNCHER_LOG_NAME));
+        }
+    }
+
+    /**
+     * Verifies that the container is launched with the Java runtime shipped
+     * in the image, the only one that can use the archive.
+     *
+     * @return false when that runtime can not run on the build host.
+     */
+    private boolean checkLauncherJava()
+            throws MojoFailureException, InterruptedException {
+        Path imageJavaHome = getContainerRuntimeDirectory()
+                .resolve(MojoGenerateJavaRuntime.JAVA_RUNTIME_DIR_NAME);
+        Path imageJava = imageJavaHome.resolve("bin").resolve("java");
+        if (!Files.isRegularFile(imageJava)) {
+            throw new MojoFailureException(
+                    "A CDS archive is only used by the Java runtime that created it, "
+                            + "but no Java runtime is shipped in the image. "
+                            + "Execute the generateJavaRuntime goal before this one.");
+        }
+        if (!isRunnable(imageJava)) {
+            String libc;
+            try {
+                libc = MojoGenerateJavaRuntime.isMuslRuntime(imageJavaHome)
+                        ? "musl"
+                        : "glibc";
+            } catch (IOException e) {
+                libc = "unknown";
+            }
+            getLog().warn("The Java runtime shipped in the image (" + libc
+                    + ") can not run on this build host, so no CDS archive is generated. "
+                    + "Build on a host with the C library and architecture of the image to generate it.");
+            return false;
+        }
+        try {
+            if (!Files.isSameFile(imageJava, Paths.get(getLauncherJava()))) {
+                throw new MojoFailureException(
+                        "A CDS archive is only used by the Java runtime that created it. "
+                                + "Set osgi.container.launcher.java to "
+                                + imageJava.toAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new MojoFailureException(
+                    "The launcher Java " + getLauncherJava()
+                            + " could not be compared to the image's one.",
+                    e);
+        }
+        return true;
+    }
+
+    @Override
+    protected void executeMojo()
+            throws MojoExecutionException, MojoFailureException {
+        try {
+            if (!checkLauncherJava()) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(
+                    "Interrupted while checking the Java runtime of the image.",
+                    e);
+        }
+        Path distribution = stageDistribution();
+        Path cdsDir = getContainerWorkDirectory().resolve(CDS_DIR_NAME);
+        Path target = getContainerRuntimeDirectory().resolve(CDS_ARCHIVE_NAME);
+        ContainerLauncher launcher = createLauncher(distribution);
+        try {
+            Files.createDirectories(cdsDir);
+            LaunchFingerprint launchFingerprint = new LaunchFingerprint(
+                    cdsDir.resolve(FINGERPRINT_NAME));
+            String fingerprint = computeFingerprint(distribution);
+            if (launchFingerprint.isUpToDate(target, fingerprint)) {
+                getLog().info("The CDS archive " + target
+                        + " is up to date.");
+                return;
+            }
+
+            Path classList = cdsDir.resolve(CLASS_LIST_NAME);
+            Files.deleteIfExists(classList);
+            deleteDirectory(getFrameworkStorage(distribution));
+            ContainerLauncher.Run training = launcher.run(Arrays.asList(
+                    "-Xshare:off",
+                    "-XX:DumpLoadedClassList=" + classList.toAbsolutePath()));
+            if (!training.isStarted()) {
+                getLog().warn(
+                        "The container did not stay up during the training run, the class list may be incomplete.");
+            }
+            if (!Files.isRegularFile(classList)
+                    || Files.size(classList) == 0) {
+                throw new MojoExecutionException(
+                        "No class list was recorded by the training run. See "
+                                + getContainerWorkDirectory()
+                                        .resolve(LAUNCHER_LOG_NAME));
+            }
+
+            Path archive = distribution.resolve(CDS_ARCHIVE_NAME);
+            dumpArchive(distribution, classList, archive);
+            Files.createDirectories(target.getParent());
+            Files.copy(archive, target, StandardCopyOption.REPLACE_EXISTING);
+            getLog().info("CDS archive with " + Files.readAllLines(classList,
+                    StandardCharsets.UTF_8).size() + " classes written to "
+                    + target + " (" + Files.size(target) / 1024 + " KB)");
+
+            if (cdsBenchmarkRuns > 0) {
+                writeReport(launcher, distribution, cdsDir.resolve(REPORT_NAME));
+            }
+            launchFingerprint.record(fingerprint);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while generating the CDS archive.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(
+                    "Interrupted while generating the CDS archive.", e);
+        }
+    }
+
+    /**
+     * Tells whether the informed java executable starts on the build host.
+     */
+    private boolean isRunnable(Path pJava)
+            throws MojoFailureException, InterruptedException {
+        try {
+            Files.createDirectories(getContainerWorkDirectory());
+        } catch (IOException e) {
+            throw new MojoFailureException("The work directory "
+                    + getContainerWorkDirectory() + " could not be created.",
+                    e);
+        }
+        Process process;
+        try {
+            process = new ProcessBuilder(pJava.toString(), "-version")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect
+                            .appendTo(getContainerWorkDirectory()
+                                    .resolve(LAUNCHER_LOG_NAME).toFile()))
+                    .start();
+        } catch (IOException e) {
+            return false;
+        }
+        if (!process.waitFor(1, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            return false;
+        }
+        return process.exitValue() == 0;
+    }
+
+    private void writeReport(ContainerLauncher pLauncher, Path pDistribution,
+            Path pReport) throws IOException, InterruptedException {
+        List<ContainerLauncher.Run> without = new ArrayList<>();
+        List<ContainerLauncher.Run> with = new ArrayList<>();
+        for (int i = 0; i < cdsBenchmarkRuns; i++) {
+            deleteDirectory(getFrameworkStorage(pDistribution));
+            // the baseline uses the default CDS archive of the JDK, as a
+            // container started without the generated one does.
+            without.add(pLauncher.run(Collections.singletonList("-Xshare:auto")));
+            deleteDirectory(getFrameworkStorage(pDistribution));
+            with.add(pLauncher.run(Arrays.asList(
+                    "-XX:SharedArchiveFile=" + CDS_ARCHIVE_NAME,
+                    "-Xshare:auto")));
+        }
+        long before = average(without);
+        long after = average(with);
+        List<String> lines = new ArrayList<>();
+        lines.add("Container startup time, average of " + cdsBenchmarkRuns
+                + " run(s):");
+        lines.add("  with the default JDK archive: " + before + " ms ("
+                + without.get(0).getLoadedClasses() + " classes loaded)");
+        lines.add("  with the container archive:   " + after + " ms ("
+                + with.get(0).getLoadedClasses() + " classes loaded)");
+        if (before > 0) {
+            lines.add(String.format("  difference:                   %+d ms (%+.1f%%)",
+                    after - before, (after - before) * 100.0 / before));
+        }
+        lines.add("The archive only holds the classes of the Java runtime and of the framework launcher.");
+        lines.add("The bundle classes are loaded by the framework's class loaders and are not archived.");
+        Files.write(pReport, lines, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            getLog().info(line);
+        }
+    }
+}
@@ -12,21 +12,22 @@
 package br.com.c8tech.tools.maven.plugin.osgi.container;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Properties;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import javax.inject.Inject;
 
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.InstantiationStrategy;
@@ -35,8 +36,6 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import org.apache.maven.project.ProjectBuildingException;
-import org.eclipse.aether.artifact.DefaultArtifact;
 
 import br.com.c8tech.tools.maven.osgi.lib.mojo.incremental.ArtifactTracker;
 import br.com.c8tech.tools.maven.osgi.lib.mojo.incremental.ArtifactTrackerManager;
@@ -56,16 +55,35 @@ public class MojoGenerateContainerConfigFile
 
     private static final String CLASSPATH_PREFIX = "classpath:";
 
-    private static final String EQUINOX_DEFAULT_BUNDLES_DIR = "bundles/";
+    private static final String EQUINOX_DEFAULT_BEGINNING_LEVEL = "6";
 
-    private static final String EQUINOX_LINE_BREAK = ",";
-
-    private static final String FELIX_LINE_BREAK = " ";
+    private static final String EQUINOX_START_LEVEL_THREAD_COUNT = "equinox.start.level.thread.count";
 
     private static final String SLASH_PREFIX = "/";
 
     protected final AggregatorBuildContext configurationFileAggregatorBuildContext;
 
+    /**
+     * Whether the start levels of the bundles must be calculated from their
+     * dependencies instead of taken from the '<b>@startLevel</b>' part of the
+     * artifact references.
+     * <p>
+     * Each bundle is placed on a level after the bundles providing the
+     * packages and capabilities it requires, and independent bundles share
+     * the same level. All bundles, except the fragments, are started.
+     */
+    @Parameter(property = "osgi.container.startLevel.automatic",
+            defaultValue = "false")
+    private boolean startLevelAutomatic;
+
+    /**
+     * How many start levels, starting at level 1, can be used when the start
+     * levels are calculated automatically.
+     */
+    @Parameter(property = "osgi.container.startLevel.tiers",
+            defaultValue = "4")
+    private int startLevelTiers;
+
     /**
      * Whether the plugin should consider maven optional dependencies in order
      * to generate the repositories.
@@ -80,15 +98,49 @@ public class MojoGenerateContainerConfigFile
         configurationFileAggregatorBuildContext = pconfigurationFileAggregatorBuildContext;
     }
 
+    /**
+     * Calculates the start level of each bundle from the dependency graph of
+     * the bundles, keyed by the cached file name.
+     */
+    private Map<String, Integer> calculateStartLevels(
+            Iterable<File> pInputFiles,
+            ArtifactTrackerManager pArtifactTrackerManager,
+            BundleMetadataIndex pMetadataIndex) throws IOException {
+        ResolutionChecker checker = new ResolutionChecker();
+        for (File processingArtifactFile : pInputFiles) {
+            ArtifactTracker artifactProperty = pArtifactTrackerManager
+                    .searchByPath(processingArtifactFile.getPath());
+            BundleMetadata metadata = pMetadataIndex
+                    .get(processingArtifactFile.toPath());
+            if (artifactProperty == null || !metadata.isBundle()) {
+                continue;
+            }
+            if (artifactProperty.getCacheDir().endsWith("bin")) {
+                checker.addSystemPackages(metadata.getExportPackage());
+                checker.addSystemCapabilities(metadata.getProvideCapability());
+            } else {
+                checker.addBundle(artifactProperty.getCachedFilePath()
+                        .getFileName().toString(), metadata);
+            }
+        }
+        Map<String, Integer> levels = StartLevelCalculator
+                .calculate(checker.getDependencies(), 1, startLevelTiers);
+        if (isVerbose()) {
+            new TreeMap<>(levels).forEach((bundle, level) -> getLog()
+                    .info("Calculated start level " + level + " for "
+                            + bundle));
+        }
+        return levels;
+    }
+
     private void copyCustomConfigurationFile(String pSourceURL, Path outputFile)
             throws MojoFailureException, MojoExecutionException {
-        Properties properties = new Properties();
-        try (InputStream is = loadUrl(pSourceURL).openStream()) {
-            Reader reader = new InputStreamReader(is, getEncoding());
-            properties.load(reader);
-            Writer writer = new OutputStreamWriter(
-                    new FileOutputStream(outputFile.toFile()), getEncoding());
-            properties.store(writer, "copyied existent configuration file");
+        try {
+            if (!loadConfigurationFile(loadUrl(pSourceURL))
+                    .writeIfChanged(outputFile.toFile()) && isVerbose()) {
+                getLog().info("The configuration file at " + outputFile
+                        + " is up to date.");
+            }
         } catch (IOException e) {
             throw new MojoFailureException(
                     "Failure while copying configuration file at " + pSourceURL,
@@ -127,7 +179,7 @@ public class MojoGenerateContainerConfigFile
         // when user skips config generation and do not provides a base
         // configuration
         // file then used the internal one.
-        Properties properties = null;
+        OrderedPropertiesFile properties = null;
         if (isSkipConfigurationGen()) {
             if (getBaseContainerConfigurationFileUrl() == null) {
 
@@ -146,12 +198,12 @@ public class MojoGenerateContainerConfigFile
                 // file.
                 URL externalFile;
                 externalFile = loadUrl(getBaseContainerConfigurationFileUrl());
-                properties = loadProperties(externalFile, getEncoding());
+                properties = loadConfigurationFile(externalFile);
             } else {
                 URL internalFile = getInternalConfigurationFileURL();
                 // load the default internal file
                 if (internalFile != null) {
-                    properties = loadProperties(internalFile, getEncoding());
+                    properties = loadConfigurationFile(internalFile);
                 } else {
                     throw new MojoFailureException(
                             "Failure opening internal configuration file at "
@@ -176,21 +228,23 @@ public class MojoGenerateContainerConfigFile
                 .withExcludedDependencies(getExcludedArtifacts())
                 .endMavenFiltering().endMavenSetup().build();
 
-        MavenProject pom;
-        try {
-            // verify which container was selected and fulfill the
-            // MavenArtifactSets
-            // with the default values for it.
-            pom = loadProject(
-                    new DefaultArtifact(getContainerPomDependenciesGAV()),
-                    true);
-        } catch (ProjectBuildingException e) {
-            throw new MojoFailureException(
-                    "Failure while obtaining container's POM", e);
+        // the artifacts of the POM of the selected container fulfill the
+        // MavenArtifactSets with the default values for it. When the cache
+        // was filled from an up to date lock file they are taken from it, so
+        // neither the POM nor the repository are needed.
+        ArtifactLockFile lock = readLockFile();
+        Set<Artifact> containerArtifacts;
+        if (lock != null && calculateLockInputs().equals(lock.getInputs())) {
+            containerArtifacts = lockedContainerArtifacts(lock);
+            getLog().info("Taking the " + containerArtifacts.size()
+                    + " container artifacts from the lock file "
+                    + getLockFile());
+        } else {
+            containerArtifacts = resolveContainerPomArtifacts();
         }
 
         int count = artifactTrackerManager
-                .resolveMavenArtifacts(pom.getArtifacts(), getScopes());
+                .resolveMavenArtifacts(containerArtifacts, getScopes());
 
         if (isVerbose()) {
             getLog().info("Registering the " + count
@@ -203,90 +257,59 @@ public class MojoGenerateContainerConfigFile
     private void generateEquinoxConfigurationFileOutput(
             Output<File> pOutputFile, Iterable<File> pInputFiles,
             ArtifactTrackerManager pArtifactTrackerManager,
-            Properties pProperties) throws IOException {
-
-        String bundlesFomProperties = pProperties.getProperty("osgi.bundles");
-        StringBuilder bundles = new StringBuilder();
-        bundles.append(bundlesFomProperties);
-        if (!bundlesFomProperties.isEmpty()) {
-            bundles.append(EQUINOX_LINE_BREAK);
+            BundleMetadataIndex pMetadataIndex,
+            OrderedPropertiesFile pProperties)
+            throws IOException {
+
+        Map<String, Integer> levels = startLevelAutomatic
+                ? calculateStartLevels(pInputFiles, pArtifactTrackerManager,
+                        pMetadataIndex)
+                : Collections.emptyMap();
+        if (startLevelAutomatic && startLevelTiers > Integer
+                .parseInt(EQUINOX_DEFAULT_BEGINNING_LEVEL)) {
+            pProperties.setProperty("osgi.startLevel",
+                    String.valueOf(startLevelTiers));
         }
-        for (File processingArtifactFile : pInputFiles) {
-            ArtifactTracker artifactProperty = pArtifactTrackerManager
-                    .searchByPath(processingArtifactFile.getPath());
-            if (artifactProperty == null
-                    || artifactProperty.getSymbolicName() == null
-                    || artifactProperty.getSymbolicName().isEmpty()) {
-                getLog().warn("Ignoring file '" + processingArtifactFile
-                        + "' due a missing metadata.");
-                continue;
-            }
-            if (artifactProperty.getCacheDir().endsWith("bin")) {
-                continue;
-            }
-
-            if (bundles.length() > 0)
-                bundles.append(EQUINOX_LINE_BREAK);
-
-            String name = artifactProperty.getCachedFilePath().toFile()
-                    .getName();
-
-            bundles.append(EQUINOX_DEFAULT_BUNDLES_DIR).append(name);
-            if (artifactProperty.getStartLevel() != 0) {
-                bundles.append("@start:")
-                        .append(artifactProperty.getStartLevel());
-            }
+        // let equinox start the bundles of a same level in parallel, using
+        // as many threads as the available processors.
+        if (startLevelAutomatic && pProperties
+                .getProperty(EQUINOX_START_LEVEL_THREAD_COUNT) == null) {
+            pProperties.setProperty(EQUINOX_START_LEVEL_THREAD_COUNT, "0");
         }
-        pProperties.put("osgi.bundles", bundles.toString());
-        Writer writer = new OutputStreamWriter(pOutputFile.newOutputStream(),
-                getEncoding());
-        pProperties.store(writer, "generated configuration file");
-        writer.close();
+        ContainerBundleList bundles = newContainerBundleList(pInputFiles,
+                pArtifactTrackerManager, pMetadataIndex, levels);
+        bundles.applyToEquinox(pProperties);
+        writeConfigurationFile(pOutputFile, pProperties);
     }
 
     private void generateFelixConfigurationFileOutput(Output<File> pOutputFile,
             Iterable<File> pInputFiles,
             ArtifactTrackerManager pArtifactTrackerManager,
-            Properties pProperties) throws IOException {
+            BundleMetadataIndex pMetadataIndex,
+            OrderedPropertiesFile pProperties)
+            throws IOException {
 
         String defaultStartLevel = pProperties
                 .getProperty("felix.startlevel.bundle");
         if (defaultStartLevel == null) {
-            pProperties.put("felix.startlevel.bundle",
+            pProperties.setProperty("felix.startlevel.bundle",
                     getStartLevelDefault().toString());
         }
-        pProperties.put("org.osgi.framework.startlevel.beginning",
-                getStartLevelDefault().toString());
+        Map<String, Integer> levels = startLevelAutomatic
+                ? calculateStartLevels(pInputFiles, pArtifactTrackerManager,
+                        pMetadataIndex)
+                : Collections.emptyMap();
+        pProperties.setProperty("org.osgi.framework.startlevel.beginning",
+                String.valueOf(startLevelAutomatic
+                        ? Math.max(getStartLevelDefault(), startLevelTiers)
+                        : getStartLevelDefault()));
         pProperties.remove("felix.auto.deploy.dir");
         pProperties.remove("felix.auto.deploy.action");
 
-        for (File processingArtifactFile : pInputFiles) {
-            ArtifactTracker artifactProperty = pArtifactTrackerManager
-                    .searchByPath(processingArtifactFile.getPath());
-            if (artifactProperty == null
-                    || artifactProperty.getSymbolicName() == null
-                    || artifactProperty.getSymbolicName().isEmpty()) {
-                getLog().warn("Ignoring file '" + processingArtifactFile
-                        + "' due a missing metadata.");
-                continue;
-            }
-
-            if (!artifactProperty.getCacheDir().endsWith("bin")) {
-
-                if (artifactProperty.getStartLevel() == 0) {
-                    processFelixInstalableBundles(pProperties,
-                            artifactProperty);
-                } else {
-                    processFelixStartableBundles(pProperties, artifactProperty);
-                }
-            }
-        }
-
-        Writer writer = new OutputStreamWriter(pOutputFile.newOutputStream(),
-                getEncoding());
-        pProperties.store(writer, "generated configuration file");
-        writer.close();
-
+        ContainerBundleList bundles = newContainerBundleList(pInputFiles,
+                pArtifactTrackerManager, pMetadataIndex, levels);
+        bundles.applyToFelix(pProperties, getStartLevelDefault());
+        writeConfigurationFile(pOutputFile, pProperties);
     }
 
     private URL getInternalConfigurationFileURL() {
@@ -307,6 +330,45 @@ public class MojoGenerateContainerConfigFile
         return this.startLevelDefault;
     }
 
+    private OrderedPropertiesFile loadConfigurationFile(URL pUrl)
+            throws MojoFailureException {
+        try (InputStream is = pUrl.openStream()) {
+            return OrderedPropertiesFile.load(is,
+                    Charset.forName(getEncoding()));
+        } catch (IOException e) {
+            throw new MojoFailureException(
+                    "Failure opening provided configuration file at " + pUrl,
+                    e);
+        }
+    }
+
+    private ContainerBundleList newContainerBundleList(
+            Iterable<File> pInputFiles,
+            ArtifactTrackerManager pArtifactTrackerManager,
+            BundleMetadataIndex pMetadataIndex, Map<String, Integer> pLevels)
+            throws IOException {
+        ContainerBundleList bundles = new ContainerBundleList(pMetadataIndex,
+                pLevels);
+        for (File processingArtifactFile : pInputFiles) {
+            ArtifactTracker artifactProperty = pArtifactTrackerManager
+                    .searchByPath(processingArtifactFile.getPath());
+            if (artifactProperty == null || !pMetadataIndex
+                    .get(processingArtifactFile.toPath()).isBundle()) {
+                getLog().warn("Ignoring file '" + processingArtifactFile
+                        + "' due a missing metadata.");
+                continue;
+            }
+            if (artifactProperty.getCacheDir().endsWith("bin")) {
+                continue;
+            }
+            bundles.add(processingArtifactFile.toPath(),
+                    artifactProperty.getCachedFilePath().getFileName()
+                            .toString(),
+                    artifactProperty.getStartLevel());
+        }
+        return bundles;
+    }
+
     private final URL loadUrl(String pUrlString) throws MojoExecutionException {
         URL url = null;
         if (pUrlString.startsWith(CLASSPATH_PREFIX)) {
@@ -333,7 +395,13 @@ public class MojoGenerateContainerConfigFile
 
     private void prepareForConfigurationFileGeneration(final Path outputFile,
             final ArtifactTrackerManager pArtifactTrackerManager,
-            Properties pProperties) throws MojoExecutionException {
+            OrderedPropertiesFile pProperties) throws MojoExecutionException {
+
+        // the manifest data of unchanged bundles is taken from the index kept
+        // in the work directory instead of reopening the cached jars.
+        BundleMetadataIndex metadataIndex = BundleMetadataIndex
+                .load(getContainerWorkDirectory().resolve(
+                        BundleMetadataIndex.DEFAULT_INDEX_FILE_NAME));
 
         InputSet configFileInputSet = registerArtifactsIntoAggregatorBuildContext(
                 pArtifactTrackerManager.getAllArtifactTrackers(),
@@ -350,18 +418,25 @@ public class MojoGenerateContainerConfigFile
 
                             generateEquinoxConfigurationFileOutput(output,
                                     inputs, pArtifactTrackerManager,
-                                    pProperties);
+                                    metadataIndex, pProperties);
                         } else
                             if (getContainer().equals(Container.FELIX)) {
                                 generateFelixConfigurationFileOutput(output,
                                         inputs, pArtifactTrackerManager,
-                                        pProperties);
+                                        metadataIndex, pProperties);
                             }
                     })) {
                 getLog().info(String.format(
                         "The OSGi container configuration file was successfully generated at : %s",
                         outputFile.toAbsolutePath()));
             }
+            metadataIndex.save();
+            getMetrics().add("manifestReads", metadataIndex.getManifestReads());
+            if (isVerbose()) {
+                getLog().info("Bundle metadata index: "
+                        + metadataIndex.getManifestReads()
+                        + " manifests read from jar files.");
+            }
         } catch (IOException e) {
             throw new MojoExecutionException(
                     "An error occurred while generating the OSGi container configuration file.",
@@ -369,39 +444,31 @@ public class MojoGenerateContainerConfigFile
         }
     }
 
-    private void processFelixInstalableBundles(Properties pProperties,
-            ArtifactTracker pArtifactProperty) {
-        String id = getStartLevelDefault().toString();
-        String key = "felix.auto.install.".concat(id);
-        String bundlesToInstall = pProperties.getProperty(key) != null
-                ? pProperties.getProperty(key)
-                : "";
-        if (!bundlesToInstall.isEmpty()) {
-            bundlesToInstall = bundlesToInstall.concat(FELIX_LINE_BREAK);
+    private void writeConfigurationFile(Output<File> pOutputFile,
+            OrderedPropertiesFile pProperties) throws IOException {
+        // keeping the file untouched preserves its modification time, so the
+        // steps depending on it are not invalidated for nothing.
+        if (pProperties.isSameContent(pOutputFile.getResource())) {
+            if (isVerbose()) {
+                getLog().info("The configuration file content did not change.");
+            }
+            return;
+        }
+        try (OutputStream out = pOutputFile.newOutputStream()) {
+            pProperties.writeTo(out);
         }
-        bundlesToInstall = bundlesToInstall.concat("file:./bundles/"
-                + pArtifactProperty.getCachedFilePath().getFileName());
-
-        pProperties.put(key, bundlesToInstall);
     }
 
-    private void processFelixStartableBundles(Properties pProperties,
-            ArtifactTracker pArtifactProperty) {
-        String id = Integer.toString(pArtifactProperty.getStartLevel());
-        String key = "felix.auto.start.".concat(id);
-        String bundlesToStart = pProperties.getProperty(key) != null
-                ? pProperties.getProperty(key)
-                : "";
-        if (!bundlesToStart.isEmpty()) {
-            bundlesToStart = bundlesToStart.concat(FELIX_LINE_BREAK);
-        }
-        bundlesToStart = bundlesToStart.concat("file:./bundles/"
-                + pArtifactProperty.getCachedFilePath().getFileName());
-        pProperties.put(key, bundlesToStart);
+    public void setStartLevelAutomatic(boolean pStartLevelAutomatic) {
+        this.startLevelAutomatic = pStartLevelAutomatic;
     }
 
     public void setStartLevelDefault(Integer pStartLevelDefault) {
         this.startLevelDefault = pStartLevelDefault;
     }
 
+    public void setStartLevelTiers(int pStartLevelTiers) {
+        this.startLevelTiers = pStartLevelTiers;
+    }
+
 }
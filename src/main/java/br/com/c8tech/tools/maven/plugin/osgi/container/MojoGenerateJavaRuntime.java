@@ -0,0 +1,343 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Generates a Java runtime containing only the JDK modules required by the
+ * container, to be shipped in the distribution instead of relying on a full
+ * Java runtime installed in the image.
+ * <p>
+ * The modules are the ones reported by <b>jdeps</b> for the framework and
+ * the cached bundles, plus the modules exporting the packages imported by the
+ * bundles or declared as extra system packages in the generated
+ * configuration file, since they may only be used through reflection. The
+ * runtime is created by <b>jlink</b> into the <b>jre</b> directory of the
+ * distribution, and the internal Dockerfiles use it when present.
+ * <p>
+ * The runtime is built for the platform of the informed JDK, so the image
+ * must be based on a compatible system: a runtime linked by a glibc JDK does
+ * not run on the Alpine images used by the internal Dockerfiles, which
+ * require a musl JDK, like the Alpine builds of OpenJDK. The
+ * <b>buildDockerImage</b> goal fails when they do not match. The runtime is
+ * only generated again when the bundles, the JDK or the options change.
+ * <p>
+ * The goals that launch the container, like <b>generateCdsArchive</b>, must
+ * use this runtime too, by pointing the <b>osgi.container.launcher.java</b>
+ * property to its <b>bin/java</b> executable, since the files they generate
+ * are only valid for the Java runtime that created them.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@Mojo(name = "generateJavaRuntime",
+        defaultPhase = LifecyclePhase.PREPARE_PACKAGE, requiresProject = true,
+        threadSafe = true)
+public class MojoGenerateJavaRuntime extends AbstractOsgiContainerPackMojo {
+
+    public static final String JAVA_RUNTIME_DIR_NAME = "jre";
+
+    private static final String FINGERPRINT_NAME = "fingerprint";
+
+    private static final String JLINK_DIR_NAME = "jlink";
+
+    private static final String JLINK_LOG_NAME = "jlink.log";
+
+    private static final String MODULES_NAME = "modules.txt";
+
+    private static final String SYSTEM_PACKAGES_EXTRA = "org.osgi.framework.system.packages.extra";
+
+    /**
+     * Modules always added to the runtime, like the ones only needed by
+     * diagnostic tools (<b>jdk.jdwp.agent</b>, <b>jdk.jcmd</b>) or by
+     * security providers (<b>jdk.crypto.ec</b>).
+     */
+    @Parameter(property = "osgi.container.jlink.additionalModules")
+    private List<String> jlinkAdditionalModules;
+
+    /**
+     * The JDK whose <b>jdeps</b> and <b>jlink</b> tools and modules are used.
+     * It must be a Java 11 or newer JDK.
+     */
+    @Parameter(property = "osgi.container.jlink.jdkHome",
+            defaultValue = "${java.home}")
+    private String jlinkJdkHome;
+
+    /**
+     * The options passed to <b>jlink</b> besides the modules and the output
+     * directory.
+     */
+    @Parameter(property = "osgi.container.jlink.options",
+            defaultValue = "--strip-debug --no-header-files --no-man-pages --compress=2")
+    private String jlinkOptions;
+
+    @Inject
+    public MojoGenerateJavaRuntime(MavenProject pProject) {
+        super(pProject);
+    }
+
+    /**
+     * Tells whether a Java runtime was built for the musl C library, the one
+     * of the Alpine images, from the program interpreter of its java
+     * executable.
+     *
+     * @param pJavaHome
+     *                      the directory of the Java runtime.
+     * @return true when the runtime requires musl.
+     * @throws IOException
+     *                         when the java executable could not be read.
+     */
+    static boolean isMuslRuntime(Path pJavaHome) throws IOException {
+        Path java = pJavaHome.resolve("bin").resolve("java");
+        if (!Files.isRegularFile(java)) {
+            return false;
+        }
+        return new String(Files.readAllBytes(java),
+                StandardCharsets.ISO_8859_1).contains("/ld-musl-");
+    }
+
+    /**
+     * Maps the imported packages to the modules of the JDK exporting them.
+     */
+    private Set<String> findPackageModules(List<String> pPackages)
+            throws IOException {
+        Set<String> modules = new TreeSet<>();
+        FileSystem jrt;
+        try {
+            jrt = FileSystems.newFileSystem(URI.create("jrt:/"),
+                    Collections.singletonMap("java.home", jlinkJdkHome));
+        } catch (ProviderNotFoundException | UnsupportedOperationException e) {
+            getLog().warn(
+                    "The modules of the imported packages can not be found when the build runs on Java 8.");
+            return modules;
+        }
+        try {
+            for (String packageName : pPackages) {
+                Path packageDir = jrt.getPath("/packages", packageName);
+                if (!Files.isDirectory(packageDir)) {
+                    continue;
+                }
+                try (Stream<Path> stream = Files.list(packageDir)) {
+                    stream.map(p -> p.getFileName().toString())
+                            .forEach(modules::add);
+                }
+            }
+        } finally {
+            jrt.close();
+        }
+        return modules;
+    }
+
+    @Override
+    protected void executeMojo()
+            throws MojoExecutionException, MojoFailureException {
+        Path jdk = Paths.get(jlinkJdkHome);
+        Path jlinkDir = getContainerWorkDirectory().resolve(JLINK_DIR_NAME);
+        Path target = getContainerRuntimeDirectory()
+                .resolve(JAVA_RUNTIME_DIR_NAME);
+        Path cacheDir = getContainerCacheDirectory();
+        BundleMetadataIndex metadataIndex = BundleMetadataIndex
+                .load(getContainerWorkDirectory().resolve(
+                        BundleMetadataIndex.DEFAULT_INDEX_FILE_NAME));
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(jlinkDir);
+            List<Path> jars = new ArrayList<>(
+                    listJars(cacheDir.resolve("bin").resolve("plugins")));
+            jars.addAll(listJars(cacheDir.resolve("plugins")));
+
+            Set<String> packages = new TreeSet<>();
+            StringBuilder fingerprint = new StringBuilder();
+            for (Path jar : jars) {
+                BundleMetadata metadata = metadataIndex.get(jar);
+                fingerprint.append(jar.getFileName()).append('=')
+                        .append(metadataIndex.getDigest(jar)).append('\n');
+                for (ManifestHeader.Clause clause : ManifestHeader
+                        .parse(metadata.getImportPackage())) {
+                    packages.addAll(clause.getPaths());
+                }
+            }
+            metadataIndex.save();
+            for (ManifestHeader.Clause clause : ManifestHeader
+                    .parse(readSystemPackagesExtra())) {
+                packages.addAll(clause.getPaths());
+            }
+            String javaRelease = readJavaVersion(jdk);
+            fingerprint.append(jdk.toAbsolutePath()).append('=')
+                    .append(javaRelease).append('\n').append(jlinkOptions)
+                    .append('\n').append(jlinkAdditionalModules).append('\n')
+                    .append(packages).append('\n');
+            String key = FileContents.sha256(fingerprint.toString());
+            Path fingerprintFile = jlinkDir.resolve(FINGERPRINT_NAME);
+            if (Files.isDirectory(target) && Files.isRegularFile(fingerprintFile)
+                    && key.equals(new String(Files.readAllBytes(fingerprintFile),
+                            StandardCharsets.UTF_8))) {
+                getLog().info("The Java runtime " + target + " is up to date.");
+                return;
+            }
+
+            Set<String> modules = new TreeSet<>();
+            modules.add("java.base");
+            modules.addAll(runJdeps(jdk, jlinkDir, javaRelease, jars));
+            modules.addAll(findPackageModules(new ArrayList<>(packages)));
+            if (jlinkAdditionalModules != null) {
+                modules.addAll(jlinkAdditionalModules);
+            }
+            Files.write(jlinkDir.resolve(MODULES_NAME), modules,
+                    StandardCharsets.UTF_8);
+
+            AbstractOsgiContainerLaunchMojo.deleteDirectory(target);
+            List<String> command = new ArrayList<>();
+            command.add(jdk.resolve("bin").resolve("jlink").toString());
+            Path jmods = jdk.resolve("jmods");
+            if (Files.isDirectory(jmods)) {
+                command.add("--module-path");
+                command.add(jmods.toString());
+            }
+            command.add("--add-modules");
+            command.add(String.join(",", modules));
+            command.add("--output");
+            command.add(target.toString());
+            command.addAll(Arrays.asList(jlinkOptions.trim().split("\\s+")));
+            int exitCode = runTool(command, jlinkDir.resolve(JLINK_LOG_NAME));
+            if (exitCode != 0) {
+                throw new MojoExecutionException(
+                        "jlink failed with exit code " + exitCode + ". See "
+                                + jlinkDir.resolve(JLINK_LOG_NAME));
+            }
+
+            long[] counters = FileContents.measure(target);
+            getLog().info(String.format(
+                    "Java runtime with %d modules generated at %s in %d ms: %d files, %d KB (%s)",
+                    modules.size(), target,
+                    System.currentTimeMillis() - start, counters[0],
+                    counters[1] / 1024,
+                    isMuslRuntime(target) ? "musl" : "glibc"));
+            if (isVerbose()) {
+                getLog().info("Modules: " + String.join(",", modules));
+            }
+            Files.write(fingerprintFile, key.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while generating the Java runtime.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(
+                    "Interrupted while generating the Java runtime.", e);
+        }
+    }
+
+    /**
+     * Reads the feature version of the JDK, like <b>11</b>, from its
+     * <b>release</b> file.
+     */
+    private String readJavaVersion(Path pJdk)
+            throws IOException, MojoExecutionException {
+        Path releaseFile = pJdk.resolve("release");
+        if (!Files.isRegularFile(releaseFile)
+                || !Files.isRegularFile(pJdk.resolve("bin").resolve("jlink"))
+                        && !Files.isRegularFile(
+                                pJdk.resolve("bin").resolve("jlink.exe"))) {
+            throw new MojoExecutionException("The directory " + pJdk
+                    + " is not a Java 11 or newer JDK. Inform one using the osgi.container.jlink.jdkHome property.");
+        }
+        Properties release = new Properties();
+        try (InputStream in = Files.newInputStream(releaseFile)) {
+            release.load(in);
+        }
+        String version = release.getProperty("JAVA_VERSION", "").replace("\"",
+                "");
+        return version.split("[.+-]")[0];
+    }
+
+    private String readSystemPackagesExtra() throws IOException {
+        Path configFile = calculateContainerConfigurationFileOutputPath();
+        if (!Files.isRegularFile(configFile)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(configFile)) {
+            return OrderedPropertiesFile
+                    .load(in, Charset.forName(getEncoding()))
+                    .getProperty(SYSTEM_PACKAGES_EXTRA);
+        }
+    }
+
+    /**
+     * Runs jdeps over all jars at once, which is much faster than once per
+     * jar, and returns the modules they depend on.
+     */
+    private Set<String> runJdeps(Path pJdk, Path pJlinkDir, String pRelease,
+            List<Path> pJars) throws IOException, InterruptedException,
+            MojoExecutionException {
+        Path output = pJlinkDir.resolve("jdeps.txt");
+        List<String> command = new ArrayList<>();
+        command.add(pJdk.resolve("bin").resolve("jdeps").toString());
+        command.addAll(Arrays.asList("--ignore-missing-deps", "-q",
+                "--multi-release", pRelease, "--print-module-deps"));
+        for (Path jar : pJars) {
+            command.add(jar.toString());
+        }
+        int exitCode = runTool(command, output);
+        List<String> lines = Files.readAllLines(output,
+                StandardCharsets.UTF_8);
+        if (exitCode != 0 || lines.isEmpty()) {
+            throw new MojoExecutionException("jdeps failed with exit code "
+                    + exitCode + ". See " + output);
+        }
+        Set<String> modules = new TreeSet<>();
+        for (String module : lines.get(lines.size() - 1).split(",")) {
+            if (!module.trim().isEmpty()) {
+                modules.add(module.trim());
+            }
+        }
+        return modules;
+    }
+
+    private int runTool(List<String> pCommand, Path pOutput)
+            throws IOException, InterruptedException {
+        if (isVerbose()) {
+            getLog().info("Running " + String.join(" ", pCommand));
+        }
+        Process process = new ProcessBuilder(pCommand)
+                .redirectErrorStream(true).redirectOutput(pOutput.toFile())
+                .start();
+        return process.waitFor();
+    }
+}
@@ -12,13 +12,26 @@
 package br.com.c8tech.tools.maven.plugin.osgi.container;
 
 import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -39,6 +52,8 @@ import org.apache.maven.plugins.assembly.format.AssemblyFormattingException;
 import org.apache.maven.plugins.assembly.io.AssemblyReadException;
 import org.apache.maven.plugins.assembly.io.AssemblyReader;
 import org.apache.maven.plugins.assembly.model.Assembly;
+import org.apache.maven.plugins.assembly.model.FileItem;
+import org.apache.maven.plugins.assembly.model.FileSet;
 import org.apache.maven.plugins.assembly.utils.AssemblyFormatUtils;
 import org.apache.maven.plugins.assembly.utils.InterpolationConstants;
 import org.apache.maven.project.MavenProject;
@@ -47,6 +62,9 @@ import org.apache.maven.shared.utils.cli.CommandLineUtils;
 import org.codehaus.plexus.interpolation.fixed.FixedStringSearchInterpolator;
 import org.codehaus.plexus.interpolation.fixed.PrefixedPropertiesValueSource;
 import org.codehaus.plexus.interpolation.fixed.PropertiesBasedValueSource;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+import com.github.luben.zstd.ZstdOutputStream;
 
 /**
  * This mojo is aimed to build a distributable ZIP archive containing an OSGi
@@ -66,6 +84,10 @@ import org.codehaus.plexus.interpolation.fixed.PropertiesBasedValueSource;
 public class MojoGenerateOsgiAssemblyArchive extends
         AbstractOsgiContainerPackMojo implements AssemblerConfigurationSource {
 
+    private static final int DEFAULT_DIRECTORY_MODE = 0755;
+
+    private static final int DEFAULT_FILE_MODE = 0644;
+
     /**
      * This is a set of instructions to the archive builder, especially for
      * building .jar files. It enables you to specify a Manifest file for the
@@ -88,6 +110,27 @@ public class MojoGenerateOsgiAssemblyArchive extends
 
     protected FixedStringSearchInterpolator commandLinePropertiesInterpolator;
 
+    /**
+     * The size in bytes of the blocks compressed by each thread when the
+     * tar.gz compression is parallel.
+     */
+    @Parameter(property = "osgi.container.assembly.compressionBlockSize",
+            defaultValue = "131072")
+    private int compressionBlockSize;
+
+    private ExecutorService compressionExecutor;
+
+    /**
+     * How many threads are used to compress a tar.gz assembly.
+     * <p>
+     * When greater than one, the archive is compressed in parallel blocks, like
+     * pigz does, producing a regular gzip stream that any gunzip can read. Zero
+     * means one thread per available processor.
+     */
+    @Parameter(property = "osgi.container.assembly.compressionThreads",
+            defaultValue = "1")
+    private int compressionThreads;
+
     /**
      * <p>
      * Set of delimiters for expressions to filter within the resources. These
@@ -152,9 +195,20 @@ public class MojoGenerateOsgiAssemblyArchive extends
     private List<String> filters;
 
     /**
-     * Specifies the format of the assembly.
+     * Whether the tar.gz archive should be built incrementally.
+     * <p>
+     * A manifest of the archived entries is kept in the work directory. When
+     * none of them changed the archive is not built again, otherwise the
+     * compressed entries of unchanged files are copied from the previous
+     * archive and only the changed ones are compressed.
+     * <p>
+     * It is only used by assemblies made of file sets and files without
+     * filtering, like the default ones provided by this plugin.
      */
-    private String format = "tar.gz";
+    @Parameter(property = "osgi.container.assembly.incremental",
+            defaultValue = "false")
+    private boolean incrementalAssembly;
+
     /**
      * If this flag is set, the ".dir" suffix will be suppressed in the output
      * directory name when using assembly/format == 'dir' and other formats that
@@ -288,6 +342,22 @@ public class MojoGenerateOsgiAssemblyArchive extends
     // defaultValue = "false")
     private boolean useJvmChmod;
 
+    /**
+     * The Zstandard compression level used by the <b>tar.zst</b> format, from
+     * 1 (fastest) to 19 (smallest).
+     */
+    @Parameter(property = "osgi.container.assembly.zstd.level",
+            defaultValue = "3")
+    private int zstdLevel;
+
+    /**
+     * How many worker threads Zstandard uses to compress the <b>tar.zst</b>
+     * format. Zero compresses in the calling thread.
+     */
+    @Parameter(property = "osgi.container.assembly.zstd.workers",
+            defaultValue = "0")
+    private int zstdWorkers;
+
     @Inject
     public MojoGenerateOsgiAssemblyArchive(final MavenProject project) {
         super(project);
@@ -430,36 +500,365 @@ public class MojoGenerateOsgiAssemblyArchive extends
                     "Mojo configuration is invalid: " + e.getMessage());
         }
 
-        for (final Assembly assembly : assemblies) {
-            try {
-                final String fullName = AssemblyFormatUtils
-                        .getDistributionName(assembly, this);
+        if (getCompressionThreads() > 1) {
+            compressionExecutor = Executors.newFixedThreadPool(
+                    getCompressionThreads(), newCompressionThreadFactory());
+        }
+        try {
+            for (final Assembly assembly : assemblies) {
+                createAssembly(assembly);
+            }
+        } finally {
+            if (compressionExecutor != null) {
+                compressionExecutor.shutdownNow();
+                compressionExecutor = null;
+            }
+        }
 
-                final File destFile = getAssemblyArchiver().createArchive(
-                        assembly, fullName, format, this,
-                        isRecompressZippedFiles(), getMergeManifestMode());
+    }
 
-                final MavenProject project = getProject();
-                final String type = project.getArtifact().getType();
+    private void createAssembly(final Assembly assembly)
+            throws MojoExecutionException, MojoFailureException {
+        try {
+            final String fullName = AssemblyFormatUtils
+                    .getDistributionName(assembly, this);
+
+            final ArchiveFormat format = getAssemblyFormat();
+            final long start = System.nanoTime();
+            final File destFile;
+            if (isIncrementalAssembly() && !isDryRun()
+                    && isIncrementalAssemblySupported(assembly)) {
+                destFile = createIncrementalArchive(assembly, fullName,
+                        format);
+            } else
+                if (!isDryRun() && (format == ArchiveFormat.TAR_ZST
+                        || format == ArchiveFormat.TAR_GZ
+                                && compressionExecutor != null)) {
+                    destFile = createCompressedArchive(assembly, fullName,
+                            format);
+                } else {
+                    destFile = getAssemblyArchiver().createArchive(
+                            assembly, fullName, format.getExtension(), this,
+                            isRecompressZippedFiles(),
+                            getMergeManifestMode());
+                    if (destFile.isFile()) {
+                        reportThroughput("Wrote", destFile.length(),
+                                System.nanoTime() - start, 1);
+                    }
+                }
 
-                if (destFile.isFile() && "osgi.container".equals(type)) {
+            final MavenProject project = getProject();
+            final String type = project.getArtifact().getType();
 
-                    project.getArtifact().setFile(destFile);
-                }
-            } catch (final ArchiveCreationException
-                    | AssemblyFormattingException e) {
-                throw new MojoExecutionException(
-                        "Failed to create assembly: " + e.getMessage(), e);
-            } catch (final InvalidAssemblerConfigurationException e) {
-                throw new MojoFailureException(assembly,
-                        "Assembly is incorrectly configured: "
-                                + assembly.getId(),
-                        "Assembly: " + assembly.getId()
-                                + " is not configured correctly: "
-                                + e.getMessage());
+            if (destFile.isFile()) {
+                getMetrics().add("archiveBytes", destFile.length());
+            }
+            if (destFile.isFile() && "osgi.container".equals(type)) {
+
+                project.getArtifact().setFile(destFile);
             }
+        } catch (final ArchiveCreationException
+                | AssemblyFormattingException e) {
+            throw new MojoExecutionException(
+                    "Failed to create assembly: " + e.getMessage(), e);
+        } catch (final InvalidAssemblerConfigurationException e) {
+            throw new MojoFailureException(assembly,
+                    "Assembly is incorrectly configured: "
+                            + assembly.getId(),
+                    "Assembly: " + assembly.getId()
+                            + " is not configured correctly: "
+                            + e.getMessage());
+        }
+    }
+
+    private static void addArchiveDirectory(
+            Map<String, IncrementalTarArchiver.Entry> pEntries,
+            String pName, Path pSource, int pMode) {
+        if (pName.isEmpty()) {
+            return;
+        }
+        int slash = pName.lastIndexOf('/');
+        if (slash > 0) {
+            addArchiveDirectory(pEntries, pName.substring(0, slash), null,
+                    DEFAULT_DIRECTORY_MODE);
+        }
+        pEntries.putIfAbsent(pName + "/", IncrementalTarArchiver.Entry
+                .directory(pName, pSource, pMode));
+    }
+
+    private static void addArchiveFile(
+            Map<String, IncrementalTarArchiver.Entry> pEntries,
+            String pName, Path pSource, int pMode) {
+        int slash = pName.lastIndexOf('/');
+        if (slash > 0) {
+            addArchiveDirectory(pEntries, pName.substring(0, slash), null,
+                    DEFAULT_DIRECTORY_MODE);
+        }
+        pEntries.putIfAbsent(pName,
+                IncrementalTarArchiver.Entry.file(pName, pSource, pMode));
+    }
+
+    private static String archivePath(String pDirectory, String pName) {
+        String directory = pDirectory == null ? ""
+                : pDirectory.trim().replace('\\', '/');
+        while (directory.startsWith("./") || directory.startsWith("/")) {
+            directory = directory.substring(directory.indexOf('/') + 1);
+        }
+        if (".".equals(directory)) {
+            directory = "";
+        }
+        while (directory.endsWith("/")) {
+            directory = directory.substring(0, directory.length() - 1);
         }
+        if (pName == null || pName.isEmpty()) {
+            return directory;
+        }
+        return directory.isEmpty() ? pName : directory + "/" + pName;
+    }
 
+    /**
+     * Returns the configured mode or, when none is configured, the
+     * permissions of the source file, as the plexus archiver does.
+     */
+    private static int entryMode(String pMode, Path pSource, int pDefault)
+            throws IOException {
+        if (pMode == null || pMode.trim().isEmpty()) {
+            return IncrementalTarArchiver.modeOf(pSource, pDefault);
+        }
+        return Integer.parseInt(pMode.trim(), 8);
+    }
+
+    private List<IncrementalTarArchiver.Entry> collectArchiveEntries(
+            Assembly pAssembly, String pFullName)
+            throws IOException, MojoExecutionException {
+        String baseDirectory = "";
+        if (pAssembly.isIncludeBaseDirectory()) {
+            baseDirectory = pAssembly.getBaseDirectory() != null
+                    ? pAssembly.getBaseDirectory()
+                    : pFullName;
+        }
+        Map<String, IncrementalTarArchiver.Entry> entries = new LinkedHashMap<>();
+        for (FileSet fileSet : pAssembly.getFileSets()) {
+            File directory = resolveAssemblyFile(fileSet.getDirectory());
+            if (!directory.isDirectory()) {
+                getLog().debug("The file set directory " + directory
+                        + " does not exist, skipping it.");
+                continue;
+            }
+            String outputDirectory = archivePath(baseDirectory,
+                    archivePath(fileSet.getOutputDirectory(), null));
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir(directory);
+            if (!fileSet.getIncludes().isEmpty()) {
+                scanner.setIncludes(
+                        fileSet.getIncludes().toArray(new String[0]));
+            }
+            if (!fileSet.getExcludes().isEmpty()) {
+                scanner.setExcludes(
+                        fileSet.getExcludes().toArray(new String[0]));
+            }
+            if (fileSet.isUseDefaultExcludes()) {
+                scanner.addDefaultExcludes();
+            }
+            scanner.scan();
+
+            addArchiveDirectory(entries, outputDirectory, directory.toPath(),
+                    entryMode(fileSet.getDirectoryMode(), directory.toPath(),
+                            DEFAULT_DIRECTORY_MODE));
+            String[] includedDirectories = scanner.getIncludedDirectories();
+            Arrays.sort(includedDirectories);
+            for (String includedDirectory : includedDirectories) {
+                Path path = directory.toPath().resolve(includedDirectory);
+                addArchiveDirectory(entries,
+                        archivePath(outputDirectory, includedDirectory
+                                .replace(File.separatorChar, '/')),
+                        path, entryMode(fileSet.getDirectoryMode(), path,
+                                DEFAULT_DIRECTORY_MODE));
+            }
+            String[] includedFiles = scanner.getIncludedFiles();
+            Arrays.sort(includedFiles);
+            for (String includedFile : includedFiles) {
+                Path path = directory.toPath().resolve(includedFile);
+                addArchiveFile(entries,
+                        archivePath(outputDirectory,
+                                includedFile.replace(File.separatorChar, '/')),
+                        path, entryMode(fileSet.getFileMode(), path,
+                                DEFAULT_FILE_MODE));
+            }
+        }
+        for (FileItem fileItem : pAssembly.getFiles()) {
+            if (fileItem.getSource() == null
+                    || fileItem.getSource().trim().isEmpty()) {
+                throw new MojoExecutionException("A file of the assembly "
+                        + pAssembly.getId() + " has no source.");
+            }
+            File source = resolveAssemblyFile(fileItem.getSource());
+            String name = fileItem.getDestName() != null
+                    ? fileItem.getDestName().trim()
+                    : source.getName();
+            addArchiveFile(entries,
+                    archivePath(archivePath(baseDirectory,
+                            archivePath(fileItem.getOutputDirectory(), null)),
+                            name),
+                    source.toPath(), entryMode(fileItem.getFileMode(),
+                            source.toPath(), DEFAULT_FILE_MODE));
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    private File createCompressedArchive(Assembly pAssembly,
+            String pFullName, ArchiveFormat pFormat)
+            throws ArchiveCreationException, AssemblyFormattingException,
+            InvalidAssemblerConfigurationException, MojoExecutionException {
+        // the archiver builds a plain tar that is compressed afterwards
+        File tarFile = getAssemblyArchiver().createArchive(pAssembly,
+                pFullName, ArchiveFormat.TAR.getExtension(), this,
+                isRecompressZippedFiles(), getMergeManifestMode());
+        File destFile = new File(tarFile.getParentFile(),
+                pFullName + "." + pFormat.getExtension());
+        long start = System.nanoTime();
+        try (InputStream in = Files.newInputStream(tarFile.toPath());
+                OutputStream out = newCompressionStream(
+                        new BufferedOutputStream(
+                                Files.newOutputStream(destFile.toPath()),
+                                65536),
+                        pFormat)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to compress assembly: " + e.getMessage(), e);
+        }
+        reportThroughput("Compressed", tarFile.length(),
+                System.nanoTime() - start, getCompressionThreads(pFormat));
+        try {
+            Files.delete(tarFile.toPath());
+        } catch (IOException e) {
+            getLog().warn("Could not delete the intermediate archive "
+                    + tarFile + ": " + e.getMessage());
+        }
+        return destFile;
+    }
+
+    private File createIncrementalArchive(Assembly pAssembly,
+            String pFullName, ArchiveFormat pFormat)
+            throws MojoExecutionException {
+        File destFile = new File(getOutputDirectory(),
+                pFullName + "." + pFormat.getExtension());
+        IncrementalTarArchiver archiver = new IncrementalTarArchiver(
+                getContainerWorkDirectory()
+                        .resolve(pFullName + ".assembly-manifest"),
+                pFormat);
+        if (compressionExecutor != null) {
+            archiver.setParallelCompression(compressionExecutor,
+                    getCompressionThreads(), getCompressionBlockSize());
+        }
+        archiver.setZstdCompression(getZstdLevel(), getZstdWorkers());
+        long start = System.nanoTime();
+        try {
+            IncrementalTarArchiver.Result result = archiver.createArchive(
+                    collectArchiveEntries(pAssembly, pFullName),
+                    destFile.toPath());
+            if (result.isSkipped()) {
+                getLog().info("The assembly " + destFile
+                        + " is up to date, none of its entries changed.");
+            } else {
+                getMetrics().add("entriesCompressed", result.getCompressed());
+                getMetrics().add("entriesReused", result.getReused());
+                getMetrics().add("reusedBytes", result.getReusedBytes());
+                getLog().info("Building the assembly " + destFile + ": "
+                        + result.getCompressed() + " entries compressed, "
+                        + result.getReused() + " entries ("
+                        + result.getReusedBytes() / 1024
+                        + " KiB) reused from the previous archive.");
+                reportThroughput("Compressed", result.getUncompressedBytes(),
+                        System.nanoTime() - start,
+                        getCompressionThreads(pFormat));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failed to create assembly: " + e.getMessage(), e);
+        }
+        return destFile;
+    }
+
+    private static ThreadFactory newCompressionThreadFactory() {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable,
+                    "osgi-container-gzip-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private OutputStream newCompressionStream(OutputStream pOut,
+            ArchiveFormat pFormat) throws IOException {
+        if (pFormat == ArchiveFormat.TAR_ZST) {
+            return new ZstdOutputStream(pOut, getZstdLevel())
+                    .setWorkers(getZstdWorkers());
+        }
+        return new ParallelGzipOutputStream(pOut, compressionExecutor,
+                getCompressionThreads(), getCompressionBlockSize(),
+                Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private int getCompressionThreads(ArchiveFormat pFormat) {
+        if (pFormat == ArchiveFormat.TAR_ZST) {
+            return Math.max(1, getZstdWorkers());
+        }
+        return pFormat == ArchiveFormat.TAR_GZ ? getCompressionThreads() : 1;
+    }
+
+    private void reportThroughput(String pAction, long pBytes, long pNanos,
+            int pThreads) {
+        double megabytes = pBytes / (1024d * 1024d);
+        double seconds = Math.max(pNanos, 1) / 1_000_000_000d;
+        getLog().info(String.format(
+                "%s %.1f MB in %.2f s (%.1f MB/s, %d compression thread(s)).",
+                pAction, megabytes, seconds, megabytes / seconds, pThreads));
+        getMetrics().add("compressionBytes", pBytes);
+        getMetrics().add("compressionMillis",
+                TimeUnit.NANOSECONDS.toMillis(pNanos));
+    }
+
+    private boolean isIncrementalAssemblySupported(Assembly pAssembly) {
+        boolean supported = pAssembly.getDependencySets().isEmpty()
+                && pAssembly.getModuleSets().isEmpty()
+                && pAssembly.getRepositories().isEmpty()
+                && pAssembly.getComponentDescriptors().isEmpty()
+                && pAssembly.getContainerDescriptorHandlers().isEmpty()
+                && !pAssembly.isIncludeSiteDirectory();
+        for (FileSet fileSet : pAssembly.getFileSets()) {
+            supported = supported && !fileSet.isFiltered()
+                    && fileSet.getLineEnding() == null;
+        }
+        for (FileItem fileItem : pAssembly.getFiles()) {
+            supported = supported && !fileItem.isFiltered()
+                    && fileItem.getLineEnding() == null;
+        }
+        if (!supported) {
+            getLog().info("The assembly " + pAssembly.getId()
+                    + " can't be built incrementally, building it entirely.");
+        }
+        return supported;
+    }
+
+    /**
+     * Resolves a path of the assembly descriptor against the project base
+     * directory, which is also used when no path is informed, as the plexus
+     * archiver does for the file sets without a directory.
+     */
+    private File resolveAssemblyFile(String pPath) {
+        if (pPath == null || pPath.trim().isEmpty()) {
+            return getProject().getBasedir();
+        }
+        File file = new File(pPath.trim());
+        return file.isAbsolute() ? file
+                : new File(getProject().getBasedir(), pPath.trim());
     }
 
     @Override
@@ -640,6 +1039,27 @@ public class MojoGenerateOsgiAssemblyArchive extends
         return recompressZippedFiles;
     }
 
+    public int getCompressionBlockSize() {
+        return compressionBlockSize;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads > 0 ? compressionThreads
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getZstdLevel() {
+        return zstdLevel;
+    }
+
+    public int getZstdWorkers() {
+        return zstdWorkers;
+    }
+
+    public boolean isIncrementalAssembly() {
+        return incrementalAssembly;
+    }
+
     @Override
     public boolean isUpdateOnly() {
         return updateOnly;
@@ -0,0 +1,182 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Ships the framework storage area already filled in the distribution.
+ * <p>
+ * The container is launched once from the work directory with the generated
+ * configuration file, so the framework installs and resolves all bundles and
+ * persists its state when it is stopped. That storage area, the
+ * <b>felix-cache</b> directory for Felix or the
+ * <b>configuration/org.eclipse.osgi</b> directory for Equinox, is then placed
+ * at the same location inside the distribution, so the first start of a new
+ * container instance skips the installation and resolution of the bundles.
+ * <p>
+ * The properties that clean the storage area when the framework is
+ * initialized, <b>org.osgi.framework.storage.clean</b> for Felix and
+ * <b>osgi.clean</b> for Equinox, are removed from the generated configuration
+ * file, otherwise the pre-warmed storage would be discarded on the first
+ * start. The bundle locations written by the configuration goal are relative
+ * to the distribution root, so the storage remains valid wherever the
+ * distribution is extracted.
+ * <p>
+ * Felix keeps a copy of each installed bundle in its storage area, so the
+ * distribution grows by about the size of the bundles.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@Mojo(name = "prewarmFrameworkStorage",
+        defaultPhase = LifecyclePhase.PREPARE_PACKAGE, requiresProject = true,
+        threadSafe = true)
+public class MojoPrewarmFrameworkStorage
+        extends AbstractOsgiContainerLaunchMojo {
+
+    private static final String EQUINOX_CLEAN_PROPERTY = "osgi.clean";
+
+    private static final String FELIX_CLEAN_PROPERTY = "org.osgi.framework.storage.clean";
+
+    private static final String FINGERPRINT_NAME = "fingerprint";
+
+    private static final String PREWARM_DIR_NAME = "prewarm";
+
+    @Inject
+    public MojoPrewarmFrameworkStorage(MavenProject pProject) {
+        super(pProject);
+    }
+
+    private static void copyDirectory(Path pSource, Path pTarget)
+            throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(pSource)) {
+            paths = stream.sorted().collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Path target = pTarget.resolve(pSource.relativize(path).toString());
+            if (Files.isDirectory(path)) {
+                Files.createDirectories(target);
+            } else {
+                Files.copy(path, target);
+            }
+        }
+    }
+
+    /**
+     * Removes the properties that would discard the pre-warmed storage from
+     * the generated configuration file.
+     */
+    private void disableStorageClean() throws MojoExecutionException {
+        Path configFile = calculateContainerConfigurationFileOutputPath();
+        if (!Files.isRegularFile(configFile)) {
+            throw new MojoExecutionException("The configuration file "
+                    + configFile
+                    + " was not found. The generateConfigurationFile goal must be executed first.");
+        }
+        String property = getContainer().equals(Container.EQUINOX)
+                ? EQUINOX_CLEAN_PROPERTY
+                : FELIX_CLEAN_PROPERTY;
+        Charset charset = Charset.forName(getEncoding());
+        try {
+            OrderedPropertiesFile properties;
+            try (InputStream in = Files.newInputStream(configFile)) {
+                properties = OrderedPropertiesFile.load(in, charset);
+            }
+            if (properties.getProperty(property) == null) {
+                return;
+            }
+            properties.remove(property);
+            if (properties.writeIfChanged(configFile.toFile())) {
+                getLog().info("Removed the property " + property + " from "
+                        + configFile + " to keep the pre-warmed storage.");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while updating the configuration file "
+                            + configFile,
+                    e);
+        }
+    }
+
+    @Override
+    protected void executeMojo()
+            throws MojoExecutionException, MojoFailureException {
+        disableStorageClean();
+        Path distribution = stageDistribution();
+        Path prewarmDir = getContainerWorkDirectory().resolve(PREWARM_DIR_NAME);
+        Path storage = getFrameworkStorage(distribution);
+        Path target = getContainerRuntimeDirectory()
+                .resolve(getFrameworkStoragePath());
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(prewarmDir);
+            LaunchFingerprint launchFingerprint = new LaunchFingerprint(
+                    prewarmDir.resolve(FINGERPRINT_NAME));
+            String fingerprint = computeFingerprint(distribution);
+            if (launchFingerprint.isUpToDate(target, fingerprint)) {
+                getLog().info("The pre-warmed framework storage " + target
+                        + " is up to date.");
+                return;
+            }
+
+            deleteDirectory(storage);
+            ContainerLauncher.Run run = createLauncher(distribution)
+                    .run(Collections.emptyList());
+            if (!run.isStarted()) {
+                getLog().warn(
+                        "The container did not stay up until it was stopped, the storage may be incomplete.");
+            }
+            if (!Files.isDirectory(storage)) {
+                throw new MojoExecutionException(
+                        "The framework did not persist its storage at "
+                                + storage + ". See "
+                                + getContainerWorkDirectory()
+                                        .resolve(LAUNCHER_LOG_NAME));
+            }
+
+            deleteDirectory(target);
+            copyDirectory(storage, target);
+            long[] counters = FileContents.measure(target);
+            getLog().info(String.format(
+                    "Framework storage pre-warmed at %s in %d ms: %d files, %d KB (container %s)",
+                    target, System.currentTimeMillis() - start, counters[0],
+                    counters[1] / 1024, run));
+            launchFingerprint.record(fingerprint);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while pre-warming the framework storage.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(
+                    "Interrupted while pre-warming the framework storage.",
+                    e);
+        }
+    }
+}
@@ -11,6 +11,9 @@
  */
 package br.com.c8tech.tools.maven.plugin.osgi.container;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.inject.Inject;
 
 import org.apache.maven.plugin.MojoExecutionException;
@@ -23,11 +26,61 @@ import org.apache.maven.project.MavenProject;
 
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.RegistryAuth;
 
 @Mojo(name = "pushDockerImage", defaultPhase = LifecyclePhase.DEPLOY,
         requiresProject = true, threadSafe = true)
 public class MojoPushDocker extends AbstractOsgiDockerMojo {
 
+    /**
+     * How the image is pushed.
+     */
+    public enum PushMode {
+        /**
+         * The image built by the Docker daemon is pushed by it.
+         */
+        DAEMON,
+        /**
+         * The image written by the <b>buildOciImage</b> goal is pushed
+         * straight to the registry, skipping the blobs it already has.
+         */
+        REGISTRY
+    }
+
+    /**
+     * The OCI image layout directory written by the <b>buildOciImage</b>
+     * goal, pushed when the <b>REGISTRY</b> push mode is used.
+     */
+    @Parameter(property = "osgi.container.oci.directory",
+            defaultValue = "${project.build.directory}/oci-image")
+    private File ociDirectory;
+
+    /**
+     * How many blobs are checked and uploaded at the same time when the
+     * <b>REGISTRY</b> push mode is used.
+     */
+    @Parameter(property = "dockerfile.push.concurrency", defaultValue = "4")
+    private int pushConcurrency;
+
+    /**
+     * How the image is pushed: <b>DAEMON</b> asks the Docker daemon to push
+     * the image it built, while <b>REGISTRY</b> pushes the image written by
+     * the <b>buildOciImage</b> goal straight to the registry, without a
+     * daemon. The latter only uploads the layers the registry does not have
+     * yet, several at a time, and sends nothing when the registry already has
+     * the same image under the tag.
+     */
+    @Parameter(property = "dockerfile.push.mode", defaultValue = "DAEMON")
+    private PushMode pushMode;
+
+    /**
+     * The base URL of the registry used by the <b>REGISTRY</b> push mode, like
+     * <b>http://localhost:5000</b> for a registry without TLS. By default it
+     * is derived from the repository, using HTTPS.
+     */
+    @Parameter(property = "dockerfile.push.registryUrl")
+    private String registryUrl;
+
     /**
      * The repository to put the built image into, for example
      * <tt>spotify/foo</tt>. You should also set the <tt>tag</tt> parameter,
@@ -53,6 +106,15 @@ public class MojoPushDocker extends AbstractOsgiDockerMojo {
         super(pProject);
     }
 
+    /**
+     * A push that missed its deadline may have reached the registry, so it is
+     * not attempted again.
+     */
+    @Override
+    protected boolean isRetriedAfterTimeout() {
+        return false;
+    }
+
     @Override
     protected void execute(DockerClient dockerClient)
             throws MojoExecutionException, MojoFailureException {
@@ -82,9 +144,25 @@ public class MojoPushDocker extends AbstractOsgiDockerMojo {
                             + "(specify dockerfile.repository parameter, or run the tag goal before)");
         }
 
+        long start = System.nanoTime();
+        String digest = null;
         try {
-            dockerClient.push(formatImageName(repository, tag),
-                    LoggingProgressHandler.forLog(log, isVerbose()));
+            if (pushMode == PushMode.REGISTRY) {
+                digest = pushToRegistry(log);
+            } else {
+                LoggingProgressHandler progressHandler = createProgressHandler(
+                        log);
+                dockerClient.push(formatImageName(repository, tag),
+                        progressHandler);
+                if (isVerbose()) {
+                    progressHandler.logSummary();
+                }
+                getMetrics().add("progressLayers", progressHandler.layers());
+                getMetrics().add("progressBytes",
+                        progressHandler.transferredBytes());
+                digest = progressHandler.pushedDigest();
+            }
+            getMetrics().addElapsed("push", start);
         } catch (DockerException e) {
             throw new MojoExecutionException("Could not push image", e);
         } catch (InterruptedException e) {
@@ -92,5 +170,37 @@ public class MojoPushDocker extends AbstractOsgiDockerMojo {
             // Restore interrupted state...
             Thread.currentThread().interrupt();
         }
+
+        if (digest != null) {
+            writeMetadata(Metadata.IMAGE_DIGEST, digest);
+            // the docker info jar attached before must carry the digest too
+            buildDockerInfoJar(log);
+        }
+    }
+
+    private String pushToRegistry(Log pLog)
+            throws DockerException, MojoExecutionException {
+        RegistryAuth auth = createRegistryAuthSupplier()
+                .authFor(formatImageName(repository, tag));
+        RegistryImagePusher pusher = RegistryImagePusher
+                .forRepository(repository, registryUrl)
+                .setConcurrency(pushConcurrency);
+        if (auth != null && auth.username() != null) {
+            pusher.setCredentials(auth.username(), auth.password());
+        }
+        try {
+            RegistryImagePusher.Result result = pusher
+                    .push(ociDirectory.toPath(), tag);
+            getMetrics().add("blobsPresent", result.getBlobsPresent());
+            getMetrics().add("blobsUploaded", result.getBlobsUploaded());
+            getMetrics().add("uploadedBytes", result.getUploadedBytes());
+            pLog.info("Image " + formatImageName(repository, tag)
+                    + " pushed from " + ociDirectory + ": " + result);
+            return result.getManifestDigest();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not push image "
+                    + formatImageName(repository, tag) + " from "
+                    + ociDirectory, e);
+        }
     }
 }
@@ -0,0 +1,305 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import javax.inject.Inject;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Verifies at build time whether all the bundles of the container can be
+ * resolved by the chosen framework, instead of only finding it out when the
+ * container is started.
+ * <p>
+ * The requirements of the cached bundles are checked against the packages
+ * and capabilities of the other bundles and of the system bundle, which
+ * exports the framework packages, the packages of the Java runtime, the
+ * <b>osgi.ee</b> capabilities of the informed Java version and the extra
+ * packages and capabilities declared in the generated configuration file.
+ * <p>
+ * The packages of the Java runtime are the ones set in the
+ * <b>org.osgi.framework.system.packages</b> property of the generated
+ * configuration file or else the ones the framework exports by default for
+ * the informed Java version. The packages of the Java runtime running the
+ * build are only used when the framework declares none and the versions
+ * match.
+ * <p>
+ * Unresolved requirements are logged as warnings, unless
+ * <b>resolveFailOnError</b> is set.
+ * <p>
+ * The result is kept in the work directory together with a key calculated
+ * from the digests of the bundles and those system inputs, so it is only
+ * calculated again when any of them changes.
+ * <p>
+ * The checker is built over the manifest headers and does not evaluate uses
+ * constraints nor singleton selection, so the goal is not part of the
+ * container lifecycle. It must be added to the plugin executions:
+ *
+ * <pre>
+ * &lt;execution&gt;
+ *   &lt;id&gt;verify-resolution&lt;/id&gt;
+ *   &lt;goals&gt;
+ *     &lt;goal&gt;verifyResolution&lt;/goal&gt;
+ *   &lt;/goals&gt;
+ * &lt;/execution&gt;
+ * </pre>
+ *
+ * @author Cristiano Gavião
+ *
+ */
+@Mojo(name = "verifyResolution", defaultPhase = LifecyclePhase.PROCESS_RESOURCES,
+        requiresProject = true, threadSafe = true)
+public class MojoVerifyResolution extends AbstractOsgiContainerPackMojo {
+
+    private static final String RESOLUTION_CACHE_NAME = "resolution.cache";
+
+    private static final String SYSTEM_CAPABILITIES_EXTRA = "org.osgi.framework.system.capabilities.extra";
+
+    private static final String SYSTEM_PACKAGES = "org.osgi.framework.system.packages";
+
+    private static final String SYSTEM_PACKAGES_EXTRA = "org.osgi.framework.system.packages.extra";
+
+    /**
+     * Whether the build must fail when any bundle can not be resolved.
+     * Otherwise the problems are only logged as warnings.
+     */
+    @Parameter(property = "osgi.container.resolve.failOnError",
+            defaultValue = "false")
+    private boolean resolveFailOnError;
+
+    /**
+     * The Java specification version of the runtime where the container will
+     * run, used to provide the <b>osgi.ee</b> capabilities required by the
+     * bundles and to choose the Java packages exported by the framework. It
+     * must be set when the container runs on a Java version other than the
+     * one running the build.
+     */
+    @Parameter(property = "osgi.container.resolve.javaVersion",
+            defaultValue = "${java.specification.version}")
+    private String resolveJavaVersion;
+
+    @Inject
+    public MojoVerifyResolution(MavenProject pProject) {
+        super(pProject);
+    }
+
+    /**
+     * Lists the packages of the Java runtime running the build, except the
+     * <b>java.*</b> ones that are always delegated to the parent loader.
+     */
+    private static String listJavaRuntimePackages() throws IOException {
+        TreeSet<String> packages = new TreeSet<>();
+        FileSystem jrt = null;
+        try {
+            jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (ProviderNotFoundException e) {
+            // a Java 8 runtime, its classes are in the rt.jar file
+        }
+        if (jrt != null) {
+            try (Stream<Path> stream = Files.list(jrt.getPath("/packages"))) {
+                stream.map(p -> p.getFileName().toString())
+                        .forEach(packages::add);
+            }
+        } else {
+            File rtJar = new File(System.getProperty("java.home"),
+                    "lib/rt.jar");
+            if (rtJar.isFile()) {
+                try (JarFile jar = new JarFile(rtJar)) {
+                    Enumeration<? extends ZipEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        String name = entries.nextElement().getName();
+                        int slash = name.lastIndexOf('/');
+                        if (name.endsWith(".class") && slash > 0) {
+                            packages.add(name.substring(0, slash).replace('/',
+                                    '.'));
+                        }
+                    }
+                }
+            }
+        }
+        return packages.stream().filter(p -> !p.startsWith("java."))
+                .collect(Collectors.joining(","));
+    }
+
+    @Override
+    protected void executeMojo()
+            throws MojoExecutionException, MojoFailureException {
+        Path cacheDir = getContainerCacheDirectory();
+        Path cacheFile = getContainerWorkDirectory()
+                .resolve(RESOLUTION_CACHE_NAME);
+        BundleMetadataIndex metadataIndex = BundleMetadataIndex
+                .load(getContainerWorkDirectory().resolve(
+                        BundleMetadataIndex.DEFAULT_INDEX_FILE_NAME));
+        long start = System.currentTimeMillis();
+        try {
+            List<Path> frameworks = listJars(
+                    cacheDir.resolve("bin").resolve("plugins"));
+            Map<String, String> system = readSystemInputs(frameworks);
+            StringBuilder keyContent = new StringBuilder();
+            system.forEach((k, v) -> keyContent.append(k).append('=')
+                    .append(v).append('\n'));
+
+            ResolutionChecker checker = new ResolutionChecker();
+            checker.addSystemPackages(system.get(SYSTEM_PACKAGES_EXTRA));
+            checker.addSystemPackages(system.get(SYSTEM_PACKAGES));
+            checker.addSystemCapabilities(
+                    system.get(SYSTEM_CAPABILITIES_EXTRA));
+            checker.addSystemCapabilities(ResolutionChecker
+                    .executionEnvironmentCapability(resolveJavaVersion));
+            for (Path framework : frameworks) {
+                BundleMetadata metadata = metadataIndex.get(framework);
+                keyContent.append(framework.getFileName()).append('=')
+                        .append(metadataIndex.getDigest(framework))
+                        .append('\n');
+                checker.addSystemPackages(metadata.getExportPackage());
+                checker.addSystemCapabilities(
+                        metadata.getProvideCapability());
+            }
+            int bundles = 0;
+            for (Path bundle : listJars(cacheDir.resolve("plugins"))) {
+                BundleMetadata metadata = metadataIndex.get(bundle);
+                keyContent.append(bundle.getFileName()).append('=')
+                        .append(metadataIndex.getDigest(bundle)).append('\n');
+                if (metadata.isBundle()) {
+                    checker.addBundle(bundle.getFileName().toString(),
+                            metadata);
+                    bundles++;
+                }
+            }
+            metadataIndex.save();
+
+            String key = FileContents.sha256(keyContent.toString());
+            List<String> problems;
+            boolean cached = false;
+            List<String> lines = Files.isRegularFile(cacheFile)
+                    ? Files.readAllLines(cacheFile, StandardCharsets.UTF_8)
+                    : new ArrayList<>();
+            if (!lines.isEmpty() && key.equals(lines.get(0))) {
+                problems = lines.subList(1, lines.size());
+                cached = true;
+            } else {
+                problems = new ArrayList<>();
+                for (Map.Entry<String, List<String>> entry : checker.check()
+                        .entrySet()) {
+                    for (String message : entry.getValue()) {
+                        problems.add(entry.getKey() + ": " + message);
+                    }
+                }
+                List<String> content = new ArrayList<>();
+                content.add(key);
+                content.addAll(problems);
+                Files.write(cacheFile, content, StandardCharsets.UTF_8);
+            }
+
+            getMetrics().add("bundles", bundles);
+            getMetrics().add("problems", problems.size());
+            getMetrics().add(cached ? "resolutionCacheHits"
+                    : "resolutionCacheMisses", 1);
+            for (String problem : problems) {
+                if (resolveFailOnError) {
+                    getLog().error(problem);
+                } else {
+                    getLog().warn(problem);
+                }
+            }
+            if (!problems.isEmpty() && resolveFailOnError) {
+                throw new MojoFailureException(problems.size()
+                        + " unresolved requirements were found in the container bundles.");
+            }
+            getLog().info(String.format(
+                    "Resolution of %d bundles verified in %d ms%s: %d problems found.",
+                    bundles, System.currentTimeMillis() - start,
+                    cached ? " (cached)" : "", problems.size()));
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                    "Failure while verifying the resolution of the container bundles.",
+                    e);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(
+                    "Invalid OSGi header found: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the inputs that define what the system bundle provides, besides
+     * the framework jar.
+     */
+    private Map<String, String> readSystemInputs(List<Path> pFrameworks)
+            throws IOException {
+        Map<String, String> inputs = new LinkedHashMap<>();
+        inputs.put("java.version", resolveJavaVersion);
+        String packages = null;
+        String packagesExtra = null;
+        String capabilitiesExtra = null;
+        Path configFile = calculateContainerConfigurationFileOutputPath();
+        if (Files.isRegularFile(configFile)) {
+            OrderedPropertiesFile properties;
+            try (InputStream in = Files.newInputStream(configFile)) {
+                properties = OrderedPropertiesFile.load(in,
+                        Charset.forName(getEncoding()));
+            }
+            packages = properties.getProperty(SYSTEM_PACKAGES);
+            packagesExtra = properties.getProperty(SYSTEM_PACKAGES_EXTRA);
+            capabilitiesExtra = properties
+                    .getProperty(SYSTEM_CAPABILITIES_EXTRA);
+        }
+        for (Path framework : pFrameworks) {
+            if (packages == null) {
+                packages = ResolutionChecker.frameworkSystemPackages(framework,
+                        resolveJavaVersion);
+            }
+        }
+        if (packages == null) {
+            if (resolveJavaVersion.equals(
+                    System.getProperty("java.specification.version"))) {
+                packages = listJavaRuntimePackages();
+            } else {
+                getLog().warn("The framework declares no packages for Java "
+                        + resolveJavaVersion
+                        + ", only java.* is provided by the Java runtime.");
+            }
+        }
+        inputs.put(SYSTEM_PACKAGES, packages == null ? "" : packages);
+        inputs.put(SYSTEM_PACKAGES_EXTRA,
+                packagesExtra == null ? "" : packagesExtra);
+        inputs.put(SYSTEM_CAPABILITIES_EXTRA,
+                capabilitiesExtra == null ? "" : capabilitiesExtra);
+        return inputs;
+    }
+}
@@ -0,0 +1,904 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Builds an OCI image without a Docker daemon, writing its layers, config and
+ * manifest directly to an OCI image layout directory.
+ * <p>
+ * The layers are reproducible: the tar entries are sorted, owned by root and
+ * stamped with the same creation time, and the gzip stream carries no time
+ * or name. The blobs are addressed by their SHA-256 digest, so building the
+ * same files twice produces the same image and an unchanged layer is written
+ * only once. A small cache file, when informed, maps the size and
+ * modification time of the files of each layer to its blob, so unchanged
+ * layers are not even compressed again.
+ * <p>
+ * An optional base image can be taken from another OCI layout directory, like
+ * the ones created by <b>skopeo copy docker://image oci:dir</b>. Its layers
+ * are linked into the output and its configuration is extended.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class OciImageBuilder {
+
+    /**
+     * Counters about a {@link OciImageBuilder#build(String)} execution.
+     */
+    public static final class Result {
+
+        private long compressedBytes;
+        private String manifestDigest;
+        private int reused;
+        private int written;
+
+        /**
+         * @return the size of the compressed layers of the image, including
+         *         the base ones.
+         */
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        /**
+         * @return the digest of the image manifest.
+         */
+        public String getManifestDigest() {
+            return manifestDigest;
+        }
+
+        /**
+         * @return how many layers were taken from the layer cache.
+         */
+        public int getReused() {
+            return reused;
+        }
+
+        /**
+         * @return how many layers were compressed.
+         */
+        public int getWritten() {
+            return written;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "manifest %s, %d layers written, %d reused, %d KB",
+                    manifestDigest, written, reused, compressedBytes / 1024);
+        }
+    }
+
+    private static final class Blob {
+
+        private final String diffId;
+        private final String digest;
+        private final String mediaType;
+        private final long size;
+
+        Blob(String pMediaType, String pDigest, long pSize, String pDiffId) {
+            this.mediaType = pMediaType;
+            this.digest = pDigest;
+            this.size = pSize;
+            this.diffId = pDiffId;
+        }
+
+        JsonObject toDescriptor() {
+            JsonObject descriptor = new JsonObject();
+            descriptor.addProperty("mediaType", mediaType);
+            descriptor.addProperty("digest", digest);
+            descriptor.addProperty("size", size);
+            return descriptor;
+        }
+    }
+
+    private static final class LayerContent {
+
+        private final String comment;
+        private final SortedMap<String, Path> files;
+        private final String root;
+
+        LayerContent(String pComment, String pRoot,
+                SortedMap<String, Path> pFiles) {
+            this.comment = pComment;
+            this.root = pRoot;
+            this.files = pFiles;
+        }
+    }
+
+    public static final String MEDIA_TYPE_CONFIG = "application/vnd.oci.image.config.v1+json";
+
+    public static final String MEDIA_TYPE_INDEX = "application/vnd.oci.image.index.v1+json";
+
+    public static final String MEDIA_TYPE_LAYER = "application/vnd.oci.image.layer.v1.tar+gzip";
+
+    public static final String MEDIA_TYPE_MANIFEST = "application/vnd.oci.image.manifest.v1+json";
+
+    private static final String MEDIA_TYPE_DOCKER_MANIFEST_LIST = "application/vnd.docker.distribution.manifest.list.v2+json";
+
+    private static final String SEPARATOR = "\t";
+
+    private String architecture = "amd64";
+
+    private Path baseImage;
+
+    private final Map<String, Blob> cache = new HashMap<>();
+
+    private final List<String> cmd = new ArrayList<>();
+
+    private Instant created = Instant.EPOCH;
+
+    private List<String> entrypoint;
+
+    private final Map<String, String> env = new LinkedHashMap<>();
+
+    private final Set<String> exposedPorts = new TreeSet<>();
+
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping()
+            .create();
+
+    private final Map<String, String> labels = new TreeMap<>();
+
+    private Path layerCacheFile;
+
+    private final List<LayerContent> layers = new ArrayList<>();
+
+    private final Path layoutDirectory;
+
+    private String os = "linux";
+
+    private final Set<String> volumes = new TreeSet<>();
+
+    private String workingDir;
+
+    /**
+     * @param pLayoutDirectory
+     *                             the OCI image layout directory to be
+     *                             written.
+     */
+    public OciImageBuilder(Path pLayoutDirectory) {
+        this.layoutDirectory = pLayoutDirectory;
+    }
+
+    private static String digestOf(MessageDigest pDigest) {
+        return "sha256:" + FileContents.toHex(pDigest.digest());
+    }
+
+    private static void putParents(String pPath, Map<String, Path> pEntries) {
+        int slash = pPath.indexOf('/');
+        while (slash > 0) {
+            pEntries.putIfAbsent(pPath.substring(0, slash + 1), null);
+            slash = pPath.indexOf('/', slash + 1);
+        }
+    }
+
+    /**
+     * @param pPort
+     *                  a port to be exposed, like <b>8080/tcp</b>.
+     * @return this builder.
+     */
+    public OciImageBuilder addExposedPort(String pPort) {
+        exposedPorts.add(pPort.contains("/") ? pPort : pPort + "/tcp");
+        return this;
+    }
+
+    /**
+     * Adds a layer on top of the previous ones.
+     *
+     * @param pComment
+     *                     a description recorded in the image history.
+     * @param pRoot
+     *                     the absolute directory of the image where the files
+     *                     will be placed.
+     * @param pFiles
+     *                     the files, keyed by their path relative to the root.
+     * @return this builder.
+     */
+    public OciImageBuilder addLayer(String pComment, String pRoot,
+            SortedMap<String, Path> pFiles) {
+        String root = pRoot.replace('\\', '/');
+        while (root.startsWith("/")) {
+            root = root.substring(1);
+        }
+        if (!root.isEmpty() && !root.endsWith("/")) {
+            root = root + "/";
+        }
+        layers.add(new LayerContent(pComment, root, new TreeMap<>(pFiles)));
+        return this;
+    }
+
+    /**
+     * @param pVolume
+     *                    a directory of the image to be declared as volume.
+     * @return this builder.
+     */
+    public OciImageBuilder addVolume(String pVolume) {
+        volumes.add(pVolume);
+        return this;
+    }
+
+    private Path blobPath(Path pLayout, String pDigest) {
+        int colon = pDigest.indexOf(':');
+        return pLayout.resolve("blobs").resolve(pDigest.substring(0, colon))
+                .resolve(pDigest.substring(colon + 1));
+    }
+
+    /**
+     * Writes the image to the layout directory. Blobs no longer referenced by
+     * the image are removed from it.
+     *
+     * @param pRefName
+     *                     the reference name recorded in the layout index,
+     *                     usually the image tag.
+     * @return the counters of the execution.
+     * @throws IOException
+     *                         when a file could not be read or written.
+     */
+    public Result build(String pRefName) throws IOException {
+        Result result = new Result();
+        Path blobsDirectory = layoutDirectory.resolve("blobs")
+                .resolve("sha256");
+        Files.createDirectories(blobsDirectory);
+        loadLayerCache();
+
+        JsonObject baseConfig = new JsonObject();
+        List<Blob> layerBlobs = new ArrayList<>();
+        List<String> diffIds = new ArrayList<>();
+        if (baseImage != null) {
+            JsonObject baseManifest = readBaseManifest();
+            baseConfig = readJson(blobPath(baseImage, baseManifest
+                    .getAsJsonObject("config").get("digest").getAsString()));
+            JsonArray baseDiffIds = baseConfig.getAsJsonObject("rootfs")
+                    .getAsJsonArray("diff_ids");
+            JsonArray baseLayers = baseManifest.getAsJsonArray("layers");
+            for (int i = 0; i < baseLayers.size(); i++) {
+                JsonObject descriptor = baseLayers.get(i).getAsJsonObject();
+                Blob blob = new Blob(
+                        descriptor.get("mediaType").getAsString(),
+                        descriptor.get("digest").getAsString(),
+                        descriptor.get("size").getAsLong(),
+                        baseDiffIds.get(i).getAsString());
+                linkBlob(blobPath(baseImage, blob.digest),
+                        blobPath(layoutDirectory, blob.digest));
+                layerBlobs.add(blob);
+                diffIds.add(blob.diffId);
+            }
+        }
+
+        Map<String, Blob> usedCache = new LinkedHashMap<>();
+        for (LayerContent layer : layers) {
+            String fingerprint = fingerprint(layer);
+            Blob blob = cache.get(fingerprint);
+            if (blob != null
+                    && Files.isRegularFile(blobPath(layoutDirectory,
+                            blob.digest))) {
+                result.reused++;
+            } else {
+                blob = writeLayer(layer);
+                result.written++;
+            }
+            usedCache.put(fingerprint, blob);
+            layerBlobs.add(blob);
+            diffIds.add(blob.diffId);
+        }
+
+        Blob config = writeBlob(MEDIA_TYPE_CONFIG,
+                createConfig(baseConfig, diffIds));
+        JsonObject manifest = new JsonObject();
+        manifest.addProperty("schemaVersion", 2);
+        manifest.addProperty("mediaType", MEDIA_TYPE_MANIFEST);
+        manifest.add("config", config.toDescriptor());
+        JsonArray layerDescriptors = new JsonArray();
+        for (Blob blob : layerBlobs) {
+            layerDescriptors.add(blob.toDescriptor());
+            result.compressedBytes += blob.size;
+        }
+        manifest.add("layers", layerDescriptors);
+        Blob manifestBlob = writeBlob(MEDIA_TYPE_MANIFEST, manifest);
+        result.manifestDigest = manifestBlob.digest;
+
+        JsonObject descriptor = manifestBlob.toDescriptor();
+        if (pRefName != null && !pRefName.isEmpty()) {
+            JsonObject annotations = new JsonObject();
+            annotations.addProperty("org.opencontainers.image.ref.name",
+                    pRefName);
+            descriptor.add("annotations", annotations);
+        }
+        JsonObject index = new JsonObject();
+        index.addProperty("schemaVersion", 2);
+        index.addProperty("mediaType", MEDIA_TYPE_INDEX);
+        JsonArray manifests = new JsonArray();
+        manifests.add(descriptor);
+        index.add("manifests", manifests);
+        writeFile(layoutDirectory.resolve("index.json"), toBytes(index));
+        writeFile(layoutDirectory.resolve("oci-layout"),
+                "{\"imageLayoutVersion\":\"1.0.0\"}"
+                        .getBytes(StandardCharsets.UTF_8));
+
+        Set<String> referenced = new HashSet<>();
+        referenced.add(config.digest);
+        referenced.add(manifestBlob.digest);
+        layerBlobs.forEach(blob -> referenced.add(blob.digest));
+        removeUnreferencedBlobs(blobsDirectory, referenced);
+        saveLayerCache(usedCache);
+        return result;
+    }
+
+    private JsonObject createConfig(JsonObject pBaseConfig,
+            List<String> pDiffIds) {
+        JsonObject baseContainerConfig = pBaseConfig.has("config")
+                && pBaseConfig.get("config").isJsonObject()
+                        ? pBaseConfig.getAsJsonObject("config")
+                        : new JsonObject();
+        JsonObject containerConfig = new JsonObject();
+
+        Map<String, String> mergedEnv = new LinkedHashMap<>();
+        if (baseContainerConfig.has("Env")
+                && baseContainerConfig.get("Env").isJsonArray()) {
+            for (JsonElement item : baseContainerConfig.getAsJsonArray("Env")) {
+                String variable = item.getAsString();
+                int equals = variable.indexOf('=');
+                mergedEnv.put(
+                        equals < 0 ? variable : variable.substring(0, equals),
+                        equals < 0 ? "" : variable.substring(equals + 1));
+            }
+        }
+        mergedEnv.putAll(env);
+        if (!mergedEnv.isEmpty()) {
+            containerConfig.add("Env", toArray(mergedEnv.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + e.getValue())
+                    .collect(Collectors.toList())));
+        }
+
+        if (entrypoint != null) {
+            // as in a Dockerfile, a new entrypoint resets the base command
+            containerConfig.add("Entrypoint", toArray(entrypoint));
+            if (!cmd.isEmpty()) {
+                containerConfig.add("Cmd", toArray(cmd));
+            }
+        } else {
+            copyMember(baseContainerConfig, containerConfig, "Entrypoint");
+            if (cmd.isEmpty()) {
+                copyMember(baseContainerConfig, containerConfig, "Cmd");
+            } else {
+                containerConfig.add("Cmd", toArray(cmd));
+            }
+        }
+        if (workingDir != null) {
+            containerConfig.addProperty("WorkingDir", workingDir);
+        } else {
+            copyMember(baseContainerConfig, containerConfig, "WorkingDir");
+        }
+        copyMember(baseContainerConfig, containerConfig, "User");
+        containerConfig.add("ExposedPorts",
+                mergeSet(baseContainerConfig, "ExposedPorts", exposedPorts));
+        containerConfig.add("Volumes",
+                mergeSet(baseContainerConfig, "Volumes", volumes));
+        JsonObject mergedLabels = new JsonObject();
+        if (baseContainerConfig.has("Labels")
+                && baseContainerConfig.get("Labels").isJsonObject()) {
+            for (Map.Entry<String, JsonElement> label : baseContainerConfig
+                    .getAsJsonObject("Labels").entrySet()) {
+                mergedLabels.add(label.getKey(), label.getValue());
+            }
+        }
+        labels.forEach(mergedLabels::addProperty);
+        containerConfig.add("Labels", mergedLabels);
+
+        JsonObject config = new JsonObject();
+        config.addProperty("created", created.toString());
+        config.addProperty("architecture",
+                pBaseConfig.has("architecture")
+                        ? pBaseConfig.get("architecture").getAsString()
+                        : architecture);
+        config.addProperty("os", pBaseConfig.has("os")
+                ? pBaseConfig.get("os").getAsString() : os);
+        config.add("config", containerConfig);
+        JsonObject rootfs = new JsonObject();
+        rootfs.addProperty("type", "layers");
+        rootfs.add("diff_ids", toArray(pDiffIds));
+        config.add("rootfs", rootfs);
+
+        JsonArray history = new JsonArray();
+        if (pBaseConfig.has("history")
+                && pBaseConfig.get("history").isJsonArray()) {
+            history.addAll(pBaseConfig.getAsJsonArray("history"));
+        }
+        for (LayerContent layer : layers) {
+            JsonObject item = new JsonObject();
+            item.addProperty("created", created.toString());
+            item.addProperty("created_by", "osgi-container-maven-plugin");
+            item.addProperty("comment", layer.comment);
+            history.add(item);
+        }
+        config.add("history", history);
+        return config;
+    }
+
+    private static void copyMember(JsonObject pSource, JsonObject pTarget,
+            String pName) {
+        if (pSource.has(pName) && !pSource.get(pName).isJsonNull()) {
+            pTarget.add(pName, pSource.get(pName));
+        }
+    }
+
+    private String fingerprint(LayerContent pLayer) throws IOException {
+        MessageDigest digest = FileContents.newSha256();
+        StringBuilder builder = new StringBuilder();
+        builder.append(pLayer.root).append(SEPARATOR)
+                .append(created.toEpochMilli()).append('\n');
+        for (Map.Entry<String, Path> file : pLayer.files.entrySet()) {
+            Path source = file.getValue();
+            builder.append(file.getKey()).append(SEPARATOR)
+                    .append(Files.size(source)).append(SEPARATOR)
+                    .append(Files.getLastModifiedTime(source).toMillis())
+                    .append(SEPARATOR).append(Files.isExecutable(source))
+                    .append('\n');
+        }
+        digest.update(builder.toString().getBytes(StandardCharsets.UTF_8));
+        return FileContents.toHex(digest.digest());
+    }
+
+    private void linkBlob(Path pSource, Path pTarget) throws IOException {
+        if (Files.isRegularFile(pTarget)) {
+            return;
+        }
+        if (!Files.isRegularFile(pSource)) {
+            throw new IOException("The base image blob " + pSource
+                    + " does not exist.");
+        }
+        Files.createDirectories(pTarget.getParent());
+        try {
+            Files.createLink(pTarget, pSource);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(pSource, pTarget, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void loadLayerCache() throws IOException {
+        cache.clear();
+        if (layerCacheFile == null || !Files.isRegularFile(layerCacheFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(layerCacheFile,
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length == 4) {
+                    cache.put(fields[0], new Blob(MEDIA_TYPE_LAYER, fields[1],
+                            Long.parseLong(fields[2]), fields[3]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            cache.clear();
+        }
+    }
+
+    private JsonObject mergeSet(JsonObject pBaseConfig, String pName,
+            Set<String> pValues) {
+        JsonObject merged = new JsonObject();
+        if (pBaseConfig.has(pName) && pBaseConfig.get(pName).isJsonObject()) {
+            for (String key : pBaseConfig.getAsJsonObject(pName).keySet()) {
+                merged.add(key, new JsonObject());
+            }
+        }
+        for (String value : pValues) {
+            merged.add(value, new JsonObject());
+        }
+        return merged;
+    }
+
+    private JsonObject readBaseManifest() throws IOException {
+        JsonObject index = readJson(baseImage.resolve("index.json"));
+        JsonObject manifest = selectManifest(index);
+        if (manifest == null) {
+            throw new IOException("The base image at " + baseImage
+                    + " has no manifest for " + os + "/" + architecture
+                    + ".");
+        }
+        return manifest;
+    }
+
+    private JsonObject readJson(Path pFile) throws IOException {
+        try (Reader reader = Files.newBufferedReader(pFile,
+                StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, JsonObject.class);
+        }
+    }
+
+    private void removeUnreferencedBlobs(Path pBlobsDirectory,
+            Set<String> pReferenced) throws IOException {
+        List<Path> blobs;
+        try (Stream<Path> stream = Files.list(pBlobsDirectory)) {
+            blobs = stream.collect(Collectors.toList());
+        }
+        for (Path blob : blobs) {
+            if (!pReferenced.contains("sha256:" + blob.getFileName())) {
+                Files.delete(blob);
+            }
+        }
+    }
+
+    private void saveLayerCache(Map<String, Blob> pUsed) throws IOException {
+        if (layerCacheFile == null) {
+            return;
+        }
+        Files.createDirectories(layerCacheFile.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(layerCacheFile,
+                StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Blob> entry : pUsed.entrySet()) {
+                Blob blob = entry.getValue();
+                writer.write(entry.getKey() + SEPARATOR + blob.digest
+                        + SEPARATOR + blob.size + SEPARATOR + blob.diffId);
+                writer.newLine();
+            }
+        }
+    }
+
+    private JsonObject selectManifest(JsonObject pIndex) throws IOException {
+        for (JsonElement element : pIndex.getAsJsonArray("manifests")) {
+            JsonObject descriptor = element.getAsJsonObject();
+            if (descriptor.has("platform")) {
+                JsonObject platform = descriptor.getAsJsonObject("platform");
+                if (!os.equals(platform.get("os").getAsString())
+                        || !architecture.equals(
+                                platform.get("architecture").getAsString())) {
+                    continue;
+                }
+            }
+            JsonObject content = readJson(blobPath(baseImage,
+                    descriptor.get("digest").getAsString()));
+            String mediaType = descriptor.has("mediaType")
+                    ? descriptor.get("mediaType").getAsString()
+                    : "";
+            if (MEDIA_TYPE_INDEX.equals(mediaType)
+                    || MEDIA_TYPE_DOCKER_MANIFEST_LIST.equals(mediaType)) {
+                JsonObject nested = selectManifest(content);
+                if (nested != null) {
+                    return nested;
+                }
+            } else {
+                return content;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param pArchitecture
+     *                          the architecture of the image when no base
+     *                          image is used, or the one to select from a
+     *                          multi-platform base image. The default is
+     *                          <b>amd64</b>.
+     * @return this builder.
+     */
+    public OciImageBuilder setArchitecture(String pArchitecture) {
+        this.architecture = pArchitecture;
+        return this;
+    }
+
+    /**
+     * @param pBaseImage
+     *                       an OCI image layout directory containing the base
+     *                       image, or null to build the image from scratch.
+     * @return this builder.
+     */
+    public OciImageBuilder setBaseImage(Path pBaseImage) {
+        this.baseImage = pBaseImage;
+        return this;
+    }
+
+    /**
+     * @param pCmd
+     *                 the default arguments of the entrypoint.
+     * @return this builder.
+     */
+    public OciImageBuilder setCmd(List<String> pCmd) {
+        this.cmd.clear();
+        this.cmd.addAll(pCmd);
+        return this;
+    }
+
+    /**
+     * @param pCreated
+     *                     the creation time recorded in the image and used
+     *                     as the modification time of all layer entries.
+     * @return this builder.
+     */
+    public OciImageBuilder setCreated(Instant pCreated) {
+        this.created = pCreated;
+        return this;
+    }
+
+    /**
+     * @param pEntrypoint
+     *                        the command executed when a container starts.
+     * @return this builder.
+     */
+    public OciImageBuilder setEntrypoint(List<String> pEntrypoint) {
+        this.entrypoint = new ArrayList<>(pEntrypoint);
+        return this;
+    }
+
+    /**
+     * Sets an environment variable, replacing the one of the base image.
+     *
+     * @param pName
+     *                   the name of the variable.
+     * @param pValue
+     *                   its value.
+     * @return this builder.
+     */
+    public OciImageBuilder setEnv(String pName, String pValue) {
+        env.put(pName, pValue);
+        return this;
+    }
+
+    /**
+     * @param pName
+     *                   the name of the label.
+     * @param pValue
+     *                   its value.
+     * @return this builder.
+     */
+    public OciImageBuilder setLabel(String pName, String pValue) {
+        labels.put(pName, pValue);
+        return this;
+    }
+
+    /**
+     * @param pLayerCacheFile
+     *                            the file where the blobs of the built layers
+     *                            are remembered between executions, or null to
+     *                            always compress all layers.
+     * @return this builder.
+     */
+    public OciImageBuilder setLayerCacheFile(Path pLayerCacheFile) {
+        this.layerCacheFile = pLayerCacheFile;
+        return this;
+    }
+
+    /**
+     * @param pOs
+     *                the operating system of the image when no base image is
+     *                used. The default is <b>linux</b>.
+     * @return this builder.
+     */
+    public OciImageBuilder setOs(String pOs) {
+        this.os = pOs;
+        return this;
+    }
+
+    /**
+     * @param pWorkingDir
+     *                        the working directory of the containers.
+     * @return this builder.
+     */
+    public OciImageBuilder setWorkingDir(String pWorkingDir) {
+        this.workingDir = pWorkingDir;
+        return this;
+    }
+
+    private JsonArray toArray(List<String> pValues) {
+        JsonArray array = new JsonArray();
+        pValues.forEach(array::add);
+        return array;
+    }
+
+    private byte[] toBytes(JsonObject pJson) {
+        return gson.toJson(pJson).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Packs the layout directory, written by {@link #build(String)}, in a tar
+     * file. A <b>manifest.json</b> is added too, so the same file can be read
+     * by <b>docker load</b> as well as by the OCI tools.
+     *
+     * @param pArchive
+     *                       the tar file to be written.
+     * @param pImageName
+     *                       the repository and tag of the image, like
+     *                       <b>foo/bar:1.0</b>.
+     * @throws IOException
+     *                         when the layout could not be read or the file
+     *                         written.
+     */
+    public void writeArchive(Path pArchive, String pImageName)
+            throws IOException {
+        JsonObject index = readJson(layoutDirectory.resolve("index.json"));
+        String manifestDigest = index.getAsJsonArray("manifests").get(0)
+                .getAsJsonObject().get("digest").getAsString();
+        JsonObject manifest = readJson(
+                blobPath(layoutDirectory, manifestDigest));
+        JsonObject dockerManifest = new JsonObject();
+        dockerManifest.addProperty("Config", "blobs/" + manifest
+                .getAsJsonObject("config").get("digest").getAsString()
+                .replace(':', '/'));
+        JsonArray repoTags = new JsonArray();
+        if (pImageName != null && !pImageName.isEmpty()) {
+            repoTags.add(pImageName);
+        }
+        dockerManifest.add("RepoTags", repoTags);
+        JsonArray layerPaths = new JsonArray();
+        for (JsonElement layer : manifest.getAsJsonArray("layers")) {
+            layerPaths.add("blobs/" + layer.getAsJsonObject().get("digest")
+                    .getAsString().replace(':', '/'));
+        }
+        dockerManifest.add("Layers", layerPaths);
+        JsonArray dockerManifests = new JsonArray();
+        dockerManifests.add(dockerManifest);
+
+        SortedMap<String, Path> entries = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(layoutDirectory)) {
+            for (Path file : stream.filter(Files::isRegularFile)
+                    .collect(Collectors.toList())) {
+                String name = layoutDirectory.relativize(file).toString()
+                        .replace('\\', '/');
+                entries.put(name, file);
+                putParents(name, entries);
+            }
+        }
+        byte[] dockerManifestContent = gson.toJson(dockerManifests)
+                .getBytes(StandardCharsets.UTF_8);
+
+        Files.createDirectories(pArchive.toAbsolutePath().getParent());
+        Path temporary = pArchive
+                .resolveSibling(pArchive.getFileName() + ".tmp");
+        long lastModified = created.toEpochMilli();
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(temporary), 65536)) {
+            for (Map.Entry<String, Path> entry : entries.entrySet()) {
+                writeEntry(out, entry.getKey(), entry.getValue(),
+                        lastModified);
+            }
+            TarHeaders.writeHeader(out, "manifest.json", TarHeaders.FILE,
+                    0644, dockerManifestContent.length, lastModified);
+            out.write(dockerManifestContent);
+            TarHeaders.writePadding(out, dockerManifestContent.length);
+            TarHeaders.writeEnd(out);
+        }
+        Files.move(temporary, pArchive, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Blob writeBlob(String pMediaType, JsonObject pJson)
+            throws IOException {
+        byte[] content = toBytes(pJson);
+        MessageDigest digest = FileContents.newSha256();
+        digest.update(content);
+        String hash = digestOf(digest);
+        Path target = blobPath(layoutDirectory, hash);
+        if (!Files.isRegularFile(target)) {
+            writeFile(target, content);
+        }
+        return new Blob(pMediaType, hash, content.length, null);
+    }
+
+    private void writeEntry(OutputStream pOut, String pName, Path pSource,
+            long pLastModified) throws IOException {
+        if (pSource == null) {
+            TarHeaders.writeHeader(pOut, pName, TarHeaders.DIRECTORY, 0755, 0,
+                    pLastModified);
+            return;
+        }
+        long size = Files.size(pSource);
+        TarHeaders.writeHeader(pOut, pName, TarHeaders.FILE,
+                Files.isExecutable(pSource) ? 0755 : 0644, size,
+                pLastModified);
+        long written;
+        try (InputStream in = Files.newInputStream(pSource)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            written = 0;
+            while ((read = in.read(buffer)) != -1) {
+                pOut.write(buffer, 0, read);
+                written += read;
+            }
+        }
+        if (written != size) {
+            throw new IOException("The file " + pSource
+                    + " changed while it was being archived.");
+        }
+        TarHeaders.writePadding(pOut, written);
+    }
+
+    private void writeFile(Path pFile, byte[] pContent) throws IOException {
+        Files.createDirectories(pFile.getParent());
+        Path temporary = pFile.resolveSibling(pFile.getFileName() + ".tmp");
+        Files.write(temporary, pContent);
+        Files.move(temporary, pFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Blob writeLayer(LayerContent pLayer) throws IOException {
+        SortedMap<String, Path> entries = new TreeMap<>();
+        for (Map.Entry<String, Path> file : pLayer.files.entrySet()) {
+            String name = pLayer.root + file.getKey();
+            entries.put(name, file.getValue());
+            putParents(name, entries);
+        }
+        if (!pLayer.root.isEmpty()) {
+            putParents(pLayer.root, entries);
+        }
+
+        Path blobsDirectory = layoutDirectory.resolve("blobs")
+                .resolve("sha256");
+        Path temporary = Files.createTempFile(blobsDirectory, "layer",
+                ".tmp");
+        MessageDigest compressedDigest = FileContents.newSha256();
+        MessageDigest uncompressedDigest = FileContents.newSha256();
+        long lastModified = created.toEpochMilli();
+        try {
+            try (OutputStream tar = new DigestOutputStream(
+                    new BufferedOutputStream(
+                            new GZIPOutputStream(new DigestOutputStream(
+                                    Files.newOutputStream(temporary),
+                                    compressedDigest), 65536),
+                            65536),
+                    uncompressedDigest)) {
+                for (Map.Entry<String, Path> entry : entries.entrySet()) {
+                    writeEntry(tar, entry.getKey(), entry.getValue(),
+                            lastModified);
+                }
+                TarHeaders.writeEnd(tar);
+            }
+            String digest = digestOf(compressedDigest);
+            long size = Files.size(temporary);
+            Path target = blobPath(layoutDirectory, digest);
+            if (Files.isRegularFile(target)) {
+                Files.delete(temporary);
+            } else {
+                Files.move(temporary, target,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new Blob(MEDIA_TYPE_LAYER, digest, size,
+                    digestOf(uncompressedDigest));
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
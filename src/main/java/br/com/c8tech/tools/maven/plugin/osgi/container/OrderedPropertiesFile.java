@@ -0,0 +1,467 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A properties file that keeps the order, comments and layout of the file it
+ * was loaded from.
+ * <p>
+ * Entries that are not changed are written back exactly as they were read.
+ * Changed entries are rewritten in place and new ones are appended at the end
+ * of the file. Long values are wrapped into continuation lines after a space
+ * or a comma, so the long bundle lists of the OSGi containers stay readable.
+ * <p>
+ * The content is streamed to the output and {@link #isSameContent(File)} can
+ * be used to avoid rewriting a file whose content would not change.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class OrderedPropertiesFile {
+
+    /**
+     * An output stream that compares what is written with the content of an
+     * existing file.
+     */
+    private static final class ComparingOutputStream extends OutputStream {
+
+        private boolean different;
+
+        private final InputStream existent;
+
+        ComparingOutputStream(InputStream pExistent) {
+            this.existent = pExistent;
+        }
+
+        boolean isSameContent() throws IOException {
+            return !different && existent.read() == -1;
+        }
+
+        @Override
+        public void write(int pByte) throws IOException {
+            if (!different && existent.read() != (pByte & 0xFF)) {
+                different = true;
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final String key;
+
+        private List<String> lines;
+
+        private String value;
+
+        Entry(String pKey, String pValue, List<String> pLines) {
+            this.key = pKey;
+            this.value = pValue;
+            this.lines = pLines;
+        }
+    }
+
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    private static final int MAX_LINE_LENGTH = 80;
+
+    private static final String CONTINUATION_INDENT = "    ";
+
+    private final Charset charset;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private final String lineSeparator;
+
+    private OrderedPropertiesFile(Charset pCharset, String pLineSeparator) {
+        this.charset = pCharset;
+        this.lineSeparator = pLineSeparator;
+    }
+
+    /**
+     * Creates an empty properties file.
+     *
+     * @param pCharset
+     *                     the charset used to write the file.
+     * @return a new empty file.
+     */
+    public static OrderedPropertiesFile create(Charset pCharset) {
+        return new OrderedPropertiesFile(pCharset, System.lineSeparator());
+    }
+
+    /**
+     * Reads a properties file keeping its layout.
+     *
+     * @param pReader
+     *                     the reader of the properties file.
+     * @param pCharset
+     *                     the charset used to write the file back.
+     * @return the loaded file.
+     * @throws IOException
+     *                         when the content could not be read.
+     */
+    public static OrderedPropertiesFile load(Reader pReader, Charset pCharset)
+            throws IOException {
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = pReader.read(buffer)) != -1) {
+            content.append(buffer, 0, read);
+        }
+        List<String> physicalLines = new ArrayList<>();
+        String separator = splitLines(content, physicalLines);
+        OrderedPropertiesFile file = new OrderedPropertiesFile(pCharset,
+                separator);
+
+        Iterator<String> iterator = physicalLines.iterator();
+        while (iterator.hasNext()) {
+            String line = iterator.next();
+            List<String> lines = new ArrayList<>(1);
+            lines.add(line);
+            String trimmed = trimLeading(line);
+            if (trimmed.isEmpty() || trimmed.charAt(0) == '#'
+                    || trimmed.charAt(0) == '!') {
+                file.entries.add(new Entry(null, null, lines));
+                continue;
+            }
+            while (endsWithContinuation(line) && iterator.hasNext()) {
+                line = iterator.next();
+                lines.add(line);
+            }
+            // let java.util.Properties deal with the escaping rules
+            Properties parsed = new Properties();
+            parsed.load(new StringReader(String.join("\n", lines)));
+            for (Map.Entry<Object, Object> property : parsed.entrySet()) {
+                file.entries.add(new Entry((String) property.getKey(),
+                        (String) property.getValue(), lines));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Reads a properties file keeping its layout.
+     *
+     * @param pInputStream
+     *                         the content of the properties file.
+     * @param pCharset
+     *                         the charset of the file.
+     * @return the loaded file.
+     * @throws IOException
+     *                         when the content could not be read.
+     */
+    public static OrderedPropertiesFile load(InputStream pInputStream,
+            Charset pCharset) throws IOException {
+        return load(new InputStreamReader(pInputStream, pCharset), pCharset);
+    }
+
+    private void breakLine(Writer pWriter, StringBuilder pLine)
+            throws IOException {
+        pWriter.write(pLine.toString());
+        pWriter.write('\\');
+        pWriter.write(lineSeparator);
+        pLine.setLength(0);
+        pLine.append(CONTINUATION_INDENT);
+    }
+
+    private static boolean endsWithContinuation(String pLine) {
+        int backslashes = 0;
+        for (int i = pLine.length() - 1; i >= 0
+                && pLine.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    private static String splitLines(CharSequence pContent,
+            List<String> pLines) {
+        String separator = null;
+        int start = 0;
+        int length = pContent.length();
+        for (int i = 0; i < length; i++) {
+            char c = pContent.charAt(i);
+            if (c != '\n' && c != '\r') {
+                continue;
+            }
+            pLines.add(pContent.subSequence(start, i).toString());
+            if (c == '\r' && i + 1 < length && pContent.charAt(i + 1) == '\n') {
+                if (separator == null) {
+                    separator = "\r\n";
+                }
+                i++;
+            } else
+                if (separator == null) {
+                    separator = String.valueOf(c);
+                }
+            start = i + 1;
+        }
+        if (start < length) {
+            pLines.add(pContent.subSequence(start, length).toString());
+        }
+        return separator == null ? System.lineSeparator() : separator;
+    }
+
+    private static String trimLeading(String pLine) {
+        int i = 0;
+        while (i < pLine.length() && (pLine.charAt(i) == ' '
+                || pLine.charAt(i) == '\t' || pLine.charAt(i) == '\f')) {
+            i++;
+        }
+        return pLine.substring(i);
+    }
+
+    private void escape(StringBuilder pBuilder, String pText, boolean pIsKey,
+            CharsetEncoder pEncoder) {
+        for (int i = 0; i < pText.length(); i++) {
+            char c = pText.charAt(i);
+            switch (c) {
+            case '\\':
+                pBuilder.append("\\\\");
+                break;
+            case '\t':
+                pBuilder.append("\\t");
+                break;
+            case '\n':
+                pBuilder.append("\\n");
+                break;
+            case '\r':
+                pBuilder.append("\\r");
+                break;
+            case '\f':
+                pBuilder.append("\\f");
+                break;
+            case ' ':
+                if (pIsKey || i == 0) {
+                    pBuilder.append('\\');
+                }
+                pBuilder.append(c);
+                break;
+            case '=':
+            case ':':
+            case '#':
+            case '!':
+                if (pIsKey) {
+                    pBuilder.append('\\');
+                }
+                pBuilder.append(c);
+                break;
+            default:
+                if (c < 0x20 || c > 0x7e && !pEncoder.canEncode(c)) {
+                    pBuilder.append("\\u")
+                            .append(HEX_DIGITS.charAt((c >> 12) & 0xF))
+                            .append(HEX_DIGITS.charAt((c >> 8) & 0xF))
+                            .append(HEX_DIGITS.charAt((c >> 4) & 0xF))
+                            .append(HEX_DIGITS.charAt(c & 0xF));
+                } else {
+                    pBuilder.append(c);
+                }
+            }
+        }
+    }
+
+    private Entry find(String pKey) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (pKey.equals(entries.get(i).key)) {
+                return entries.get(i);
+            }
+        }
+        return null;
+    }
+
+    public String getProperty(String pKey) {
+        Entry entry = find(pKey);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @return the names of the properties, in the order they appear in the
+     *         file.
+     */
+    public List<String> getPropertyNames() {
+        List<String> names = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.key != null && !names.contains(entry.key)) {
+                names.add(entry.key);
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Checks whether writing this properties file would produce exactly the
+     * content of the informed file, without keeping any of them in memory.
+     *
+     * @param pFile
+     *                  the existing file.
+     * @return true when the file exists and has the same content.
+     * @throws IOException
+     *                         when the file could not be read.
+     */
+    public boolean isSameContent(File pFile) throws IOException {
+        if (pFile == null || !pFile.isFile()) {
+            return false;
+        }
+        try (InputStream existent = new BufferedInputStream(
+                Files.newInputStream(pFile.toPath()))) {
+            ComparingOutputStream comparing = new ComparingOutputStream(
+                    existent);
+            writeTo(comparing);
+            return comparing.isSameContent();
+        }
+    }
+
+    /**
+     * Removes a property. The comments preceding it are kept.
+     *
+     * @param pKey
+     *                 the property name.
+     */
+    public void remove(String pKey) {
+        entries.removeIf(entry -> pKey.equals(entry.key));
+    }
+
+    private void render(Writer pWriter, Entry pEntry, CharsetEncoder pEncoder)
+            throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        escape(line, pEntry.key, true, pEncoder);
+        line.append('=');
+        StringBuilder value = new StringBuilder(pEntry.value.length() + 16);
+        escape(value, pEntry.value, false, pEncoder);
+
+        boolean lineHasValue = false;
+        int segmentStart = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // a continuation line has its leading whitespace removed, so only
+            // break before a character that is not a whitespace.
+            if ((c != ' ' && c != ',') || i == 0
+                    || value.charAt(i - 1) == '\\'
+                    || i + 1 == value.length()
+                    || value.charAt(i + 1) == ' ') {
+                continue;
+            }
+            if (lineHasValue && line.length() + i + 1 - segmentStart
+                    + 1 > MAX_LINE_LENGTH) {
+                breakLine(pWriter, line);
+            }
+            line.append(value, segmentStart, i + 1);
+            segmentStart = i + 1;
+            lineHasValue = true;
+        }
+        if (lineHasValue && line.length() + value.length()
+                - segmentStart > MAX_LINE_LENGTH) {
+            breakLine(pWriter, line);
+        }
+        line.append(value, segmentStart, value.length());
+        pWriter.write(line.toString());
+        pWriter.write(lineSeparator);
+    }
+
+    /**
+     * Sets the value of a property. An existing property is changed where it
+     * is, otherwise it is appended at the end of the file.
+     *
+     * @param pKey
+     *                   the property name.
+     * @param pValue
+     *                   the property value.
+     */
+    public void setProperty(String pKey, String pValue) {
+        Entry entry = find(pKey);
+        if (entry == null) {
+            entries.add(new Entry(pKey, pValue, null));
+        } else
+            if (!pValue.equals(entry.value)) {
+                entry.value = pValue;
+                entry.lines = null;
+            }
+    }
+
+    /**
+     * @return a copy of the properties as a {@link Properties} object.
+     */
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        for (Entry entry : entries) {
+            if (entry.key != null) {
+                properties.put(entry.key, entry.value);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Streams the properties file to the informed output stream. It is not
+     * closed.
+     *
+     * @param pOutputStream
+     *                          the target stream.
+     * @throws IOException
+     *                         when the content could not be written.
+     */
+    public void writeTo(OutputStream pOutputStream) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder();
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(pOutputStream, charset));
+        for (Entry entry : entries) {
+            if (entry.lines == null) {
+                render(writer, entry, encoder);
+                continue;
+            }
+            for (String line : entry.lines) {
+                writer.write(line);
+                writer.write(lineSeparator);
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the properties file to the informed file, but only when its
+     * content changed, keeping the modification time of an unchanged file.
+     *
+     * @param pFile
+     *                  the target file.
+     * @return true when the file was written.
+     * @throws IOException
+     *                         when the file could not be written.
+     */
+    public boolean writeIfChanged(File pFile) throws IOException {
+        if (isSameContent(pFile)) {
+            return false;
+        }
+        try (OutputStream out = Files.newOutputStream(pFile.toPath())) {
+            writeTo(out);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+/**
+ * An OSGi version, <b>major.minor.micro.qualifier</b>, and its ranges.
+ * <p>
+ * The parsing is lenient, as the manifests found in the wild are: missing or
+ * non numeric parts are taken as zero.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+final class OsgiVersion implements Comparable<OsgiVersion> {
+
+    /**
+     * A version range like <b>[1.0,2.0)</b>. A single version means that
+     * version or any greater one.
+     */
+    static final class Range {
+
+        static final Range ANY = new Range(EMPTY, true, null, false);
+
+        private final OsgiVersion ceiling;
+        private final boolean ceilingIncluded;
+        private final OsgiVersion floor;
+        private final boolean floorIncluded;
+
+        private Range(OsgiVersion pFloor, boolean pFloorIncluded,
+                OsgiVersion pCeiling, boolean pCeilingIncluded) {
+            this.floor = pFloor;
+            this.floorIncluded = pFloorIncluded;
+            this.ceiling = pCeiling;
+            this.ceilingIncluded = pCeilingIncluded;
+        }
+
+        /**
+         * @param pRange
+         *                   a range, it may be null.
+         * @return the parsed range, or {@link #ANY} when it is null or empty.
+         */
+        static Range parse(String pRange) {
+            if (pRange == null || pRange.trim().isEmpty()) {
+                return ANY;
+            }
+            String range = pRange.trim();
+            char first = range.charAt(0);
+            if (first != '[' && first != '(') {
+                return new Range(OsgiVersion.parse(range), true, null, false);
+            }
+            int comma = range.indexOf(',');
+            if (comma < 0) {
+                return new Range(OsgiVersion.parse(range.substring(1)), true,
+                        null, false);
+            }
+            char last = range.charAt(range.length() - 1);
+            return new Range(OsgiVersion.parse(range.substring(1, comma)),
+                    first == '[',
+                    OsgiVersion.parse(
+                            range.substring(comma + 1, range.length() - 1)),
+                    last == ']');
+        }
+
+        boolean includes(OsgiVersion pVersion) {
+            int lower = pVersion.compareTo(floor);
+            if (lower < 0 || lower == 0 && !floorIncluded) {
+                return false;
+            }
+            if (ceiling == null) {
+                return true;
+            }
+            int upper = pVersion.compareTo(ceiling);
+            return upper < 0 || upper == 0 && ceilingIncluded;
+        }
+
+        @Override
+        public String toString() {
+            if (ceiling == null) {
+                return floor.toString();
+            }
+            return (floorIncluded ? "[" : "(") + floor + "," + ceiling
+                    + (ceilingIncluded ? "]" : ")");
+        }
+    }
+
+    static final OsgiVersion EMPTY = new OsgiVersion(0, 0, 0, "");
+
+    private final int major;
+    private final int micro;
+    private final int minor;
+    private final String qualifier;
+
+    private OsgiVersion(int pMajor, int pMinor, int pMicro,
+            String pQualifier) {
+        this.major = pMajor;
+        this.minor = pMinor;
+        this.micro = pMicro;
+        this.qualifier = pQualifier;
+    }
+
+    /**
+     * @param pVersion
+     *                     a version, it may be null.
+     * @return the parsed version, or {@link #EMPTY} when it is null or empty.
+     */
+    static OsgiVersion parse(String pVersion) {
+        if (pVersion == null || pVersion.trim().isEmpty()) {
+            return EMPTY;
+        }
+        String[] parts = pVersion.trim().split("\\.", 4);
+        return new OsgiVersion(parseNumber(parts, 0), parseNumber(parts, 1),
+                parseNumber(parts, 2), parts.length > 3 ? parts[3] : "");
+    }
+
+    private static int parseNumber(String[] pParts, int pIndex) {
+        if (pParts.length <= pIndex) {
+            return 0;
+        }
+        String part = pParts[pIndex].trim();
+        int end = 0;
+        while (end < part.length() && Character.isDigit(part.charAt(end))) {
+            end++;
+        }
+        try {
+            return end == 0 ? 0 : Integer.parseInt(part.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public int compareTo(OsgiVersion pOther) {
+        int result = Integer.compare(major, pOther.major);
+        if (result == 0) {
+            result = Integer.compare(minor, pOther.minor);
+        }
+        if (result == 0) {
+            result = Integer.compare(micro, pOther.micro);
+        }
+        return result != 0 ? result : qualifier.compareTo(pOther.qualifier);
+    }
+
+    @Override
+    public boolean equals(Object pOther) {
+        return pOther instanceof OsgiVersion
+                && compareTo((OsgiVersion) pOther) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((major * 31 + minor) * 31 + micro) * 31 + qualifier.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return major + "." + minor + "." + micro
+                + (qualifier.isEmpty() ? "" : "." + qualifier);
+    }
+}
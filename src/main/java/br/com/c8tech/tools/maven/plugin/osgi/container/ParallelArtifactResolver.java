@@ -0,0 +1,343 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.ArtifactTypeRegistry;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.repository.LocalArtifactRequest;
+import org.eclipse.aether.repository.LocalArtifactResult;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.util.graph.visitor.PreorderNodeListGenerator;
+
+/**
+ * Collects the dependency graph of a container POM and resolves all its
+ * artifact files using a bounded pool of workers.
+ * <p>
+ * Artifacts already present in the local repository are never requested from
+ * the remote repositories. The number of concurrent requests sent to the same
+ * remote repository is limited by a per-repository semaphore.
+ * <p>
+ * No matter the order the downloads complete, the resolved artifacts are
+ * always returned in the pre-order of the dependency graph, so the caching
+ * step that follows behaves exactly as with the serial resolution.
+ * <p>
+ * The same pool and limits are offered to the other tasks of the caching
+ * step, like the copy of the artifacts recorded in a lock file, through
+ * {@link #execute(List)} and {@link #resolveArtifact(Artifact, List)}.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class ParallelArtifactResolver {
+
+    private static final String REQUEST_CONTEXT = "osgi-container";
+
+    private final int connectionsPerRepository;
+
+    private final AtomicInteger downloadedCount = new AtomicInteger();
+
+    private final AtomicInteger localHitCount = new AtomicInteger();
+
+    private final Log log;
+
+    private final Map<String, Semaphore> permitsByRepository = new ConcurrentHashMap<>();
+
+    private final RepositorySystem repositorySystem;
+
+    private final RepositorySystemSession session;
+
+    private final int threads;
+
+    public ParallelArtifactResolver(RepositorySystem pRepositorySystem,
+            RepositorySystemSession pSession, int pThreads,
+            int pConnectionsPerRepository, Log pLog) {
+        this.repositorySystem = pRepositorySystem;
+        this.session = pSession;
+        this.threads = pThreads;
+        this.connectionsPerRepository = pConnectionsPerRepository;
+        this.log = pLog;
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable,
+                    "osgi-container-resolver-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private CollectRequest createCollectRequest(MavenProject pModel,
+            List<RemoteRepository> pRepositories) {
+        ArtifactTypeRegistry stereotypes = session.getArtifactTypeRegistry();
+        CollectRequest collectRequest = new CollectRequest();
+        for (Dependency dependency : pModel.getDependencies()) {
+            collectRequest.addDependency(
+                    RepositoryUtils.toDependency(dependency, stereotypes));
+        }
+        if (pModel.getDependencyManagement() != null) {
+            for (Dependency dependency : pModel.getDependencyManagement()
+                    .getDependencies()) {
+                collectRequest.addManagedDependency(
+                        RepositoryUtils.toDependency(dependency, stereotypes));
+            }
+        }
+        collectRequest.setRepositories(pRepositories);
+        collectRequest.setRequestContext(REQUEST_CONTEXT);
+        return collectRequest;
+    }
+
+    /**
+     * Executes the informed tasks using a bounded pool of workers, which is
+     * always shut down before returning.
+     *
+     * @param pTasks
+     *                   the tasks to be executed.
+     * @return the results, in the order of the tasks, no matter the order
+     *         they complete.
+     * @throws ExecutionException
+     *                                  with the failure of the first failed
+     *                                  task, in the order of the tasks. The
+     *                                  remaining ones are cancelled.
+     * @throws InterruptedException
+     *                                  when interrupted while waiting for the
+     *                                  tasks.
+     */
+    public <T> List<T> execute(List<? extends Callable<T>> pTasks)
+            throws ExecutionException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                newThreadFactory());
+        try {
+            List<Future<T>> futures = new ArrayList<>(pTasks.size());
+            for (Callable<T> task : pTasks) {
+                futures.add(executor.submit(task));
+            }
+            // results are collected in submission order, this way the final
+            // ordering never depends on which task finished first.
+            List<T> results = new ArrayList<>(pTasks.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns how many artifacts were downloaded from a remote repository by
+     * the last resolution.
+     *
+     * @return the number of downloaded artifacts.
+     */
+    public int getDownloadedCount() {
+        return downloadedCount.get();
+    }
+
+    /**
+     * Returns how many artifacts were already available in the local
+     * repository on the last resolution.
+     *
+     * @return the number of local repository hits.
+     */
+    public int getLocalHitCount() {
+        return localHitCount.get();
+    }
+
+    /**
+     * Resolves the file of an artifact, taking it from the local repository
+     * when available, otherwise respecting the limit of concurrent requests
+     * sent to each remote repository.
+     *
+     * @param pArtifact
+     *                          the artifact to be resolved.
+     * @param pRepositories
+     *                          the remote repositories to be used.
+     * @return the artifact with its file.
+     * @throws ArtifactResolutionException
+     *                                         when the artifact could not be
+     *                                         resolved by any repository.
+     * @throws InterruptedException
+     *                                         when interrupted while waiting
+     *                                         for a connection.
+     */
+    public Artifact resolveArtifact(Artifact pArtifact,
+            List<RemoteRepository> pRepositories)
+            throws ArtifactResolutionException, InterruptedException {
+
+        LocalArtifactResult local = session.getLocalRepositoryManager()
+                .find(session, new LocalArtifactRequest(pArtifact,
+                        pRepositories, REQUEST_CONTEXT));
+        if (local.isAvailable() && local.getFile() != null) {
+            localHitCount.incrementAndGet();
+            return pArtifact.setFile(local.getFile());
+        }
+
+        if (pRepositories.isEmpty()) {
+            // only the workspace and the local repository can help here.
+            return repositorySystem.resolveArtifact(session,
+                    new ArtifactRequest(pArtifact, pRepositories,
+                            REQUEST_CONTEXT))
+                    .getArtifact();
+        }
+
+        ArtifactResolutionException lastFailure = null;
+        for (RemoteRepository repository : pRepositories) {
+            Semaphore permits = permitsByRepository.computeIfAbsent(
+                    repository.getId(),
+                    id -> new Semaphore(connectionsPerRepository, true));
+            permits.acquire();
+            try {
+                Artifact resolved = repositorySystem
+                        .resolveArtifact(session,
+                                new ArtifactRequest(pArtifact,
+                                        Collections.singletonList(repository),
+                                        REQUEST_CONTEXT))
+                        .getArtifact();
+                downloadedCount.incrementAndGet();
+                return resolved;
+            } catch (ArtifactResolutionException e) {
+                lastFailure = e;
+            } finally {
+                permits.release();
+            }
+        }
+        throw lastFailure;
+    }
+
+    /**
+     * Collects the complete dependency graph of the informed model and
+     * resolves the files of all its artifacts in parallel.
+     *
+     * @param pModel
+     *                          the container POM, loaded without dependency
+     *                          resolution.
+     * @param pRepositories
+     *                          the remote repositories to be used.
+     * @return the resolved artifacts, in the pre-order of the dependency
+     *         graph.
+     * @throws MojoExecutionException
+     *                                    when the graph could not be
+     *                                    collected or a non optional
+     *                                    artifact could not be resolved.
+     */
+    public Set<org.apache.maven.artifact.Artifact> resolveDependencies(
+            MavenProject pModel, List<RemoteRepository> pRepositories)
+            throws MojoExecutionException {
+
+        long start = System.currentTimeMillis();
+        DependencyNode root;
+        try {
+            root = repositorySystem.collectDependencies(session,
+                    createCollectRequest(pModel, pRepositories)).getRoot();
+        } catch (DependencyCollectionException e) {
+            throw new MojoExecutionException(
+                    "Failure while collecting the dependencies of "
+                            + pModel.getId(),
+                    e);
+        }
+
+        PreorderNodeListGenerator nodeListGenerator = new PreorderNodeListGenerator();
+        root.accept(nodeListGenerator);
+        List<DependencyNode> nodes = new ArrayList<>();
+        for (DependencyNode node : nodeListGenerator.getNodes()) {
+            if (node.getDependency() != null) {
+                nodes.add(node);
+            }
+        }
+
+        resolveNodes(nodes, pRepositories);
+
+        Set<org.apache.maven.artifact.Artifact> artifacts = new LinkedHashSet<>();
+        RepositoryUtils.toArtifacts(artifacts, root.getChildren(),
+                Collections.<String>emptyList(), null);
+        artifacts.removeIf(artifact -> artifact.getFile() == null);
+
+        log.info(String.format(
+                "Resolved %d artifacts of %s using %d workers (%d from the local repository, %d downloaded) in %d ms.",
+                artifacts.size(), pModel.getId(), threads,
+                getLocalHitCount(), getDownloadedCount(),
+                System.currentTimeMillis() - start));
+        return artifacts;
+    }
+
+    private void resolveNodes(List<DependencyNode> pNodes,
+            List<RemoteRepository> pRepositories)
+            throws MojoExecutionException {
+
+        List<Callable<Artifact>> tasks = new ArrayList<>(pNodes.size());
+        for (DependencyNode node : pNodes) {
+            final List<RemoteRepository> repositories = node.getRepositories()
+                    .isEmpty() ? pRepositories : node.getRepositories();
+            final Artifact artifact = node.getArtifact();
+            final boolean optional = node.getDependency().isOptional();
+            tasks.add(() -> {
+                try {
+                    return resolveArtifact(artifact, repositories);
+                } catch (ArtifactResolutionException e) {
+                    if (!optional) {
+                        throw e;
+                    }
+                    log.warn("Ignoring optional artifact " + artifact
+                            + " that could not be resolved: "
+                            + e.getMessage());
+                    return null;
+                }
+            });
+        }
+        try {
+            List<Artifact> resolved = execute(tasks);
+            for (int i = 0; i < pNodes.size(); i++) {
+                if (resolved.get(i) != null) {
+                    pNodes.get(i).setArtifact(resolved.get(i));
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException(
+                    "Failure while resolving the container artifacts",
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(
+                    "Interrupted while resolving the container artifacts", e);
+        }
+    }
+}
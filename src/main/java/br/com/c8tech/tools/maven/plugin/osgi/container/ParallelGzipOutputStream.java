@@ -0,0 +1,248 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses blocks of its input in parallel, in
+ * the same way pigz does.
+ * <p>
+ * The input is split in blocks that are deflated concurrently, each one primed
+ * with the last 32 KiB of the previous block as dictionary and ended with a
+ * sync flush. The deflated blocks are written in order as a single gzip
+ * member, so the result is read by any gzip implementation and the compression
+ * ratio is close to the one of a single threaded compression.
+ * <p>
+ * The executor is provided by the caller, so it can be shared by many streams.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b,
+            Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private byte[] block;
+
+    private final int blockSize;
+
+    private long bytesIn;
+
+    private long bytesOut;
+
+    private boolean closed;
+
+    private final CRC32 crc = new CRC32();
+
+    private final ExecutorService executor;
+
+    private int filled;
+
+    private final int level;
+
+    private final int maxPendingBlocks;
+
+    private final OutputStream out;
+
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] previousBlock;
+
+    /**
+     * @param pOut
+     *                         the stream receiving the compressed data.
+     * @param pExecutor
+     *                         the executor used to compress the blocks.
+     * @param pParallelism
+     *                         how many blocks may be compressed at the same
+     *                         time.
+     * @param pBlockSize
+     *                         the size of the blocks, at least 32 KiB.
+     * @param pLevel
+     *                         the deflate compression level.
+     * @throws IOException
+     *                         when the gzip header could not be written.
+     */
+    public ParallelGzipOutputStream(OutputStream pOut,
+            ExecutorService pExecutor, int pParallelism, int pBlockSize,
+            int pLevel) throws IOException {
+        if (pBlockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException(
+                    "The block size must be at least " + DICTIONARY_SIZE
+                            + " bytes.");
+        }
+        this.out = pOut;
+        this.executor = pExecutor;
+        this.maxPendingBlocks = Math.max(1, pParallelism) * 2;
+        this.blockSize = pBlockSize;
+        this.level = pLevel;
+        this.block = new byte[pBlockSize];
+        out.write(GZIP_HEADER);
+        bytesOut += GZIP_HEADER.length;
+    }
+
+    private static byte[] deflate(byte[] pBlock, int pLength,
+            byte[] pDictionary, int pLevel, boolean pLast) {
+        Deflater deflater = new Deflater(pLevel, true);
+        try {
+            if (pDictionary != null) {
+                deflater.setDictionary(pDictionary, 0, pDictionary.length);
+            }
+            deflater.setInput(pBlock, 0, pLength);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+                    pLength / 2 + 64);
+            byte[] buffer = new byte[Math.max(pLength / 2, 8192)];
+            if (pLast) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, count);
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length,
+                            Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length || !deflater.needsInput());
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) bytesIn);
+            bytesOut += 8;
+            out.flush();
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            out.close();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * @return how many uncompressed bytes were written to this stream.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return how many compressed bytes were written to the target stream.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    private void submit(boolean pLast) throws IOException {
+        final byte[] data = block;
+        final int length = filled;
+        final byte[] dictionary = previousBlock == null ? null
+                : Arrays.copyOfRange(previousBlock,
+                        previousBlock.length - DICTIONARY_SIZE,
+                        previousBlock.length);
+        pending.add(executor.submit(
+                () -> deflate(data, length, dictionary, level, pLast)));
+        previousBlock = length == blockSize ? data : null;
+        block = new byte[blockSize];
+        filled = 0;
+        while (pending.size() > maxPendingBlocks) {
+            writeNext();
+        }
+    }
+
+    @Override
+    public void write(byte[] pBytes, int pOffset, int pLength)
+            throws IOException {
+        if (closed) {
+            throw new IOException("The stream is closed.");
+        }
+        crc.update(pBytes, pOffset, pLength);
+        bytesIn += pLength;
+        int offset = pOffset;
+        int remaining = pLength;
+        while (remaining > 0) {
+            int count = Math.min(remaining, blockSize - filled);
+            System.arraycopy(pBytes, offset, block, filled, count);
+            filled += count;
+            offset += count;
+            remaining -= count;
+            if (filled == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(int pByte) throws IOException {
+        write(new byte[] { (byte) pByte }, 0, 1);
+    }
+
+    private void writeIntLE(int pValue) throws IOException {
+        out.write(pValue & 0xFF);
+        out.write((pValue >>> 8) & 0xFF);
+        out.write((pValue >>> 16) & 0xFF);
+        out.write((pValue >>> 24) & 0xFF);
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            byte[] compressed = pending.removeFirst().get();
+            out.write(compressed);
+            bytesOut += compressed.length;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while compressing.");
+        } catch (ExecutionException e) {
+            throw new IOException("Failure while compressing a block.",
+                    e.getCause());
+        }
+    }
+}
@@ -0,0 +1,577 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Pushes an image from an OCI image layout directory, like the one written by
+ * the <b>buildOciImage</b> goal, straight to a registry using the Docker
+ * Registry HTTP API V2, without a Docker daemon.
+ * <p>
+ * Nothing is sent when the registry already has a manifest with the same
+ * digest under the tag. Otherwise only the blobs the registry does not have
+ * yet are uploaded, several at a time, and the manifest is put last.
+ * <p>
+ * Both basic and bearer token authentication are supported, the token being
+ * requested with the informed credentials when the registry asks for it.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class RegistryImagePusher {
+
+    /**
+     * Counters about a {@link RegistryImagePusher#push(Path, String)}
+     * execution.
+     */
+    public static final class Result {
+
+        private int blobsPresent;
+        private int blobsUploaded;
+        private String manifestDigest;
+        private boolean skipped;
+        private long uploadedBytes;
+
+        /**
+         * @return how many blobs were already in the registry.
+         */
+        public int getBlobsPresent() {
+            return blobsPresent;
+        }
+
+        /**
+         * @return how many blobs were uploaded.
+         */
+        public int getBlobsUploaded() {
+            return blobsUploaded;
+        }
+
+        /**
+         * @return the digest of the pushed manifest.
+         */
+        public String getManifestDigest() {
+            return manifestDigest;
+        }
+
+        /**
+         * @return the size of the uploaded blobs.
+         */
+        public long getUploadedBytes() {
+            return uploadedBytes;
+        }
+
+        /**
+         * @return whether the registry already had the manifest under the
+         *         tag, so nothing was sent.
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            if (skipped) {
+                return String.format("manifest %s already in the registry",
+                        manifestDigest);
+            }
+            return String.format(
+                    "manifest %s, %d blobs uploaded, %d already present, %d KB",
+                    manifestDigest, blobsUploaded, blobsPresent,
+                    uploadedBytes / 1024);
+        }
+    }
+
+    /**
+     * Thrown when the registry answers a request with an unexpected status.
+     */
+    public static final class ResponseException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ResponseException(String pMessage, int pStatus) {
+            super(pMessage);
+            this.status = pStatus;
+        }
+
+        /**
+         * @return the HTTP status of the response.
+         */
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    private static final class Response {
+
+        private final byte[] body;
+        private final HttpURLConnection connection;
+        private final int status;
+
+        Response(HttpURLConnection pConnection) throws IOException {
+            this.connection = pConnection;
+            this.status = pConnection.getResponseCode();
+            InputStream in = status >= 400 ? pConnection.getErrorStream()
+                    : pConnection.getInputStream();
+            if (in == null) {
+                this.body = new byte[0];
+            } else {
+                try (InputStream stream = in) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = stream.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    this.body = out.toByteArray();
+                }
+            }
+        }
+
+        String header(String pName) {
+            return connection.getHeaderField(pName);
+        }
+    }
+
+    public static final String DOCKER_HUB_URL = "https://registry-1.docker.io";
+
+    private static final String DOCKER_CONTENT_DIGEST = "Docker-Content-Digest";
+
+    private static final Pattern CHALLENGE_PARAMETER = Pattern
+            .compile("(\\w+)=\"([^\"]*)\"");
+
+    private static final String REF_NAME_ANNOTATION = "org.opencontainers.image.ref.name";
+
+    private String authorization;
+
+    private int concurrency = 4;
+
+    private final Gson gson = new Gson();
+
+    private String password;
+
+    private final String registryUrl;
+
+    private final String repository;
+
+    private String username;
+
+    /**
+     * @param pRegistryUrl
+     *                         the base URL of the registry, like
+     *                         <b>https://registry.example.com</b>.
+     * @param pRepository
+     *                         the name of the repository inside the
+     *                         registry, like <b>group/image</b>.
+     */
+    public RegistryImagePusher(String pRegistryUrl, String pRepository) {
+        this.registryUrl = pRegistryUrl.endsWith("/")
+                ? pRegistryUrl.substring(0, pRegistryUrl.length() - 1)
+                : pRegistryUrl;
+        this.repository = pRepository;
+    }
+
+    /**
+     * Creates a pusher for a repository written as for the <b>docker push</b>
+     * command, where the first part is the registry host only when it
+     * contains a dot or a colon or is <b>localhost</b>. Other repositories are
+     * on the Docker Hub.
+     *
+     * @param pRepository
+     *                        the repository, like
+     *                        <b>registry.example.com/group/image</b>.
+     * @param pRegistryUrl
+     *                        an URL overriding the one derived from the
+     *                        repository, like <b>http://localhost:5000</b>
+     *                        for a registry without TLS, or null.
+     * @return the pusher.
+     */
+    public static RegistryImagePusher forRepository(String pRepository,
+            String pRegistryUrl) {
+        int slash = pRepository.indexOf('/');
+        String first = slash < 0 ? "" : pRepository.substring(0, slash);
+        String url;
+        String name;
+        if (first.contains(".") || first.contains(":")
+                || "localhost".equals(first)) {
+            url = "https://" + first;
+            name = pRepository.substring(slash + 1);
+        } else {
+            url = DOCKER_HUB_URL;
+            name = slash < 0 ? "library/" + pRepository : pRepository;
+        }
+        return new RegistryImagePusher(
+                pRegistryUrl == null || pRegistryUrl.isEmpty() ? url
+                        : pRegistryUrl,
+                name);
+    }
+
+    private static String readString(JsonObject pObject, String pName) {
+        JsonElement element = pObject.get(pName);
+        return element == null || element.isJsonNull() ? null
+                : element.getAsString();
+    }
+
+    /**
+     * Handles an authentication challenge, preparing the authorization of the
+     * next requests.
+     *
+     * @return whether the request should be retried.
+     */
+    private synchronized boolean authenticate(String pChallenge,
+            String pUsedAuthorization) throws IOException {
+        if (pChallenge == null) {
+            return false;
+        }
+        if (authorization != null
+                && !authorization.equals(pUsedAuthorization)) {
+            // another thread already authenticated.
+            return true;
+        }
+        String basic = username == null ? null
+                : "Basic " + Base64.getEncoder()
+                        .encodeToString((username + ":" + password)
+                                .getBytes(StandardCharsets.UTF_8));
+        if (pChallenge.regionMatches(true, 0, "Basic", 0, 5)) {
+            if (basic == null || basic.equals(pUsedAuthorization)) {
+                return false;
+            }
+            authorization = basic;
+            return true;
+        }
+        if (!pChallenge.regionMatches(true, 0, "Bearer", 0, 6)) {
+            return false;
+        }
+        Map<String, String> parameters = new LinkedHashMap<>();
+        Matcher matcher = CHALLENGE_PARAMETER.matcher(pChallenge);
+        while (matcher.find()) {
+            parameters.put(matcher.group(1), matcher.group(2));
+        }
+        String realm = parameters.get("realm");
+        if (realm == null || (pUsedAuthorization != null
+                && pUsedAuthorization.startsWith("Bearer")
+                && !pChallenge.contains("insufficient_scope"))) {
+            return false;
+        }
+        StringBuilder tokenUrl = new StringBuilder(realm)
+                .append(realm.contains("?") ? '&' : '?').append("scope=")
+                .append(URLEncoder.encode(
+                        "repository:" + repository + ":pull,push", "UTF-8"));
+        if (parameters.containsKey("service")) {
+            tokenUrl.append("&service=").append(
+                    URLEncoder.encode(parameters.get("service"), "UTF-8"));
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                tokenUrl.toString()).openConnection();
+        if (basic != null) {
+            connection.setRequestProperty("Authorization", basic);
+        }
+        Response response = new Response(connection);
+        checkStatus(response, "requesting a token from " + realm, 200);
+        JsonObject json = gson.fromJson(
+                new String(response.body, StandardCharsets.UTF_8),
+                JsonObject.class);
+        String token = readString(json, "token");
+        if (token == null) {
+            token = readString(json, "access_token");
+        }
+        if (token == null) {
+            throw new IOException("No token was returned by " + realm);
+        }
+        authorization = "Bearer " + token;
+        return true;
+    }
+
+    private boolean blobExists(String pDigest) throws IOException {
+        Response response = send("HEAD",
+                "/v2/" + repository + "/blobs/" + pDigest, null, null, null);
+        checkStatus(response, "checking the blob " + pDigest, 200, 404);
+        return response.status == 200;
+    }
+
+    private Path blobPath(Path pLayout, String pDigest) {
+        int colon = pDigest.indexOf(':');
+        return pLayout.resolve("blobs").resolve(pDigest.substring(0, colon))
+                .resolve(pDigest.substring(colon + 1));
+    }
+
+    private void checkStatus(Response pResponse, String pAction,
+            int... pExpected) throws IOException {
+        for (int expected : pExpected) {
+            if (pResponse.status == expected) {
+                return;
+            }
+        }
+        throw new ResponseException("The registry " + registryUrl
+                + " answered " + pResponse.status + " when " + pAction + ": "
+                + new String(pResponse.body, StandardCharsets.UTF_8).trim(),
+                pResponse.status);
+    }
+
+    /**
+     * Pushes the image.
+     *
+     * @param pLayout
+     *                    the OCI image layout directory.
+     * @param pTag
+     *                    the tag to push the image to. The manifest annotated
+     *                    with it as reference name is pushed, or the only one
+     *                    of the layout.
+     * @return the counters of the execution.
+     * @throws IOException
+     *                         when the layout could not be read or the
+     *                         registry refused a request.
+     */
+    public Result push(Path pLayout, String pTag) throws IOException {
+        JsonObject descriptor = selectManifest(pLayout, pTag);
+        String manifestDigest = descriptor.get("digest").getAsString();
+        String mediaType = descriptor.get("mediaType").getAsString();
+        byte[] manifest = Files
+                .readAllBytes(blobPath(pLayout, manifestDigest));
+        Result result = new Result();
+        result.manifestDigest = manifestDigest;
+
+        String manifestPath = "/v2/" + repository + "/manifests/" + pTag;
+        Response remote = send("HEAD", manifestPath, mediaType, null, null);
+        checkStatus(remote, "checking the manifest " + pTag, 200, 404);
+        if (remote.status == 200
+                && manifestDigest.equals(remote.header(DOCKER_CONTENT_DIGEST))) {
+            result.skipped = true;
+            return result;
+        }
+
+        JsonObject content = gson.fromJson(
+                new String(manifest, StandardCharsets.UTF_8),
+                JsonObject.class);
+        List<JsonObject> blobs = new ArrayList<>();
+        blobs.add(content.getAsJsonObject("config"));
+        content.getAsJsonArray("layers")
+                .forEach(layer -> blobs.add(layer.getAsJsonObject()));
+        pushBlobs(pLayout, blobs, result);
+
+        Response put = send("PUT", manifestPath, null, mediaType, manifest);
+        checkStatus(put, "putting the manifest " + pTag, 200, 201);
+        return result;
+    }
+
+    private void pushBlobs(Path pLayout, List<JsonObject> pBlobs,
+            Result pResult) throws IOException {
+        AtomicInteger present = new AtomicInteger();
+        AtomicInteger uploaded = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(concurrency, pBlobs.size())));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (JsonObject blob : pBlobs) {
+                String digest = blob.get("digest").getAsString();
+                futures.add(executor.submit(() -> {
+                    if (blobExists(digest)) {
+                        present.incrementAndGet();
+                    } else {
+                        Path file = blobPath(pLayout, digest);
+                        uploadBlob(digest, file);
+                        uploaded.incrementAndGet();
+                        bytes.addAndGet(Files.size(file));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while pushing the image blobs");
+        } finally {
+            executor.shutdownNow();
+        }
+        pResult.blobsPresent = present.get();
+        pResult.blobsUploaded = uploaded.get();
+        pResult.uploadedBytes = bytes.get();
+    }
+
+    private JsonObject selectManifest(Path pLayout, String pTag)
+            throws IOException {
+        JsonObject index;
+        try (Reader reader = Files.newBufferedReader(
+                pLayout.resolve("index.json"), StandardCharsets.UTF_8)) {
+            index = gson.fromJson(reader, JsonObject.class);
+        }
+        JsonObject single = null;
+        int count = 0;
+        for (JsonElement element : index.getAsJsonArray("manifests")) {
+            JsonObject descriptor = element.getAsJsonObject();
+            JsonObject annotations = descriptor
+                    .getAsJsonObject("annotations");
+            if (annotations != null && pTag.equals(
+                    readString(annotations, REF_NAME_ANNOTATION))) {
+                return descriptor;
+            }
+            single = descriptor;
+            count++;
+        }
+        if (count != 1) {
+            throw new IOException("The image layout " + pLayout
+                    + " has no single manifest nor one named " + pTag);
+        }
+        return single;
+    }
+
+    private Response send(String pMethod, String pPathOrUrl, String pAccept,
+            String pContentType, Object pBody) throws IOException {
+        return send(pMethod, pPathOrUrl, pAccept, pContentType, pBody, true);
+    }
+
+    /**
+     * Sends a request, authenticating and sending it again at most once when
+     * the registry asks for credentials, so a registry that keeps refusing
+     * them results in a denied request.
+     */
+    private Response send(String pMethod, String pPathOrUrl, String pAccept,
+            String pContentType, Object pBody, boolean pAuthenticate)
+            throws IOException {
+        URL url = pPathOrUrl.startsWith("/")
+                ? new URL(registryUrl + pPathOrUrl)
+                : new URL(new URL(registryUrl + "/"), pPathOrUrl);
+        String usedAuthorization;
+        synchronized (this) {
+            usedAuthorization = authorization;
+        }
+        HttpURLConnection connection = (HttpURLConnection) url
+                .openConnection();
+        connection.setRequestMethod(pMethod);
+        connection.setInstanceFollowRedirects(true);
+        if (usedAuthorization != null) {
+            connection.setRequestProperty("Authorization", usedAuthorization);
+        }
+        if (pAccept != null) {
+            connection.setRequestProperty("Accept", pAccept);
+        }
+        if (pBody != null || "POST".equals(pMethod)
+                || "PUT".equals(pMethod)) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type",
+                    pContentType == null ? "application/octet-stream"
+                            : pContentType);
+            // a streamed request can not read the error body of a refusal,
+            // so an empty one is buffered instead
+            if (pBody != null) {
+                connection.setFixedLengthStreamingMode(
+                        pBody instanceof Path ? Files.size((Path) pBody)
+                                : ((byte[]) pBody).length);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                if (pBody instanceof Path) {
+                    Files.copy((Path) pBody, out);
+                } else
+                    if (pBody != null) {
+                        out.write((byte[]) pBody);
+                    }
+            }
+        }
+        Response response = new Response(connection);
+        if (response.status != 401) {
+            return response;
+        }
+        if (!pAuthenticate) {
+            throw new ResponseException("The registry " + registryUrl
+                    + " denied " + pMethod + " " + url
+                    + " even after authenticating: "
+                    + new String(response.body, StandardCharsets.UTF_8).trim(),
+                    response.status);
+        }
+        if (authenticate(response.header("WWW-Authenticate"),
+                usedAuthorization)) {
+            return send(pMethod, pPathOrUrl, pAccept, pContentType, pBody,
+                    false);
+        }
+        return response;
+    }
+
+    /**
+     * @param pConcurrency
+     *                         how many blobs are checked and uploaded at the
+     *                         same time. The default is 4.
+     * @return this pusher.
+     */
+    public RegistryImagePusher setConcurrency(int pConcurrency) {
+        this.concurrency = pConcurrency;
+        return this;
+    }
+
+    /**
+     * @param pUsername
+     *                      the user name, or null for anonymous access.
+     * @param pPassword
+     *                      the password.
+     * @return this pusher.
+     */
+    public RegistryImagePusher setCredentials(String pUsername,
+            String pPassword) {
+        this.username = pUsername;
+        this.password = pPassword;
+        return this;
+    }
+
+    private void uploadBlob(String pDigest, Path pFile) throws IOException {
+        Response start = send("POST",
+                "/v2/" + repository + "/blobs/uploads/", null, null, null);
+        checkStatus(start, "starting the upload of " + pDigest, 202);
+        String location = start.header("Location");
+        if (location == null) {
+            throw new IOException("The registry " + registryUrl
+                    + " gave no location to upload " + pDigest);
+        }
+        Response put = send("PUT",
+                location + (location.contains("?") ? "&" : "?") + "digest="
+                        + URLEncoder.encode(pDigest, "UTF-8"),
+                null, null, pFile);
+        checkStatus(put, "uploading " + pDigest, 201);
+    }
+}
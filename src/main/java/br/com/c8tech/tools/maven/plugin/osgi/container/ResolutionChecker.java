@@ -0,0 +1,571 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+/**
+ * Verifies whether a set of bundles can be resolved by the framework, given
+ * the packages and capabilities provided by the system bundle.
+ * <p>
+ * Every mandatory <b>Import-Package</b>, <b>Require-Bundle</b>,
+ * <b>Fragment-Host</b> and <b>Require-Capability</b> requirement of a bundle
+ * must be satisfied by a capability of the system bundle or of another
+ * bundle that is resolvable too. Bundles are marked unresolvable until no
+ * more of them fail, so a missing package is also reported for the bundles
+ * that only depend on it indirectly.
+ * <p>
+ * The check covers what makes bundles fail to resolve when a container is
+ * started with missing or incompatible dependencies. The <b>uses</b>
+ * constraints and singleton selection are not evaluated, and requirements
+ * only effective when the bundle is active are ignored, as the framework
+ * does.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class ResolutionChecker {
+
+    private static final class Capability {
+
+        private final Map<String, Object> attributes;
+        private final Map<String, String> directives;
+        private final String namespace;
+        private final Resource resource;
+
+        Capability(Resource pResource, String pNamespace,
+                Map<String, Object> pAttributes,
+                Map<String, String> pDirectives) {
+            this.resource = pResource;
+            this.namespace = pNamespace;
+            this.attributes = pAttributes;
+            this.directives = pDirectives;
+        }
+    }
+
+    private static final class Requirement {
+
+        private final String description;
+        private final Predicate<Capability> matcher;
+        private final String namespace;
+        private final boolean optional;
+
+        Requirement(String pNamespace, String pDescription, boolean pOptional,
+                Predicate<Capability> pMatcher) {
+            this.namespace = pNamespace;
+            this.description = pDescription;
+            this.optional = pOptional;
+            this.matcher = pMatcher;
+        }
+    }
+
+    private static final class Resource {
+
+        private final List<Capability> capabilities = new ArrayList<>();
+        private final String name;
+        private final List<Requirement> requirements = new ArrayList<>();
+        private final boolean system;
+
+        Resource(String pName, boolean pSystem) {
+            this.name = pName;
+            this.system = pSystem;
+        }
+    }
+
+    private static final String BUNDLE_NAMESPACE = "osgi.wiring.bundle";
+
+    private static final String HOST_NAMESPACE = "osgi.wiring.host";
+
+    private static final String IDENTITY_NAMESPACE = "osgi.identity";
+
+    private static final String PACKAGE_NAMESPACE = "osgi.wiring.package";
+
+    private static final String SYSTEM_BUNDLE = "system.bundle";
+
+    private static final String SYSTEM_PACKAGES = "org.osgi.framework.system.packages";
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([^${}]+)\\}");
+
+    private final Map<String, List<Capability>> capabilities = new HashMap<>();
+
+    private final List<Resource> resources = new ArrayList<>();
+
+    private final Resource systemBundle = new Resource(SYSTEM_BUNDLE, true);
+
+    public ResolutionChecker() {
+        resources.add(systemBundle);
+        addBundleCapabilities(systemBundle, SYSTEM_BUNDLE,
+                OsgiVersion.EMPTY, false);
+    }
+
+    /**
+     * Creates the <b>osgi.ee</b> capability provided by a Java runtime, the
+     * same one the frameworks provide by default.
+     *
+     * @param pJavaVersion
+     *                         the Java specification version, like <b>1.8</b>
+     *                         or <b>11</b>.
+     * @return a <b>Provide-Capability</b> header.
+     */
+    public static String executionEnvironmentCapability(String pJavaVersion) {
+        OsgiVersion target = OsgiVersion.parse(pJavaVersion);
+        int feature = target.compareTo(OsgiVersion.parse("9")) >= 0
+                ? Integer.parseInt(target.toString().split("\\.")[0])
+                : 8;
+        StringBuilder versions = new StringBuilder();
+        for (String old : Arrays.asList("1.0", "1.1", "1.2", "1.3", "1.4",
+                "1.5", "1.6", "1.7", "1.8")) {
+            if (OsgiVersion.parse(old).compareTo(target) <= 0) {
+                versions.append(versions.length() > 0 ? "," : "").append(old);
+            }
+        }
+        for (int i = 9; i <= feature; i++) {
+            versions.append(',').append(i);
+        }
+        return "osgi.ee;osgi.ee=\"JavaSE\";version:List<Version>=\""
+                + versions
+                + "\",osgi.ee;osgi.ee=\"OSGi/Minimum\";version:List<Version>=\"1.0,1.1,1.2\"";
+    }
+
+    /**
+     * Reads the packages of the Java runtime that a framework exports through
+     * the system bundle by default, as declared inside the framework jar for
+     * each Java version: the <b>JavaSE-&lt;version&gt;.profile</b> files of
+     * Equinox and the <b>jre-&lt;version&gt;</b> properties of the
+     * <b>default.properties</b> file of Felix.
+     * <p>
+     * When the framework does not declare the informed version, the list of
+     * the closest older version is used, as the frameworks do.
+     *
+     * @param pFrameworkJar
+     *                          the framework jar file.
+     * @param pJavaVersion
+     *                          the Java specification version of the runtime
+     *                          where the container will run, like <b>1.8</b>
+     *                          or <b>11</b>.
+     * @return an <b>Export-Package</b> header, or null when the framework jar
+     *         declares no list for the informed version.
+     * @throws IOException
+     *                         when the framework jar can not be read.
+     */
+    public static String frameworkSystemPackages(Path pFrameworkJar,
+            String pJavaVersion) throws IOException {
+        OsgiVersion target = OsgiVersion.parse(pJavaVersion);
+        int feature = target.compareTo(OsgiVersion.parse("9")) >= 0
+                ? Integer.parseInt(target.toString().split("\\.")[0])
+                : Integer.parseInt(target.toString().split("\\.")[1]);
+        try (JarFile jar = new JarFile(pFrameworkJar.toFile())) {
+            Properties defaults = readProperties(jar, "default.properties");
+            for (int i = feature; i >= 1; i--) {
+                String version = i < 9 ? "1." + i : String.valueOf(i);
+                Properties profile = readProperties(jar,
+                        "JavaSE-" + version + ".profile");
+                if (profile != null
+                        && profile.getProperty(SYSTEM_PACKAGES) != null) {
+                    return profile.getProperty(SYSTEM_PACKAGES);
+                }
+                if (defaults != null
+                        && defaults.getProperty("jre-" + version) != null) {
+                    return substitute(defaults, "jre-" + version,
+                            new HashSet<>());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Properties readProperties(JarFile pJar, String pName)
+            throws IOException {
+        ZipEntry entry = pJar.getEntry(pName);
+        if (entry == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = pJar.getInputStream(entry)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    /**
+     * Replaces the <b>${name}</b> variables of a property by the value of
+     * other properties of the same file, the unknown ones are removed.
+     */
+    private static String substitute(Properties pProperties, String pName,
+            Set<String> pVisited) {
+        String value = pProperties.getProperty(pName);
+        if (value == null || !pVisited.add(pName)) {
+            return "";
+        }
+        Matcher matcher = VARIABLE.matcher(value);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(result, Matcher.quoteReplacement(
+                    substitute(pProperties, matcher.group(1), pVisited)));
+        }
+        matcher.appendTail(result);
+        pVisited.remove(pName);
+        return result.toString();
+    }
+
+    private static Map<String, Object> typedAttributes(
+            ManifestHeader.Clause pClause) {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : pClause.getAttributes()
+                .entrySet()) {
+            String type = pClause.getType(entry.getKey()).replace(" ", "");
+            String value = entry.getValue();
+            if (type.startsWith("List")) {
+                String elementType = type.length() > 4
+                        ? type.substring(5, type.length() - 1)
+                        : "String";
+                List<Object> list = new ArrayList<>();
+                for (String element : ManifestHeader.split(value, ',')) {
+                    list.add(typedValue(elementType, element));
+                }
+                attributes.put(entry.getKey(), list);
+            } else {
+                attributes.put(entry.getKey(), typedValue(type, value));
+            }
+        }
+        return attributes;
+    }
+
+    private static Object typedValue(String pType, String pValue) {
+        try {
+            switch (pType) {
+            case "Version":
+                return OsgiVersion.parse(pValue);
+            case "Long":
+                return Long.valueOf(pValue.trim());
+            case "Double":
+                return Double.valueOf(pValue.trim());
+            default:
+                return pValue;
+            }
+        } catch (NumberFormatException e) {
+            return pValue;
+        }
+    }
+
+    private void add(Capability pCapability) {
+        pCapability.resource.capabilities.add(pCapability);
+        capabilities.computeIfAbsent(pCapability.namespace,
+                k -> new ArrayList<>()).add(pCapability);
+    }
+
+    /**
+     * Adds a bundle to be verified.
+     *
+     * @param pName
+     *                      the name used in the reported problems, like the
+     *                      file name.
+     * @param pMetadata
+     *                      the bundle metadata.
+     * @throws IllegalArgumentException
+     *                                      when a filter of the bundle is not
+     *                                      valid.
+     */
+    public void addBundle(String pName, BundleMetadata pMetadata) {
+        Resource resource = new Resource(pName, false);
+        resources.add(resource);
+        OsgiVersion version = OsgiVersion.parse(pMetadata.getVersion());
+        addBundleCapabilities(resource, pMetadata.getSymbolicName(), version,
+                pMetadata.isFragment());
+        addExports(resource, pMetadata.getExportPackage(),
+                pMetadata.getSymbolicName(), version);
+        addCapabilities(resource, pMetadata.getProvideCapability());
+
+        for (ManifestHeader.Clause clause : ManifestHeader
+                .parse(pMetadata.getImportPackage())) {
+            for (String packageName : clause.getPaths()) {
+                if (!packageName.startsWith("java.")) {
+                    resource.requirements.add(importRequirement(packageName,
+                            clause));
+                }
+            }
+        }
+        for (ManifestHeader.Clause clause : ManifestHeader
+                .parse(pMetadata.getRequireBundle())) {
+            resource.requirements.add(
+                    nameRequirement(BUNDLE_NAMESPACE, "Require-Bundle", clause));
+        }
+        for (ManifestHeader.Clause clause : ManifestHeader
+                .parse(pMetadata.getFragmentHost())) {
+            resource.requirements.add(
+                    nameRequirement(HOST_NAMESPACE, "Fragment-Host", clause));
+        }
+        for (ManifestHeader.Clause clause : ManifestHeader
+                .parse(pMetadata.getRequireCapability())) {
+            String effective = clause.getDirective("effective");
+            if (effective != null && !"resolve".equals(effective)) {
+                continue;
+            }
+            String filterText = clause.getDirective("filter");
+            LdapFilter filter = filterText == null ? null
+                    : LdapFilter.parse(filterText);
+            for (String namespace : clause.getPaths()) {
+                resource.requirements.add(new Requirement(namespace,
+                        "Require-Capability " + namespace
+                                + (filterText == null ? ""
+                                        : ";filter:=\"" + filterText + "\""),
+                        clause.isOptional(),
+                        c -> filter == null || filter.matches(c.attributes)));
+            }
+        }
+    }
+
+    private void addBundleCapabilities(Resource pResource,
+            String pSymbolicName, OsgiVersion pVersion, boolean pFragment) {
+        Map<String, Object> identity = new HashMap<>();
+        identity.put(IDENTITY_NAMESPACE, pSymbolicName);
+        identity.put("version", pVersion);
+        identity.put("type", pFragment ? "osgi.fragment" : "osgi.bundle");
+        add(new Capability(pResource, IDENTITY_NAMESPACE, identity,
+                new HashMap<>()));
+        if (pFragment) {
+            return;
+        }
+        for (String namespace : new String[] { BUNDLE_NAMESPACE,
+                HOST_NAMESPACE }) {
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put(namespace, pSymbolicName);
+            attributes.put("bundle-version", pVersion);
+            add(new Capability(pResource, namespace, attributes,
+                    new HashMap<>()));
+        }
+    }
+
+    private void addCapabilities(Resource pResource, String pHeader) {
+        for (ManifestHeader.Clause clause : ManifestHeader.parse(pHeader)) {
+            for (String namespace : clause.getPaths()) {
+                add(new Capability(pResource, namespace,
+                        typedAttributes(clause), new HashMap<>()));
+            }
+        }
+    }
+
+    private void addExports(Resource pResource, String pHeader,
+            String pSymbolicName, OsgiVersion pBundleVersion) {
+        for (ManifestHeader.Clause clause : ManifestHeader.parse(pHeader)) {
+            for (String packageName : clause.getPaths()) {
+                Map<String, Object> attributes = new HashMap<>(
+                        clause.getAttributes());
+                String version = clause.getAttribute("version");
+                if (version == null) {
+                    version = clause.getAttribute("specification-version");
+                }
+                attributes.put(PACKAGE_NAMESPACE, packageName);
+                attributes.put("version", OsgiVersion.parse(version));
+                attributes.put("bundle-symbolic-name", pSymbolicName);
+                attributes.put("bundle-version", pBundleVersion);
+                Map<String, String> directives = new HashMap<>();
+                if (clause.getDirective("mandatory") != null) {
+                    directives.put("mandatory",
+                            clause.getDirective("mandatory"));
+                }
+                add(new Capability(pResource, PACKAGE_NAMESPACE, attributes,
+                        directives));
+            }
+        }
+    }
+
+    /**
+     * Adds capabilities provided by the system bundle, like the
+     * <b>osgi.ee</b> ones or the framework's
+     * <b>org.osgi.framework.system.capabilities.extra</b>.
+     *
+     * @param pProvideCapability
+     *                               a <b>Provide-Capability</b> header.
+     */
+    public void addSystemCapabilities(String pProvideCapability) {
+        addCapabilities(systemBundle, pProvideCapability);
+    }
+
+    /**
+     * Adds packages exported by the system bundle, like the framework's
+     * <b>org.osgi.framework.system.packages</b>.
+     *
+     * @param pExportPackage
+     *                           an <b>Export-Package</b> header.
+     */
+    public void addSystemPackages(String pExportPackage) {
+        addExports(systemBundle, pExportPackage, SYSTEM_BUNDLE,
+                OsgiVersion.EMPTY);
+    }
+
+    /**
+     * Verifies the added bundles.
+     *
+     * @return the problems found, keyed by the name of each bundle that can
+     *         not be resolved, in the order the bundles were added.
+     */
+    public Map<String, List<String>> check() {
+        Set<Resource> unresolved = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Resource resource : resources) {
+                if (resource.system || unresolved.contains(resource)) {
+                    continue;
+                }
+                for (Requirement requirement : resource.requirements) {
+                    if (!requirement.optional
+                            && findProvider(requirement, unresolved) == null) {
+                        unresolved.add(resource);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        Map<String, List<String>> problems = new LinkedHashMap<>();
+        for (Resource resource : resources) {
+            if (!unresolved.contains(resource)) {
+                continue;
+            }
+            List<String> messages = new ArrayList<>();
+            for (Requirement requirement : resource.requirements) {
+                if (requirement.optional
+                        || findProvider(requirement, unresolved) != null) {
+                    continue;
+                }
+                Capability candidate = findProvider(requirement,
+                        new HashSet<>());
+                messages.add("missing " + requirement.description
+                        + (candidate == null ? ""
+                                : " (provided by the unresolved "
+                                        + candidate.resource.name + ")"));
+            }
+            problems.put(resource.name, messages);
+        }
+        return problems;
+    }
+
+    private Capability findProvider(Requirement pRequirement,
+            Set<Resource> pUnresolved) {
+        for (Capability capability : capabilities.getOrDefault(
+                pRequirement.namespace, new ArrayList<>())) {
+            if (!pUnresolved.contains(capability.resource)
+                    && pRequirement.matcher.test(capability)) {
+                return capability;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calculates which of the added bundles each bundle depends on, that is,
+     * which ones provide the capabilities it requires, including the optional
+     * ones. A requirement also satisfied by the system bundle, or by more than
+     * one bundle, is taken as wired to the first provider that was added.
+     *
+     * @return the names of the bundles each bundle depends on, keyed by the
+     *         bundle name, in the order the bundles were added.
+     */
+    public Map<String, Set<String>> getDependencies() {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        for (Resource resource : resources) {
+            if (resource.system) {
+                continue;
+            }
+            Set<String> providers = new LinkedHashSet<>();
+            for (Requirement requirement : resource.requirements) {
+                Capability provider = findProvider(requirement,
+                        new HashSet<>());
+                if (provider != null && !provider.resource.system
+                        && provider.resource != resource) {
+                    providers.add(provider.resource.name);
+                }
+            }
+            dependencies.put(resource.name, providers);
+        }
+        return dependencies;
+    }
+
+    private Requirement importRequirement(String pPackageName,
+            ManifestHeader.Clause pClause) {
+        OsgiVersion.Range range = OsgiVersion.Range
+                .parse(pClause.getAttribute("version") != null
+                        ? pClause.getAttribute("version")
+                        : pClause.getAttribute("specification-version"));
+        OsgiVersion.Range bundleRange = OsgiVersion.Range
+                .parse(pClause.getAttribute("bundle-version"));
+        Map<String, String> otherAttributes = new HashMap<>(
+                pClause.getAttributes());
+        otherAttributes.keySet().removeAll(Arrays.asList("version",
+                "specification-version", "bundle-version"));
+        String description = "Import-Package " + pPackageName
+                + (pClause.getAttribute("version") == null ? ""
+                        : ";version=\"" + range + "\"");
+        return new Requirement(PACKAGE_NAMESPACE, description,
+                pClause.isOptional(), c -> {
+            if (!pPackageName.equals(c.attributes.get(PACKAGE_NAMESPACE))
+                    || !range.includes((OsgiVersion) c.attributes.get("version"))
+                    || !bundleRange.includes(
+                            (OsgiVersion) c.attributes.get("bundle-version"))) {
+                return false;
+            }
+            for (Map.Entry<String, String> entry : otherAttributes
+                    .entrySet()) {
+                if (!entry.getValue().equals(
+                        String.valueOf(c.attributes.get(entry.getKey())))) {
+                    return false;
+                }
+            }
+            String mandatory = c.directives.get("mandatory");
+            if (mandatory != null) {
+                for (String attribute : ManifestHeader.split(mandatory,
+                        ',')) {
+                    if (!pClause.getAttributes().containsKey(attribute)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        });
+    }
+
+    private Requirement nameRequirement(String pNamespace, String pHeader,
+            ManifestHeader.Clause pClause) {
+        String name = pClause.getPaths().get(0);
+        String versionText = pClause.getAttribute("bundle-version");
+        OsgiVersion.Range range = OsgiVersion.Range.parse(versionText);
+        boolean systemBundle = SYSTEM_BUNDLE.equals(name);
+        return new Requirement(pNamespace,
+                pHeader + " " + name + (versionText == null ? ""
+                        : ";bundle-version=\"" + range + "\""),
+                pClause.isOptional(),
+                c -> systemBundle ? c.resource.system
+                        : name.equals(c.attributes.get(pNamespace))
+                                && range.includes((OsgiVersion) c.attributes
+                                        .get("bundle-version")));
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+import com.spotify.docker.client.exceptions.DockerRequestException;
+import com.spotify.docker.client.exceptions.DockerTimeoutException;
+
+/**
+ * Retries an operation that failed because of a transient condition, like a
+ * throttling registry or a dropped connection, waiting longer after each
+ * failure.
+ * <p>
+ * The wait grows exponentially from an initial delay up to a maximum one and
+ * only its first half is fixed, the other half being random, so builds
+ * failing at the same time do not all come back at the same time. Each
+ * attempt can also be given a deadline, after which it is interrupted and
+ * counted as a transient failure. As an interrupt may be ignored by the
+ * operation, the next attempt only starts after the abandoned one has
+ * finished, which the timeout handler can hasten, by closing the connection
+ * it uses for example.
+ * <p>
+ * Only failures classified as retryable are retried, see
+ * {@link #isRetryable(Throwable)}. Any other failure is thrown at once.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class RetryPolicy {
+
+    /**
+     * The operation to be attempted.
+     */
+    @FunctionalInterface
+    public interface Attempt {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * Notified before each wait.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * @param pRetry
+         *                        the number of the retry about to be done,
+         *                        starting at 1.
+         * @param pDelayMillis
+         *                        how long it will wait before it.
+         * @param pFailure
+         *                        the failure of the previous attempt.
+         */
+        void retrying(int pRetry, long pDelayMillis, Exception pFailure);
+    }
+
+    /**
+     * Thrown when an attempt does not finish before its deadline.
+     */
+    public static final class AttemptTimeoutException
+            extends TimeoutException {
+
+        private static final long serialVersionUID = 1L;
+
+        AttemptTimeoutException(String pMessage) {
+            super(pMessage);
+        }
+    }
+
+    private static final Pattern RETRYABLE_MESSAGE = Pattern.compile(
+            "(?i).*(toomanyrequests|too many requests|\\b429\\b|\\b50[234]\\b"
+                    + "|timeout|timed out|connection reset|broken pipe"
+                    + "|unexpected eof).*",
+            Pattern.DOTALL);
+
+    private long attemptTimeoutMillis;
+
+    private long failedAttemptsMillis;
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final int maxRetries;
+
+    private Random random = new Random();
+
+    private Predicate<Throwable> retryable = RetryPolicy::isRetryable;
+
+    private int retries;
+
+    private Runnable timeoutHandler;
+
+    private long waitedMillis;
+
+    /**
+     * @param pMaxRetries
+     *                              how many times a failed attempt is
+     *                              retried.
+     * @param pInitialDelayMillis
+     *                              the longest wait before the first retry.
+     * @param pMaxDelayMillis
+     *                              the longest wait before any retry.
+     */
+    public RetryPolicy(int pMaxRetries, long pInitialDelayMillis,
+            long pMaxDelayMillis) {
+        this.maxRetries = Math.max(0, pMaxRetries);
+        this.initialDelayMillis = Math.max(0, pInitialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis,
+                pMaxDelayMillis);
+    }
+
+    /**
+     * Tells whether a failure is worth retrying. It is the case of the ones
+     * caused, at any level, by:
+     * <ul>
+     * <li>a response with status 429 or 5xx from the Docker daemon or a
+     * registry;</li>
+     * <li>a connection that could not be made, timed out or was reset;</li>
+     * <li>an error reported by the daemon while pushing or pulling whose
+     * message denotes one of the cases above.</li>
+     * </ul>
+     * A {@link MojoFailureException} is never retried, since it denotes a
+     * permanent failure.
+     *
+     * @param pFailure
+     *                     the failure.
+     * @return whether it is transient.
+     */
+    public static boolean isRetryable(Throwable pFailure) {
+        if (pFailure instanceof MojoFailureException) {
+            return false;
+        }
+        for (Throwable cause = pFailure; cause != null; cause = cause
+                .getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof DockerRequestException) {
+                return isRetryableStatus(
+                        ((DockerRequestException) cause).status());
+            }
+            if (cause instanceof RegistryImagePusher.ResponseException) {
+                return isRetryableStatus(
+                        ((RegistryImagePusher.ResponseException) cause)
+                                .getStatus());
+            }
+            if (cause instanceof DockerTimeoutException
+                    || cause instanceof TimeoutException
+                    || cause instanceof SocketTimeoutException
+                    || cause instanceof ConnectException
+                    || (cause instanceof SocketException
+                            && !(cause instanceof InterruptedIOException))) {
+                return true;
+            }
+            if (cause.getMessage() != null
+                    && RETRYABLE_MESSAGE.matcher(cause.getMessage()).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRetryableStatus(int pStatus) {
+        return pStatus == 429 || pStatus >= 500;
+    }
+
+    private void attempt(Attempt pAttempt) throws Exception {
+        if (attemptTimeoutMillis <= 0) {
+            pAttempt.run();
+            return;
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> future = executor.submit(() -> {
+                pAttempt.run();
+                return null;
+            });
+            try {
+                future.get(attemptTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                if (timeoutHandler != null) {
+                    timeoutHandler.run();
+                }
+                // the abandoned attempt must never overlap the next one.
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE,
+                        TimeUnit.NANOSECONDS);
+                throw new AttemptTimeoutException(
+                        "The attempt did not finish in " + attemptTimeoutMillis
+                                + " ms");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the operation, retrying it while it fails with a retryable failure
+     * and retries are left.
+     *
+     * @param pAttempt
+     *                      the operation.
+     * @param pListener
+     *                      notified before each retry, or null.
+     * @throws Exception
+     *                       the failure of the last attempt, or of the first
+     *                       one not retryable.
+     */
+    public void execute(Attempt pAttempt, Listener pListener)
+            throws Exception {
+        for (int retry = 0;; retry++) {
+            long start = System.nanoTime();
+            try {
+                attempt(pAttempt);
+                return;
+            } catch (Exception e) {
+                failedAttemptsMillis += TimeUnit.NANOSECONDS
+                        .toMillis(System.nanoTime() - start);
+                if (retry >= maxRetries || !retryable.test(e)) {
+                    throw e;
+                }
+                long delay = nextDelay(retry);
+                if (pListener != null) {
+                    pListener.retrying(retry + 1, delay, e);
+                }
+                Thread.sleep(delay);
+                waitedMillis += delay;
+                retries++;
+            }
+        }
+    }
+
+    /**
+     * @return the time spent in the attempts that failed.
+     */
+    public long getFailedAttemptsMillis() {
+        return failedAttemptsMillis;
+    }
+
+    /**
+     * @return how many retries were done.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the time spent waiting between attempts.
+     */
+    public long getWaitedMillis() {
+        return waitedMillis;
+    }
+
+    /**
+     * Calculates the wait before a retry: half of the exponential delay plus
+     * a random part up to the other half.
+     *
+     * @param pRetry
+     *                   how many retries were already done.
+     * @return the wait in milliseconds.
+     */
+    public long nextDelay(int pRetry) {
+        long delay = initialDelayMillis;
+        for (int i = 0; i < pRetry && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half + 1));
+    }
+
+    /**
+     * @param pAttemptTimeoutMillis
+     *                                  the deadline of each attempt, after
+     *                                  which it is interrupted and retried,
+     *                                  or zero for none.
+     * @return this policy.
+     */
+    public RetryPolicy setAttemptTimeoutMillis(long pAttemptTimeoutMillis) {
+        this.attemptTimeoutMillis = pAttemptTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @param pTimeoutHandler
+     *                            run when an attempt misses its deadline,
+     *                            after it was interrupted, in order to make
+     *                            it finish, or null.
+     * @return this policy.
+     */
+    public RetryPolicy setTimeoutHandler(Runnable pTimeoutHandler) {
+        this.timeoutHandler = pTimeoutHandler;
+        return this;
+    }
+
+    /**
+     * @param pRandom
+     *                    the source of the random part of the waits.
+     * @return this policy.
+     */
+    public RetryPolicy setRandom(Random pRandom) {
+        this.random = pRandom;
+        return this;
+    }
+
+    /**
+     * @param pRetryable
+     *                       replaces the default classification of the
+     *                       failures, {@link #isRetryable(Throwable)}.
+     * @return this policy.
+     */
+    public RetryPolicy setRetryable(Predicate<Throwable> pRetryable) {
+        this.retryable = pRetryable;
+        return this;
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A global content-addressed store of bundles, shared by all projects and
+ * containers.
+ * <p>
+ * Every file is stored once, under a name derived from its SHA-256 digest.
+ * The files of a per-project cache directory are then replaced by hard links
+ * pointing to the stored blob. When hard links are not supported (a different
+ * file store, for example) the private copy is kept.
+ * <p>
+ * A small index, kept per cache directory, records the size and modification
+ * time of every linked file, so a warm build only needs to read the file
+ * attributes in order to know that nothing has to be done.
+ * <p>
+ * The blobs are read-only and, as a linked cache file is the blob itself,
+ * cache files must never be rewritten in place: a new content must be written
+ * to another file and moved over the cached one, or the cached one deleted
+ * first, otherwise the blob of every project using it would change. Before
+ * handing the cache directory to a tool that rewrites its files in place,
+ * {@link #unlink(Path)} must be called in order to replace the links by
+ * private copies.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class SharedBundleStore {
+
+    /**
+     * Counters about a {@link SharedBundleStore#link(Path)} execution.
+     */
+    public static final class Statistics {
+
+        private long bytesShared;
+        private int copied;
+        private int hits;
+        private int linked;
+        private int stored;
+
+        /**
+         * @return the amount of bytes no longer duplicated in the cache
+         *         directory.
+         */
+        public long getBytesShared() {
+            return bytesShared;
+        }
+
+        /**
+         * @return how many files were kept as private copies because they
+         *         could not be linked.
+         */
+        public int getCopied() {
+            return copied;
+        }
+
+        /**
+         * @return how many files were already linked to the store.
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return how many files were replaced by links to the store.
+         */
+        public int getLinked() {
+            return linked;
+        }
+
+        /**
+         * @return how many new blobs were added to the store.
+         */
+        public int getStored() {
+            return stored;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d already linked, %d linked, %d new blobs stored, %d kept as copies, %d KB shared",
+                    hits, linked, stored, copied, bytesShared / 1024);
+        }
+    }
+
+    private static final class IndexEntry {
+
+        private final String digest;
+        private final long lastModified;
+        private final long size;
+
+        IndexEntry(long pSize, long pLastModified, String pDigest) {
+            this.size = pSize;
+            this.lastModified = pLastModified;
+            this.digest = pDigest;
+        }
+
+        boolean matches(BasicFileAttributes pAttributes) {
+            return size == pAttributes.size() && lastModified == pAttributes
+                    .lastModifiedTime().toMillis();
+        }
+    }
+
+    private static final String BLOBS_DIR_NAME = "sha256";
+
+    private static final String INDEX_SEPARATOR = "\t";
+
+    private final Path indexFile;
+
+    private final Path storeDirectory;
+
+    /**
+     * Creates a new store.
+     *
+     * @param pStoreDirectory
+     *                            the root directory of the global store.
+     * @param pIndexFile
+     *                            the file used to remember the already linked
+     *                            files of a cache directory.
+     */
+    public SharedBundleStore(Path pStoreDirectory, Path pIndexFile) {
+        this.storeDirectory = pStoreDirectory;
+        this.indexFile = pIndexFile;
+    }
+
+    /**
+     * Returns the location where a blob with the informed digest is (or would
+     * be) stored.
+     *
+     * @param pDigest
+     *                    a SHA-256 digest.
+     * @return the blob path.
+     */
+    public Path blobPath(String pDigest) {
+        return storeDirectory.resolve(BLOBS_DIR_NAME)
+                .resolve(pDigest.substring(0, 2)).resolve(pDigest);
+    }
+
+    private boolean isLinkedToStore(Path pFile, IndexEntry pEntry,
+            BasicFileAttributes pAttributes) throws IOException {
+        if (pEntry == null || !pEntry.matches(pAttributes)) {
+            return false;
+        }
+        Path blob = blobPath(pEntry.digest);
+        return Files.exists(blob) && Files.isSameFile(pFile, blob);
+    }
+
+    /**
+     * Replaces every regular file found in the cache directory by a hard link
+     * to its blob in the store, adding the missing blobs to the store.
+     *
+     * @param pCacheDirectory
+     *                            the per-project cache directory.
+     * @return the statistics of this execution.
+     * @throws IOException
+     *                         when the store or the cache directory could not
+     *                         be accessed.
+     */
+    public Statistics link(Path pCacheDirectory) throws IOException {
+        Statistics statistics = new Statistics();
+        if (!Files.isDirectory(pCacheDirectory)) {
+            return statistics;
+        }
+        Map<String, IndexEntry> previousIndex = readIndex();
+        Map<String, IndexEntry> index = new TreeMap<>();
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(pCacheDirectory)) {
+            files = stream.filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            String key = pCacheDirectory.relativize(file).toString()
+                    .replace('\\', '/');
+            BasicFileAttributes attributes = Files.readAttributes(file,
+                    BasicFileAttributes.class);
+            IndexEntry entry = previousIndex.get(key);
+
+            if (isLinkedToStore(file, entry, attributes)) {
+                statistics.hits++;
+                index.put(key, entry);
+                continue;
+            }
+
+            // a file unlinked for a rewrite that did not happen keeps the
+            // digest recorded in the index.
+            String digest = entry != null && entry.matches(attributes)
+                    ? entry.digest
+                    : FileContents.sha256(file);
+            Path blob = blobPath(digest);
+            if (Files.notExists(blob)) {
+                store(file, blob);
+                statistics.stored++;
+            }
+
+            if (Files.isSameFile(file, blob) || replaceByLink(file, blob)) {
+                statistics.linked++;
+                statistics.bytesShared += attributes.size();
+            } else {
+                statistics.copied++;
+            }
+            BasicFileAttributes current = Files.readAttributes(file,
+                    BasicFileAttributes.class);
+            index.put(key, new IndexEntry(current.size(),
+                    current.lastModifiedTime().toMillis(), digest));
+        }
+
+        writeIndex(index);
+        return statistics;
+    }
+
+    /**
+     * Replaces every file of the cache directory that is linked to the store
+     * by a private and writable copy of its blob, keeping its modification
+     * time, so it can be rewritten in place without changing the blob. The
+     * next {@link #link(Path)} links the files again.
+     *
+     * @param pCacheDirectory
+     *                            the per-project cache directory.
+     * @return how many files were replaced.
+     * @throws IOException
+     *                         when the store or the cache directory could not
+     *                         be accessed.
+     */
+    public int unlink(Path pCacheDirectory) throws IOException {
+        int unlinked = 0;
+        for (Map.Entry<String, IndexEntry> entry : readIndex().entrySet()) {
+            Path file = pCacheDirectory.resolve(entry.getKey());
+            Path blob = blobPath(entry.getValue().digest);
+            if (!Files.isRegularFile(file) || !Files.exists(blob)
+                    || !Files.isSameFile(file, blob)) {
+                continue;
+            }
+            Path temporary = file
+                    .resolveSibling(file.getFileName().toString() + ".copy");
+            try {
+                Files.copy(blob, temporary,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES);
+                PosixFileAttributeView posix = Files.getFileAttributeView(
+                        temporary, PosixFileAttributeView.class);
+                if (posix != null) {
+                    Set<PosixFilePermission> permissions = posix
+                            .readAttributes().permissions();
+                    permissions.add(PosixFilePermission.OWNER_WRITE);
+                    posix.setPermissions(permissions);
+                } else {
+                    temporary.toFile().setWritable(true, true);
+                }
+                Files.move(temporary, file,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            unlinked++;
+        }
+        return unlinked;
+    }
+
+    private Map<String, IndexEntry> readIndex() throws IOException {
+        Map<String, IndexEntry> index = new TreeMap<>();
+        if (!Files.isRegularFile(indexFile)) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile,
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(INDEX_SEPARATOR);
+                if (parts.length != 4) {
+                    continue;
+                }
+                try {
+                    index.put(parts[0],
+                            new IndexEntry(Long.parseLong(parts[1]),
+                                    Long.parseLong(parts[2]), parts[3]));
+                } catch (NumberFormatException e) {
+                    // a corrupted line only costs a new digest computation.
+                }
+            }
+        }
+        return index;
+    }
+
+    private boolean replaceByLink(Path pFile, Path pBlob) throws IOException {
+        Path temporary = pFile
+                .resolveSibling(pFile.getFileName().toString() + ".link");
+        try {
+            Files.deleteIfExists(temporary);
+            Files.createLink(temporary, pBlob);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.deleteIfExists(temporary);
+            return false;
+        }
+        Files.move(temporary, pFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    /**
+     * Adds a copy of the file to the store, so the blob never shares the
+     * data of the caller's file, which is then replaced by a link to it.
+     */
+    private void store(Path pFile, Path pBlob) throws IOException {
+        Files.createDirectories(pBlob.getParent());
+        Path temporary = Files.createTempFile(pBlob.getParent(),
+                pBlob.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(pFile, temporary, StandardCopyOption.REPLACE_EXISTING);
+            // blobs are shared by many projects, so they must never be
+            // changed in place through one of its links.
+            PosixFileAttributeView posix = Files.getFileAttributeView(
+                    temporary, PosixFileAttributeView.class);
+            if (posix != null) {
+                posix.setPermissions(EnumSet.of(
+                        PosixFilePermission.OWNER_READ,
+                        PosixFilePermission.GROUP_READ,
+                        PosixFilePermission.OTHERS_READ));
+            }
+            Files.move(temporary, pBlob, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // stored by a concurrent build in the meantime.
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void writeIndex(Map<String, IndexEntry> pIndex)
+            throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        List<String> lines = new ArrayList<>(pIndex.size());
+        for (Map.Entry<String, IndexEntry> entry : pIndex.entrySet()) {
+            lines.add(entry.getKey() + INDEX_SEPARATOR + entry.getValue().size
+                    + INDEX_SEPARATOR + entry.getValue().lastModified
+                    + INDEX_SEPARATOR + entry.getValue().digest);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(indexFile,
+                StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+}
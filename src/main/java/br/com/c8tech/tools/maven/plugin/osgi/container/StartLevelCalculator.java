@@ -0,0 +1,170 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Calculates the start levels of bundles from their dependency graph.
+ * <p>
+ * Each bundle is placed after all the bundles it depends on: its depth is the
+ * length of the longest dependency chain below it, and bundles depending on
+ * each other in a cycle share the same depth. Each depth gets its own start
+ * level, and when there are more depths than the informed number of tiers
+ * consecutive depths are merged. So bundles that are independent of each
+ * other land on the same start level and the framework can start them
+ * together.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+public final class StartLevelCalculator {
+
+    private StartLevelCalculator() {
+    }
+
+    /**
+     * @param pDependencies
+     *                          the names of the bundles each bundle depends
+     *                          on, as calculated by
+     *                          {@link ResolutionChecker#getDependencies()}.
+     *                          Names not used as keys are ignored.
+     * @param pFirstLevel
+     *                          the start level of the bundles without
+     *                          dependencies.
+     * @param pTiers
+     *                          how many start levels can be used, starting at
+     *                          the first one.
+     * @return the start level of each bundle, in the informed order.
+     */
+    public static Map<String, Integer> calculate(
+            Map<String, Set<String>> pDependencies, int pFirstLevel,
+            int pTiers) {
+        Map<String, Integer> components = findComponents(pDependencies);
+
+        // longest path over the graph of the strongly connected components;
+        // they are numbered in reverse topological order, dependencies first.
+        int count = components.values().stream().mapToInt(i -> i + 1).max()
+                .orElse(0);
+        List<List<String>> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            members.add(new ArrayList<>());
+        }
+        components.forEach((bundle, component) -> members.get(component)
+                .add(bundle));
+        int[] depths = new int[count];
+        for (int component = 0; component < count; component++) {
+            for (String bundle : members.get(component)) {
+                for (String dependency : pDependencies.get(bundle)) {
+                    Integer other = components.get(dependency);
+                    if (other != null && other != component) {
+                        depths[component] = Math.max(depths[component],
+                                depths[other] + 1);
+                    }
+                }
+            }
+        }
+        int maxDepth = 0;
+        for (int depth : depths) {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        // one level per depth, unless there are more depths than tiers
+        int tiers = Math.min(Math.max(1, pTiers), maxDepth + 1);
+        Map<String, Integer> levels = new LinkedHashMap<>();
+        for (String bundle : pDependencies.keySet()) {
+            int depth = depths[components.get(bundle)];
+            levels.put(bundle, pFirstLevel
+                    + (int) ((long) depth * tiers / (maxDepth + 1)));
+        }
+        return levels;
+    }
+
+    /**
+     * Finds the strongly connected components with the Tarjan's algorithm,
+     * iteratively to not overflow the stack on long chains.
+     */
+    private static Map<String, Integer> findComponents(
+            Map<String, Set<String>> pDependencies) {
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Map<String, Integer> components = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = Collections.newSetFromMap(new HashMap<>());
+        int counter = 0;
+        int componentCounter = 0;
+
+        for (String root : pDependencies.keySet()) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            Deque<String> path = new ArrayDeque<>();
+            Deque<Iterator<String>> pending = new ArrayDeque<>();
+            index.put(root, counter);
+            lowLink.put(root, counter++);
+            stack.push(root);
+            onStack.add(root);
+            path.push(root);
+            pending.push(pDependencies.get(root).iterator());
+
+            while (!path.isEmpty()) {
+                String node = path.peek();
+                Iterator<String> edges = pending.peek();
+                if (edges.hasNext()) {
+                    String next = edges.next();
+                    if (!pDependencies.containsKey(next)) {
+                        continue;
+                    }
+                    if (!index.containsKey(next)) {
+                        index.put(next, counter);
+                        lowLink.put(next, counter++);
+                        stack.push(next);
+                        onStack.add(next);
+                        path.push(next);
+                        pending.push(pDependencies.get(next).iterator());
+                    } else
+                        if (onStack.contains(next)) {
+                            lowLink.put(node,
+                                    Math.min(lowLink.get(node), index.get(next)));
+                        }
+                    continue;
+                }
+                path.pop();
+                pending.pop();
+                if (!path.isEmpty()) {
+                    String parent = path.peek();
+                    lowLink.put(parent,
+                            Math.min(lowLink.get(parent), lowLink.get(node)));
+                }
+                if (lowLink.get(node).equals(index.get(node))) {
+                    String member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        components.put(member, componentCounter);
+                    } while (!member.equals(node));
+                    componentCounter++;
+                }
+            }
+        }
+        return components;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the headers of the tar entries produced by the plugin.
+ * <p>
+ * The headers follow the ustar format, with a pax extended header only for
+ * paths or sizes that do not fit in it. The owner is always root, so the
+ * same input produces the same bytes on every machine.
+ *
+ * @author Cristiano Gavião
+ *
+ */
+final class TarHeaders {
+
+    static final int BLOCK_SIZE = 512;
+
+    static final char DIRECTORY = '5';
+
+    static final char FILE = '0';
+
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private TarHeaders() {
+    }
+
+    private static void putOctal(byte[] pHeader, int pOffset, int pLength,
+            long pValue) {
+        String octal = Long.toOctalString(pValue);
+        int digits = pLength - 1;
+        int padding = digits - octal.length();
+        for (int i = 0; i < padding; i++) {
+            pHeader[pOffset + i] = '0';
+        }
+        for (int i = 0; i < octal.length(); i++) {
+            pHeader[pOffset + padding + i] = (byte) octal.charAt(i);
+        }
+        pHeader[pOffset + digits] = 0;
+    }
+
+    private static void putString(byte[] pHeader, int pOffset, byte[] pValue) {
+        System.arraycopy(pValue, 0, pHeader, pOffset, pValue.length);
+    }
+
+    private static String paxRecord(String pKey, String pValue) {
+        String body = " " + pKey + "=" + pValue + "\n";
+        int bodyLength = body.getBytes(StandardCharsets.UTF_8).length;
+        int length = bodyLength + Integer.toString(bodyLength).length();
+        if (Integer.toString(length).length() + bodyLength != length) {
+            length++;
+        }
+        return length + body;
+    }
+
+    /**
+     * Finds where a path must be split into the ustar prefix and name fields.
+     *
+     * @return 0 when the path fits in the name field, the position of the
+     *         separating slash or -1 when the path does not fit in a ustar
+     *         header.
+     */
+    private static int ustarSplit(String pName) {
+        if (pName.getBytes(StandardCharsets.UTF_8).length <= 100) {
+            return 0;
+        }
+        int split = pName.lastIndexOf('/', pName.length() - 2);
+        while (split > 0) {
+            if (pName.substring(0, split)
+                    .getBytes(StandardCharsets.UTF_8).length <= 155
+                    && pName.substring(split + 1).getBytes(
+                            StandardCharsets.UTF_8).length <= 100) {
+                return split;
+            }
+            split = pName.lastIndexOf('/', split - 1);
+        }
+        return -1;
+    }
+
+    private static byte[] tarHeader(String pName, char pType, int pMode,
+            long pSize, long pLastModified) {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] name = pName.getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = null;
+        int split = ustarSplit(pName);
+        if (split > 0) {
+            prefix = pName.substring(0, split)
+                    .getBytes(StandardCharsets.UTF_8);
+            name = pName.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+        } else
+            if (split < 0) {
+                // the real name is provided by a pax header
+                name = Arrays.copyOf(name, 100);
+            }
+        putString(header, 0, name);
+        putOctal(header, 100, 8, pMode);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, Math.min(pSize, MAX_OCTAL_SIZE));
+        putOctal(header, 136, 12, pLastModified / 1000);
+        header[156] = (byte) pType;
+        putString(header, 257, "ustar\0".getBytes(StandardCharsets.US_ASCII));
+        putString(header, 263, "00".getBytes(StandardCharsets.US_ASCII));
+        putString(header, 265, "root".getBytes(StandardCharsets.US_ASCII));
+        putString(header, 297, "root".getBytes(StandardCharsets.US_ASCII));
+        if (prefix != null) {
+            putString(header, 345, prefix);
+        }
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+        return header;
+    }
+
+    /**
+     * Writes the header of an entry, preceded by a pax extended header when
+     * needed.
+     *
+     * @param pOut
+     *                          the tar stream.
+     * @param pName
+     *                          the path of the entry.
+     * @param pType
+     *                          {@link #FILE} or {@link #DIRECTORY}.
+     * @param pMode
+     *                          the unix permissions.
+     * @param pSize
+     *                          the size of the entry's content.
+     * @param pLastModified
+     *                          the modification time in milliseconds.
+     * @throws IOException
+     *                         when the stream could not be written.
+     */
+    static void writeHeader(OutputStream pOut, String pName, char pType,
+            int pMode, long pSize, long pLastModified) throws IOException {
+        Map<String, String> pax = new LinkedHashMap<>();
+        if (ustarSplit(pName) < 0) {
+            pax.put("path", pName);
+        }
+        if (pSize > MAX_OCTAL_SIZE) {
+            pax.put("size", Long.toString(pSize));
+        }
+        if (!pax.isEmpty()) {
+            StringBuilder records = new StringBuilder();
+            for (Map.Entry<String, String> item : pax.entrySet()) {
+                records.append(paxRecord(item.getKey(), item.getValue()));
+            }
+            byte[] content = records.toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            pOut.write(tarHeader(
+                    "PaxHeaders/" + Integer.toHexString(pName.hashCode()), 'x',
+                    0644, content.length, pLastModified));
+            pOut.write(content);
+            writePadding(pOut, content.length);
+        }
+        pOut.write(tarHeader(pName, pType, pMode, pSize, pLastModified));
+    }
+
+    /**
+     * Writes the end of archive marker: two empty blocks.
+     *
+     * @param pOut
+     *                 the tar stream.
+     * @throws IOException
+     *                         when the stream could not be written.
+     */
+    static void writeEnd(OutputStream pOut) throws IOException {
+        pOut.write(new byte[BLOCK_SIZE * 2]);
+    }
+
+    static void writePadding(OutputStream pOut, long pLength)
+            throws IOException {
+        int remainder = (int) (pLength % BLOCK_SIZE);
+        if (remainder != 0) {
+            pOut.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.ArtifactLockFile;
+
+public class ArtifactLockFileUnitTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testEntriesAreWrittenSortedAndReadBack() throws IOException {
+        Path file = tempFolder.getRoot().toPath()
+                .resolve(ArtifactLockFile.DEFAULT_FILE_NAME);
+        ArtifactLockFile lock = new ArtifactLockFile("abc", Arrays.asList(
+                new ArtifactLockFile.Entry("plugins/scr.jar", "02",
+                        "org.apache.felix:org.apache.felix.scr:jar:2.1.16"),
+                new ArtifactLockFile.Entry("bin/plugins/felix.jar", "01",
+                        "org.apache.felix:org.apache.felix.framework:jar:6.0.2")));
+
+        assertThat(lock.write(file)).isTrue();
+        assertThat(lock.write(file)).isFalse();
+
+        ArtifactLockFile read = ArtifactLockFile.read(file);
+        assertThat(read.getInputs()).isEqualTo("abc");
+        assertThat(read.getEntries()).extracting(ArtifactLockFile.Entry::getPath)
+                .containsExactly("bin/plugins/felix.jar", "plugins/scr.jar");
+        assertThat(read.getEntries().get(1).getSha256()).isEqualTo("02");
+        assertThat(read.getEntries().get(1).getCoordinates())
+                .isEqualTo("org.apache.felix:org.apache.felix.scr:jar:2.1.16");
+    }
+
+    @Test
+    public void testInvalidLockFilesAreRejected() throws IOException {
+        Path noInputs = tempFolder.newFile("no-inputs.lock").toPath();
+        Files.write(noInputs, Collections.singletonList("01 a.jar g:a:jar:1"),
+                StandardCharsets.UTF_8);
+        assertThatThrownBy(() -> ArtifactLockFile.read(noInputs))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("no inputs digest");
+
+        Path badEntry = tempFolder.newFile("bad-entry.lock").toPath();
+        Files.write(badEntry, Arrays.asList("inputs=abc", "01 a.jar"),
+                StandardCharsets.UTF_8);
+        assertThatThrownBy(() -> ArtifactLockFile.read(badEntry))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("line 2");
+    }
+
+    @Test
+    public void testEntriesAreTurnedIntoResolvedArtifacts() throws IOException {
+        Path file = tempFolder.newFile("scr.jar").toPath();
+        Artifact artifact = new ArtifactLockFile.Entry("plugins/scr.jar", "02",
+                "org.apache.felix:org.apache.felix.scr:jar:tests:2.1.16")
+                        .toArtifact("runtime", new DefaultArtifactHandler("jar"),
+                                file.toFile());
+
+        assertThat(artifact.getDependencyConflictId())
+                .isEqualTo("org.apache.felix:org.apache.felix.scr:jar:tests");
+        assertThat(artifact.getVersion()).isEqualTo("2.1.16");
+        assertThat(artifact.getScope()).isEqualTo("runtime");
+        assertThat(artifact.getFile()).isEqualTo(file.toFile());
+        assertThat(artifact.isResolved()).isTrue();
+        assertThatThrownBy(() -> new ArtifactLockFile.Entry("a.jar", "01",
+                "g:a").toArtifact("compile", null, null))
+                        .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.BuildMetrics;
+
+public class BuildMetricsUnitTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testCountersAndDerivedThroughput() {
+        BuildMetrics metrics = new BuildMetrics("cacheArtifacts", "default");
+        metrics.add("artifacts", 3);
+        metrics.add("artifacts", 2);
+        metrics.add("compressionBytes", 4 * 1024 * 1024);
+        metrics.add("compressionMillis", 2000);
+
+        assertThat(metrics.get("artifacts")).isEqualTo(5);
+        assertThat(metrics.get("unknown")).isZero();
+
+        Map<String, Object> finished = metrics.finish(true);
+        assertThat(finished).containsEntry("artifacts", 5L)
+                .containsEntry("compressionMegabytesPerSecond", 2.0d)
+                .containsEntry("success", true)
+                .containsKeys("wallTimeMillis", "startTime");
+    }
+
+    @Test
+    public void testReportsAreMergedAcrossGoals() throws IOException {
+        Path json = tempFolder.getRoot().toPath()
+                .resolve(BuildMetrics.JSON_FILE_NAME);
+        Path prometheus = tempFolder.getRoot().toPath()
+                .resolve(BuildMetrics.PROMETHEUS_FILE_NAME);
+
+        BuildMetrics cache = new BuildMetrics("cacheArtifacts", "default");
+        cache.add("cacheHits", 7);
+        cache.finish(true);
+        cache.writeTo("g:a", json, null);
+        assertThat(prometheus).doesNotExist();
+
+        BuildMetrics push = new BuildMetrics("pushDocker", "release");
+        push.add("pushMillis", 1500);
+        push.finish(false);
+        push.writeTo("g:a", json, prometheus);
+
+        JsonObject report = new JsonParser()
+                .parse(new String(Files.readAllBytes(json),
+                        StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        assertThat(report.get("project").getAsString()).isEqualTo("g:a");
+        JsonObject goals = report.getAsJsonObject("goals");
+        assertThat(goals.keySet()).containsOnly("cacheArtifacts@default",
+                "pushDocker@release");
+        assertThat(goals.getAsJsonObject("cacheArtifacts@default")
+                .get("cacheHits").getAsLong()).isEqualTo(7);
+
+        String text = new String(Files.readAllBytes(prometheus),
+                StandardCharsets.UTF_8);
+        assertThat(text).contains(
+                "# TYPE osgi_container_goal_cache_hits gauge\n",
+                "osgi_container_goal_cache_hits{project=\"g:a\",goal=\"cacheArtifacts\",execution=\"default\"} 7\n",
+                "osgi_container_goal_push_millis{project=\"g:a\",goal=\"pushDocker\",execution=\"release\"} 1500\n",
+                "osgi_container_goal_success{project=\"g:a\",goal=\"pushDocker\",execution=\"release\"} 0\n");
+    }
+}
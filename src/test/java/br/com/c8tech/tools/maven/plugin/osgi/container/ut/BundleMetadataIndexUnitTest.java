@@ -0,0 +1,115 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.BundleMetadata;
+import br.com.c8tech.tools.maven.plugin.osgi.container.BundleMetadataIndex;
+
+public class BundleMetadataIndexUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path copyJar(String pName) throws Exception {
+        Path source = Paths.get(getClass().getResource("/jars/" + pName).toURI());
+        Path target = temporaryFolder.getRoot().toPath().resolve(pName);
+        Files.copy(source, target);
+        return target;
+    }
+
+    @Test
+    public void testUnchangedJarIsNotReopenedAfterReload() throws Exception {
+        Path jar = copyJar("aBundle.jar");
+        Path indexFile = temporaryFolder.getRoot().toPath()
+                .resolve("work/bundle-metadata.idx");
+
+        BundleMetadataIndex index = BundleMetadataIndex.load(indexFile);
+        BundleMetadata metadata = index.get(jar);
+        index.save();
+
+        assertThat(metadata.getSymbolicName())
+                .isEqualTo("br.com.c8tech.bundle");
+        assertThat(metadata.getVersion()).isEqualTo("1.1.0");
+        assertThat(index.getManifestReads()).isEqualTo(1);
+
+        BundleMetadataIndex reloaded = BundleMetadataIndex.load(indexFile);
+        BundleMetadata cached = reloaded.get(jar);
+
+        assertThat(reloaded.getManifestReads()).isEqualTo(0);
+        assertThat(cached.getSymbolicName())
+                .isEqualTo(metadata.getSymbolicName());
+        assertThat(cached.getVersion()).isEqualTo(metadata.getVersion());
+    }
+
+    @Test
+    public void testTouchedJarWithSameContentIsNotReopened() throws Exception {
+        Path jar = copyJar("anotherBundle.jar");
+        Path indexFile = temporaryFolder.getRoot().toPath().resolve("idx");
+
+        BundleMetadataIndex index = BundleMetadataIndex.load(indexFile);
+        index.get(jar);
+        index.save();
+
+        Files.setLastModifiedTime(jar,
+                FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+
+        BundleMetadataIndex reloaded = BundleMetadataIndex.load(indexFile);
+        assertThat(reloaded.get(jar).getSymbolicName())
+                .isEqualTo("br.com.c8tech.anotherBundle");
+        assertThat(reloaded.getManifestReads()).isEqualTo(0);
+    }
+
+    @Test
+    public void testJarWithoutBundleHeadersIsIndexedAsNotABundle()
+            throws Exception {
+        Path jar = copyJar("aNonValidBundle.jar");
+        BundleMetadataIndex index = BundleMetadataIndex
+                .load(temporaryFolder.getRoot().toPath().resolve("idx"));
+
+        assertThat(index.get(jar).isBundle()).isFalse();
+    }
+
+    @Test
+    public void testCopiedJarSharesTheManifestButNotTheStartLevel()
+            throws Exception {
+        Path jar = copyJar("aBundle.jar");
+        Path copy = temporaryFolder.newFolder("copy").toPath()
+                .resolve("aBundle.jar");
+        Files.copy(jar, copy);
+        Path indexFile = temporaryFolder.getRoot().toPath().resolve("idx");
+
+        BundleMetadataIndex index = BundleMetadataIndex.load(indexFile);
+        index.get(jar);
+        index.setStartLevel(jar, 3);
+        index.save();
+
+        BundleMetadataIndex reloaded = BundleMetadataIndex.load(indexFile);
+        assertThat(reloaded.get(jar).getSymbolicName())
+                .isEqualTo("br.com.c8tech.bundle");
+        assertThat(reloaded.getStartLevel(jar)).isEqualTo(3);
+        assertThat(reloaded.get(copy).getVersion()).isEqualTo("1.1.0");
+        assertThat(reloaded.getManifestReads()).isEqualTo(0);
+        assertThat(reloaded.getStartLevel(copy)).isEqualTo(0);
+        assertThat(reloaded.getStartLevel(jar)).isEqualTo(3);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.spotify.docker.client.auth.RegistryAuthSupplier;
+import com.spotify.docker.client.messages.RegistryAuth;
+import com.spotify.docker.client.messages.RegistryConfigs;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.CachingRegistryAuthSupplier;
+
+public class CachingRegistryAuthSupplierUnitTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final RegistryAuthSupplier delegate = new RegistryAuthSupplier() {
+
+        @Override
+        public RegistryAuth authFor(String pImageName) {
+            calls.incrementAndGet();
+            return pImageName.startsWith("registry.example.com/")
+                    ? RegistryAuth.builder().username("user")
+                            .password("token-" + calls.get()).build()
+                    : null;
+        }
+
+        @Override
+        public RegistryConfigs authForBuild() {
+            calls.incrementAndGet();
+            return RegistryConfigs.create(Collections.emptyMap());
+        }
+
+        @Override
+        public RegistryAuth authForSwarm() {
+            calls.incrementAndGet();
+            return null;
+        }
+    };
+
+    @Test
+    public void testCredentialsAreKeptPerRegistry() throws Exception {
+        CachingRegistryAuthSupplier supplier = new CachingRegistryAuthSupplier(
+                delegate, 1000, now::get);
+
+        RegistryAuth auth = supplier.authFor("registry.example.com/osgi/app:1.0");
+        assertThat(supplier.authFor("registry.example.com/osgi/other:2.0"))
+                .isSameAs(auth);
+        assertThat(supplier.authFor("osgi/app:1.0")).isNull();
+        assertThat(supplier.authFor("osgi/other")).isNull();
+        supplier.authForBuild();
+        supplier.authForBuild();
+        supplier.authForSwarm();
+
+        assertThat(calls).hasValue(4);
+        assertThat(supplier.getLoads()).isEqualTo(4);
+    }
+
+    @Test
+    public void testCredentialsAreRefreshedAfterTheTimeToLive()
+            throws Exception {
+        CachingRegistryAuthSupplier supplier = new CachingRegistryAuthSupplier(
+                delegate, 1000, now::get);
+        String image = "registry.example.com/osgi/app:1.0";
+
+        assertThat(supplier.authFor(image).password()).isEqualTo("token-1");
+        now.set(999);
+        assertThat(supplier.authFor(image).password()).isEqualTo("token-1");
+        now.set(1000);
+        assertThat(supplier.authFor(image).password()).isEqualTo("token-2");
+        assertThat(calls).hasValue(2);
+    }
+}
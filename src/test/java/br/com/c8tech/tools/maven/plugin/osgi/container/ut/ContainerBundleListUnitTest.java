@@ -0,0 +1,146 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.BundleMetadataIndex;
+import br.com.c8tech.tools.maven.plugin.osgi.container.ContainerBundleList;
+import br.com.c8tech.tools.maven.plugin.osgi.container.OrderedPropertiesFile;
+
+public class ContainerBundleListUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path copyJar(String pName) throws Exception {
+        Path source = Paths
+                .get(getClass().getResource("/jars/" + pName).toURI());
+        Path target = temporaryFolder.getRoot().toPath().resolve(pName);
+        Files.copy(source, target);
+        return target;
+    }
+
+    private ContainerBundleList newContainerBundleList(
+            BundleMetadataIndex pIndex, Path pCalculated, Path pDeclared,
+            Path pInstalled) throws Exception {
+        for (Path jar : new Path[] { pCalculated, pDeclared, pInstalled }) {
+            assertThat(pIndex.get(jar).isBundle()).isTrue();
+        }
+        ContainerBundleList bundles = new ContainerBundleList(pIndex,
+                Collections.singletonMap("a.jar", 2));
+        bundles.add(pCalculated, "a.jar", 5);
+        bundles.add(pDeclared, "b.jar", 3);
+        bundles.add(pInstalled, "c.jar", 0);
+        return bundles;
+    }
+
+    @Test
+    public void testEquinoxBundlesAreAppendedWithTheirStartLevels()
+            throws Exception {
+        BundleMetadataIndex index = BundleMetadataIndex
+                .load(temporaryFolder.getRoot().toPath().resolve("idx"));
+        Path a = copyJar("aBundle.jar");
+        Path b = copyJar("anotherBundle.jar");
+        Path c = copyJar("aTransitiveDependencyBundle.jar");
+        OrderedPropertiesFile properties = OrderedPropertiesFile
+                .create(StandardCharsets.UTF_8);
+        properties.setProperty("osgi.bundles", "existent.jar@1:start");
+
+        newContainerBundleList(index, a, b, c).applyToEquinox(properties);
+
+        assertThat(properties.getProperty("osgi.bundles")).isEqualTo(
+                "existent.jar@1:start,bundles/a.jar@2:start,bundles/b.jar@start:3,bundles/c.jar");
+        assertThat(index.getStartLevel(a)).isEqualTo(2);
+        assertThat(index.getStartLevel(b)).isEqualTo(3);
+        assertThat(index.getStartLevel(c)).isEqualTo(0);
+    }
+
+    @Test
+    public void testFelixBundlesAreGroupedByTheirStartLevels()
+            throws Exception {
+        BundleMetadataIndex index = BundleMetadataIndex
+                .load(temporaryFolder.getRoot().toPath().resolve("idx"));
+        Path a = copyJar("aBundle.jar");
+        Path b = copyJar("anotherBundle.jar");
+        Path c = copyJar("aTransitiveDependencyBundle.jar");
+        OrderedPropertiesFile properties = OrderedPropertiesFile
+                .create(StandardCharsets.UTF_8);
+
+        newContainerBundleList(index, a, b, c).applyToFelix(properties, 4);
+
+        assertThat(properties.getProperty("felix.auto.start.2"))
+                .isEqualTo("file:./bundles/a.jar");
+        assertThat(properties.getProperty("felix.auto.start.3"))
+                .isEqualTo("file:./bundles/b.jar");
+        assertThat(properties.getProperty("felix.auto.install.4"))
+                .isEqualTo("file:./bundles/c.jar");
+        assertThat(index.getStartLevel(c)).isEqualTo(4);
+    }
+
+    @Test
+    public void testFelixBundlesAreKeptAfterTheDeclaredOnes()
+            throws Exception {
+        BundleMetadataIndex index = BundleMetadataIndex
+                .load(temporaryFolder.getRoot().toPath().resolve("idx"));
+        Path a = copyJar("aBundle.jar");
+        Path b = copyJar("anotherBundle.jar");
+        Path c = copyJar("aTransitiveDependencyBundle.jar");
+        OrderedPropertiesFile properties = OrderedPropertiesFile
+                .create(StandardCharsets.UTF_8);
+        properties.setProperty("felix.auto.start.3",
+                "file:./bundles/existent.jar");
+
+        newContainerBundleList(index, a, b, c).applyToFelix(properties, 4);
+
+        assertThat(properties.getProperty("felix.auto.start.3")).isEqualTo(
+                "file:./bundles/existent.jar file:./bundles/b.jar");
+    }
+
+    @Test
+    public void testManyFelixBundlesKeepTheirOrder() throws Exception {
+        BundleMetadataIndex index = BundleMetadataIndex
+                .load(temporaryFolder.getRoot().toPath().resolve("idx"));
+        Path jar = copyJar("aBundle.jar");
+        index.get(jar);
+        ContainerBundleList bundles = new ContainerBundleList(index,
+                Collections.emptyMap());
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            bundles.add(jar, "bundle" + i + ".jar", 1 + i % 5);
+            if (i % 5 == 0) {
+                expected.append(expected.length() > 0 ? " " : "")
+                        .append("file:./bundles/bundle").append(i)
+                        .append(".jar");
+            }
+        }
+        OrderedPropertiesFile properties = OrderedPropertiesFile
+                .create(StandardCharsets.UTF_8);
+
+        bundles.applyToFelix(properties, 4);
+
+        assertThat(properties.getProperty("felix.auto.start.1"))
+                .isEqualTo(expected.toString());
+        assertThat(properties.getProperty("felix.auto.start.5").split(" "))
+                .hasSize(2_000);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.ContainerLauncher;
+import br.com.c8tech.tools.maven.plugin.osgi.container.LaunchFingerprint;
+
+public class ContainerLauncherUnitTest {
+
+    /**
+     * Stands for a container: it loads some classes, prints a message and
+     * waits to be stopped.
+     */
+    public static final class Container {
+
+        public static void main(String[] args) throws Exception {
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> System.out.println("stopped")));
+            System.out.println(new java.util.concurrent.ConcurrentSkipListMap<>()
+                    .getClass().getName());
+            Thread.sleep(Long.parseLong(args[0]));
+        }
+    }
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * The class loading log of the launcher requires a Java 9 or newer JVM.
+     */
+    private static void assumeUnifiedLogging() {
+        Assume.assumeFalse("The unified JVM log requires Java 9",
+                System.getProperty("java.specification.version")
+                        .startsWith("1."));
+    }
+
+    private ContainerLauncher newLauncher(Path pOutput, String pSleepMillis) {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString();
+        return new ContainerLauncher(temporaryFolder.getRoot().toPath(),
+                Arrays.asList(java, "-cp",
+                        System.getProperty("java.class.path"),
+                        Container.class.getName(), pSleepMillis))
+                                .setOutputFile(pOutput).setQuietPeriod(500)
+                                .setTimeout(30000);
+    }
+
+    @Test
+    public void testContainerIsStartedAndStoppedCleanly() throws Exception {
+        assumeUnifiedLogging();
+        Path output = temporaryFolder.getRoot().toPath().resolve("out.log");
+
+        ContainerLauncher.Run run = newLauncher(output, "60000")
+                .run(Collections.singletonList("-Xshare:off"));
+
+        assertThat(run.isStarted()).isTrue();
+        assertThat(run.getLoadedClasses()).isGreaterThan(100);
+        assertThat(run.getStartupMillis()).isGreaterThan(0);
+        assertThat(new String(Files.readAllBytes(output),
+                StandardCharsets.UTF_8)).contains("ConcurrentSkipListMap")
+                        .contains("stopped");
+    }
+
+    @Test
+    public void testContainerExitingByItselfIsNotStarted() throws Exception {
+        assumeUnifiedLogging();
+        ContainerLauncher.Run run = newLauncher(null, "0")
+                .run(Collections.emptyList());
+
+        assertThat(run.isStarted()).isFalse();
+        assertThat(run.getExitCode()).isEqualTo(0);
+        assertThat(run.getLoadedClasses()).isGreaterThan(0);
+    }
+
+    @Test
+    public void testUptimeIsParsedFromTheUnifiedLog() {
+        assertThat(ContainerLauncher.parseUptime(
+                "[0.123s] java.lang.Object source: shared objects file"))
+                        .isEqualTo(123);
+        assertThat(ContainerLauncher.parseUptime("[12,5s] a.B source: jrt:/"))
+                .isEqualTo(12_500);
+        assertThat(ContainerLauncher.parseUptime("[3.0004s] a.B"))
+                .isEqualTo(3_000);
+        assertThat(ContainerLauncher.parseUptime("a.B source: jrt:/ [1.0s]"))
+                .isEqualTo(-1);
+        assertThat(ContainerLauncher.parseUptime("")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testLaunchIsOnlySkippedForAnUpToDateOutput() throws Exception {
+        Path output = temporaryFolder.getRoot().toPath().resolve("storage");
+        LaunchFingerprint fingerprint = new LaunchFingerprint(temporaryFolder
+                .getRoot().toPath().resolve("prewarm/fingerprint"));
+
+        assertThat(fingerprint.isUpToDate(output, "abc")).isFalse();
+        fingerprint.record("abc");
+        assertThat(fingerprint.isUpToDate(output, "abc")).isFalse();
+
+        Files.createDirectories(output);
+        assertThat(fingerprint.isUpToDate(output, "abc")).isTrue();
+        assertThat(fingerprint.isUpToDate(output, "abd")).isFalse();
+
+        fingerprint.record("abd");
+        assertThat(fingerprint.isUpToDate(output, "abd")).isTrue();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.ContainerPomArtifactsCache;
+
+public class ContainerPomArtifactsCacheUnitTest {
+
+    private File bundle;
+
+    private Path directory;
+
+    private final AtomicInteger resolutions = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ContainerPomArtifactsCache newCache(
+            ContainerPomArtifactsCache.SessionStore pStore) {
+        return new ContainerPomArtifactsCache(pStore, directory,
+                DefaultArtifactHandler::new);
+    }
+
+    private Set<Artifact> resolve() {
+        resolutions.incrementAndGet();
+        Artifact artifact = new DefaultArtifact("org.apache.felix",
+                "org.apache.felix.scr", VersionRange.createFromVersion("2.1.16"),
+                "compile", "bundle", null, new DefaultArtifactHandler("bundle"));
+        artifact.setFile(bundle);
+        artifact.setDependencyTrail(Arrays.asList(
+                "br.com.c8tech.releng:fpom-deps-felix:pom:0.9.1",
+                "org.apache.felix:org.apache.felix.scr:bundle:2.1.16"));
+        return new LinkedHashSet<>(Arrays.asList(artifact));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        bundle = tempFolder.newFile("scr.jar");
+        directory = tempFolder.getRoot().toPath().resolve("container-pom");
+    }
+
+    @Test
+    public void testArtifactsAreResolvedOncePerSessionAndPersisted()
+            throws MojoExecutionException, MojoFailureException {
+        ContainerPomArtifactsCache.SessionStore store = new ContainerPomArtifactsCache.SessionStore();
+        ContainerPomArtifactsCache cache = newCache(store);
+
+        Set<Artifact> first = cache.get("key", true, this::resolve);
+        assertThat(cache.getLastSource()).isNull();
+        first.iterator().next().setScope("test");
+
+        Set<Artifact> second = cache.get("key", true, this::resolve);
+        assertThat(cache.getLastSource()).isEqualTo("session");
+        assertThat(second.iterator().next().getScope()).isEqualTo("compile");
+
+        ContainerPomArtifactsCache nextBuild = newCache(
+                new ContainerPomArtifactsCache.SessionStore());
+        Set<Artifact> persisted = nextBuild.get("key", true, this::resolve);
+        assertThat(nextBuild.getLastSource()).isEqualTo("disk");
+        assertThat(resolutions).hasValue(1);
+
+        Artifact artifact = persisted.iterator().next();
+        assertThat(artifact.getId())
+                .isEqualTo("org.apache.felix:org.apache.felix.scr:bundle:2.1.16");
+        assertThat(artifact.getScope()).isEqualTo("compile");
+        assertThat(artifact.getFile()).isEqualTo(bundle.getAbsoluteFile());
+        assertThat(artifact.getDependencyTrail()).hasSize(2);
+    }
+
+    @Test
+    public void testStaleAndSnapshotResolutionsAreNotReused()
+            throws MojoExecutionException, MojoFailureException, IOException {
+        newCache(new ContainerPomArtifactsCache.SessionStore()).get("release",
+                true, this::resolve);
+        newCache(new ContainerPomArtifactsCache.SessionStore())
+                .get("snapshot", false, this::resolve);
+        assertThat(directory.resolve("snapshot.artifacts")).doesNotExist();
+
+        Files.delete(bundle.toPath());
+        ContainerPomArtifactsCache cache = newCache(
+                new ContainerPomArtifactsCache.SessionStore());
+        cache.get("release", true, this::resolve);
+        assertThat(cache.getLastSource()).isNull();
+        assertThat(resolutions).hasValue(3);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.descriptor.Parameter;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.junit.Test;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.Container;
+import br.com.c8tech.tools.maven.plugin.osgi.container.Distribution;
+
+public class DistributionUnitTest {
+
+    private static Xpp3Dom element(String pName, String pValue) {
+        Xpp3Dom element = new Xpp3Dom(pName);
+        element.setValue(pValue);
+        return element;
+    }
+
+    private static MojoDescriptor newMojoDescriptor() throws Exception {
+        MojoDescriptor descriptor = new MojoDescriptor();
+        descriptor.setGoal("cacheMavenArtifacts");
+        for (String name : new String[] { "container", "cacheDirectory",
+                "containerPomDependenciesGAV", "workDirectory" }) {
+            Parameter parameter = new Parameter();
+            parameter.setName(name);
+            parameter.setType("java.lang.String");
+            if (name.equals("workDirectory")) {
+                parameter.setDefaultValue("${project.build.directory}/work");
+            }
+            descriptor.addParameter(parameter);
+        }
+        return descriptor;
+    }
+
+    @Test
+    public void testModuleConfigurationIsOverridden() throws Exception {
+        Xpp3Dom module = new Xpp3Dom("configuration");
+        module.addChild(element("container", "FELIX"));
+        module.addChild(element("cacheDirectory", "/module/cache"));
+        module.addChild(element("tag", "latest"));
+
+        Distribution distribution = new Distribution();
+        distribution.setId("equinox");
+        distribution.setContainer(Container.EQUINOX);
+        Map<String, String> overrides = distribution.getOverrides();
+        overrides.put("sharedCacheEnabled", "true");
+
+        Xpp3Dom configuration = Distribution.configure(module, overrides,
+                newMojoDescriptor());
+
+        assertThat(configuration.getChild("container").getValue())
+                .isEqualTo("EQUINOX");
+        assertThat(configuration.getChild("cacheDirectory").getValue())
+                .isEqualTo("/module/cache");
+        assertThat(configuration.getChild("workDirectory")
+                .getAttribute("default-value"))
+                        .isEqualTo("${project.build.directory}/work");
+        // only the parameters of the goal are configured
+        assertThat(configuration.getChild("tag")).isNull();
+        assertThat(configuration.getChild("sharedCacheEnabled")).isNull();
+        assertThat(configuration.getChildren("container")).hasSize(1);
+        assertThat(module.getChild("container").getValue()).isEqualTo("FELIX");
+    }
+
+    @Test
+    public void testOnlyConfiguredValuesAreOverridden() throws Exception {
+        Distribution distribution = new Distribution();
+        distribution.setId("felix");
+        assertThat(distribution.getOverrides()).isEmpty();
+
+        distribution.setContainerPomDependenciesGAV(
+                "br.com.c8tech.releng:fpom-deps-felix:pom:1.0.0");
+        Xpp3Dom configuration = Distribution.configure(null,
+                distribution.getOverrides(), newMojoDescriptor());
+        assertThat(configuration.getChild("containerPomDependenciesGAV")
+                .getValue())
+                        .isEqualTo("br.com.c8tech.releng:fpom-deps-felix:pom:1.0.0");
+        assertThat(configuration.getChild("container")).isNull();
+        assertThat(Distribution.configure(null, Collections.emptyMap(),
+                newMojoDescriptor()).getChildCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPropertyExpressionsAreKept() throws Exception {
+        MojoDescriptor descriptor = newMojoDescriptor();
+        Parameter verbose = new Parameter();
+        verbose.setName("verbose");
+        verbose.setType("boolean");
+        verbose.setExpression("${osgi.container.verbose}");
+        verbose.setDefaultValue("false");
+        descriptor.addParameter(verbose);
+
+        Xpp3Dom configuration = Distribution.configure(null,
+                Collections.emptyMap(), descriptor);
+
+        assertThat(configuration.getChild("verbose").getValue())
+                .isEqualTo("${osgi.container.verbose}");
+        assertThat(configuration.getChild("verbose")
+                .getAttribute("default-value")).isEqualTo("false");
+        assertThat(configuration.getChild("workDirectory").getValue())
+                .isNull();
+        assertThat(configuration.getChild("container")).isNull();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.DockerBuildContext;
+
+public class DockerBuildContextUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path buildDir;
+
+    private Path contextDir;
+
+    private List<String> contextFiles() throws Exception {
+        try (Stream<Path> stream = Files.walk(contextDir)) {
+            return stream.filter(Files::isRegularFile)
+                    .map(p -> contextDir.relativize(p).toString()
+                            .replace('\\', '/'))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        buildDir = temporaryFolder.newFolder("target").toPath();
+        contextDir = buildDir.resolve("docker-context");
+        write("classes/Foo.class", "class");
+        write("app-1.0.tar.gz", "archive");
+        write("docker-layers/runtime/bin/felix.jar", "framework");
+        write("docker-layers/application/bundles/app.jar", "bundle");
+        write("docker-layers/application/bundles/app.jar.bak", "backup");
+        write("Dockerfile", "ARG ZIP_FILE\n"
+                + "ARG LAYERS_DIR=docker-layers\n"
+                + "FROM openjdk:11-jre-alpine\n"
+                + "# COPY classes/ /opt/\n"
+                + "ADD ${ZIP_FILE} /opt/\n"
+                + "COPY --chown=1000 $LAYERS_DIR/runtime/ \\\n"
+                + "     /opt/share/\n"
+                + "COPY [\"docker-layers/application/\", \"/opt/share/\"]\n"
+                + "COPY --from=builder /app /opt/\n"
+                + "ADD https://example.com/file.txt /opt/\n");
+    }
+
+    @Test
+    public void testOnlyReferencedFilesAreLinked() throws Exception {
+        DockerBuildContext.Result result = new DockerBuildContext(buildDir,
+                contextDir, null).prepare("Dockerfile",
+                        Collections.singletonMap("ZIP_FILE", "app-1.0.tar.gz"));
+
+        assertThat(contextFiles()).containsExactly("Dockerfile",
+                "app-1.0.tar.gz", "docker-layers/application/bundles/app.jar",
+                "docker-layers/application/bundles/app.jar.bak",
+                "docker-layers/runtime/bin/felix.jar");
+        assertThat(result.getFiles()).isEqualTo(5);
+        assertThat(result.getUpdated()).isEqualTo(5);
+        assertThat(Files.isSameFile(contextDir.resolve("app-1.0.tar.gz"),
+                buildDir.resolve("app-1.0.tar.gz"))).isTrue();
+    }
+
+    @Test
+    public void testDockerIgnorePatternsAreApplied() throws Exception {
+        Path ignoreFile = write("../.dockerignore",
+                "# backups\n**/*.bak\ndocker-layers/runtime\n"
+                        + "!docker-layers/runtime/bin/felix.jar\n");
+
+        DockerBuildContext context = new DockerBuildContext(buildDir,
+                contextDir, ignoreFile);
+        DockerBuildContext.Result result = context.prepare("Dockerfile",
+                Collections.singletonMap("ZIP_FILE", "app-1.0.tar.gz"));
+
+        assertThat(contextFiles()).containsExactly(".dockerignore",
+                "Dockerfile", "app-1.0.tar.gz",
+                "docker-layers/application/bundles/app.jar",
+                "docker-layers/runtime/bin/felix.jar");
+        assertThat(result.getIgnored()).isEqualTo(1);
+        assertThat(context.isIgnored("docker-layers/runtime/lib/x.jar"))
+                .isTrue();
+    }
+
+    @Test
+    public void testEmptyLayerDirectoriesAreKept() throws Exception {
+        Files.createDirectories(buildDir.resolve("docker-layers/repository"));
+        write("Dockerfile", "FROM openjdk:11-jre-alpine\n"
+                + "COPY docker-layers/runtime/ /opt/share/\n"
+                + "COPY docker-layers/repository/ /opt/share/\n");
+        DockerBuildContext context = new DockerBuildContext(buildDir,
+                contextDir, null);
+
+        DockerBuildContext.Result result = context.prepare("Dockerfile",
+                Collections.emptyMap());
+        assertThat(result.getFiles()).isEqualTo(2);
+        assertThat(contextDir.resolve("docker-layers/repository"))
+                .isDirectory();
+
+        // not taken as a stale directory by a following preparation
+        context.prepare("Dockerfile", Collections.emptyMap());
+        assertThat(contextDir.resolve("docker-layers/repository"))
+                .isDirectory();
+        assertThat(contextFiles()).containsExactly("Dockerfile",
+                "docker-layers/runtime/bin/felix.jar");
+    }
+
+    @Test
+    public void testStaleFilesAreRemovedAndUnchangedOnesKept()
+            throws Exception {
+        DockerBuildContext context = new DockerBuildContext(buildDir,
+                contextDir, null);
+        context.prepare("Dockerfile",
+                Collections.singletonMap("ZIP_FILE", "app-1.0.tar.gz"));
+        write("app-1.1.tar.gz", "new archive");
+
+        DockerBuildContext.Result result = context.prepare("Dockerfile",
+                Collections.singletonMap("ZIP_FILE", "app-1.1.tar.gz"));
+
+        assertThat(contextFiles()).contains("app-1.1.tar.gz")
+                .doesNotContain("app-1.0.tar.gz");
+        assertThat(result.getUpdated()).isEqualTo(1);
+        assertThat(result.getRemoved()).isEqualTo(1);
+    }
+
+    private Path write(String pPath, String pContent) throws Exception {
+        Path file = buildDir.resolve(pPath).normalize();
+        Files.createDirectories(file.getParent());
+        Files.write(file, pContent.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
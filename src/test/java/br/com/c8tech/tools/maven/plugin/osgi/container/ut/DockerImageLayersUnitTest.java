@@ -0,0 +1,115 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.DockerImageLayers;
+import br.com.c8tech.tools.maven.plugin.osgi.container.DockerImageLayers.Layer;
+
+public class DockerImageLayersUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path cache;
+
+    private Path layersDir;
+
+    private DockerImageLayers newLayers() throws Exception {
+        DockerImageLayers layers = new DockerImageLayers(layersDir);
+        layers.addDirectory(Layer.RUNTIME, "bin",
+                cache.resolve("bin/plugins"));
+        layers.addDirectory("bundles", cache.resolve("plugins"),
+                file -> file.getFileName().toString().startsWith("my.")
+                        ? Layer.APPLICATION
+                        : Layer.DEPENDENCIES);
+        layers.addDirectory(Layer.REPOSITORY, "repository",
+                cache.resolve("repository"));
+        layers.addDirectory(Layer.CONFIGURATION, "conf",
+                cache.resolve("config"));
+        return layers;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cache = temporaryFolder.newFolder("cache").toPath();
+        layersDir = temporaryFolder.getRoot().toPath().resolve("layers");
+        write("bin/plugins/felix.jar", "framework");
+        write("plugins/org.apache.felix.scr.jar", "scr");
+        write("plugins/my.app.core.jar", "core");
+        write("config/config.properties", "a=b");
+    }
+
+    @Test
+    public void testBundlesAreSplitBetweenDependenciesAndApplication()
+            throws Exception {
+        DockerImageLayers.Statistics statistics = newLayers().stage();
+
+        assertThat(layersDir.resolve("runtime/bin/felix.jar")).exists();
+        assertThat(layersDir
+                .resolve("dependencies/bundles/org.apache.felix.scr.jar"))
+                        .exists();
+        assertThat(layersDir.resolve("application/bundles/my.app.core.jar"))
+                .exists();
+        assertThat(layersDir.resolve("configuration/conf/config.properties"))
+                .exists();
+        assertThat(layersDir.resolve("repository")).isDirectory();
+        assertThat(statistics.getFiles(Layer.DEPENDENCIES)).isEqualTo(1);
+        assertThat(statistics.getFiles(Layer.REPOSITORY)).isEqualTo(0);
+    }
+
+    @Test
+    public void testOnlyTheChangedLayerIsUpdated() throws Exception {
+        newLayers().stage();
+        Files.delete(cache.resolve("plugins/my.app.core.jar"));
+        write("plugins/my.app.core.jar", "core changed");
+
+        DockerImageLayers.Statistics statistics = newLayers().stage();
+
+        assertThat(statistics.isChanged(Layer.APPLICATION)).isTrue();
+        assertThat(statistics.isChanged(Layer.RUNTIME)).isFalse();
+        assertThat(statistics.isChanged(Layer.DEPENDENCIES)).isFalse();
+        assertThat(statistics.isChanged(Layer.CONFIGURATION)).isFalse();
+        assertThat(new String(
+                Files.readAllBytes(layersDir
+                        .resolve("application/bundles/my.app.core.jar")),
+                StandardCharsets.UTF_8)).isEqualTo("core changed");
+    }
+
+    @Test
+    public void testRemovedFilesAreRemovedFromTheLayers() throws Exception {
+        newLayers().stage();
+        Files.delete(cache.resolve("plugins/org.apache.felix.scr.jar"));
+
+        DockerImageLayers.Statistics statistics = newLayers().stage();
+
+        assertThat(statistics.getRemoved()).isEqualTo(1);
+        assertThat(statistics.isChanged(Layer.DEPENDENCIES)).isTrue();
+        assertThat(layersDir.resolve("dependencies/bundles")).doesNotExist();
+    }
+
+    private void write(String pPath, String pContent) throws Exception {
+        Path file = cache.resolve(pPath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, pContent.getBytes(StandardCharsets.UTF_8));
+    }
+}
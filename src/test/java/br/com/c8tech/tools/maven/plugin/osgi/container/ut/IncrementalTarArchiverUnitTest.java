@@ -0,0 +1,217 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.ArchiveFormat;
+import br.com.c8tech.tools.maven.plugin.osgi.container.IncrementalTarArchiver;
+
+public class IncrementalTarArchiverUnitTest {
+
+    private static final String LONG_NAME = "bundles/"
+            + "a.very.long.bundle.symbolic.name.used.to.exceed.the.ustar.limits."
+            + "of.one.hundred.characters.and.more.and.more.and.more.and.more."
+            + "and.more-1.0.0.jar";
+
+    private Path archive;
+
+    private List<IncrementalTarArchiver.Entry> entries;
+
+    private Path manifest;
+
+    private Path source;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Map<String, String> readArchive(Path pArchive)
+            throws Exception {
+        return readArchive(pArchive, ArchiveFormat.TAR_GZ);
+    }
+
+    private static Map<String, String> readArchive(Path pArchive,
+            ArchiveFormat pFormat) throws Exception {
+        Map<String, String> content = new LinkedHashMap<>();
+        InputStream in = Files.newInputStream(pArchive);
+        if (pFormat == ArchiveFormat.TAR_GZ) {
+            in = new GZIPInputStream(in);
+        } else
+            if (pFormat == ArchiveFormat.TAR_ZST) {
+                in = new ZstdInputStream(in);
+            }
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(in)) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = tar.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                content.put(entry.getName(),
+                        new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return content;
+    }
+
+    private Path newFile(String pName, String pContent) throws Exception {
+        Path file = source.resolve(pName);
+        Files.createDirectories(file.getParent());
+        Files.write(file, pContent.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        source = temporaryFolder.newFolder("source").toPath();
+        archive = temporaryFolder.getRoot().toPath().resolve("target/a.tar.gz");
+        manifest = temporaryFolder.getRoot().toPath()
+                .resolve("work/a.manifest");
+        entries = new ArrayList<>();
+        entries.add(IncrementalTarArchiver.Entry.directory("bundles",
+                source, 0755));
+        entries.add(IncrementalTarArchiver.Entry.file("bundles/a.jar",
+                newFile("a.jar", "content of a"), 0644));
+        entries.add(IncrementalTarArchiver.Entry.file(LONG_NAME,
+                newFile("long.jar", "content of the long one"), 0644));
+        entries.add(IncrementalTarArchiver.Entry.file(
+                "conf/config.properties",
+                newFile("config.properties", "a=1"), 0644));
+    }
+
+    @Test
+    public void testArchiveIsReadableByTarTools() throws Exception {
+        new IncrementalTarArchiver(manifest).createArchive(entries, archive);
+
+        Map<String, String> content = readArchive(archive);
+
+        assertThat(content).containsOnlyKeys("bundles/", "bundles/a.jar",
+                LONG_NAME, "conf/config.properties");
+        assertThat(content.get("bundles/a.jar")).isEqualTo("content of a");
+        assertThat(content.get(LONG_NAME)).isEqualTo("content of the long one");
+    }
+
+    @Test
+    public void testUncompressedAndZstdArchivesAreUpdatedIncrementally()
+            throws Exception {
+        for (ArchiveFormat format : new ArchiveFormat[] { ArchiveFormat.TAR,
+                ArchiveFormat.TAR_ZST }) {
+            Path target = archive.resolveSibling("a." + format.getExtension());
+            new IncrementalTarArchiver(manifest, format).createArchive(entries,
+                    target);
+            Path config = source.resolve("config.properties");
+            Files.write(config,
+                    format.getExtension().getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(config, FileTime
+                    .fromMillis(Files.getLastModifiedTime(config).toMillis()
+                            + 60_000));
+
+            IncrementalTarArchiver.Result result = new IncrementalTarArchiver(
+                    manifest, format).createArchive(entries, target);
+
+            assertThat(result.getCompressed()).as(format.getExtension())
+                    .isEqualTo(1);
+            Map<String, String> content = readArchive(target, format);
+            assertThat(content.get("conf/config.properties"))
+                    .isEqualTo(format.getExtension());
+            assertThat(content.get(LONG_NAME))
+                    .isEqualTo("content of the long one");
+        }
+    }
+
+    @Test
+    public void testNothingChangedSkipsTheArchive() throws Exception {
+        new IncrementalTarArchiver(manifest).createArchive(entries, archive);
+        FileTime created = Files.getLastModifiedTime(archive);
+
+        IncrementalTarArchiver.Result result = new IncrementalTarArchiver(
+                manifest).createArchive(entries, archive);
+
+        assertThat(result.isSkipped()).isTrue();
+        assertThat(Files.getLastModifiedTime(archive)).isEqualTo(created);
+    }
+
+    @Test
+    public void testOnlyChangedEntriesAreCompressedAgain() throws Exception {
+        new IncrementalTarArchiver(manifest).createArchive(entries, archive);
+
+        Path config = source.resolve("config.properties");
+        Files.write(config, "a=2".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(config,
+                FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        IncrementalTarArchiver.Result result = new IncrementalTarArchiver(
+                manifest).createArchive(entries, archive);
+
+        assertThat(result.isSkipped()).isFalse();
+        assertThat(result.getCompressed()).isEqualTo(1);
+        assertThat(result.getReused()).isEqualTo(3);
+        Map<String, String> content = readArchive(archive);
+        assertThat(content.get("conf/config.properties")).isEqualTo("a=2");
+        assertThat(content.get("bundles/a.jar")).isEqualTo("content of a");
+    }
+
+    @Test
+    public void testExecutableFilesKeepTheirMode() throws Exception {
+        Path java = newFile("runtime/jre/bin/java", "#!/bin/sh");
+        Assume.assumeNotNull(Files.getFileAttributeView(java,
+                PosixFileAttributeView.class));
+        Files.setPosixFilePermissions(java,
+                PosixFilePermissions.fromString("rwxr-xr-x"));
+        Path readme = newFile("runtime/README", "readme");
+        Files.setPosixFilePermissions(readme,
+                PosixFilePermissions.fromString("rw-r-----"));
+        List<IncrementalTarArchiver.Entry> runtime = new ArrayList<>();
+        runtime.add(IncrementalTarArchiver.Entry.file("runtime/jre/bin/java",
+                java, IncrementalTarArchiver.modeOf(java, 0644)));
+        runtime.add(IncrementalTarArchiver.Entry.file("runtime/README",
+                readme, IncrementalTarArchiver.modeOf(readme, 0644)));
+
+        new IncrementalTarArchiver(manifest).createArchive(runtime, archive);
+
+        Map<String, Integer> modes = new LinkedHashMap<>();
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(
+                new GZIPInputStream(Files.newInputStream(archive)))) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                modes.put(entry.getName(), entry.getMode() & 07777);
+            }
+        }
+        assertThat(modes).containsEntry("runtime/jre/bin/java", 0755)
+                .containsEntry("runtime/README", 0640);
+    }
+}
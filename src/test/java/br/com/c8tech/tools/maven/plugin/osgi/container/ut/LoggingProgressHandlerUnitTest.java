@@ -0,0 +1,151 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import com.spotify.docker.client.messages.ProgressDetail;
+import com.spotify.docker.client.messages.ProgressMessage;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.LoggingProgressHandler;
+
+public class LoggingProgressHandlerUnitTest {
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final SystemStreamLog log = new SystemStreamLog() {
+
+        @Override
+        public void info(CharSequence pContent) {
+            lines.add(pContent.toString());
+        }
+    };
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private static ProgressDetail detail(long pCurrent, long pTotal) {
+        return new ProgressDetail() {
+
+            @Override
+            public Long current() {
+                return pCurrent;
+            }
+
+            @Override
+            public Long start() {
+                return null;
+            }
+
+            @Override
+            public Long total() {
+                return pTotal;
+            }
+        };
+    }
+
+    private static ProgressMessage pushing(String pId, long pCurrent,
+            long pTotal) {
+        return ProgressMessage.builder().id(pId).status("Pushing")
+                .progress("[=>    ]").progressDetail(detail(pCurrent, pTotal))
+                .build();
+    }
+
+    private List<String> summaries() {
+        return lines.stream().filter(line -> line.startsWith("Progress:"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testLayersAreAggregated() throws Exception {
+        LoggingProgressHandler handler = new LoggingProgressHandler(log,
+                true, 2000, now::get);
+
+        handler.progress(pushing("a", 5 * MEGABYTE, 10 * MEGABYTE));
+        handler.progress(pushing("b", 2 * MEGABYTE, 10 * MEGABYTE));
+        handler.progress(pushing("a", 6 * MEGABYTE, 10 * MEGABYTE));
+        handler.progress(ProgressMessage.builder().id("a").status("Pushed")
+                .progressDetail(detail(0, 0)).build());
+
+        assertThat(handler.layers()).isEqualTo(2);
+        assertThat(handler.totalBytes()).isEqualTo(20 * MEGABYTE);
+        assertThat(handler.transferredBytes()).isEqualTo(12 * MEGABYTE);
+        assertThat(lines).containsExactly("Image a: Pushing",
+                "Image b: Pushing", "Image a: Pushed");
+    }
+
+    @Test
+    public void testRemainingTimeIsEstimatedFromTheRate() throws Exception {
+        LoggingProgressHandler handler = new LoggingProgressHandler(log,
+                true, 2000, now::get);
+
+        handler.progress(pushing("a", MEGABYTE, 10 * MEGABYTE));
+        now.set(3000);
+        handler.progress(pushing("a", 3 * MEGABYTE, 10 * MEGABYTE));
+
+        assertThat(summaries()).containsExactly(
+                "Progress: 30% of 10.0 MB in 1 layers, 1.5 MB/s, ETA 5 s");
+    }
+
+    @Test
+    public void testSummaryIsLoggedOncePerInterval() throws Exception {
+        LoggingProgressHandler handler = new LoggingProgressHandler(log,
+                true, 2000, now::get);
+
+        for (int i = 1; i <= 10; i++) {
+            handler.progress(pushing("a", i * MEGABYTE, 10 * MEGABYTE));
+            now.addAndGet(500);
+        }
+
+        // messages at 1000, 1500, ..., 5500: summaries at 3000 and 5000
+        assertThat(summaries()).hasSize(2);
+        assertThat(lines).filteredOn(line -> line.startsWith("Image a:"))
+                .containsExactly("Image a: Pushing");
+    }
+
+    @Test
+    public void testSummaryIsOnlyLoggedInVerboseMode() throws Exception {
+        LoggingProgressHandler handler = new LoggingProgressHandler(log,
+                false, 2000, now::get);
+
+        for (int i = 1; i <= 10; i++) {
+            handler.progress(pushing("a", i * MEGABYTE, 10 * MEGABYTE));
+            now.addAndGet(500);
+        }
+
+        assertThat(summaries()).isEmpty();
+        assertThat(handler.transferredBytes()).isEqualTo(10 * MEGABYTE);
+    }
+
+    @Test
+    public void testEveryMessageIsLoggedWithoutSummaryInterval()
+            throws Exception {
+        LoggingProgressHandler handler = new LoggingProgressHandler(log,
+                true, 0, now::get);
+
+        handler.progress(pushing("a", MEGABYTE, 10 * MEGABYTE));
+        handler.progress(pushing("a", 2 * MEGABYTE, 10 * MEGABYTE));
+
+        assertThat(lines).containsExactly("Image a: Pushing [=>    ]",
+                "Image a: Pushing [=>    ]");
+        assertThat(summaries()).isEmpty();
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.FileContents;
+import br.com.c8tech.tools.maven.plugin.osgi.container.OciImageBuilder;
+
+public class OciImageBuilderUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SortedMap<String, Path> bundles;
+
+    private SortedMap<String, Path> runtime;
+
+    private static List<String> entryNames(InputStream pIn) throws Exception {
+        List<String> names = new ArrayList<>();
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(pIn)) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                names.add(entry.getName());
+                assertThat(entry.getModTime().getTime()).isEqualTo(0);
+                assertThat(entry.getUserName()).isEqualTo("root");
+            }
+        }
+        return names;
+    }
+
+    private static JsonObject readJson(Path pFile) throws Exception {
+        try (Reader reader = Files.newBufferedReader(pFile,
+                StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(reader, JsonObject.class);
+        }
+    }
+
+    private static Path blob(Path pLayout, String pDigest) {
+        return pLayout.resolve("blobs/sha256")
+                .resolve(pDigest.substring("sha256:".length()));
+    }
+
+    private OciImageBuilder newBuilder(Path pLayout) {
+        return new OciImageBuilder(pLayout)
+                .addLayer("runtime", "/opt/share/app", runtime)
+                .addLayer("dependencies", "/opt/share/app", bundles)
+                .setEnv("PROJECT_PATH", "/opt/share/app")
+                .setWorkingDir("/opt/share/app")
+                .setEntrypoint(Arrays.asList("java", "-jar", "bin/felix.jar"))
+                .addExposedPort("8080");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        runtime = new TreeMap<>();
+        runtime.put("bin/felix.jar", write("cache/bin/felix.jar", "framework"));
+        bundles = new TreeMap<>();
+        bundles.put("bundles/a.jar", write("cache/plugins/a.jar", "a bundle"));
+        bundles.put("bundles/b.jar", write("cache/plugins/b.jar", "b bundle"));
+    }
+
+    @Test
+    public void testLayoutIsValidAndReproducible() throws Exception {
+        Path first = temporaryFolder.getRoot().toPath().resolve("first");
+        Path second = temporaryFolder.getRoot().toPath().resolve("second");
+
+        OciImageBuilder.Result result = newBuilder(first).build("latest");
+        String secondDigest = newBuilder(second).build("latest")
+                .getManifestDigest();
+
+        assertThat(result.getManifestDigest()).isEqualTo(secondDigest);
+        assertThat(first.resolve("oci-layout")).exists();
+        JsonObject index = readJson(first.resolve("index.json"));
+        assertThat(index.getAsJsonArray("manifests").get(0).getAsJsonObject()
+                .get("digest").getAsString())
+                        .isEqualTo(result.getManifestDigest());
+
+        JsonObject manifest = readJson(
+                blob(first, result.getManifestDigest()));
+        JsonObject config = readJson(blob(first, manifest
+                .getAsJsonObject("config").get("digest").getAsString()));
+        JsonArray layers = manifest.getAsJsonArray("layers");
+        JsonArray diffIds = config.getAsJsonObject("rootfs")
+                .getAsJsonArray("diff_ids");
+        assertThat(layers.size()).isEqualTo(2);
+        for (int i = 0; i < layers.size(); i++) {
+            String digest = layers.get(i).getAsJsonObject().get("digest")
+                    .getAsString();
+            Path layer = blob(first, digest);
+            assertThat("sha256:" + FileContents.sha256(layer))
+                    .isEqualTo(digest);
+            Path uncompressed = temporaryFolder.newFile().toPath();
+            try (InputStream in = new GZIPInputStream(
+                    Files.newInputStream(layer))) {
+                Files.copy(in, uncompressed,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            assertThat("sha256:" + FileContents.sha256(uncompressed))
+                    .isEqualTo(diffIds.get(i).getAsString());
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(
+                blob(first, layers.get(0).getAsJsonObject().get("digest")
+                        .getAsString())))) {
+            assertThat(entryNames(in)).containsExactly("opt/", "opt/share/",
+                    "opt/share/app/", "opt/share/app/bin/",
+                    "opt/share/app/bin/felix.jar");
+        }
+        assertThat(config.getAsJsonObject("config").getAsJsonArray("Env")
+                .get(0).getAsString()).isEqualTo("PROJECT_PATH=/opt/share/app");
+    }
+
+    @Test
+    public void testUnchangedLayersAreTakenFromTheCache() throws Exception {
+        Path layout = temporaryFolder.getRoot().toPath().resolve("layout");
+        Path cacheFile = temporaryFolder.getRoot().toPath()
+                .resolve("layers.cache");
+        newBuilder(layout).setLayerCacheFile(cacheFile).build("latest");
+
+        Files.delete(bundles.get("bundles/b.jar"));
+        write("cache/plugins/b.jar", "b bundle changed");
+        OciImageBuilder.Result result = newBuilder(layout)
+                .setLayerCacheFile(cacheFile).build("latest");
+
+        assertThat(result.getReused()).isEqualTo(1);
+        assertThat(result.getWritten()).isEqualTo(1);
+        // the blob of the replaced layer is no longer in the layout
+        try (Stream<Path> blobs = Files
+                .list(layout.resolve("blobs/sha256"))) {
+            assertThat(blobs.count()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void testBaseImageLayersAndConfigurationAreKept()
+            throws Exception {
+        Path base = temporaryFolder.getRoot().toPath().resolve("base");
+        SortedMap<String, Path> jre = new TreeMap<>();
+        jre.put("java", write("jre/java", "#!/bin/sh"));
+        new OciImageBuilder(base).addLayer("jre", "/usr/bin", jre)
+                .setEnv("PATH", "/usr/bin").setEnv("PROJECT_PATH", "/base")
+                .setCmd(Arrays.asList("sh")).build("base");
+        Path layout = temporaryFolder.getRoot().toPath().resolve("layout");
+
+        OciImageBuilder.Result result = newBuilder(layout).setBaseImage(base)
+                .build("latest");
+
+        JsonObject manifest = readJson(
+                blob(layout, result.getManifestDigest()));
+        JsonObject config = readJson(blob(layout, manifest
+                .getAsJsonObject("config").get("digest").getAsString()));
+        assertThat(manifest.getAsJsonArray("layers").size()).isEqualTo(3);
+        assertThat(config.getAsJsonObject("config").getAsJsonArray("Env")
+                .toString()).isEqualTo(
+                        "[\"PATH=/usr/bin\",\"PROJECT_PATH=/opt/share/app\"]");
+        assertThat(config.getAsJsonObject("config").has("Cmd")).isFalse();
+        assertThat(config.getAsJsonArray("history").size()).isEqualTo(3);
+    }
+
+    @Test
+    public void testArchiveCanBeLoadedByDocker() throws Exception {
+        Path layout = temporaryFolder.getRoot().toPath().resolve("layout");
+        Path archive = temporaryFolder.getRoot().toPath().resolve("image.tar");
+        OciImageBuilder builder = newBuilder(layout);
+        builder.build("1.0");
+
+        builder.writeArchive(archive, "foo/app:1.0");
+
+        List<String> names;
+        try (InputStream in = Files.newInputStream(archive)) {
+            names = entryNames(in);
+        }
+        assertThat(names).contains("oci-layout", "index.json",
+                "manifest.json", "blobs/", "blobs/sha256/");
+        assertThat(names.stream().filter(n -> n.startsWith("blobs/sha256/")
+                && n.length() > "blobs/sha256/".length())).hasSize(4);
+    }
+
+    private Path write(String pPath, String pContent) throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve(pPath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, pContent.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
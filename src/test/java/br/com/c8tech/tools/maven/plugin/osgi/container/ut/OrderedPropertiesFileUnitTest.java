@@ -0,0 +1,121 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.OrderedPropertiesFile;
+
+public class OrderedPropertiesFileUnitTest {
+
+    private static final String BASE = "# a comment\n" + "first=1\n" + "\n"
+            + "! another comment\n" + "second = two \\\n" + "    lines\n"
+            + "third:3\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String write(OrderedPropertiesFile pFile) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pFile.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testUnchangedFileIsWrittenVerbatim() throws Exception {
+        OrderedPropertiesFile file = OrderedPropertiesFile
+                .load(new StringReader(BASE), StandardCharsets.UTF_8);
+
+        assertThat(file.getProperty("second")).isEqualTo("two lines");
+        assertThat(file.getPropertyNames()).containsExactly("first", "second",
+                "third");
+        assertThat(write(file)).isEqualTo(BASE);
+    }
+
+    @Test
+    public void testChangedPropertyKeepsItsPositionAndComments()
+            throws Exception {
+        OrderedPropertiesFile file = OrderedPropertiesFile
+                .load(new StringReader(BASE), StandardCharsets.UTF_8);
+        file.setProperty("second", "2");
+        file.remove("third");
+        file.setProperty("fourth", "4");
+
+        assertThat(write(file)).isEqualTo("# a comment\n" + "first=1\n" + "\n"
+                + "! another comment\n" + "second=2\n" + "fourth=4\n");
+    }
+
+    @Test
+    public void testLongListsAreWrappedAndReadBackUnchanged()
+            throws Exception {
+        StringBuilder bundles = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            bundles.append(i == 0 ? "" : " ")
+                    .append("file:./bundles/bundle" + i + "-1.0.0.jar");
+        }
+        String awkward = " leading space, ãccent=and:symbols\\ #  x";
+        OrderedPropertiesFile file = OrderedPropertiesFile
+                .load(new StringReader(""), StandardCharsets.ISO_8859_1);
+        file.setProperty("felix.auto.start.1", bundles.toString());
+        file.setProperty("awkward key", awkward);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        file.writeTo(out);
+        String content = new String(out.toByteArray(),
+                StandardCharsets.ISO_8859_1);
+        Properties properties = new Properties();
+        properties.load(new StringReader(content));
+
+        assertThat(content.split(System.lineSeparator())).hasSizeGreaterThan(10)
+                .allSatisfy(line -> assertThat(line).hasSizeLessThan(100));
+        assertThat(properties.getProperty("felix.auto.start.1"))
+                .isEqualTo(bundles.toString());
+        assertThat(properties.getProperty("awkward key")).isEqualTo(awkward);
+    }
+
+    @Test
+    public void testUnchangedContentDoesNotTouchTheFile() throws Exception {
+        File target = temporaryFolder.newFile("config.properties");
+        OrderedPropertiesFile file = OrderedPropertiesFile
+                .load(new StringReader(BASE), StandardCharsets.UTF_8);
+        file.setProperty("fourth", "4");
+
+        assertThat(file.writeIfChanged(target)).isTrue();
+        FileTime written = FileTime.fromMillis(1_000_000L);
+        Files.setLastModifiedTime(target.toPath(), written);
+
+        OrderedPropertiesFile reloaded;
+        try (InputStream in = Files.newInputStream(target.toPath())) {
+            reloaded = OrderedPropertiesFile.load(in, StandardCharsets.UTF_8);
+        }
+        assertThat(file.isSameContent(target)).isTrue();
+        assertThat(reloaded.writeIfChanged(target)).isFalse();
+        assertThat(Files.getLastModifiedTime(target.toPath()))
+                .isEqualTo(written);
+
+        reloaded.setProperty("fourth", "four");
+        assertThat(reloaded.writeIfChanged(target)).isTrue();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.ParallelArtifactResolver;
+
+public class ParallelArtifactResolverUnitTest {
+
+    private static ParallelArtifactResolver newResolver(int pThreads) {
+        return new ParallelArtifactResolver(null, null, pThreads, 1,
+                new SystemStreamLog());
+    }
+
+    private static boolean isWorkerAlive() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> t.isAlive() && t.getName()
+                        .startsWith("osgi-container-resolver-"));
+    }
+
+    private static void awaitWorkersTermination() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (isWorkerAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(isWorkerAlive()).isFalse();
+    }
+
+    @Test
+    public void testResultsFollowTheTaskOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int value = i;
+            // the first tasks are the slowest ones to complete
+            tasks.add(() -> {
+                Thread.sleep((8 - value) * 10L);
+                return value;
+            });
+        }
+
+        assertThat(newResolver(4).execute(tasks)).containsExactly(0, 1, 2, 3,
+                4, 5, 6, 7);
+        awaitWorkersTermination();
+    }
+
+    @Test
+    public void testFirstFailureIsPropagatedAndThePoolShutDown()
+            throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<Callable<String>> tasks = new ArrayList<>();
+        tasks.add(() -> "ok");
+        tasks.add(() -> {
+            throw new IOException("first");
+        });
+        tasks.add(() -> {
+            blocked.countDown();
+            // only finishes when cancelled by the pool shutdown
+            Thread.sleep(TimeUnit.MINUTES.toMillis(5));
+            return "never";
+        });
+        tasks.add(() -> {
+            throw new IllegalStateException("second");
+        });
+
+        try {
+            newResolver(3).execute(tasks);
+            fail("The failure of a task must be propagated");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IOException.class)
+                    .hasMessage("first");
+        }
+        assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+        awaitWorkersTermination();
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.ParallelGzipOutputStream;
+
+public class ParallelGzipOutputStreamUnitTest {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private static byte[] gunzip(byte[] pCompressed) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(pCompressed))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] sampleData(int pSize) {
+        // text-like content, compressible and with repetitions crossing blocks
+        Random random = new Random(pSize);
+        String[] words = { "bundle", "osgi", "container", "felix", "equinox",
+                "Import-Package", "Export-Package", "version", "1.0.0", ";" };
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pSize);
+        while (out.size() < pSize) {
+            byte[] word = (words[random.nextInt(words.length)] + " ")
+                    .getBytes();
+            out.write(word, 0, Math.min(word.length, pSize - out.size()));
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] compress(byte[] pData) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out,
+                executor, 4, BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION)) {
+            // odd sized writes exercise the block boundaries
+            for (int offset = 0; offset < pData.length; offset += 10_007) {
+                gzip.write(pData, offset,
+                        Math.min(10_007, pData.length - offset));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOutputIsReadByStandardGzip() throws Exception {
+        for (int size : new int[] { 0, 1, BLOCK_SIZE - 1, BLOCK_SIZE,
+                BLOCK_SIZE * 10 + 123 }) {
+            byte[] data = sampleData(size);
+
+            assertThat(gunzip(compress(data))).as("size " + size)
+                    .isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void testCompressionRatioIsCloseToSingleThreadedGzip()
+            throws Exception {
+        byte[] data = sampleData(BLOCK_SIZE * 16);
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(single)) {
+            gzip.write(data);
+        }
+
+        byte[] parallel = compress(data);
+
+        assertThat((double) parallel.length)
+                .isLessThan(single.size() * 1.05);
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.OciImageBuilder;
+import br.com.c8tech.tools.maven.plugin.osgi.container.RegistryImagePusher;
+
+public class RegistryImagePusherUnitTest {
+
+    private static final String PREFIX = "/v2/osgi/app/";
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+    private Path layout;
+
+    private final Map<String, String> manifests = new ConcurrentHashMap<>();
+
+    private HttpServer registry;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final AtomicInteger uploads = new AtomicInteger();
+
+    private static String sha256(byte[] pContent) throws Exception {
+        StringBuilder digest = new StringBuilder("sha256:");
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(pContent)) {
+            digest.append(String.format("%02x", b));
+        }
+        return digest.toString();
+    }
+
+    private static byte[] readBody(HttpExchange pExchange) throws IOException {
+        try (InputStream in = pExchange.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * A minimal stand-in for the Docker Registry HTTP API V2.
+     */
+    private void handle(HttpExchange pExchange) throws IOException {
+        String method = pExchange.getRequestMethod();
+        String path = pExchange.getRequestURI().getPath();
+        String query = pExchange.getRequestURI().getQuery();
+        int status = 404;
+        try {
+            if (path.startsWith(PREFIX + "blobs/uploads/")) {
+                if ("POST".equals(method)) {
+                    pExchange.getResponseHeaders().add("Location",
+                            PREFIX + "blobs/uploads/" + uploads.incrementAndGet());
+                    status = 202;
+                } else {
+                    byte[] content = readBody(pExchange);
+                    String digest = query.substring("digest=".length());
+                    status = digest.equals(sha256(content)) ? 201 : 400;
+                    blobs.put(digest, content);
+                }
+            } else
+                if (path.startsWith(PREFIX + "blobs/")) {
+                    status = blobs.containsKey(
+                            path.substring((PREFIX + "blobs/").length())) ? 200
+                                    : 404;
+                } else
+                    if (path.startsWith(PREFIX + "manifests/")) {
+                        String tag = path
+                                .substring((PREFIX + "manifests/").length());
+                        if ("PUT".equals(method)) {
+                            String digest = sha256(readBody(pExchange));
+                            manifests.put(tag, digest);
+                            pExchange.getResponseHeaders()
+                                    .add("Docker-Content-Digest", digest);
+                            status = 201;
+                        } else
+                            if (manifests.containsKey(tag)) {
+                                pExchange.getResponseHeaders().add(
+                                        "Docker-Content-Digest",
+                                        manifests.get(tag));
+                                status = 200;
+                            }
+                    }
+        } catch (Exception e) {
+            status = 500;
+        }
+        // the server closes the connection after an empty response, so the
+        // client must not keep it for the next requests
+        pExchange.getResponseHeaders().add("Connection", "close");
+        pExchange.sendResponseHeaders(status, -1);
+        pExchange.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        registry = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        registry.createContext("/v2/", this::handle);
+        registry.start();
+
+        SortedMap<String, Path> files = new TreeMap<>();
+        for (int i = 0; i < 3; i++) {
+            Path bundle = tempFolder.newFile("bundle-" + i + ".jar").toPath();
+            Files.write(bundle,
+                    ("bundle " + i).getBytes(StandardCharsets.UTF_8));
+            files.put("bundles/bundle-" + i + ".jar", bundle);
+        }
+        layout = tempFolder.getRoot().toPath().resolve("oci-image");
+        new OciImageBuilder(layout).addLayer("bundles", "/opt/app", files)
+                .build("1.0.0");
+    }
+
+    @After
+    public void tearDown() {
+        registry.stop(0);
+    }
+
+    private RegistryImagePusher newPusher() {
+        return RegistryImagePusher.forRepository(
+                "localhost/osgi/app",
+                "http://127.0.0.1:" + registry.getAddress().getPort())
+                .setConcurrency(2);
+    }
+
+    @Test
+    public void testOnlyMissingBlobsAreUploaded() throws Exception {
+        RegistryImagePusher.Result first = newPusher().push(layout, "1.0.0");
+        String config = blobs.keySet().stream()
+                .filter(digest -> blobs.get(digest).length < 1024).findFirst()
+                .get();
+        blobs.remove(config);
+        manifests.clear();
+
+        RegistryImagePusher.Result second = newPusher().push(layout, "1.0.0");
+        assertThat(second.isSkipped()).isFalse();
+        assertThat(second.getBlobsUploaded()).isEqualTo(1);
+        assertThat(second.getBlobsPresent()).isEqualTo(1);
+        assertThat(second.getUploadedBytes())
+                .isLessThan(first.getUploadedBytes());
+        assertThat(blobs).containsKey(config);
+        assertThat(uploads).hasValue(3);
+    }
+
+    @Test
+    public void testInsufficientScopeIsReportedAsDenied() throws Exception {
+        AtomicInteger tokens = new AtomicInteger();
+        HttpServer denying = HttpServer
+                .create(new InetSocketAddress("127.0.0.1", 0), 0);
+        String url = "http://127.0.0.1:" + denying.getAddress().getPort();
+        denying.createContext("/token", exchange -> {
+            tokens.incrementAndGet();
+            byte[] body = "{\"token\":\"t\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        // pulling is allowed but pushing is always refused
+        denying.createContext("/v2/", exchange -> {
+            exchange.getResponseHeaders().add("Connection", "close");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = "{\"errors\":[{\"code\":\"DENIED\"}]}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("WWW-Authenticate",
+                    "Bearer realm=\"" + url + "/token\",error=\"insufficient_scope\"");
+            exchange.sendResponseHeaders(401, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        denying.start();
+        try {
+            Throwable failure = catchThrowable(() -> RegistryImagePusher
+                    .forRepository("localhost/osgi/app", url)
+                    .setConcurrency(1).push(layout, "1.0.0"));
+
+            assertThat(failure)
+                    .isInstanceOf(RegistryImagePusher.ResponseException.class)
+                    .hasMessageContaining("DENIED");
+            assertThat(((RegistryImagePusher.ResponseException) failure)
+                    .getStatus()).isEqualTo(401);
+            assertThat(tokens).hasValue(1);
+        } finally {
+            denying.stop(0);
+        }
+    }
+
+    @Test
+    public void testUnchangedImageIsNotPushedAgain() throws Exception {
+        RegistryImagePusher.Result first = newPusher().push(layout, "1.0.0");
+        assertThat(first.isSkipped()).isFalse();
+        assertThat(first.getBlobsUploaded()).isEqualTo(2);
+        assertThat(first.getBlobsPresent()).isZero();
+        assertThat(manifests).containsEntry("1.0.0",
+                first.getManifestDigest());
+
+        RegistryImagePusher.Result again = newPusher().push(layout, "1.0.0");
+        assertThat(again.isSkipped()).isTrue();
+        assertThat(again.getManifestDigest())
+                .isEqualTo(first.getManifestDigest());
+        assertThat(uploads).hasValue(2);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.BundleMetadata;
+import br.com.c8tech.tools.maven.plugin.osgi.container.ResolutionChecker;
+
+public class ResolutionCheckerUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File framework(String pName, String pEntry, String pContent)
+            throws Exception {
+        File jar = temporaryFolder.newFile(pName);
+        try (JarOutputStream out = new JarOutputStream(
+                new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(pEntry));
+            out.write(pContent.getBytes(StandardCharsets.ISO_8859_1));
+            out.closeEntry();
+        }
+        return jar;
+    }
+
+    private static BundleMetadata bundle(String pName, String pImport,
+            String pExport) {
+        return new BundleMetadata(pName, "1.0.0", null, pImport, pExport,
+                null, null, null);
+    }
+
+    @Test
+    public void testCapabilityFiltersAndFragments() {
+        ResolutionChecker checker = new ResolutionChecker();
+        checker.addSystemCapabilities(
+                ResolutionChecker.executionEnvironmentCapability("11"));
+        checker.addBundle("scr.jar", new BundleMetadata("scr", "2.1.0", null,
+                null, null, null, null,
+                "osgi.extender;osgi.extender=\"osgi.component\";version:Version=\"1.4\""));
+        checker.addBundle("component.jar", new BundleMetadata("component",
+                "1.0.0", null, null, null, null,
+                "osgi.ee;filter:=\"(&(osgi.ee=JavaSE)(version=1.8))\","
+                        + "osgi.extender;filter:=\"(&(osgi.extender=osgi.component)(version>=1.3)(!(version>=2.0)))\"",
+                null));
+        checker.addBundle("future.jar", new BundleMetadata("future", "1.0.0",
+                null, null, null, null,
+                "osgi.ee;filter:=\"(&(osgi.ee=JavaSE)(version=17))\"", null));
+        checker.addBundle("nls.jar", new BundleMetadata("nls", "1.0.0",
+                "component;bundle-version=\"[1,2)\"", null, null, null, null,
+                null));
+        checker.addBundle("orphan.jar", new BundleMetadata("orphan", "1.0.0",
+                "missing.host", null, null, null, null, null));
+
+        Map<String, List<String>> problems = checker.check();
+
+        assertThat(problems).containsOnlyKeys("future.jar", "orphan.jar");
+        assertThat(problems.get("orphan.jar"))
+                .containsExactly("missing Fragment-Host missing.host");
+    }
+
+    @Test
+    public void testMissingPackageIsReportedAlongTheChain() {
+        ResolutionChecker checker = new ResolutionChecker();
+        checker.addSystemPackages("org.osgi.framework;version=\"1.9\"");
+        checker.addBundle("api.jar", bundle("api",
+                "org.osgi.framework;version=\"[1.8,2)\",missing.pkg", "a.api"));
+        checker.addBundle("impl.jar", bundle("impl",
+                "a.api,org.osgi.framework;version=\"[1.10,2)\";resolution:=optional,"
+                        + "java.util",
+                null));
+        checker.addBundle("standalone.jar",
+                bundle("standalone", "org.osgi.framework", "b.api"));
+
+        Map<String, List<String>> problems = checker.check();
+
+        assertThat(problems).containsOnlyKeys("api.jar", "impl.jar");
+        assertThat(problems.get("api.jar"))
+                .containsExactly("missing Import-Package missing.pkg");
+        assertThat(problems.get("impl.jar")).containsExactly(
+                "missing Import-Package a.api (provided by the unresolved api.jar)");
+    }
+
+    @Test
+    public void testVersionRangesAndMandatoryAttributes() {
+        ResolutionChecker checker = new ResolutionChecker();
+        checker.addBundle("lib.jar", new BundleMetadata("lib", "2.3.0", null,
+                null,
+                "a.lib;version=\"2.3.0\",b.lib;version=\"1.0\";company=acme;mandatory:=company",
+                null, null, null));
+        checker.addBundle("old.jar", bundle("old", "a.lib;version=\"[1,2)\"",
+                null));
+        checker.addBundle("new.jar", bundle("new", "a.lib;version=\"2.1\"",
+                null));
+        checker.addBundle("plain.jar", bundle("plain", "b.lib", null));
+        checker.addBundle("acme.jar",
+                bundle("acme", "b.lib;company=acme", null));
+        checker.addBundle("required.jar", new BundleMetadata("required",
+                "1.0.0", null, null, null,
+                "lib;bundle-version=\"[2,3)\",system.bundle", null, null));
+
+        Map<String, List<String>> problems = checker.check();
+
+        assertThat(problems).containsOnlyKeys("old.jar", "plain.jar");
+        assertThat(problems.get("old.jar")).containsExactly(
+                "missing Import-Package a.lib;version=\"[1.0.0,2.0.0)\"");
+    }
+
+    @Test
+    public void testSystemPackagesAreReadFromTheFramework() throws Exception {
+        File felix = framework("felix.jar", "default.properties",
+                "jre-1.8=javax.net; version=\"0.0.0.1_008_JavaSE\"\n"
+                        + "jre-9=${jre-1.8}, javax.xml.catalog\n");
+        File equinox = framework("equinox.jar", "JavaSE-1.8.profile",
+                "org.osgi.framework.system.packages = javax.annotation,\\\n"
+                        + " javax.net\n");
+
+        assertThat(ResolutionChecker.frameworkSystemPackages(felix.toPath(),
+                "11")).isEqualTo(
+                        "javax.net; version=\"0.0.0.1_008_JavaSE\", javax.xml.catalog");
+        assertThat(ResolutionChecker.frameworkSystemPackages(felix.toPath(),
+                "1.8")).isEqualTo("javax.net; version=\"0.0.0.1_008_JavaSE\"");
+        assertThat(ResolutionChecker.frameworkSystemPackages(equinox.toPath(),
+                "9")).isEqualTo("javax.annotation,javax.net");
+        assertThat(ResolutionChecker.frameworkSystemPackages(equinox.toPath(),
+                "1.7")).isNull();
+
+        ResolutionChecker checker = new ResolutionChecker();
+        checker.addSystemPackages(ResolutionChecker
+                .frameworkSystemPackages(felix.toPath(), "1.8"));
+        checker.addBundle("client.jar",
+                bundle("client", "javax.net,javax.xml.catalog", null));
+        assertThat(checker.check().get("client.jar")).containsExactly(
+                "missing Import-Package javax.xml.catalog");
+    }
+}
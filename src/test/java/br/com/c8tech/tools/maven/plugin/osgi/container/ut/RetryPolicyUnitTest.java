@@ -0,0 +1,136 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.SocketException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.Test;
+
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.DockerRequestException;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.RetryPolicy;
+
+public class RetryPolicyUnitTest {
+
+    private static DockerRequestException requestFailure(int pStatus) {
+        return new DockerRequestException("POST",
+                URI.create("http://localhost/images/push"), pStatus, "",
+                null);
+    }
+
+    @Test
+    public void testDelaysGrowExponentiallyWithJitter() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000)
+                .setRandom(new Random(42));
+        for (int i = 0; i < 50; i++) {
+            assertThat(policy.nextDelay(0)).isBetween(50L, 100L);
+            assertThat(policy.nextDelay(2)).isBetween(200L, 400L);
+            assertThat(policy.nextDelay(8)).isBetween(500L, 1000L);
+        }
+    }
+
+    @Test
+    public void testFailuresAreClassified() {
+        assertThat(RetryPolicy.isRetryable(requestFailure(429))).isTrue();
+        assertThat(RetryPolicy.isRetryable(requestFailure(503))).isTrue();
+        assertThat(RetryPolicy.isRetryable(requestFailure(404))).isFalse();
+        assertThat(RetryPolicy.isRetryable(new MojoExecutionException(
+                "Could not push image",
+                new SocketException("Connection reset")))).isTrue();
+        assertThat(RetryPolicy.isRetryable(new DockerException(
+                "toomanyrequests: Rate exceeded"))).isTrue();
+        assertThat(RetryPolicy.isRetryable(
+                new DockerException("denied: requested access to the "
+                        + "resource is denied"))).isFalse();
+        assertThat(RetryPolicy.isRetryable(
+                new MojoFailureException("Connection reset"))).isFalse();
+    }
+
+    @Test
+    public void testRetryableFailuresAreRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<Long> delays = new ArrayList<>();
+        RetryPolicy policy = new RetryPolicy(3, 2, 10);
+
+        policy.execute(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw requestFailure(502);
+            }
+        }, (retry, delay, failure) -> delays.add(delay));
+
+        assertThat(attempts).hasValue(3);
+        assertThat(delays).hasSize(2);
+        assertThat(policy.getRetries()).isEqualTo(2);
+        assertThat(policy.getWaitedMillis())
+                .isEqualTo(delays.get(0) + delays.get(1));
+
+        AtomicInteger permanent = new AtomicInteger();
+        assertThatThrownBy(() -> new RetryPolicy(3, 2, 10).execute(() -> {
+            permanent.incrementAndGet();
+            throw requestFailure(401);
+        }, null)).isInstanceOf(DockerRequestException.class);
+        assertThat(permanent).hasValue(1);
+    }
+
+    @Test
+    public void testSlowAttemptsAreInterrupted() {
+        AtomicInteger attempts = new AtomicInteger();
+        RetryPolicy policy = new RetryPolicy(1, 1, 1)
+                .setAttemptTimeoutMillis(50);
+
+        assertThatThrownBy(() -> policy.execute(() -> {
+            attempts.incrementAndGet();
+            Thread.sleep(10_000);
+        }, null)).isInstanceOf(TimeoutException.class);
+        assertThat(attempts).hasValue(2);
+        assertThat(policy.getFailedAttemptsMillis()).isLessThan(5_000);
+    }
+
+    @Test
+    public void testAbandonedAttemptsNeverOverlapTheNextOne() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger timeouts = new AtomicInteger();
+        RetryPolicy policy = new RetryPolicy(1, 1, 1)
+                .setAttemptTimeoutMillis(50)
+                .setTimeoutHandler(timeouts::incrementAndGet);
+
+        assertThatThrownBy(() -> policy.execute(() -> {
+            if (running.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            try {
+                // ignores the interrupt, like a blocked socket read.
+                long end = System.nanoTime() + 200_000_000L;
+                while (System.nanoTime() < end) {
+                    Thread.interrupted();
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+        }, null)).isInstanceOf(RetryPolicy.AttemptTimeoutException.class);
+        assertThat(overlaps).hasValue(0);
+        assertThat(timeouts).hasValue(2);
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.FileContents;
+import br.com.c8tech.tools.maven.plugin.osgi.container.SharedBundleStore;
+
+public class SharedBundleStoreUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path newCacheWithBundle(String pProject, String pContent)
+            throws Exception {
+        Path cache = temporaryFolder.getRoot().toPath().resolve(pProject)
+                .resolve("cache/felix/plugins");
+        Files.createDirectories(cache);
+        Files.write(cache.resolve("aBundle-1.0.0.jar"),
+                pContent.getBytes(StandardCharsets.UTF_8));
+        return cache.getParent();
+    }
+
+    @Test
+    public void testIdenticalBundlesOfTwoProjectsShareOneBlob()
+            throws Exception {
+        Path storeDir = temporaryFolder.newFolder("store").toPath();
+        Path cacheA = newCacheWithBundle("projectA", "same content");
+        Path cacheB = newCacheWithBundle("projectB", "same content");
+
+        SharedBundleStore storeA = new SharedBundleStore(storeDir,
+                cacheA.resolveSibling("a.index"));
+        SharedBundleStore storeB = new SharedBundleStore(storeDir,
+                cacheB.resolveSibling("b.index"));
+
+        SharedBundleStore.Statistics first = storeA.link(cacheA);
+        SharedBundleStore.Statistics second = storeB.link(cacheB);
+
+        assertThat(first.getStored()).isEqualTo(1);
+        assertThat(second.getStored()).isEqualTo(0);
+        assertThat(second.getLinked()).isEqualTo(1);
+
+        Path fileA = cacheA.resolve("plugins/aBundle-1.0.0.jar");
+        Path fileB = cacheB.resolve("plugins/aBundle-1.0.0.jar");
+        assertThat(Files.isSameFile(fileA, fileB)).isTrue();
+        assertThat(Files.isSameFile(fileA,
+                storeA.blobPath(FileContents.sha256(fileA)))).isTrue();
+    }
+
+    @Test
+    public void testWarmExecutionOnlyChecksTheIndex() throws Exception {
+        Path storeDir = temporaryFolder.newFolder("store").toPath();
+        Path cache = newCacheWithBundle("project", "some content");
+        SharedBundleStore store = new SharedBundleStore(storeDir,
+                cache.resolveSibling("project.index"));
+
+        store.link(cache);
+        SharedBundleStore.Statistics warm = store.link(cache);
+
+        assertThat(warm.getHits()).isEqualTo(1);
+        assertThat(warm.getLinked()).isEqualTo(0);
+        assertThat(warm.getStored()).isEqualTo(0);
+    }
+
+    @Test
+    public void testDifferentContentIsStoredSeparately() throws Exception {
+        Path storeDir = temporaryFolder.newFolder("store").toPath();
+        Path cacheA = newCacheWithBundle("projectA", "content A");
+        Path cacheB = newCacheWithBundle("projectB", "content B");
+
+        new SharedBundleStore(storeDir, cacheA.resolveSibling("a.index"))
+                .link(cacheA);
+        SharedBundleStore.Statistics second = new SharedBundleStore(storeDir,
+                cacheB.resolveSibling("b.index")).link(cacheB);
+
+        assertThat(second.getStored()).isEqualTo(1);
+        assertThat(Files.isSameFile(cacheA.resolve("plugins/aBundle-1.0.0.jar"),
+                cacheB.resolve("plugins/aBundle-1.0.0.jar"))).isFalse();
+    }
+
+    @Test
+    public void testReplacingACachedFileKeepsTheBlob() throws Exception {
+        Path storeDir = temporaryFolder.newFolder("store").toPath();
+        Path cache = newCacheWithBundle("project", "first content");
+        SharedBundleStore store = new SharedBundleStore(storeDir,
+                cache.resolveSibling("project.index"));
+        Path file = cache.resolve("plugins/aBundle-1.0.0.jar");
+        String digest = FileContents.sha256(file);
+        Path blob = store.blobPath(digest);
+
+        store.link(cache);
+        assertThat(Files.isSameFile(file, blob)).isTrue();
+
+        Path update = temporaryFolder.newFile("update.jar").toPath();
+        Files.write(update, "second content".getBytes(StandardCharsets.UTF_8));
+        Files.copy(update, file, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(FileContents.sha256(blob)).isEqualTo(digest);
+        assertThat(store.link(cache).getStored()).isEqualTo(1);
+        assertThat(Files.isSameFile(file, blob)).isFalse();
+    }
+
+    @Test
+    public void testRecachingAChangedArtifactKeepsTheBlob() throws Exception {
+        Path storeDir = temporaryFolder.newFolder("store").toPath();
+        Path cache = newCacheWithBundle("project", "first snapshot");
+        SharedBundleStore store = new SharedBundleStore(storeDir,
+                cache.resolveSibling("project.index"));
+        Path file = cache.resolve("plugins/aBundle-1.0.0.jar");
+        String digest = FileContents.sha256(file);
+        Path blob = store.blobPath(digest);
+        store.link(cache);
+
+        assertThat(store.unlink(cache)).isEqualTo(1);
+        assertThat(Files.isSameFile(file, blob)).isFalse();
+        // the build context rewrites a changed artifact in place
+        try (RandomAccessFile output = new RandomAccessFile(file.toFile(),
+                "rw")) {
+            output.setLength(0);
+            output.write("second snapshot".getBytes(StandardCharsets.UTF_8));
+        }
+        SharedBundleStore.Statistics statistics = store.link(cache);
+
+        assertThat(FileContents.sha256(blob)).isEqualTo(digest);
+        assertThat(statistics.getStored()).isEqualTo(1);
+        assertThat(Files.isSameFile(file,
+                store.blobPath(FileContents.sha256(file)))).isTrue();
+    }
+
+    @Test
+    public void testUnlinkedFilesAreLinkedAgainWithoutChanges()
+            throws Exception {
+        Path storeDir = temporaryFolder.newFolder("store").toPath();
+        Path cache = newCacheWithBundle("project", "some content");
+        SharedBundleStore store = new SharedBundleStore(storeDir,
+                cache.resolveSibling("project.index"));
+        Path file = cache.resolve("plugins/aBundle-1.0.0.jar");
+        store.link(cache);
+
+        store.unlink(cache);
+        assertThat(Files.isWritable(file)).isTrue();
+        SharedBundleStore.Statistics statistics = store.link(cache);
+
+        assertThat(statistics.getLinked()).isEqualTo(1);
+        assertThat(statistics.getStored()).isEqualTo(0);
+        assertThat(Files.isSameFile(file,
+                store.blobPath(FileContents.sha256(file)))).isTrue();
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * ============================================================================
+ *  Copyright ©  2015-2019,    Cristiano V. Gavião
+ *
+ *  All rights reserved.
+ *  This program and the accompanying materials are made available under
+ *  the terms of the Eclipse Public License v1.0 which accompanies this
+ *  distribution and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * ============================================================================
+ */
+package br.com.c8tech.tools.maven.plugin.osgi.container.ut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import br.com.c8tech.tools.maven.plugin.osgi.container.BundleMetadata;
+import br.com.c8tech.tools.maven.plugin.osgi.container.ResolutionChecker;
+import br.com.c8tech.tools.maven.plugin.osgi.container.StartLevelCalculator;
+
+public class StartLevelCalculatorUnitTest {
+
+    private static void depends(Map<String, Set<String>> pGraph,
+            String pBundle, String... pDependencies) {
+        pGraph.put(pBundle, new LinkedHashSet<>(Arrays.asList(pDependencies)));
+    }
+
+    @Test
+    public void testCyclesShareALevelAndDepthsAreSpreadOverTheTiers() {
+        Map<String, Set<String>> graph = new LinkedHashMap<>();
+        depends(graph, "app", "service", "util");
+        depends(graph, "service", "api", "impl");
+        depends(graph, "api", "impl");
+        depends(graph, "impl", "api", "log");
+        depends(graph, "log");
+        depends(graph, "util", "unknown");
+
+        assertThat(StartLevelCalculator.calculate(graph, 1, 10)).containsOnly(
+                entry("log", 1), entry("util", 1), entry("api", 2),
+                entry("impl", 2), entry("service", 3), entry("app", 4));
+        assertThat(StartLevelCalculator.calculate(graph, 1, 2)).containsOnly(
+                entry("log", 1), entry("util", 1), entry("api", 1),
+                entry("impl", 1), entry("service", 2), entry("app", 2));
+    }
+
+    @Test
+    public void testDependenciesAreTakenFromTheManifests() {
+        ResolutionChecker checker = new ResolutionChecker();
+        checker.addSystemPackages("org.osgi.framework;version=\"1.9\"");
+        checker.addBundle("scr.jar", new BundleMetadata("scr", "2.1.0", null,
+                "org.osgi.framework", "org.osgi.service.component", null,
+                null,
+                "osgi.extender;osgi.extender=\"osgi.component\";version:Version=\"1.4\""));
+        checker.addBundle("slf4j.jar", new BundleMetadata("slf4j", "1.7.0",
+                null, "org.osgi.framework", "org.slf4j", null, null, null));
+        checker.addBundle("component.jar", new BundleMetadata("component",
+                "1.0.0", null,
+                "org.slf4j;resolution:=optional,org.osgi.framework", null,
+                null, "osgi.extender;filter:=\"(osgi.extender=osgi.component)\"",
+                null));
+
+        assertThat(StartLevelCalculator.calculate(checker.getDependencies(),
+                1, 4)).containsOnly(entry("scr.jar", 1),
+                        entry("slf4j.jar", 1), entry("component.jar", 2));
+    }
+}